@@ -16,6 +16,7 @@
 
 package com.jordanwilliams.heftydb.compact;
 
+import com.jordanwilliams.heftydb.data.KeyComparator;
 import com.jordanwilliams.heftydb.state.Tables;
 import com.jordanwilliams.heftydb.table.Table;
 
@@ -52,7 +53,19 @@ public class CompactionTables {
         return eligibleTables;
     }
 
+    public KeyComparator keyComparator() {
+        return tables.keyComparator();
+    }
+
     public void markAsCompacted(Table table){
         alreadyCompactedTables.add(table.id());
     }
+
+    /**
+     * Makes a table eligible for compaction again once it has been moved to another level without being rewritten,
+     * since it keeps its id.
+     */
+    public void markAsRelabeled(Table table){
+        alreadyCompactedTables.remove(table.id());
+    }
 }
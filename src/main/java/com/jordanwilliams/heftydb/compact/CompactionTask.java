@@ -31,6 +31,14 @@ public class CompactionTask {
         HIGH, NORMAL
     }
 
+    /**
+     * MERGE rewrites the tables into a single table on the target level, while RELABEL only changes the level of
+     * each table, which is enough when none of their key ranges overlap.
+     */
+    public enum Type {
+        MERGE, RELABEL
+    }
+
     public static class Builder {
 
         private final List<Table> tables = new ArrayList<Table>();
@@ -54,11 +62,17 @@ public class CompactionTask {
     private final List<Table> tables;
     private final int level;
     private final Priority priority;
+    private final Type type;
 
     public CompactionTask(List<Table> tables, int level, Priority priority) {
+        this(tables, level, priority, Type.MERGE);
+    }
+
+    public CompactionTask(List<Table> tables, int level, Priority priority, Type type) {
         this.tables = tables;
         this.level = level;
         this.priority = priority;
+        this.type = type;
     }
 
     public List<Table> tables() {
@@ -73,6 +87,10 @@ public class CompactionTask {
         return priority;
     }
 
+    public Type type() {
+        return type;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -82,6 +100,7 @@ public class CompactionTask {
 
         if (level != that.level) return false;
         if (priority != that.priority) return false;
+        if (type != that.type) return false;
         return Objects.equals(tables, that.tables);
     }
 
@@ -90,6 +109,7 @@ public class CompactionTask {
         int result = tables != null ? tables.hashCode() : 0;
         result = 31 * result + level;
         result = 31 * result + (priority != null ? priority.hashCode() : 0);
+        result = 31 * result + (type != null ? type.hashCode() : 0);
         return result;
     }
 
@@ -99,6 +119,7 @@ public class CompactionTask {
                 "tables=" + tables +
                 ", level=" + level +
                 ", priority=" + priority +
+                ", type=" + type +
                 '}';
     }
 }
@@ -20,12 +20,14 @@ import com.codahale.metrics.Timer;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jordanwilliams.heftydb.compact.planner.CompactionPlanner;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.db.Config;
 import com.jordanwilliams.heftydb.io.Throttle;
 import com.jordanwilliams.heftydb.metrics.Metrics;
 import com.jordanwilliams.heftydb.read.CompactionTupleIterator;
 import com.jordanwilliams.heftydb.read.MergingIterator;
+import com.jordanwilliams.heftydb.read.RangeTombstones;
 import com.jordanwilliams.heftydb.state.Caches;
 import com.jordanwilliams.heftydb.state.Paths;
 import com.jordanwilliams.heftydb.state.Snapshots;
@@ -33,24 +35,32 @@ import com.jordanwilliams.heftydb.state.Tables;
 import com.jordanwilliams.heftydb.table.Table;
 import com.jordanwilliams.heftydb.table.file.FileTable;
 import com.jordanwilliams.heftydb.table.file.FileTableWriter;
+import com.jordanwilliams.heftydb.table.file.TableTrailer;
+import com.jordanwilliams.heftydb.table.memory.MemoryTable;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
+import com.jordanwilliams.heftydb.valuelog.ValueLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Orchestrates the scheduling and execution of CompactionPlans provided by the contained CompactionPlanner.
+ * Whenever the Tables change, it also collects ValueLog garbage and rewrites the Tables that still point into
+ * segments that are being relocated, as well as the Tables whose tuples have mostly expired.
  */
 public class Compactor {
 
@@ -68,37 +78,122 @@ public class Compactor {
 
         @Override
         public void run() {
+            if (compactionTask.type() == CompactionTask.Type.RELABEL) {
+                relabelTables(compactionTask.tables(), compactionTask.level());
+                return;
+            }
+
+            Timer.Context watch = metrics.timer("compactor.taskExecution").time();
+            List<CloseableIterator<Tuple>> tableIterators = new ArrayList<>();
+            List<RangeTombstone> rangeTombstones = new ArrayList<>();
+            long tupleCount = 0;
+            final long nextTableId = tables.nextId();
+            long minSnapshotId = snapshots.minimumRetainedId();
+
+            for (Table table : compactionTask.tables()) {
+                tableIterators.add(new CloseableIterator.Wrapper<Tuple>(table.iterator()));
+                rangeTombstones.addAll(table.rangeTombstones());
+                tupleCount += table.tupleCount();
+            }
+
+            Iterator<Tuple> compactionIterator = new CompactionTupleIterator(minSnapshotId,
+                    new MergingIterator<Tuple>(config.keyComparator().tupleOrder(), tableIterators), config
+                    .mergeOperator(), new RangeTombstones(rangeTombstones, minSnapshotId, config.keyComparator()),
+                    valueLog);
+
+            //The new table is swapped in by the writer callback, which only runs once the table is fully written
+            FileTableWriter.Task writerTask = new FileTableWriter.Task.Builder().tableId(nextTableId).config
+                    (config).paths(paths).level(compactionTask.level()).tupleCount(tupleCount).source
+                    (compactionIterator).rangeTombstones(retainedRangeTombstones(rangeTombstones, compactionTask
+                            .tables(), minSnapshotId)).valueLog(valueLog).throttle(throttle)
+                    .callback(new FileTableWriter.Task.Callback() {
+                        @Override
+                        public void finish(boolean tableWritten) {
+                            try {
+                                if (tableWritten) {
+                                    tables.add(FileTable.open(nextTableId, paths, caches.recordBlockCache(),
+                                            caches.indexBlockCache(), valueLog, config.keyComparator(), metrics));
+                                }
+
+                                removeObsoleteTables(compactionTask.tables());
+                            } catch (ClosedChannelException e) {
+                                logger.debug("Compaction terminated without finishing " + compactionId);
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    }).build();
+
+            writerTask.run();
+
+            watch.stop();
+        }
+
+        /**
+         * Tables outside of this compaction may still hold versions that a tombstone deletes, so tombstones are
+         * carried over to the new table. A tombstone is dropped once every snapshot can see it, and no Table outside
+         * of the compaction whose key range overlaps it can hold a version older than it. Persistent Tables don't
+         * record their oldest version, so any of them that overlaps keeps the tombstone. Every version older than a
+         * visible tombstone has already been written, so none can appear in a Table afterwards.
+         */
+        private List<RangeTombstone> retainedRangeTombstones(List<RangeTombstone> rangeTombstones, List<Table>
+                compactedTables, long minSnapshotId) {
+            List<RangeTombstone> retainedTombstones = new ArrayList<RangeTombstone>();
+            tables.readLock();
+
             try {
-                Timer.Context watch = metrics.timer("compactor.taskExecution").time();
-                List<CloseableIterator<Tuple>> tableIterators = new ArrayList<>();
-                long tupleCount = 0;
-                long nextTableId = tables.nextId();
-
-                for (Table table : compactionTask.tables()) {
-                    tableIterators.add(new CloseableIterator.Wrapper<Tuple>(table.iterator()));
-                    tupleCount += table.tupleCount();
+                for (RangeTombstone rangeTombstone : rangeTombstones) {
+                    if (rangeTombstone.snapshotId() > minSnapshotId || shadowsOtherTables(rangeTombstone,
+                            compactedTables)) {
+                        retainedTombstones.add(rangeTombstone);
+                    }
                 }
+            } finally {
+                tables.readUnlock();
+            }
 
-                Iterator<Tuple> compactionIterator = new CompactionTupleIterator(snapshots.minimumRetainedId(),
-                        new MergingIterator<Tuple>
-                        (tableIterators));
+            metrics.counter("compactor.rangeTombstonesDropped").inc(rangeTombstones.size() - retainedTombstones
+                    .size());
 
-                FileTableWriter.Task writerTask = new FileTableWriter.Task.Builder().tableId(nextTableId).config
-                        (config).paths(paths).level(compactionTask.level()).tupleCount(tupleCount).source
-                        (compactionIterator).throttle(throttle).build();
+            return retainedTombstones;
+        }
+
+        private boolean shadowsOtherTables(RangeTombstone rangeTombstone, List<Table> compactedTables) {
+            for (Table table : tables.overlapping(rangeTombstone.startKey(), rangeTombstone.endKey())) {
+                if (compactedTables.contains(table)) {
+                    continue;
+                }
 
-                writerTask.run();
+                if (table.isPersistent() || ((MemoryTable) table).minSnapshotId() < rangeTombstone.snapshotId()) {
+                    return true;
+                }
+            }
 
-                tables.add(FileTable.open(nextTableId, paths, caches.recordBlockCache(), caches.indexBlockCache(),
-                        metrics));
+            return false;
+        }
 
-                removeObsoleteTables(compactionTask.tables());
+        private void relabelTables(List<Table> toRelabel, int level) {
+            Timer.Context watch = metrics.timer("compactor.relabel").time();
 
-                watch.stop();
+            try {
+                //The files don't change apart from the trailer level, so cached blocks stay valid
+                for (Table table : toRelabel) {
+                    TableTrailer.writeLevel(paths.tablePath(table.id()), level);
+                    Table relabeledTable = FileTable.open(table.id(), paths, caches.recordBlockCache(), caches
+                            .indexBlockCache(), valueLog, config.keyComparator(), metrics);
+                    tables.swap(relabeledTable, table);
+                    table.close();
+                }
+
+                //The tables keep their ids, so they only become eligible again once all of them are on the new level
+                markAsRelabeled(toRelabel);
+                evaluateCompaction();
             } catch (ClosedChannelException e) {
                 logger.debug("Compaction terminated without finishing " + compactionId);
             } catch (IOException e) {
                 throw new RuntimeException(e);
+            } finally {
+                watch.stop();
             }
         }
 
@@ -113,6 +208,9 @@ public class Compactor {
                 Files.deleteIfExists(paths.indexPath(table.id()));
                 Files.deleteIfExists(paths.filterPath(table.id()));
             }
+
+            //The segments of the removed tables only become collectable once the tables are closed
+            collectValueLogGarbage();
         }
     }
 
@@ -121,6 +219,7 @@ public class Compactor {
     private final Tables tables;
     private final CompactionTables compactionTables;
     private final Caches caches;
+    private final ValueLog valueLog;
     private final ThreadPoolExecutor compactionExecutor;
     private final ThreadPoolExecutor compactionTaskExecutor;
     private final ThreadPoolExecutor highPriorityCompactionTaskExecutor;
@@ -128,39 +227,51 @@ public class Compactor {
     private final Metrics metrics;
     private final AtomicInteger compactionId = new AtomicInteger();
     private final Snapshots snapshots;
+    private final Timer evaluationTimer;
 
-    public Compactor(Config config, Paths paths, Tables tables, Caches caches, CompactionStrategy compactionStrategy,
-                     Metrics metrics, Snapshots snapshots) {
+    public Compactor(Config config, Paths paths, Tables tables, Caches caches, ValueLog valueLog,
+                     CompactionStrategy compactionStrategy, Metrics metrics, Snapshots snapshots) {
         this.config = config;
         this.paths = paths;
         this.tables = tables;
         this.compactionTables = new CompactionTables(tables);
         this.caches = caches;
+        this.valueLog = valueLog;
         this.metrics = metrics;
         this.snapshots = snapshots;
+        this.evaluationTimer = metrics.timer("compactor.evaluation");
+
+        RejectedExecutionHandler callerRunsPolicy = new TimedCallerRunsPolicy(metrics.timer("compactor.callerRuns"));
 
         this.compactionExecutor = new ThreadPoolExecutor(config.tableCompactionThreads(), config.tableCompactionThreads(),
                 Long.MAX_VALUE, TimeUnit.DAYS, new LinkedBlockingQueue<>(config.tableCompactionThreads()),
-                new ThreadFactoryBuilder().setNameFormat("Compaction thread %d").build(), new ThreadPoolExecutor.CallerRunsPolicy());
+                new ThreadFactoryBuilder().setNameFormat("Compaction thread %d").build(), callerRunsPolicy);
 
         int compactionTaskThreads = Math.max(config.tableCompactionThreads() / 2, 1);
 
         this.compactionTaskExecutor = new ThreadPoolExecutor(compactionTaskThreads, compactionTaskThreads, Long.MAX_VALUE,
                 TimeUnit.DAYS, new LinkedBlockingQueue<>(config.tableCompactionThreads()),
-                new ThreadFactoryBuilder().setNameFormat("Compaction task thread %d").build(),
-                new ThreadPoolExecutor.CallerRunsPolicy());
+                new ThreadFactoryBuilder().setNameFormat("Compaction task thread %d").build(), callerRunsPolicy);
 
         this.highPriorityCompactionTaskExecutor = new ThreadPoolExecutor(compactionTaskThreads, compactionTaskThreads,
                 Long.MAX_VALUE, TimeUnit.DAYS, new LinkedBlockingQueue<>(config.tableCompactionThreads()),
                 new ThreadFactoryBuilder().setNameFormat("High priority " +
-                "compaction task thread %d").build(), new ThreadPoolExecutor.CallerRunsPolicy());
+                "compaction task thread %d").build(), callerRunsPolicy);
 
         this.compactionPlanner = compactionStrategy.initialize(compactionTables);
 
         tables.addChangeHandler(new Tables.ChangeHandler() {
             @Override
             public void changed() {
-                evaluateCompaction();
+                Timer.Context watch = evaluationTimer.time();
+
+                try {
+                    evaluateCompaction();
+                    collectValueLogGarbage();
+                    compactExpiredTables();
+                } finally {
+                    watch.stop();
+                }
             }
         });
     }
@@ -171,6 +282,71 @@ public class Compactor {
         }
     }
 
+    /**
+     * Deletes unreferenced ValueLog segments, and schedules a rewrite of each Table that points into a segment that
+     * is being relocated and isn't already part of a compaction.
+     */
+    public synchronized void collectValueLogGarbage() {
+        if (valueLog == null) {
+            return;
+        }
+
+        try {
+            rewriteTables(valueLog.collectGarbage(tables), "to relocate its values");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Schedules a rewrite of each Table whose trailer estimates that most of its tuples have expired, so that they
+     * are dropped without waiting for the Table to be picked by the CompactionPlanner.
+     */
+    public synchronized void compactExpiredTables() {
+        long now = System.currentTimeMillis();
+        List<Table> expiredTables = new ArrayList<Table>();
+
+        tables.readLock();
+
+        try {
+            for (Table table : tables) {
+                if (table.expiredRatio(now) >= config.expiredCompactionRatio()) {
+                    expiredTables.add(table);
+                }
+            }
+        } finally {
+            tables.readUnlock();
+        }
+
+        rewriteTables(expiredTables, "to drop expired tuples");
+    }
+
+    private void rewriteTables(List<Table> tablesToRewrite, String reason) {
+        if (tablesToRewrite.isEmpty()) {
+            return;
+        }
+
+        List<Table> eligibleTables = compactionTables.eligibleTables();
+        Throttle compactionThrottle = new Throttle(config.maxCompactionRate());
+
+        for (Table table : tablesToRewrite) {
+            if (!eligibleTables.contains(table)) {
+                continue;
+            }
+
+            logger.debug("Rewriting table " + table.id() + " " + reason);
+            compactionTables.markAsCompacted(table);
+            compactionTaskExecutor.submit(new Task(new CompactionTask(Collections.singletonList(table), table
+                    .level(), CompactionTask.Priority.NORMAL), compactionThrottle));
+        }
+    }
+
+    private synchronized void markAsRelabeled(List<Table> relabeledTables) {
+        for (Table table : relabeledTables) {
+            compactionTables.markAsRelabeled(table);
+        }
+    }
+
     public synchronized Future<?> scheduleCompaction() {
         final int id = compactionId.incrementAndGet();
         logger.debug("Starting compaction " + id);
@@ -214,9 +390,51 @@ public class Compactor {
         });
     }
 
+    /**
+     * Stops the running compactions and waits for them to exit. A task that kept running after close could otherwise
+     * still swap tables in and delete files after the database had been opened again on the same directory.
+     */
     public void close() throws IOException {
         compactionExecutor.shutdownNow();
         compactionTaskExecutor.shutdownNow();
+        highPriorityCompactionTaskExecutor.shutdownNow();
+
+        try {
+            compactionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            compactionTaskExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            highPriorityCompactionTaskExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while stopping compactions");
+        }
+    }
+
+    /**
+     * Runs rejected work on the submitting thread like CallerRunsPolicy, and times it. Tables change handlers are
+     * invoked by whoever changed the Tables, so this is how long writers and flushes spend compacting inline.
+     */
+    private static class TimedCallerRunsPolicy implements RejectedExecutionHandler {
+
+        private final Timer callerRunsTimer;
+
+        private TimedCallerRunsPolicy(Timer callerRunsTimer) {
+            this.callerRunsTimer = callerRunsTimer;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return;
+            }
+
+            Timer.Context watch = callerRunsTimer.time();
+
+            try {
+                runnable.run();
+            } finally {
+                watch.stop();
+            }
+        }
     }
 
     @Override
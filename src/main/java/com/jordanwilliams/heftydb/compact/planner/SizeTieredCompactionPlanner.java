@@ -19,20 +19,31 @@ package com.jordanwilliams.heftydb.compact.planner;
 import com.jordanwilliams.heftydb.compact.CompactionPlan;
 import com.jordanwilliams.heftydb.compact.CompactionTables;
 import com.jordanwilliams.heftydb.compact.CompactionTask;
+import com.jordanwilliams.heftydb.data.KeyComparator;
 import com.jordanwilliams.heftydb.table.Table;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
- * Compacts tables into groups with overlapping key ranges once there are 10 tables at a particular size.
+ * Compacts tables into groups with overlapping key ranges once there are 5 tables at a particular size.
+ *
+ * Flushed tables of time ordered keys don't overlap each other, so once there are enough of them they are moved up a
+ * level as they are instead of being merged. Above the flush level, tables are counted by sorted runs, which is the
+ * most tables that any one key falls into, so that a run of moved tables counts as the single table that merging
+ * them would have produced.
  */
 public class SizeTieredCompactionPlanner implements CompactionPlanner {
 
-    private static final int MAX_LEVEL_TABLES = 5;
+    public static final int MAX_LEVEL_TABLES = 5;
+    public static final int FLUSH_LEVEL = 1;
 
     private final CompactionTables tables;
 
@@ -46,10 +57,16 @@ public class SizeTieredCompactionPlanner implements CompactionPlanner {
         List<CompactionTask> compactionTasks = new ArrayList<>();
 
         for (Map.Entry<Integer, List<Table>> entry : leveledTables.entrySet()) {
-            if (entry.getValue().size() >= MAX_LEVEL_TABLES) {
-                int level = entry.getKey();
-                compactionTasks.add(new CompactionTask(entry.getValue(), level + 1, level < 3 ? CompactionTask
-                        .Priority.HIGH : CompactionTask.Priority.NORMAL));
+            int level = entry.getKey();
+            List<Table> levelTables = entry.getValue();
+            CompactionTask.Priority priority = level < 3 ? CompactionTask.Priority.HIGH : CompactionTask.Priority
+                    .NORMAL;
+
+            if (needsRelabel(level, levelTables, tables.keyComparator())) {
+                compactionTasks.add(new CompactionTask(levelTables, level + 1, priority, CompactionTask.Type
+                        .RELABEL));
+            } else if (needsMerge(level, levelTables, tables.keyComparator())) {
+                compactionTasks.add(new CompactionTask(levelTables, level + 1, priority));
             }
         }
 
@@ -59,9 +76,11 @@ public class SizeTieredCompactionPlanner implements CompactionPlanner {
     @Override
     public boolean needsCompaction() {
         SortedMap<Integer, List<Table>> leveledTables = leveledTables();
+        KeyComparator keyComparator = tables.keyComparator();
 
         for (Map.Entry<Integer, List<Table>> entry : leveledTables.entrySet()) {
-            if (entry.getValue().size() >= MAX_LEVEL_TABLES) {
+            if (needsRelabel(entry.getKey(), entry.getValue(), keyComparator) || needsMerge(entry.getKey(), entry
+                    .getValue(), keyComparator)) {
                 return true;
             }
         }
@@ -69,6 +88,59 @@ public class SizeTieredCompactionPlanner implements CompactionPlanner {
         return false;
     }
 
+    /**
+     * @return true if the tables of a level are due to be merged into a single table on the next level
+     */
+    public static boolean needsMerge(int level, List<Table> levelTables, KeyComparator keyComparator) {
+        if (level == FLUSH_LEVEL) {
+            return levelTables.size() >= MAX_LEVEL_TABLES && sortedRuns(levelTables, keyComparator) > 1;
+        }
+
+        return levelTables.size() >= MAX_LEVEL_TABLES && sortedRuns(levelTables, keyComparator) >= MAX_LEVEL_TABLES;
+    }
+
+    /**
+     * @return true if the tables of a level are due to be moved to the next level without being rewritten
+     */
+    public static boolean needsRelabel(int level, List<Table> levelTables, KeyComparator keyComparator) {
+        return level == FLUSH_LEVEL && levelTables.size() >= MAX_LEVEL_TABLES && sortedRuns(levelTables,
+                keyComparator) == 1;
+    }
+
+    /**
+     * @return the largest number of the given tables whose key ranges contain the same key
+     */
+    public static int sortedRuns(List<Table> levelTables, final KeyComparator keyComparator) {
+        for (Table table : levelTables) {
+            if (table.minKey() == null) {
+                return levelTables.size();
+            }
+        }
+
+        List<Table> sortedTables = new ArrayList<Table>(levelTables);
+        Collections.sort(sortedTables, new Comparator<Table>() {
+            @Override
+            public int compare(Table table1, Table table2) {
+                return keyComparator.compare(table1.minKey(), table2.minKey());
+            }
+        });
+
+        PriorityQueue<ByteBuffer> openMaxKeys = new PriorityQueue<ByteBuffer>(Math.max(1, levelTables.size()),
+                keyComparator);
+        int sortedRuns = 0;
+
+        for (Table table : sortedTables) {
+            while (!openMaxKeys.isEmpty() && keyComparator.compare(openMaxKeys.peek(), table.minKey()) < 0) {
+                openMaxKeys.poll();
+            }
+
+            openMaxKeys.add(table.maxKey());
+            sortedRuns = Math.max(sortedRuns, openMaxKeys.size());
+        }
+
+        return sortedRuns;
+    }
+
     private SortedMap<Integer, List<Table>> leveledTables() {
         SortedMap<Integer, List<Table>> tableMap = new TreeMap<>();
         List<Table> eligibleTables = tables.eligibleTables();
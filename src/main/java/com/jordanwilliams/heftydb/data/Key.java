@@ -44,15 +44,12 @@ public class Key implements Comparable<Key> {
         return data.capacity();
     }
 
+    /**
+     * Orders Keys with KeyComparator.LEXICOGRAPHIC, the default key order of a database.
+     */
     @Override
     public int compareTo(Key o) {
-        int compared = data.compareTo(o.data);
-
-        if (compared != 0) {
-            return compared;
-        }
-
-        return Long.compare(snapshotId, o.snapshotId);
+        return KeyComparator.LEXICOGRAPHIC.keyOrder().compare(this, o);
     }
 
     @Override
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.data;
+
+import com.jordanwilliams.heftydb.offheap.JVMUnsafe;
+import sun.misc.Unsafe;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Comparator;
+
+/**
+ * Defines the order of the keys in a database. Keys can be compared both as ByteBuffers and against keys stored in
+ * off-heap memory, so that the memory tables and the binary searches over Table blocks compare keys in place. Versions
+ * of the same key are always ordered by ascending snapshot id. A database must always be opened with the
+ * KeyComparator that it was written with, so the name of the KeyComparator is stored with each Table, and opening a
+ * Table that was written with a KeyComparator of another name fails.
+ */
+public abstract class KeyComparator implements Comparator<ByteBuffer> {
+
+    /**
+     * Orders keys by their unsigned bytes, comparing eight bytes at a time.
+     */
+    public static final KeyComparator LEXICOGRAPHIC = new KeyComparator() {
+        @Override
+        public int compare(ByteBuffer key1, ByteBuffer key2) {
+            return compareBytes(key1, key2, 0);
+        }
+
+        @Override
+        public int compare(long address, int size, ByteBuffer key) {
+            return compareBytes(address, size, key, 0);
+        }
+
+        @Override
+        public String name() {
+            return "LEXICOGRAPHIC";
+        }
+    };
+
+    /**
+     * Orders keys as big-endian two's complement integers. Shorter keys come first, so keys of a fixed width, such as
+     * 4 byte ints or 8 byte longs, are in numeric order.
+     */
+    public static final KeyComparator NUMERIC = new KeyComparator() {
+        @Override
+        public int compare(ByteBuffer key1, ByteBuffer key2) {
+            int sizeCompare = Integer.compare(key1.remaining(), key2.remaining());
+            return sizeCompare != 0 ? sizeCompare : compareBytes(key1, key2, SIGN_BIT);
+        }
+
+        @Override
+        public int compare(long address, int size, ByteBuffer key) {
+            int sizeCompare = Integer.compare(size, key.remaining());
+            return sizeCompare != 0 ? sizeCompare : compareBytes(address, size, key, SIGN_BIT);
+        }
+
+        @Override
+        public String name() {
+            return "NUMERIC";
+        }
+    };
+
+    private static final Unsafe unsafe = JVMUnsafe.unsafe;
+    private static final boolean NATIVE_BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+    private static final long SIGN_BIT = Long.MIN_VALUE;
+
+    private final Comparator<Key> keyOrder = new Comparator<Key>() {
+        @Override
+        public int compare(Key key1, Key key2) {
+            int compared = KeyComparator.this.compare(key1.data(), key2.data());
+
+            if (compared != 0) {
+                return compared;
+            }
+
+            return Long.compare(key1.snapshotId(), key2.snapshotId());
+        }
+    };
+
+    private final Comparator<Tuple> tupleOrder = new Comparator<Tuple>() {
+        @Override
+        public int compare(Tuple tuple1, Tuple tuple2) {
+            return keyOrder.compare(tuple1.key(), tuple2.key());
+        }
+    };
+
+    private KeyComparator reversed;
+
+    /**
+     * Compares the remaining bytes of two keys.
+     */
+    @Override
+    public abstract int compare(ByteBuffer key1, ByteBuffer key2);
+
+    /**
+     * Compares a key stored in off-heap memory with the remaining bytes of a key, in the same order as
+     * compare(ByteBuffer, ByteBuffer).
+     */
+    public abstract int compare(long address, int size, ByteBuffer key);
+
+    /**
+     * @return a name that identifies the order of this KeyComparator, which is stored with each Table
+     */
+    public abstract String name();
+
+    /**
+     * @return an order of Keys that compares their data with this KeyComparator, and then their snapshot ids
+     */
+    public Comparator<Key> keyOrder() {
+        return keyOrder;
+    }
+
+    /**
+     * @return an order of Tuples that is the same as keyOrder on their Keys
+     */
+    public Comparator<Tuple> tupleOrder() {
+        return tupleOrder;
+    }
+
+    /**
+     * @return a KeyComparator that orders keys in the opposite order to this one. The same instance is returned on
+     * every call.
+     */
+    public synchronized KeyComparator reverse() {
+        if (reversed == null) {
+            reversed = reversed(this);
+        }
+
+        return reversed;
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    private static KeyComparator reversed(final KeyComparator forward) {
+        return new KeyComparator() {
+            @Override
+            public int compare(ByteBuffer key1, ByteBuffer key2) {
+                return forward.compare(key2, key1);
+            }
+
+            @Override
+            public int compare(long address, int size, ByteBuffer key) {
+                return -forward.compare(address, size, key);
+            }
+
+            @Override
+            public KeyComparator reverse() {
+                return forward;
+            }
+
+            @Override
+            public String name() {
+                return forward.name() + ".reverse()";
+            }
+        };
+    }
+
+    /**
+     * Compares the bytes of two keys eight at a time as unsigned big-endian longs, and then byte by byte. The mask is
+     * applied to the first word of both keys, which lets the sign bit of the first byte be flipped.
+     */
+    private static int compareBytes(ByteBuffer key1, ByteBuffer key2, long firstWordMask) {
+        int position1 = key1.position();
+        int position2 = key2.position();
+        int size1 = key1.remaining();
+        int size2 = key2.remaining();
+        boolean reverse1 = key1.order() != ByteOrder.BIG_ENDIAN;
+        boolean reverse2 = key2.order() != ByteOrder.BIG_ENDIAN;
+        int compareCount = Math.min(size1, size2);
+        int i = 0;
+
+        for (; i + 8 <= compareCount; i += 8) {
+            long word1 = key1.getLong(position1 + i);
+            long word2 = key2.getLong(position2 + i);
+            word1 = reverse1 ? Long.reverseBytes(word1) : word1;
+            word2 = reverse2 ? Long.reverseBytes(word2) : word2;
+
+            if (word1 != word2) {
+                if (i == 0) {
+                    word1 ^= firstWordMask;
+                    word2 ^= firstWordMask;
+                }
+
+                return Long.compareUnsigned(word1, word2);
+            }
+        }
+
+        for (; i < compareCount; i++) {
+            int compared = compareByte(key1.get(position1 + i), key2.get(position2 + i), i == 0 ? firstWordMask : 0);
+
+            if (compared != 0) {
+                return compared;
+            }
+        }
+
+        return Integer.compare(size1, size2);
+    }
+
+    private static int compareBytes(long address, int size, ByteBuffer key, long firstWordMask) {
+        int position = key.position();
+        int keySize = key.remaining();
+        boolean reverseKey = key.order() != ByteOrder.BIG_ENDIAN;
+        int compareCount = Math.min(size, keySize);
+        int i = 0;
+
+        for (; i + 8 <= compareCount; i += 8) {
+            long word1 = unsafe.getLong(address + i);
+            long word2 = key.getLong(position + i);
+            word1 = NATIVE_BIG_ENDIAN ? word1 : Long.reverseBytes(word1);
+            word2 = reverseKey ? Long.reverseBytes(word2) : word2;
+
+            if (word1 != word2) {
+                if (i == 0) {
+                    word1 ^= firstWordMask;
+                    word2 ^= firstWordMask;
+                }
+
+                return Long.compareUnsigned(word1, word2);
+            }
+        }
+
+        for (; i < compareCount; i++) {
+            int compared = compareByte(unsafe.getByte(address + i), key.get(position + i), i == 0 ? firstWordMask :
+                    0);
+
+            if (compared != 0) {
+                return compared;
+            }
+        }
+
+        return Integer.compare(size, keySize);
+    }
+
+    private static int compareByte(byte byte1, byte byte2, long firstWordMask) {
+        int flip = firstWordMask == 0 ? 0 : 0x80;
+        return Integer.compare((byte1 & 0xFF) ^ flip, (byte2 & 0xFF) ^ flip);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.data;
+
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+import com.jordanwilliams.heftydb.util.Serializer;
+import com.jordanwilliams.heftydb.util.Sizes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Deletes every version of the keys in [startKey, endKey) that was written before the snapshot the tombstone was
+ * written at.
+ */
+public class RangeTombstone {
+
+    public static Serializer<RangeTombstone> SERIALIZER = new Serializer<RangeTombstone>() {
+        @Override
+        public int size(RangeTombstone rangeTombstone) {
+            int size = 0;
+            size += Sizes.INT_SIZE;
+            size += rangeTombstone.startKey.capacity();
+            size += Sizes.INT_SIZE;
+            size += rangeTombstone.endKey.capacity();
+            size += Sizes.LONG_SIZE;
+            return size;
+        }
+
+        @Override
+        public void serialize(RangeTombstone rangeTombstone, ByteBuffer buffer) {
+            buffer.putInt(rangeTombstone.startKey.capacity());
+            buffer.put(rangeTombstone.startKey.duplicate());
+            buffer.putInt(rangeTombstone.endKey.capacity());
+            buffer.put(rangeTombstone.endKey.duplicate());
+            buffer.putLong(rangeTombstone.snapshotId);
+        }
+
+        @Override
+        public RangeTombstone deserialize(ByteBuffer buffer) {
+            ByteBuffer startKey = ByteBuffer.allocate(buffer.getInt());
+            buffer.get(startKey.array());
+            ByteBuffer endKey = ByteBuffer.allocate(buffer.getInt());
+            buffer.get(endKey.array());
+            long snapshotId = buffer.getLong();
+
+            return new RangeTombstone(startKey, endKey, snapshotId);
+        }
+    };
+
+    private final ByteBuffer startKey;
+    private final ByteBuffer endKey;
+    private final long snapshotId;
+
+    public RangeTombstone(ByteBuffer startKey, ByteBuffer endKey, long snapshotId) {
+        this.startKey = startKey;
+        this.endKey = endKey;
+        this.snapshotId = snapshotId;
+    }
+
+    public ByteBuffer startKey() {
+        return startKey;
+    }
+
+    public ByteBuffer endKey() {
+        return endKey;
+    }
+
+    public long snapshotId() {
+        return snapshotId;
+    }
+
+    /**
+     * @return true if the given key version was written before this tombstone and lies within its range
+     */
+    public boolean covers(Key key) {
+        return covers(key, KeyComparator.LEXICOGRAPHIC);
+    }
+
+    /**
+     * @return true if the given key version was written before this tombstone and lies within its range, in the order
+     * of the given KeyComparator
+     */
+    public boolean covers(Key key, KeyComparator keyComparator) {
+        return key.snapshotId() < snapshotId && keyComparator.compare(startKey, key.data()) <= 0 && keyComparator
+                .compare(endKey, key.data()) > 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        RangeTombstone that = (RangeTombstone) o;
+
+        if (snapshotId != that.snapshotId) return false;
+        if (!startKey.equals(that.startKey)) return false;
+        if (!endKey.equals(that.endKey)) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = startKey.hashCode();
+        result = 31 * result + endKey.hashCode();
+        result = 31 * result + (int) (snapshotId ^ (snapshotId >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RangeTombstone{" +
+                "startKey=" + ByteBuffers.toString(startKey) +
+                ", endKey=" + ByteBuffers.toString(endKey) +
+                ", snapshotId=" + snapshotId +
+                '}';
+    }
+}
@@ -38,6 +38,7 @@ public class Tuple implements Comparable<Tuple> {
 
             //Value
             size += Sizes.INT_SIZE;
+            size += 1;
             size += tuple.value().size();
 
             return size;
@@ -53,6 +54,7 @@ public class Tuple implements Comparable<Tuple> {
 
             //Value
             recordBuffer.putInt(tuple.value.size());
+            recordBuffer.put(tuple.value.type().code());
             recordBuffer.put(tuple.value().data());
             tuple.value().data().rewind();
 
@@ -70,9 +72,10 @@ public class Tuple implements Comparable<Tuple> {
 
             //Value
             int valueSize = recordBuffer.getInt();
+            Value.Type valueType = Value.Type.fromCode(recordBuffer.get());
             ByteBuffer valueBuffer = ByteBuffer.allocate(valueSize);
             recordBuffer.get(valueBuffer.array());
-            Value value = new Value(valueBuffer);
+            Value value = new Value(valueBuffer, valueType);
 
             return new Tuple(key, value);
         }
@@ -98,6 +101,14 @@ public class Tuple implements Comparable<Tuple> {
         return key.size() + value().size();
     }
 
+    /**
+     * @return this Tuple, or a tombstone with the same Key if its value has expired at the given time. An expired
+     * version deletes the versions beneath it, just like a tombstone.
+     */
+    public Tuple asOf(long now) {
+        return value.isExpired(now) ? new Tuple(key, Value.TOMBSTONE_VALUE) : this;
+    }
+
     public void rewind() {
         key.data().rewind();
         value.data().rewind();
@@ -17,26 +17,111 @@
 package com.jordanwilliams.heftydb.data;
 
 import com.jordanwilliams.heftydb.util.ByteBuffers;
+import com.jordanwilliams.heftydb.util.Sizes;
 
 import java.nio.ByteBuffer;
 
 /**
- * A wrapper class around a ByteBuffer that encapsulates a database Value.
+ * A wrapper class around a ByteBuffer that encapsulates a database Value. A Value is either a regular value, a
+ * merge operand that is combined with older versions of its Key by a MergeOperator when it is read, the end key
+ * of a range deletion that starts at its Key, a pointer to a large value that is stored in the ValueLog, or a
+ * regular value that expires at a point in time. Expiring values are stored with their expiry time in milliseconds
+ * since the epoch appended to the value data.
  */
 public class Value implements Comparable<Value> {
 
+    public enum Type {
+        VALUE,
+        MERGE_OPERAND,
+        RANGE_TOMBSTONE,
+        VALUE_POINTER,
+        EXPIRING_VALUE;
+
+        private static final Type[] TYPES = values();
+
+        public byte code() {
+            return (byte) ordinal();
+        }
+
+        public static Type fromCode(byte code) {
+            return TYPES[code];
+        }
+    }
+
     public static Value TOMBSTONE_VALUE = new Value(ByteBuffers.EMPTY_BUFFER);
 
+    private static final int EXPIRY_SIZE = Sizes.LONG_SIZE;
+
     private final ByteBuffer value;
+    private final Type type;
 
     public Value(ByteBuffer value) {
+        this(value, Type.VALUE);
+    }
+
+    public Value(ByteBuffer value, Type type) {
         this.value = value;
+        this.type = type;
     }
 
     public ByteBuffer data() {
         return value;
     }
 
+    public Type type() {
+        return type;
+    }
+
+    public boolean isMergeOperand() {
+        return type == Type.MERGE_OPERAND;
+    }
+
+    public boolean isRangeTombstone() {
+        return type == Type.RANGE_TOMBSTONE;
+    }
+
+    public boolean isValuePointer() {
+        return type == Type.VALUE_POINTER;
+    }
+
+    public boolean isExpiring() {
+        return type == Type.EXPIRING_VALUE;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch at which this Value expires, or Long.MAX_VALUE if it never
+     * does
+     */
+    public long expiresAt() {
+        return isExpiring() ? value.getLong(value.capacity() - EXPIRY_SIZE) : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired(long now) {
+        return isExpiring() && expiresAt() <= now;
+    }
+
+    /**
+     * @return a regular Value with the data of this expiring Value, without the expiry time
+     */
+    public Value unexpired() {
+        if (!isExpiring()) {
+            return this;
+        }
+
+        ByteBuffer data = value.duplicate();
+        data.position(0);
+        data.limit(value.capacity() - EXPIRY_SIZE);
+        return new Value(data.slice());
+    }
+
+    public static Value expiring(ByteBuffer value, long expiresAt) {
+        ByteBuffer data = ByteBuffer.allocate(value.remaining() + EXPIRY_SIZE);
+        data.put(value.duplicate());
+        data.putLong(expiresAt);
+        data.flip();
+        return new Value(data, Type.EXPIRING_VALUE);
+    }
+
     public boolean isEmpty() {
         return value.capacity() == 0;
     }
@@ -65,6 +150,10 @@ public class Value implements Comparable<Value> {
             return false;
         }
 
+        if (type != value1.type) {
+            return false;
+        }
+
         return true;
     }
 
@@ -75,8 +164,14 @@ public class Value implements Comparable<Value> {
 
     @Override
     public String toString() {
+        byte[] valueArray = new byte[value.capacity()];
+        value.rewind();
+        value.get(valueArray);
+        value.rewind();
+
         return "Value{" +
-                "data=" + new String(value.array()) +
+                "data=" + new String(valueArray) +
+                ", type=" + type +
                 "}";
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.data;
+
+import com.jordanwilliams.heftydb.util.Sizes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The location of a value that is stored in a ValueLog segment instead of inline in a Table.
+ */
+public class ValuePointer {
+
+    public static final int SIZE = Sizes.LONG_SIZE + Sizes.LONG_SIZE + Sizes.INT_SIZE;
+
+    private final long segmentId;
+    private final long offset;
+    private final int size;
+
+    public ValuePointer(long segmentId, long offset, int size) {
+        this.segmentId = segmentId;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public long segmentId() {
+        return segmentId;
+    }
+
+    public long offset() {
+        return offset;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Value toValue() {
+        ByteBuffer pointerBuffer = ByteBuffer.allocate(SIZE);
+        pointerBuffer.putLong(segmentId);
+        pointerBuffer.putLong(offset);
+        pointerBuffer.putInt(size);
+        pointerBuffer.rewind();
+        return new Value(pointerBuffer, Value.Type.VALUE_POINTER);
+    }
+
+    public static ValuePointer fromValue(Value value) {
+        ByteBuffer pointerBuffer = value.data();
+        return new ValuePointer(pointerBuffer.getLong(0), pointerBuffer.getLong(Sizes.LONG_SIZE),
+                pointerBuffer.getInt(Sizes.LONG_SIZE * 2));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ValuePointer that = (ValuePointer) o;
+
+        if (segmentId != that.segmentId) return false;
+        if (offset != that.offset) return false;
+        if (size != that.size) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (segmentId ^ (segmentId >>> 32));
+        result = 31 * result + (int) (offset ^ (offset >>> 32));
+        result = 31 * result + size;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ValuePointer{" +
+                "segmentId=" + segmentId +
+                ", offset=" + offset +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -18,6 +18,7 @@ package com.jordanwilliams.heftydb.db;
 
 import com.jordanwilliams.heftydb.compact.CompactionStrategies;
 import com.jordanwilliams.heftydb.compact.CompactionStrategy;
+import com.jordanwilliams.heftydb.data.KeyComparator;
 
 import java.nio.file.Path;
 
@@ -38,8 +39,28 @@ public class Config {
         private long tableCacheSize = 128000000;
         private long indexCacheSize = 32000000;
         private long maxCompactionRate = 32768000;
-        private long maxWriteRate = 32768000;
+        private long maxWriteRate = Integer.MAX_VALUE;
         private boolean printMetrics = false;
+        private int memoryTableSlowdownLimit = 4;
+        private int memoryTableStopLimit = 8;
+        private long maxWriteStallTime = 10000;
+        private boolean offHeapMemoryTables = false;
+        private int recoveryThreads = 4;
+        private Durability durability = Durability.PERIODIC;
+        private long logSyncInterval = 1000;
+        private MergeOperator mergeOperator = null;
+        private long minWriteRate = 1048576;
+        private long compactionDebtSoftLimit = 67108864;
+        private long compactionDebtHardLimit = 268435456;
+        private int valueLogThreshold = Integer.MAX_VALUE;
+        private long valueLogSegmentSize = 67108864;
+        private double valueLogGarbageRatio = 0.5;
+        private long writeBufferSize = Long.MAX_VALUE;
+        private long defaultTtl = 0;
+        private double expiredCompactionRatio = 0.5;
+        private int ingestTableRecordCount = 1048576;
+        private KeyComparator keyComparator = KeyComparator.LEXICOGRAPHIC;
+        private PrefixExtractor prefixExtractor;
         private Path tableDirectory;
         private Path logDirectory;
 
@@ -114,10 +135,126 @@ public class Config {
             return this;
         }
 
+        public Builder memoryTableSlowdownLimit(int memoryTableSlowdownLimit) {
+            this.memoryTableSlowdownLimit = memoryTableSlowdownLimit;
+            return this;
+        }
+
+        public Builder memoryTableStopLimit(int memoryTableStopLimit) {
+            this.memoryTableStopLimit = memoryTableStopLimit;
+            return this;
+        }
+
+        public Builder maxWriteStallTime(long maxWriteStallTime) {
+            this.maxWriteStallTime = maxWriteStallTime;
+            return this;
+        }
+
+        /**
+         * Keeps the records of the memory tables in off-heap arenas instead of on-heap skip lists, which also appends
+         * time ordered keys without searching. Off by default.
+         */
+        public Builder offHeapMemoryTables(boolean offHeapMemoryTables) {
+            this.offHeapMemoryTables = offHeapMemoryTables;
+            return this;
+        }
+
+        public Builder recoveryThreads(int recoveryThreads) {
+            this.recoveryThreads = recoveryThreads;
+            return this;
+        }
+
+        public Builder durability(Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        public Builder logSyncInterval(long logSyncInterval) {
+            this.logSyncInterval = logSyncInterval;
+            return this;
+        }
+
+        public Builder mergeOperator(MergeOperator mergeOperator) {
+            this.mergeOperator = mergeOperator;
+            return this;
+        }
+
+        public Builder minWriteRate(long minWriteRate) {
+            this.minWriteRate = minWriteRate;
+            return this;
+        }
+
+        public Builder compactionDebtSoftLimit(long compactionDebtSoftLimit) {
+            this.compactionDebtSoftLimit = compactionDebtSoftLimit;
+            return this;
+        }
+
+        public Builder compactionDebtHardLimit(long compactionDebtHardLimit) {
+            this.compactionDebtHardLimit = compactionDebtHardLimit;
+            return this;
+        }
+
+        public Builder valueLogThreshold(int valueLogThreshold) {
+            this.valueLogThreshold = valueLogThreshold;
+            return this;
+        }
+
+        public Builder valueLogSegmentSize(long valueLogSegmentSize) {
+            this.valueLogSegmentSize = valueLogSegmentSize;
+            return this;
+        }
+
+        public Builder valueLogGarbageRatio(double valueLogGarbageRatio) {
+            this.valueLogGarbageRatio = valueLogGarbageRatio;
+            return this;
+        }
+
+        public Builder writeBufferSize(long writeBufferSize) {
+            this.writeBufferSize = writeBufferSize;
+            return this;
+        }
+
+        public Builder defaultTtl(long defaultTtl) {
+            this.defaultTtl = defaultTtl;
+            return this;
+        }
+
+        public Builder expiredCompactionRatio(double expiredCompactionRatio) {
+            this.expiredCompactionRatio = expiredCompactionRatio;
+            return this;
+        }
+
+        public Builder ingestTableRecordCount(int ingestTableRecordCount) {
+            this.ingestTableRecordCount = ingestTableRecordCount;
+            return this;
+        }
+
+        /**
+         * Sets the order of the keys. A database must always be opened with the KeyComparator it was written with, and
+         * opening it with a KeyComparator of another name fails.
+         */
+        public Builder keyComparator(KeyComparator keyComparator) {
+            this.keyComparator = keyComparator;
+            return this;
+        }
+
+        /**
+         * Adds the prefix of each key to the bloom filters of new Tables, so that DB.prefixIterator can skip Tables
+         * that hold no keys with a prefix. Not set by default.
+         */
+        public Builder prefixExtractor(PrefixExtractor prefixExtractor) {
+            this.prefixExtractor = prefixExtractor;
+            return this;
+        }
+
         public Config build() {
-            return new Config(compactionStrategy, memoryTableSize, tableBlockSize, indexBlockSize,
-                    tableWriterThreads, tableCompactionThreads, tableCacheSize, indexCacheSize, printMetrics,
-                    tableDirectory, logDirectory, maxCompactionRate, maxWriteRate);
+            return new Config(compactionStrategy, memoryTableSize, tableBlockSize, indexBlockSize, tableWriterThreads,
+                    tableCompactionThreads, tableCacheSize, indexCacheSize, printMetrics, tableDirectory, logDirectory,
+                    maxCompactionRate, maxWriteRate, memoryTableSlowdownLimit, memoryTableStopLimit, maxWriteStallTime,
+                    offHeapMemoryTables, recoveryThreads, durability, logSyncInterval, mergeOperator, minWriteRate,
+                    compactionDebtSoftLimit, compactionDebtHardLimit, valueLogThreshold, valueLogSegmentSize,
+                    valueLogGarbageRatio, writeBufferSize, defaultTtl, expiredCompactionRatio, ingestTableRecordCount,
+                    keyComparator, prefixExtractor);
         }
     }
 
@@ -134,11 +271,36 @@ public class Config {
     private final Path logDirectory;
     private final long maxCompactionRate;
     private final long maxWriteRate;
+    private final int memoryTableSlowdownLimit;
+    private final int memoryTableStopLimit;
+    private final long maxWriteStallTime;
+    private final boolean offHeapMemoryTables;
+    private final int recoveryThreads;
+    private final Durability durability;
+    private final long logSyncInterval;
+    private final MergeOperator mergeOperator;
+    private final long minWriteRate;
+    private final long compactionDebtSoftLimit;
+    private final long compactionDebtHardLimit;
+    private final int valueLogThreshold;
+    private final long valueLogSegmentSize;
+    private final double valueLogGarbageRatio;
+    private final long writeBufferSize;
+    private final long defaultTtl;
+    private final double expiredCompactionRatio;
+    private final int ingestTableRecordCount;
+    private final KeyComparator keyComparator;
+    private final PrefixExtractor prefixExtractor;
 
     public Config(CompactionStrategy compactionStrategy, int memoryTableSize, int tableBlockSize, int indexBlockSize,
                   int tableWriterThreads, int tableCompactionThreads, long tableCacheSize, long indexCacheSize,
                   boolean printMetrics, Path tableDirectory, Path logDirectory, long maxCompactionRate,
-                  long maxWriteRate) {
+                  long maxWriteRate, int memoryTableSlowdownLimit, int memoryTableStopLimit, long maxWriteStallTime,
+                  boolean offHeapMemoryTables, int recoveryThreads, Durability durability, long logSyncInterval,
+                  MergeOperator mergeOperator, long minWriteRate, long compactionDebtSoftLimit,
+                  long compactionDebtHardLimit, int valueLogThreshold, long valueLogSegmentSize,
+                  double valueLogGarbageRatio, long writeBufferSize, long defaultTtl, double expiredCompactionRatio,
+                  int ingestTableRecordCount, KeyComparator keyComparator, PrefixExtractor prefixExtractor) {
         this.compactionStrategy = compactionStrategy;
         this.memoryTableSize = memoryTableSize;
         this.tableBlockSize = tableBlockSize;
@@ -152,6 +314,26 @@ public class Config {
         this.logDirectory = logDirectory;
         this.maxCompactionRate = maxCompactionRate;
         this.maxWriteRate = maxWriteRate;
+        this.memoryTableSlowdownLimit = memoryTableSlowdownLimit;
+        this.memoryTableStopLimit = memoryTableStopLimit;
+        this.maxWriteStallTime = maxWriteStallTime;
+        this.offHeapMemoryTables = offHeapMemoryTables;
+        this.recoveryThreads = recoveryThreads;
+        this.durability = durability;
+        this.logSyncInterval = logSyncInterval;
+        this.mergeOperator = mergeOperator;
+        this.minWriteRate = minWriteRate;
+        this.compactionDebtSoftLimit = compactionDebtSoftLimit;
+        this.compactionDebtHardLimit = compactionDebtHardLimit;
+        this.valueLogThreshold = valueLogThreshold;
+        this.valueLogSegmentSize = valueLogSegmentSize;
+        this.valueLogGarbageRatio = valueLogGarbageRatio;
+        this.writeBufferSize = writeBufferSize;
+        this.defaultTtl = defaultTtl;
+        this.expiredCompactionRatio = expiredCompactionRatio;
+        this.ingestTableRecordCount = ingestTableRecordCount;
+        this.keyComparator = keyComparator;
+        this.prefixExtractor = prefixExtractor;
     }
 
     public CompactionStrategy compactionStrategy() {
@@ -206,6 +388,86 @@ public class Config {
         return maxWriteRate;
     }
 
+    public int memoryTableSlowdownLimit() {
+        return memoryTableSlowdownLimit;
+    }
+
+    public int memoryTableStopLimit() {
+        return memoryTableStopLimit;
+    }
+
+    public long maxWriteStallTime() {
+        return maxWriteStallTime;
+    }
+
+    public boolean offHeapMemoryTables() {
+        return offHeapMemoryTables;
+    }
+
+    public int recoveryThreads() {
+        return recoveryThreads;
+    }
+
+    public Durability durability() {
+        return durability;
+    }
+
+    public long logSyncInterval() {
+        return logSyncInterval;
+    }
+
+    public MergeOperator mergeOperator() {
+        return mergeOperator;
+    }
+
+    public long minWriteRate() {
+        return minWriteRate;
+    }
+
+    public long compactionDebtSoftLimit() {
+        return compactionDebtSoftLimit;
+    }
+
+    public long compactionDebtHardLimit() {
+        return compactionDebtHardLimit;
+    }
+
+    public int valueLogThreshold() {
+        return valueLogThreshold;
+    }
+
+    public long valueLogSegmentSize() {
+        return valueLogSegmentSize;
+    }
+
+    public double valueLogGarbageRatio() {
+        return valueLogGarbageRatio;
+    }
+
+    public long writeBufferSize() {
+        return writeBufferSize;
+    }
+
+    public long defaultTtl() {
+        return defaultTtl;
+    }
+
+    public double expiredCompactionRatio() {
+        return expiredCompactionRatio;
+    }
+
+    public int ingestTableRecordCount() {
+        return ingestTableRecordCount;
+    }
+
+    public KeyComparator keyComparator() {
+        return keyComparator;
+    }
+
+    public PrefixExtractor prefixExtractor() {
+        return prefixExtractor;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -230,6 +492,29 @@ public class Config {
             return false;
         if (tableDirectory != null ? !tableDirectory.equals(config.tableDirectory) : config.tableDirectory != null)
             return false;
+        if (memoryTableSlowdownLimit != config.memoryTableSlowdownLimit) return false;
+        if (memoryTableStopLimit != config.memoryTableStopLimit) return false;
+        if (maxWriteStallTime != config.maxWriteStallTime) return false;
+        if (offHeapMemoryTables != config.offHeapMemoryTables) return false;
+        if (recoveryThreads != config.recoveryThreads) return false;
+        if (durability != null ? !durability.equals(config.durability) : config.durability != null) return false;
+        if (logSyncInterval != config.logSyncInterval) return false;
+        if (mergeOperator != null ? !mergeOperator.equals(config.mergeOperator) : config.mergeOperator != null)
+            return false;
+        if (minWriteRate != config.minWriteRate) return false;
+        if (compactionDebtSoftLimit != config.compactionDebtSoftLimit) return false;
+        if (compactionDebtHardLimit != config.compactionDebtHardLimit) return false;
+        if (valueLogThreshold != config.valueLogThreshold) return false;
+        if (valueLogSegmentSize != config.valueLogSegmentSize) return false;
+        if (Double.compare(valueLogGarbageRatio, config.valueLogGarbageRatio) != 0) return false;
+        if (writeBufferSize != config.writeBufferSize) return false;
+        if (defaultTtl != config.defaultTtl) return false;
+        if (Double.compare(expiredCompactionRatio, config.expiredCompactionRatio) != 0) return false;
+        if (ingestTableRecordCount != config.ingestTableRecordCount) return false;
+        if (keyComparator != null ? !keyComparator.equals(config.keyComparator) : config.keyComparator != null)
+            return false;
+        if (prefixExtractor != null ? !prefixExtractor.equals(config.prefixExtractor) : config.prefixExtractor !=
+                null) return false;
 
         return true;
     }
@@ -249,6 +534,28 @@ public class Config {
         result = 31 * result + (logDirectory != null ? logDirectory.hashCode() : 0);
         result = 31 * result + (int) (maxCompactionRate ^ (maxCompactionRate >>> 32));
         result = 31 * result + (int) (maxWriteRate ^ (maxWriteRate >>> 32));
+        result = 31 * result + memoryTableSlowdownLimit;
+        result = 31 * result + memoryTableStopLimit;
+        result = 31 * result + (int) (maxWriteStallTime ^ (maxWriteStallTime >>> 32));
+        result = 31 * result + (offHeapMemoryTables ? 1 : 0);
+        result = 31 * result + recoveryThreads;
+        result = 31 * result + (durability != null ? durability.hashCode() : 0);
+        result = 31 * result + (int) (logSyncInterval ^ (logSyncInterval >>> 32));
+        result = 31 * result + (mergeOperator != null ? mergeOperator.hashCode() : 0);
+        result = 31 * result + (int) (minWriteRate ^ (minWriteRate >>> 32));
+        result = 31 * result + (int) (compactionDebtSoftLimit ^ (compactionDebtSoftLimit >>> 32));
+        result = 31 * result + (int) (compactionDebtHardLimit ^ (compactionDebtHardLimit >>> 32));
+        result = 31 * result + valueLogThreshold;
+        result = 31 * result + (int) (valueLogSegmentSize ^ (valueLogSegmentSize >>> 32));
+        long garbageRatioBits = Double.doubleToLongBits(valueLogGarbageRatio);
+        result = 31 * result + (int) (garbageRatioBits ^ (garbageRatioBits >>> 32));
+        result = 31 * result + (int) (writeBufferSize ^ (writeBufferSize >>> 32));
+        result = 31 * result + (int) (defaultTtl ^ (defaultTtl >>> 32));
+        long expiredRatioBits = Double.doubleToLongBits(expiredCompactionRatio);
+        result = 31 * result + (int) (expiredRatioBits ^ (expiredRatioBits >>> 32));
+        result = 31 * result + ingestTableRecordCount;
+        result = 31 * result + (keyComparator != null ? keyComparator.hashCode() : 0);
+        result = 31 * result + (prefixExtractor != null ? prefixExtractor.hashCode() : 0);
         return result;
     }
 
@@ -268,6 +575,26 @@ public class Config {
                 ", logDirectory=" + logDirectory +
                 ", maxCompactionRate=" + maxCompactionRate +
                 ", maxWriteRate=" + maxWriteRate +
+                ", memoryTableSlowdownLimit=" + memoryTableSlowdownLimit +
+                ", memoryTableStopLimit=" + memoryTableStopLimit +
+                ", maxWriteStallTime=" + maxWriteStallTime +
+                ", offHeapMemoryTables=" + offHeapMemoryTables +
+                ", recoveryThreads=" + recoveryThreads +
+                ", durability=" + durability +
+                ", logSyncInterval=" + logSyncInterval +
+                ", mergeOperator=" + mergeOperator +
+                ", minWriteRate=" + minWriteRate +
+                ", compactionDebtSoftLimit=" + compactionDebtSoftLimit +
+                ", compactionDebtHardLimit=" + compactionDebtHardLimit +
+                ", valueLogThreshold=" + valueLogThreshold +
+                ", valueLogSegmentSize=" + valueLogSegmentSize +
+                ", valueLogGarbageRatio=" + valueLogGarbageRatio +
+                ", writeBufferSize=" + writeBufferSize +
+                ", defaultTtl=" + defaultTtl +
+                ", expiredCompactionRatio=" + expiredCompactionRatio +
+                ", ingestTableRecordCount=" + ingestTableRecordCount +
+                ", keyComparator=" + keyComparator +
+                ", prefixExtractor=" + prefixExtractor +
                 '}';
     }
 }
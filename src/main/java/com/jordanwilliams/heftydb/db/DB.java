@@ -20,6 +20,8 @@ import com.jordanwilliams.heftydb.util.CloseableIterator;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Future;
 
 /**
@@ -31,12 +33,56 @@ public interface DB {
 
     Snapshot put(ByteBuffer key, ByteBuffer value, boolean fsync) throws IOException;
 
+    /**
+     * Puts a value that expires once ttl milliseconds have passed. Like any other value it hides the older values of
+     * the key, and once it has expired the key reads as deleted.
+     */
+    Snapshot put(ByteBuffer key, ByteBuffer value, long ttl) throws IOException;
+
+    Snapshot put(ByteBuffer key, ByteBuffer value, long ttl, boolean fsync) throws IOException;
+
+    Snapshot write(WriteBatch batch, boolean fsync) throws IOException;
+
     Record get(ByteBuffer key) throws IOException;
 
     Record get(ByteBuffer key, Snapshot snapshot) throws IOException;
 
+    /**
+     * Reads a key without copying its value where possible. The Record may be a read-only view over cached table
+     * memory, which stays allocated until the lease is closed.
+     */
+    RecordLease lease(ByteBuffer key) throws IOException;
+
+    RecordLease lease(ByteBuffer key, Snapshot snapshot) throws IOException;
+
+    /**
+     * Reads a batch of keys at once. This is cheaper than a get per key, since the keys are sorted once and looked up
+     * in each table together.
+     *
+     * @return the Record for each key, or null where there is none, in the same order as the keys
+     */
+    List<Record> multiGet(List<ByteBuffer> keys) throws IOException;
+
+    List<Record> multiGet(List<ByteBuffer> keys, Snapshot snapshot) throws IOException;
+
     Snapshot delete(ByteBuffer key) throws IOException;
 
+    Snapshot deleteRange(ByteBuffer startKey, ByteBuffer endKey) throws IOException;
+
+    Snapshot deleteRange(ByteBuffer startKey, ByteBuffer endKey, boolean fsync) throws IOException;
+
+    /**
+     * Bulk loads Records sorted by key straight into new tables, bypassing the commit log and the MemoryTables. The
+     * Records all share the returned Snapshot, which is allocated once every table is written, so they become visible
+     * together and only to snapshots taken after the ingest. Writes made while an ingest is running are older than
+     * the ingested Records.
+     */
+    Snapshot ingest(Iterator<Record> sortedRecords) throws IOException;
+
+    Snapshot merge(ByteBuffer key, ByteBuffer operand) throws IOException;
+
+    Snapshot merge(ByteBuffer key, ByteBuffer operand, boolean fsync) throws IOException;
+
     CloseableIterator<Record> ascendingIterator(Snapshot snapshot) throws IOException;
 
     CloseableIterator<Record> ascendingIterator(ByteBuffer key, Snapshot snapshot) throws IOException;
@@ -45,6 +91,25 @@ public interface DB {
 
     CloseableIterator<Record> descendingIterator(ByteBuffer key, Snapshot snapshot) throws IOException;
 
+    /**
+     * Iterates in ascending order from a key up to, but not including, an end key. Tables are only read as far as the
+     * end key, so a short range doesn't pay for reading ahead past it.
+     */
+    CloseableIterator<Record> ascendingIterator(ByteBuffer key, ByteBuffer endKey, Snapshot snapshot) throws
+            IOException;
+
+    /**
+     * Iterates in descending order from a key down to, but not including, an end key.
+     */
+    CloseableIterator<Record> descendingIterator(ByteBuffer key, ByteBuffer endKey, Snapshot snapshot) throws
+            IOException;
+
+    /**
+     * Iterates over the Records whose keys start with a prefix, in ascending order. If the prefix is one that the
+     * configured PrefixExtractor produces, Tables whose bloom filter rules it out are skipped.
+     */
+    CloseableIterator<Record> prefixIterator(ByteBuffer prefix, Snapshot snapshot) throws IOException;
+
     void retainSnapshot(Snapshot snapshot);
 
     void releaseSnapshot(Snapshot snapshot);
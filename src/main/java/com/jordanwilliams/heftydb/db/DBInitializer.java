@@ -16,27 +16,47 @@
 
 package com.jordanwilliams.heftydb.db;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.index.IndexBlock;
 import com.jordanwilliams.heftydb.metrics.Metrics;
+import com.jordanwilliams.heftydb.read.CompactionTupleIterator;
 import com.jordanwilliams.heftydb.state.Caches;
 import com.jordanwilliams.heftydb.state.Paths;
-import com.jordanwilliams.heftydb.table.MutableTable;
 import com.jordanwilliams.heftydb.table.Table;
 import com.jordanwilliams.heftydb.table.file.FileTable;
 import com.jordanwilliams.heftydb.table.file.FileTableWriter;
+import com.jordanwilliams.heftydb.table.file.LegacyTable;
 import com.jordanwilliams.heftydb.table.file.TupleBlock;
+import com.jordanwilliams.heftydb.table.memory.ArenaTupleMap;
 import com.jordanwilliams.heftydb.table.memory.MemoryTable;
+import com.jordanwilliams.heftydb.table.memory.SkipListTupleMap;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+import com.jordanwilliams.heftydb.valuelog.ValueLog;
 import com.jordanwilliams.heftydb.write.CommitLog;
+import com.jordanwilliams.heftydb.write.LogFilePool;
+import com.jordanwilliams.heftydb.write.TableIngester;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Restores the state of an existing database and does any clean up needed to get into a consistent state.
+ * Each commit log is independent of the others, so logs are replayed into tables in parallel.
+ *
+ * Tables written before Table files had a format version are rewritten in the current format first, and commit logs
+ * of that age are replayed as they are, so that an existing database is upgraded when it is opened.
  */
 public class DBInitializer {
 
@@ -44,6 +64,7 @@ public class DBInitializer {
     private final Paths paths;
     private final Caches caches;
     private final Metrics metrics;
+    private ValueLog valueLog;
     private long maxSnapshotId;
 
     public DBInitializer(Config config, Metrics metrics) {
@@ -55,10 +76,13 @@ public class DBInitializer {
     }
 
     public DBState initialize() throws IOException {
+        TableIngester.deleteUnlinkedTables(paths);
         deleteTempTables();
+        valueLog = ValueLog.open(paths, config, metrics);
+        upgradeLegacyTables();
         writeTablesFromLogs();
         List<Table> tables = loadTables();
-        return new DBState(tables, config, paths, caches, maxSnapshotId);
+        return new DBState(tables, config, paths, caches, valueLog, maxSnapshotId);
     }
 
     private List<Table> loadTables() throws IOException {
@@ -66,7 +90,8 @@ public class DBInitializer {
         Set<Long> tableIds = paths.tableFileIds();
 
         for (Long id : tableIds) {
-            Table table = FileTable.open(id, paths, caches.recordBlockCache(), caches.indexBlockCache(), metrics);
+            Table table = FileTable.open(id, paths, caches.recordBlockCache(), caches.indexBlockCache(), valueLog,
+                    config.keyComparator(), metrics);
             maxSnapshotId = Math.max(table.maxSnapshotId(), maxSnapshotId);
             tables.add(table);
         }
@@ -84,31 +109,123 @@ public class DBInitializer {
         }
     }
 
+    /**
+     * Rewrites each legacy Table as one or more level 1 Tables. Legacy Tables were sorted with signed key bytes, so
+     * their Tuples are sorted again a MemoryTable at a time, and the resulting Tables may overlap until they are
+     * compacted. The legacy files are only deleted once every Tuple has been rewritten.
+     */
+    private void upgradeLegacyTables() throws IOException {
+        SortedSet<Long> tableIds = paths.tableFileIds();
+        SortedSet<Long> logIds = paths.logFileIds();
+        long nextTableId = Math.max(tableIds.isEmpty() ? 0 : tableIds.last(), logIds.isEmpty() ? 0 : logIds.last());
+
+        for (Long id : tableIds) {
+            if (!LegacyTable.isLegacy(id, paths)) {
+                continue;
+            }
+
+            LegacyTable legacyTable = LegacyTable.open(id, paths);
+            MemoryTable memoryTable = null;
+
+            try {
+                for (Tuple tuple : legacyTable) {
+                    if (memoryTable == null) {
+                        memoryTable = new MemoryTable(++nextTableId, new SkipListTupleMap(config.keyComparator()));
+                    }
+
+                    memoryTable.put(tuple);
+
+                    if (memoryTable.size() >= config.memoryTableSize()) {
+                        writeTable(memoryTable, memoryTable.iterator());
+                        memoryTable.close();
+                        memoryTable = null;
+                    }
+                }
+
+                if (memoryTable != null) {
+                    writeTable(memoryTable, memoryTable.iterator());
+                    memoryTable.close();
+                }
+            } finally {
+                legacyTable.close();
+            }
+
+            Files.delete(paths.tablePath(id));
+            Files.deleteIfExists(paths.indexPath(id));
+            Files.deleteIfExists(paths.filterPath(id));
+        }
+    }
+
     private void writeTablesFromLogs() throws IOException {
         Set<Long> logIds = paths.logFileIds();
 
-        for (Long id : logIds) {
+        if (logIds.isEmpty()) {
+            return;
+        }
+
+        final LogFilePool logFilePool = new LogFilePool(paths, config.memoryTableSize());
+        int threadCount = Math.max(1, Math.min(config.recoveryThreads(), logIds.size()));
+        ExecutorService recoveryExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("Recovery thread %d").build());
+        List<Future<?>> recoveryTasks = new ArrayList<>();
+
+        try {
+            for (final Long id : logIds) {
+                recoveryTasks.add(recoveryExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        writeTableFromLog(id);
+                        logFilePool.recycle(id);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> recoveryTask : recoveryTasks) {
+                recoveryTask.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying commit logs");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new RuntimeException(e.getCause());
+        } finally {
+            recoveryExecutor.shutdownNow();
+        }
+    }
+
+    private void writeTableFromLog(long id) throws IOException {
+        //Tuples read from the log are slices of the mapped file, which an arena copies off-heap on insert
+        MemoryTable memoryTable = new MemoryTable(id, config.offHeapMemoryTables() ? ArenaTupleMap.forTableSize
+                (config.memoryTableSize(), config.keyComparator()) : new SkipListTupleMap(config.keyComparator()));
+
+        try {
             CommitLog log = CommitLog.open(id, paths);
-            Table memoryTable = readTable(log);
-            log.close();
 
-            FileTableWriter.Task tableWriterTask = new FileTableWriter.Task.Builder().tableId(id).config(config)
-                    .paths(paths).level(1).tupleCount(memoryTable.tupleCount()).source(memoryTable.ascendingIterator
-                            (Long.MAX_VALUE)).build();
+            for (Tuple tuple : log) {
+                memoryTable.put(tuple);
+            }
 
-            tableWriterTask.run();
+            log.close();
 
-            Files.deleteIfExists(paths.logPath(id));
+            //Versions are filtered the same way a flush does. No snapshots can be retained yet, so only the newest
+            //version of each key is left
+            writeTable(memoryTable, new CompactionTupleIterator(Long.MAX_VALUE, new CloseableIterator
+                    .Wrapper<Tuple>(memoryTable.iterator())));
+        } finally {
+            memoryTable.close();
         }
     }
 
-    private Table readTable(CommitLog log) {
-        MutableTable memoryTable = new MemoryTable(log.tableId());
-
-        for (Tuple tuple : log) {
-            memoryTable.put(tuple);
-        }
+    private void writeTable(MemoryTable memoryTable, Iterator<Tuple> source) {
+        FileTableWriter.Task tableWriterTask = new FileTableWriter.Task.Builder().tableId(memoryTable.id())
+                .config(config).paths(paths).level(1).tupleCount(memoryTable.tupleCount()).source(source)
+                .rangeTombstones(memoryTable.rangeTombstones()).valueLog(valueLog).build();
 
-        return memoryTable;
+        tableWriterTask.run();
     }
 }
@@ -21,6 +21,7 @@ import com.jordanwilliams.heftydb.state.Paths;
 import com.jordanwilliams.heftydb.state.Snapshots;
 import com.jordanwilliams.heftydb.state.Tables;
 import com.jordanwilliams.heftydb.table.Table;
+import com.jordanwilliams.heftydb.valuelog.ValueLog;
 
 import java.util.Collection;
 
@@ -34,13 +35,20 @@ public class DBState {
     private final Config config;
     private final Paths paths;
     private final Caches caches;
+    private final ValueLog valueLog;
 
     public DBState(Collection<Table> tables, Config config, Paths paths, Caches caches, long currentSnapshotId) {
+        this(tables, config, paths, caches, null, currentSnapshotId);
+    }
+
+    public DBState(Collection<Table> tables, Config config, Paths paths, Caches caches, ValueLog valueLog,
+                   long currentSnapshotId) {
         this.snapshots = new Snapshots(currentSnapshotId);
-        this.tables = new Tables(tables);
+        this.tables = new Tables(tables, config.keyComparator());
         this.config = config;
         this.paths = paths;
         this.caches = caches;
+        this.valueLog = valueLog;
     }
 
     public Paths paths() {
@@ -59,6 +67,10 @@ public class DBState {
         return caches;
     }
 
+    public ValueLog valueLog() {
+        return valueLog;
+    }
+
     public Config config() {
         return config;
     }
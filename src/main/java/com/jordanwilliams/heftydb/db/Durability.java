@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.db;
+
+/**
+ * Controls how writes are made durable through the commit log.
+ */
+public enum Durability {
+
+    /**
+     * Writes skip the commit log entirely, so anything still in a MemoryTable is lost on a crash. Suited to bulk
+     * loads and data that can be rebuilt.
+     */
+    NONE,
+
+    /**
+     * Writes go to the commit log, which is forced to disk in the background every log sync interval. A crash loses
+     * at most the writes of the last interval, unless a write explicitly asks for an fsync.
+     */
+    PERIODIC,
+
+    /**
+     * Every write is forced to disk before it returns.
+     */
+    SYNC
+}
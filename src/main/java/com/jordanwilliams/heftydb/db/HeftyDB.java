@@ -27,11 +27,17 @@ import com.jordanwilliams.heftydb.state.Caches;
 import com.jordanwilliams.heftydb.state.Paths;
 import com.jordanwilliams.heftydb.state.Snapshots;
 import com.jordanwilliams.heftydb.state.Tables;
+import com.jordanwilliams.heftydb.table.TupleLease;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
+import com.jordanwilliams.heftydb.valuelog.ValueLog;
+import com.jordanwilliams.heftydb.write.TableIngester;
 import com.jordanwilliams.heftydb.write.TableWriter;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Future;
 
 /**
@@ -74,28 +80,38 @@ public class HeftyDB implements DB {
     }
 
     private final TableWriter tableWriter;
+    private final TableIngester tableIngester;
     private final TableReader tableReader;
     private final Compactor compactor;
+    private final ValueLog valueLog;
     private final Snapshots snapshots;
     private final Metrics metrics;
 
     private final Timer writeTimer;
     private final Timer readTimer;
+    private final Timer multiReadTimer;
     private final Timer scanTimer;
+    private final Timer ingestTimer;
     private final Meter writeRate;
     private final Meter readRate;
     private final Meter scanRate;
 
-    private HeftyDB(Config config, Paths paths, Tables tables, Snapshots snapshots, Caches caches, Metrics metrics) {
+    private HeftyDB(Config config, Paths paths, Tables tables, Snapshots snapshots, Caches caches, ValueLog valueLog,
+                    Metrics metrics) {
         this.snapshots = snapshots;
-        this.tableWriter = new TableWriter(config, paths, tables, snapshots, caches, metrics);
-        this.tableReader = new TableReader(tables, metrics);
-        this.compactor = new Compactor(config, paths, tables, caches, config.compactionStrategy(), metrics, snapshots);
+        this.tableWriter = new TableWriter(config, paths, tables, snapshots, caches, valueLog, metrics);
+        this.tableIngester = new TableIngester(config, paths, tables, snapshots, caches, valueLog, metrics);
+        this.tableReader = new TableReader(tables, config.mergeOperator(), config.prefixExtractor(), metrics);
+        this.compactor = new Compactor(config, paths, tables, caches, valueLog, config.compactionStrategy(), metrics,
+                snapshots);
+        this.valueLog = valueLog;
         this.metrics = metrics;
 
         this.writeTimer = metrics.timer("write");
         this.readTimer = metrics.timer("read");
+        this.multiReadTimer = metrics.timer("multiRead");
         this.scanTimer = metrics.timer("scan");
+        this.ingestTimer = metrics.timer("ingest");
         this.writeRate = metrics.meter("write.rate");
         this.readRate = metrics.meter("read.rate");
         this.scanRate = metrics.meter("scan.rate");
@@ -111,6 +127,25 @@ public class HeftyDB implements DB {
         return write(key, value, fsync);
     }
 
+    @Override
+    public Snapshot put(ByteBuffer key, ByteBuffer value, long ttl) throws IOException {
+        return put(key, value, ttl, false);
+    }
+
+    @Override
+    public Snapshot put(ByteBuffer key, ByteBuffer value, long ttl, boolean fsync) throws IOException {
+        return write(new WriteBatch().put(key, value, ttl), fsync);
+    }
+
+    @Override
+    public Snapshot write(WriteBatch batch, boolean fsync) throws IOException {
+        Timer.Context watch = writeTimer.time();
+        Snapshot snapshot = tableWriter.write(batch, fsync);
+        watch.stop();
+        writeRate.mark(batch.size());
+        return snapshot;
+    }
+
     @Override
     public Record get(ByteBuffer key) throws IOException {
         return read(key, snapshots.currentId());
@@ -121,11 +156,67 @@ public class HeftyDB implements DB {
         return read(key, snapshot.id());
     }
 
+    @Override
+    public RecordLease lease(ByteBuffer key) throws IOException {
+        return lease(key, snapshots.currentId());
+    }
+
+    @Override
+    public RecordLease lease(ByteBuffer key, Snapshot snapshot) throws IOException {
+        return lease(key, snapshot.id());
+    }
+
+    @Override
+    public List<Record> multiGet(List<ByteBuffer> keys) throws IOException {
+        return read(keys, snapshots.currentId());
+    }
+
+    @Override
+    public List<Record> multiGet(List<ByteBuffer> keys, Snapshot snapshot) throws IOException {
+        return read(keys, snapshot.id());
+    }
+
     @Override
     public Snapshot delete(ByteBuffer key) throws IOException {
         return write(key, null, false);
     }
 
+    @Override
+    public Snapshot deleteRange(ByteBuffer startKey, ByteBuffer endKey) throws IOException {
+        return deleteRange(startKey, endKey, false);
+    }
+
+    @Override
+    public Snapshot deleteRange(ByteBuffer startKey, ByteBuffer endKey, boolean fsync) throws IOException {
+        Timer.Context watch = writeTimer.time();
+        Snapshot snapshot = tableWriter.deleteRange(startKey, endKey, fsync);
+        watch.stop();
+        writeRate.mark(startKey.capacity() + endKey.capacity());
+        return snapshot;
+    }
+
+    @Override
+    public Snapshot ingest(Iterator<Record> sortedRecords) throws IOException {
+        Timer.Context watch = ingestTimer.time();
+        Snapshot snapshot = tableIngester.ingest(sortedRecords);
+        watch.stop();
+        return snapshot;
+    }
+
+    @Override
+    public Snapshot merge(ByteBuffer key, ByteBuffer operand) throws IOException {
+        return merge(key, operand, false);
+    }
+
+    @Override
+    public Snapshot merge(ByteBuffer key, ByteBuffer operand, boolean fsync) throws IOException {
+        Timer.Context watch = writeTimer.time();
+        Snapshot snapshot = tableWriter.merge(key, operand, fsync);
+        watch.stop();
+        writeRate.mark(key.capacity() + operand.capacity());
+        return snapshot;
+    }
+
     @Override
     public CloseableIterator<Record> ascendingIterator(Snapshot snapshot) throws IOException {
         return new InstrumentedScanIterator(new Record.TupleIterator(tableReader.ascendingIterator(snapshot.id())));
@@ -148,6 +239,26 @@ public class HeftyDB implements DB {
                 snapshot.id()), snapshot.id())));
     }
 
+    @Override
+    public CloseableIterator<Record> ascendingIterator(ByteBuffer key, ByteBuffer endKey, Snapshot snapshot) throws
+            IOException {
+        return new InstrumentedScanIterator(new Record.TupleIterator(tableReader.ascendingIterator(new Key(key,
+                snapshot.id()), endKey, snapshot.id())));
+    }
+
+    @Override
+    public CloseableIterator<Record> descendingIterator(ByteBuffer key, ByteBuffer endKey, Snapshot snapshot) throws
+            IOException {
+        return new InstrumentedScanIterator(new Record.TupleIterator(tableReader.descendingIterator(new Key(key,
+                snapshot.id()), endKey, snapshot.id())));
+    }
+
+    @Override
+    public CloseableIterator<Record> prefixIterator(ByteBuffer prefix, Snapshot snapshot) throws IOException {
+        return new InstrumentedScanIterator(new Record.TupleIterator(tableReader.prefixIterator(prefix, snapshot
+                .id())));
+    }
+
     @Override
     public void retainSnapshot(Snapshot snapshot) {
         snapshots.retain(snapshot.id());
@@ -164,6 +275,7 @@ public class HeftyDB implements DB {
         compactor.close();
         tableWriter.close();
         tableReader.close();
+        valueLog.close();
     }
 
     @Override
@@ -195,9 +307,45 @@ public class HeftyDB implements DB {
         return tuple == null || tuple.value().isEmpty() ? null : new Record(tuple);
     }
 
+    private RecordLease lease(ByteBuffer key, long snapshotId) {
+        Timer.Context watch = readTimer.time();
+        TupleLease tupleLease = tableReader.lease(new Key(key, snapshotId));
+        watch.stop();
+        Tuple tuple = tupleLease.tuple();
+        if (tuple != null) {
+            readRate.mark(tuple.size());
+        }
+        return new RecordLease(tuple == null || tuple.value().isEmpty() ? null : new Record(tuple), tupleLease);
+    }
+
+    private List<Record> read(List<ByteBuffer> keys, long snapshotId) {
+        Timer.Context watch = multiReadTimer.time();
+        List<Key> readKeys = new ArrayList<Key>(keys.size());
+
+        for (ByteBuffer key : keys) {
+            readKeys.add(new Key(key, snapshotId));
+        }
+
+        List<Tuple> tuples = tableReader.get(readKeys);
+        watch.stop();
+
+        List<Record> records = new ArrayList<Record>(tuples.size());
+
+        for (Tuple tuple : tuples) {
+            if (tuple != null) {
+                readRate.mark(tuple.size());
+            }
+
+            records.add(tuple == null || tuple.value().isEmpty() ? null : new Record(tuple));
+        }
+
+        return records;
+    }
+
     public static DB open(Config config) throws IOException {
         Metrics metrics = new Metrics(config);
         DBState state = new DBInitializer(config, metrics).initialize();
-        return new HeftyDB(state.config(), state.paths(), state.tables(), state.snapshots(), state.caches(), metrics);
+        return new HeftyDB(state.config(), state.paths(), state.tables(), state.snapshots(), state.caches(),
+                state.valueLog(), metrics);
     }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.db;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Combines the operands written with DB.merge with the value of a key. Operands are folded lazily, both on reads and
+ * during compaction, and often before the value they apply to is known. A MergeOperator must therefore be
+ * associative: merging a value with two operands one at a time has to give the same result as merging it with the
+ * result of merging the two operands.
+ */
+public interface MergeOperator {
+
+    /**
+     * Merges an operand into an existing value. The buffers passed in must not be modified.
+     *
+     * @param key           the key that is being merged
+     * @param existingValue the current value of the key, or an older operand. Null if the key has no value.
+     * @param operand       the operand to apply
+     * @return the merged value
+     */
+    ByteBuffer merge(ByteBuffer key, ByteBuffer existingValue, ByteBuffer operand);
+}
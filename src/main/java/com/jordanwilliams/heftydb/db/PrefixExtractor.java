@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.db;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Extracts the prefix of a key that is added to the bloom filter of each Table, so that a prefix scan can skip the
+ * Tables that hold no keys with that prefix. The name of the extractor is stored with each filter, and filters written
+ * by an extractor with a different name are never used to skip a Table.
+ */
+public abstract class PrefixExtractor {
+
+    /**
+     * @return the prefix of the key, or null if the key has no prefix. The buffer passed in must not be modified.
+     */
+    public abstract ByteBuffer prefix(ByteBuffer key);
+
+    /**
+     * @return a name that identifies both the extractor and its settings
+     */
+    public abstract String name();
+
+    /**
+     * @return true if the given bytes are themselves a prefix that this extractor produces, so that every key that
+     * starts with them has exactly that prefix
+     */
+    public boolean isPrefix(ByteBuffer prefix) {
+        ByteBuffer extracted = prefix(prefix);
+        return extracted != null && extracted.equals(prefix);
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    /**
+     * @return a PrefixExtractor that uses the first prefixLength bytes of each key. Shorter keys have no prefix.
+     */
+    public static PrefixExtractor fixedLength(final int prefixLength) {
+        if (prefixLength <= 0) {
+            throw new IllegalArgumentException("A prefix length must be positive");
+        }
+
+        return new PrefixExtractor() {
+            @Override
+            public ByteBuffer prefix(ByteBuffer key) {
+                if (key.remaining() < prefixLength) {
+                    return null;
+                }
+
+                ByteBuffer prefix = key.duplicate();
+                prefix.limit(prefix.position() + prefixLength);
+                return prefix.slice();
+            }
+
+            @Override
+            public String name() {
+                return "fixedLength(" + prefixLength + ")";
+            }
+        };
+    }
+
+    /**
+     * @return a PrefixExtractor that uses each key up to and including the given number of delimiters, such as
+     * "tenant/entity/" for keys like "tenant/entity/id" with a delimiter of '/' and a count of 2. Keys with fewer
+     * delimiters have no prefix.
+     */
+    public static PrefixExtractor delimited(final byte delimiter, final int delimiterCount) {
+        if (delimiterCount <= 0) {
+            throw new IllegalArgumentException("A delimiter count must be positive");
+        }
+
+        return new PrefixExtractor() {
+            @Override
+            public ByteBuffer prefix(ByteBuffer key) {
+                int delimitersSeen = 0;
+
+                for (int i = key.position(); i < key.limit(); i++) {
+                    if (key.get(i) == delimiter && ++delimitersSeen == delimiterCount) {
+                        ByteBuffer prefix = key.duplicate();
+                        prefix.limit(i + 1);
+                        return prefix.slice();
+                    }
+                }
+
+                return null;
+            }
+
+            @Override
+            public String name() {
+                return "delimited(" + delimiter + ", " + delimiterCount + ")";
+            }
+        };
+    }
+}
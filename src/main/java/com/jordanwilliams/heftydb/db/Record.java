@@ -68,7 +68,7 @@ public class Record implements Comparable<Record> {
     }
 
     public Record(Tuple tuple) {
-        this(tuple.key().data(), tuple.value().data(), new Snapshot(tuple.key().snapshotId()));
+        this(tuple.key().data(), tuple.value().unexpired().data(), new Snapshot(tuple.key().snapshotId()));
     }
 
     public ByteBuffer key() {
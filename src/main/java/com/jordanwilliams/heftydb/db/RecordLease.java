@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.db;
+
+import com.jordanwilliams.heftydb.table.TupleLease;
+
+import java.io.Closeable;
+
+/**
+ * The result of a leased database read. The key and value of the Record may be read-only views over cached Table
+ * memory rather than copies, so they must not be used after the lease is closed.
+ */
+public class RecordLease implements Closeable {
+
+    private final Record record;
+    private final TupleLease tupleLease;
+
+    public RecordLease(Record record, TupleLease tupleLease) {
+        this.record = record;
+        this.tupleLease = tupleLease;
+    }
+
+    /**
+     * @return the Record that was read, or null if there is none
+     */
+    public Record record() {
+        return record;
+    }
+
+    @Override
+    public void close() {
+        tupleLease.close();
+    }
+}
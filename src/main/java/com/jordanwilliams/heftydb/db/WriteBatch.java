@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.db;
+
+import com.jordanwilliams.heftydb.data.Value;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of puts, deletes, range deletes and merges that are written to a database atomically. Every operation in a
+ * batch is logged as a single commit log record and becomes visible to readers at the same time.
+ */
+public class WriteBatch {
+
+    public static class Operation {
+
+        private final ByteBuffer key;
+        private final ByteBuffer value;
+        private final Value.Type type;
+        private final long ttl;
+
+        private Operation(ByteBuffer key, ByteBuffer value, Value.Type type, long ttl) {
+            this.key = key;
+            this.value = value;
+            this.type = type;
+            this.ttl = ttl;
+        }
+
+        public ByteBuffer key() {
+            return key;
+        }
+
+        public ByteBuffer value() {
+            return value;
+        }
+
+        public boolean isDelete() {
+            return value == null;
+        }
+
+        public Value.Type type() {
+            return type;
+        }
+
+        /**
+         * @return the number of milliseconds after which a put expires, or 0 to use the default of the database
+         */
+        public long ttl() {
+            return ttl;
+        }
+
+        public boolean isMerge() {
+            return type == Value.Type.MERGE_OPERAND;
+        }
+
+        /**
+         * @return true if this operation deletes the keys from its key up to, but not including, its value
+         */
+        public boolean isRangeDelete() {
+            return type == Value.Type.RANGE_TOMBSTONE;
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<Operation>();
+    private long size;
+    private int mergeCount;
+
+    public WriteBatch put(ByteBuffer key, ByteBuffer value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Use delete to remove a key");
+        }
+
+        return add(key, value, Value.Type.VALUE);
+    }
+
+    /**
+     * Puts a value that is hidden from reads once ttl milliseconds have passed, and dropped by the next compaction
+     * of its Table after that.
+     */
+    public WriteBatch put(ByteBuffer key, ByteBuffer value, long ttl) {
+        if (value == null) {
+            throw new IllegalArgumentException("Use delete to remove a key");
+        }
+
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("A ttl must be positive");
+        }
+
+        return add(key, value, Value.Type.VALUE, ttl);
+    }
+
+    public WriteBatch delete(ByteBuffer key) {
+        return add(key, null, Value.Type.VALUE);
+    }
+
+    public WriteBatch merge(ByteBuffer key, ByteBuffer operand) {
+        if (operand == null) {
+            throw new IllegalArgumentException("A merge operand is required");
+        }
+
+        mergeCount++;
+        return add(key, operand, Value.Type.MERGE_OPERAND);
+    }
+
+    /**
+     * Deletes every key from startKey up to, but not including, endKey. The start key must sort before the end key in
+     * the order of the KeyComparator of the database, which is checked when the batch is written.
+     */
+    public WriteBatch deleteRange(ByteBuffer startKey, ByteBuffer endKey) {
+        if (startKey == null || endKey == null || startKey.equals(endKey)) {
+            throw new IllegalArgumentException("A range delete needs a start key that sorts before its end key");
+        }
+
+        return add(startKey, endKey, Value.Type.RANGE_TOMBSTONE);
+    }
+
+    public List<Operation> operations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    public int count() {
+        return operations.size();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public boolean hasMerges() {
+        return mergeCount > 0;
+    }
+
+    public void clear() {
+        operations.clear();
+        size = 0;
+        mergeCount = 0;
+    }
+
+    private WriteBatch add(ByteBuffer key, ByteBuffer value, Value.Type type) {
+        return add(key, value, type, 0);
+    }
+
+    private WriteBatch add(ByteBuffer key, ByteBuffer value, Value.Type type, long ttl) {
+        operations.add(new Operation(key, value, type, ttl));
+        size += key.capacity() + (value == null ? 0 : value.capacity());
+        return this;
+    }
+}
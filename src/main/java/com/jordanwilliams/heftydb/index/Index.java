@@ -18,6 +18,7 @@ package com.jordanwilliams.heftydb.index;
 
 import com.codahale.metrics.Histogram;
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
 import com.jordanwilliams.heftydb.io.ImmutableChannelFile;
 import com.jordanwilliams.heftydb.io.ImmutableFile;
 import com.jordanwilliams.heftydb.metrics.CacheHitGauge;
@@ -29,6 +30,8 @@ import com.jordanwilliams.heftydb.state.Paths;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Represents a read-only view of a B+tree database index file.
@@ -41,16 +44,19 @@ public class Index {
     private final long tableId;
     private final ImmutableFile indexFile;
     private final IndexBlock.Cache cache;
+    private final KeyComparator keyComparator;
     private final Metrics metrics;
     private final IndexBlock rootIndexBlock;
 
     private final Histogram indexSearchLevels;
     private final CacheHitGauge indexCacheHitRate;
 
-    private Index(long tableId, ImmutableFile indexFile, IndexBlock.Cache cache, Metrics metrics) throws IOException {
+    private Index(long tableId, ImmutableFile indexFile, IndexBlock.Cache cache, KeyComparator keyComparator,
+                  Metrics metrics) throws IOException {
         this.tableId = tableId;
         this.indexFile = indexFile;
         this.cache = cache;
+        this.keyComparator = keyComparator;
         this.metrics = metrics;
         long rootBlockOffset = indexFile.readLong(indexFile.size() - ROOT_INDEX_BLOCK_OFFSET);
         int rootBlockSize = indexFile.readInt(indexFile.size() - ROOT_INDEX_BLOCK_SIZE_OFFSET);
@@ -77,12 +83,55 @@ public class Index {
         return currentIndexRecord;
     }
 
+    /**
+     * Looks up a batch of keys in one pass over the index. Keys that fall into the same index block share a single
+     * block lookup on each level, rather than each key descending from the root on its own.
+     *
+     * @param sortedKeys the keys to look up, in ascending order
+     * @return the leaf IndexRecord for each key, or null where a key sorts before the whole table
+     */
+    public List<IndexRecord> get(List<Key> sortedKeys) throws IOException {
+        IndexRecord[] indexRecords = new IndexRecord[sortedKeys.size()];
+        get(rootIndexBlock, sortedKeys, 0, sortedKeys.size(), indexRecords);
+        return Arrays.asList(indexRecords);
+    }
+
     public void close() throws IOException {
         rootIndexBlock.memory().release();
         indexFile.close();
         cache.clear();
     }
 
+    private void get(IndexBlock indexBlock, List<Key> sortedKeys, int fromIndex, int toIndex, IndexRecord[]
+            indexRecords) throws IOException {
+        int groupStart = fromIndex;
+
+        while (groupStart < toIndex) {
+            int recordIndex = indexBlock.floorIndex(sortedKeys.get(groupStart));
+            int groupEnd = groupStart + 1;
+
+            while (groupEnd < toIndex && indexBlock.floorIndex(sortedKeys.get(groupEnd)) == recordIndex) {
+                groupEnd++;
+            }
+
+            IndexRecord indexRecord = recordIndex < 0 ? null : indexBlock.get(recordIndex);
+
+            if (indexRecord == null || indexRecord.isLeaf()) {
+                Arrays.fill(indexRecords, groupStart, groupEnd, indexRecord);
+            } else {
+                IndexBlock childIndexBlock = getIndexBlock(indexRecord.blockOffset(), indexRecord.blockSize());
+
+                try {
+                    get(childIndexBlock, sortedKeys, groupStart, groupEnd, indexRecords);
+                } finally {
+                    childIndexBlock.memory().release();
+                }
+            }
+
+            groupStart = groupEnd;
+        }
+    }
+
     private IndexBlock getIndexBlock(long blockOffset, int blockSize) throws IOException {
         IndexBlock indexBlock = cache.get(tableId, blockOffset);
         indexCacheHitRate.sample(indexBlock != null);
@@ -102,7 +151,7 @@ public class Index {
             ByteBuffer indexBuffer = indexPointer.directBuffer();
             indexFile.read(indexBuffer, blockOffset);
             indexBuffer.rewind();
-            return new IndexBlock(new SortedByteMap(indexPointer));
+            return new IndexBlock(new SortedByteMap(indexPointer, keyComparator));
         } catch (IOException e) {
             indexPointer.release();
             throw e;
@@ -110,7 +159,12 @@ public class Index {
     }
 
     public static Index open(long tableId, Paths paths, IndexBlock.Cache cache, Metrics metrics) throws IOException {
+        return open(tableId, paths, cache, KeyComparator.LEXICOGRAPHIC, metrics);
+    }
+
+    public static Index open(long tableId, Paths paths, IndexBlock.Cache cache, KeyComparator keyComparator,
+                             Metrics metrics) throws IOException {
         ImmutableFile indexFile = ImmutableChannelFile.open(paths.indexPath(tableId));
-        return new Index(tableId, indexFile, cache, metrics);
+        return new Index(tableId, indexFile, cache, keyComparator, metrics);
     }
 }
@@ -147,17 +147,26 @@ public class IndexBlock implements Iterable<IndexRecord>, Offheap {
     }
 
     public IndexRecord get(Key key) {
+        int closestIndex = floorIndex(key);
+        return closestIndex < 0 ? null : deserialize(closestIndex);
+    }
+
+    /**
+     * @return the position of the IndexRecord whose block could contain the key, or -1 if the key sorts before every
+     * block
+     */
+    public int floorIndex(Key key) {
         int closestIndex = sortedByteMap.floorIndex(key);
 
         if (closestIndex < 0) {
-            return null;
+            return -1;
         }
 
-        if (closestIndex >= sortedByteMap.entryCount()) {
-            closestIndex = sortedByteMap.entryCount() - 1;
-        }
+        return Math.min(closestIndex, sortedByteMap.entryCount() - 1);
+    }
 
-        return deserialize(closestIndex);
+    public IndexRecord get(int index) {
+        return deserialize(index);
     }
 
     @Override
@@ -42,12 +42,16 @@ public class AppendChannelFile implements AppendFile {
         }
     };
 
+    private static final int PREALLOCATE_BUFFER_SIZE = 65536;
+
     private final MemoryPointer appendBuffer;
     private final FileChannel channel;
+    private final boolean forceMetadata;
     private final AtomicLong appendPosition = new AtomicLong();
 
-    private AppendChannelFile(FileChannel channel, int appendBufferSize) {
+    private AppendChannelFile(FileChannel channel, int appendBufferSize, boolean forceMetadata) {
         this.channel = channel;
+        this.forceMetadata = forceMetadata;
         this.appendBuffer = MemoryAllocator.allocate(appendBufferSize);
     }
 
@@ -62,13 +66,18 @@ public class AppendChannelFile implements AppendFile {
             channel.write(bufferToWrite);
         } else {
             ByteBuffer buffer = appendBuffer.directBuffer();
+            int writeLimit = bufferToWrite.limit();
 
-            while (bufferToWrite.position() < bufferToWrite.limit()) {
+            //Copy in bulk, as much as fits in the append buffer at a time
+            while (bufferToWrite.position() < writeLimit) {
                 if (buffer.position() == buffer.limit()) {
                     flushAppendBuffer();
                 }
 
-                buffer.put(bufferToWrite.get());
+                int copyLength = Math.min(buffer.remaining(), writeLimit - bufferToWrite.position());
+                bufferToWrite.limit(bufferToWrite.position() + copyLength);
+                buffer.put(bufferToWrite);
+                bufferToWrite.limit(writeLimit);
             }
         }
 
@@ -93,9 +102,13 @@ public class AppendChannelFile implements AppendFile {
 
     // 刷盘
     @Override
-    public synchronized void sync() throws IOException {
-        flushAppendBuffer();
-        channel.force(true);
+    public void sync() throws IOException {
+        //Only the buffer flush needs to exclude appenders, so a slow force doesn't stall them
+        synchronized (this) {
+            flushAppendBuffer();
+        }
+
+        channel.force(forceMetadata);
     }
 
     @Override
@@ -156,6 +169,30 @@ public class AppendChannelFile implements AppendFile {
 
     public static AppendFile open(Path path) throws IOException {
         FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
-        return new AppendChannelFile(channel, APPEND_BUFFER_SIZE);
+        return new AppendChannelFile(channel, APPEND_BUFFER_SIZE, true);
+    }
+
+    /**
+     * Opens a file for appending from its start, first extending it with zeros to at least the given size. Since
+     * appends that stay within the preallocated size don't change the file's metadata, syncs only force the data.
+     */
+    public static AppendFile openPreallocated(Path path, long size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        long fileSize = channel.size();
+
+        if (fileSize < size) {
+            ByteBuffer zeros = ByteBuffer.allocateDirect(PREALLOCATE_BUFFER_SIZE);
+
+            while (fileSize < size) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), size - fileSize));
+                fileSize += channel.write(zeros, fileSize);
+            }
+
+            channel.force(true);
+        }
+
+        channel.position(0);
+        return new AppendChannelFile(channel, APPEND_BUFFER_SIZE, false);
     }
 }
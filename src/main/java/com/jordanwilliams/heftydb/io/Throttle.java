@@ -34,4 +34,12 @@ public class Throttle {
     public void consume(int usage) {
         rateLimiter.acquire(usage);
     }
+
+    public void setRate(long maxRatePerSecond) {
+        rateLimiter.setRate(maxRatePerSecond);
+    }
+
+    public long rate() {
+        return (long) rateLimiter.getRate();
+    }
 }
@@ -61,6 +61,8 @@ public class Metrics {
     }
 
     public void close() {
+        //The reporter's scheduler would otherwise keep the registry, and everything its gauges refer to, reachable
+        reporter.stop();
         jmxReporter.close();
     }
 
@@ -111,6 +113,19 @@ public class Metrics {
         //Write
         metrics.register(metricName("write.concurrentMemoryTableSerializers"), new Histogram(new UniformReservoir()));
         metrics.register(metricName("write.memoryTableSerialize"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("write.groupCommit.batchSize"), new Histogram(new UniformReservoir()));
+        metrics.register(metricName("write.groupCommit.wait"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("write.slowdown"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("write.stall"), new Timer(new UniformReservoir()));
+
+        //Write stages, in the order a write passes through them
+        metrics.register(metricName("write.throttle"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("write.appendLockWait"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("write.rotation"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("write.logAppend"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("write.memoryTableInsert"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("write.logSync"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("write.logForce"), new Timer(new UniformReservoir()));
 
         //Read
         metrics.register(metricName("read.tablesConsulted"), new Histogram(new UniformReservoir()));
@@ -127,6 +142,8 @@ public class Metrics {
         //Compactor
         metrics.register(metricName("compactor.concurrentTasks"), new Histogram(new UniformReservoir()));
         metrics.register(metricName("compactor.taskExecution"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("compactor.evaluation"), new Timer(new UniformReservoir()));
+        metrics.register(metricName("compactor.callerRuns"), new Timer(new UniformReservoir()));
     }
 
     private static String metricName(String name) {
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.offheap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A region of off-heap memory that hands out small, 8 byte aligned allocations from larger chunks obtained through
+ * the MemoryAllocator. Individual allocations are never freed; the whole arena is released in one step once it is no
+ * longer referenced. Allocation is safe from multiple concurrent threads.
+ */
+public class Arena {
+
+    private static final int ALIGNMENT = 8;
+
+    private static class Chunk {
+
+        private final MemoryPointer pointer;
+        private final AtomicInteger offset = new AtomicInteger();
+
+        private Chunk(MemoryPointer pointer) {
+            this.pointer = pointer;
+        }
+
+        private long allocate(int size) {
+            while (true) {
+                int currentOffset = offset.get();
+
+                if (currentOffset + size > pointer.size()) {
+                    return 0;
+                }
+
+                if (offset.compareAndSet(currentOffset, currentOffset + size)) {
+                    return pointer.address() + currentOffset;
+                }
+            }
+        }
+    }
+
+    private final int chunkSize;
+    private final List<MemoryPointer> chunks = new ArrayList<MemoryPointer>();
+    private final AtomicInteger retainCount = new AtomicInteger(1);
+    private final AtomicLong allocatedSize = new AtomicLong();
+    private final AtomicLong reservedSize = new AtomicLong();
+
+    private volatile Chunk currentChunk;
+
+    public Arena(int chunkSize) {
+        this.chunkSize = align(chunkSize);
+    }
+
+    /**
+     * @return the address of a block of at least the requested size
+     */
+    public long allocate(int size) {
+        int alignedSize = align(size);
+        allocatedSize.addAndGet(alignedSize);
+
+        //Large allocations get their own chunk so they don't waste the remainder of the current one
+        if (alignedSize > chunkSize / 4) {
+            return newChunk(alignedSize).allocate(alignedSize);
+        }
+
+        while (true) {
+            Chunk chunk = currentChunk;
+
+            if (chunk != null) {
+                long address = chunk.allocate(alignedSize);
+
+                if (address != 0) {
+                    return address;
+                }
+            }
+
+            synchronized (this) {
+                if (currentChunk == chunk) {
+                    currentChunk = newChunk(chunkSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes handed out by this arena
+     */
+    public long allocatedSize() {
+        return allocatedSize.get();
+    }
+
+    /**
+     * @return the number of bytes of off-heap memory held by this arena
+     */
+    public long memorySize() {
+        return reservedSize.get();
+    }
+
+    public boolean retain() {
+        while (true) {
+            int retainValue = retainCount.get();
+
+            if (retainValue <= 0) {
+                return false;
+            }
+
+            if (retainCount.compareAndSet(retainValue, retainValue + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (retainCount.decrementAndGet() == 0) {
+            free();
+        }
+    }
+
+    private synchronized void free() {
+        for (MemoryPointer chunk : chunks) {
+            chunk.free();
+        }
+
+        chunks.clear();
+        currentChunk = null;
+        reservedSize.set(0);
+    }
+
+    private synchronized Chunk newChunk(int size) {
+        if (retainCount.get() <= 0) {
+            throw new IllegalStateException("Arena was already freed");
+        }
+
+        MemoryPointer pointer = MemoryAllocator.allocate(size);
+        chunks.add(pointer);
+        reservedSize.addAndGet(size);
+        return new Chunk(pointer);
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+}
@@ -40,7 +40,14 @@ public class BloomFilter implements Offheap {
         }
 
         public void put(Key key) {
-            long hash64 = MurmurHash3.MurmurHash3_x64_64(key.data().array());
+            put(key.data());
+        }
+
+        /**
+         * Adds the remaining bytes of a buffer, such as the prefix of a key.
+         */
+        public void put(ByteBuffer data) {
+            long hash64 = hash(data);
             int hash1 = (int) hash64;
             int hash2 = (int) (hash64 >>> 32);
 
@@ -87,7 +94,11 @@ public class BloomFilter implements Offheap {
     }
 
     public boolean mightContain(Key key) {
-        long hash64 = MurmurHash3.MurmurHash3_x64_64(key.data().array());
+        return mightContain(key.data());
+    }
+
+    public boolean mightContain(ByteBuffer data) {
+        long hash64 = hash(data);
         int hash1 = (int) hash64;  //  低32位
         int hash2 = (int) (hash64 >>> 32); // 高32位
 
@@ -108,4 +119,15 @@ public class BloomFilter implements Offheap {
     public MemoryPointer memory() {
         return pointer;
     }
+
+    private static long hash(ByteBuffer data) {
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0 && data.remaining() == data.array()
+                .length) {
+            return MurmurHash3.MurmurHash3_x64_64(data.array());
+        }
+
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return MurmurHash3.MurmurHash3_x64_64(bytes);
+    }
 }
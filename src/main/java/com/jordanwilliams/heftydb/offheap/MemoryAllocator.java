@@ -95,6 +95,13 @@ public class MemoryAllocator {
         return pointer;
     }
 
+    /**
+     * Returns the native address of the first byte of a direct ByteBuffer, ignoring its position.
+     */
+    public static long address(ByteBuffer directBuffer) {
+        return unsafe.getLong(directBuffer, addressOffset);
+    }
+
     public static void deallocate(long address, int size) {
         allocator.deallocate(address);
         offHeapMemoryCounter.dec(size);
@@ -17,6 +17,7 @@
 package com.jordanwilliams.heftydb.offheap;
 
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
 import com.jordanwilliams.heftydb.data.Value;
 import com.jordanwilliams.heftydb.util.Sizes;
 import sun.misc.Unsafe;
@@ -97,6 +98,7 @@ public class SortedByteMap implements Offheap, Iterable<SortedByteMap.Entry> {
                 memorySize += entry.key().size();
                 memorySize += Sizes.LONG_SIZE;
                 memorySize += Sizes.INT_SIZE;
+                memorySize += 1;
                 memorySize += entry.value().size();
                 counter++;
             }
@@ -131,6 +133,7 @@ public class SortedByteMap implements Offheap, Iterable<SortedByteMap.Entry> {
 
                 //Value
                 memoryBuffer.putInt(value.size());
+                memoryBuffer.put(value.type().code());
 
                 ByteBuffer valueData = value.data();
                 for (int i = 0; i < value.size(); i++) {
@@ -210,9 +213,15 @@ public class SortedByteMap implements Offheap, Iterable<SortedByteMap.Entry> {
     private final MemoryPointer pointer;
     private final ByteBuffer directBuffer;
     private final int entryCount;
+    private final KeyComparator keyComparator;
 
     public SortedByteMap(MemoryPointer pointer) {
+        this(pointer, KeyComparator.LEXICOGRAPHIC);
+    }
+
+    public SortedByteMap(MemoryPointer pointer, KeyComparator keyComparator) {
         this.pointer = pointer;
+        this.keyComparator = keyComparator;
         this.directBuffer = pointer.directBuffer();
         this.entryCount = unsafe.getInt(pointer.address());
     }
@@ -221,6 +230,37 @@ public class SortedByteMap implements Offheap, Iterable<SortedByteMap.Entry> {
         return getEntry(index);
     }
 
+    /**
+     * Reads an entry without copying its key and value. They are read-only views over the memory of this map, so they
+     * are only valid for as long as that memory is retained.
+     */
+    public Entry view(int index) {
+        if (index < 0 || index >= entryCount) {
+            throw new IndexOutOfBoundsException("Requested Index: " + index + " Max: " + (entryCount - 1));
+        }
+
+        if (pointer.isFree()) {
+            throw new IllegalStateException("Memory was already freed");
+        }
+
+        int entryOffset = entryOffset(index);
+        long startAddress = pointer.address();
+
+        //Key
+        int keySize = unsafe.getInt(startAddress + entryOffset);
+        int keyOffset = entryOffset + Sizes.INT_SIZE;
+        long snapshotId = unsafe.getLong(startAddress + keyOffset + keySize);
+
+        //Value
+        int valueOffset = keyOffset + keySize + Sizes.LONG_SIZE;
+        int valueSize = directBuffer.getInt(valueOffset);
+        Value.Type valueType = Value.Type.fromCode(directBuffer.get(valueOffset + Sizes.INT_SIZE));
+        valueOffset += Sizes.INT_SIZE + 1;
+
+        return new Entry(new Key(view(keyOffset, keySize), snapshotId), new Value(view(valueOffset, valueSize),
+                valueType));
+    }
+
     public int floorIndex(Key key) {
         if (pointer.isFree()) {
             throw new IllegalStateException("Memory was already freed");
@@ -346,8 +386,9 @@ public class SortedByteMap implements Offheap, Iterable<SortedByteMap.Entry> {
         //Value
         int valueOffset = keyOffset + keySize + Sizes.LONG_SIZE;
         int valueSize = directBuffer.getInt(valueOffset);
+        Value.Type valueType = Value.Type.fromCode(directBuffer.get(valueOffset + Sizes.INT_SIZE));
         ByteBuffer valueBuffer = ByteBuffer.allocate(valueSize);
-        valueOffset += Sizes.INT_SIZE;
+        valueOffset += Sizes.INT_SIZE + 1;
         byte[] valueArray = valueBuffer.array();
         long valueAddress = startAddress + valueOffset;
 
@@ -357,7 +398,14 @@ public class SortedByteMap implements Offheap, Iterable<SortedByteMap.Entry> {
 
         valueBuffer.rewind();
 
-        return new Entry(new Key(keyBuffer, snapshotId), new Value(valueBuffer));
+        return new Entry(new Key(keyBuffer, snapshotId), new Value(valueBuffer, valueType));
+    }
+
+    private ByteBuffer view(int offset, int size) {
+        ByteBuffer view = directBuffer.duplicate();
+        view.limit(offset + size);
+        view.position(offset);
+        return view.slice().asReadOnlyBuffer();
     }
 
     // bufferKeyIndex 所指向的key < compareKey 返回 -1
@@ -366,40 +414,17 @@ public class SortedByteMap implements Offheap, Iterable<SortedByteMap.Entry> {
         long startAddress = pointer.address();
 
         int keySize = unsafe.getInt(startAddress + entryOffset);
-        entryOffset += Sizes.INT_SIZE;
-
-        int bufferKeyRemaining = keySize;
-        int compareKeyRemaining = compareKey.data().remaining();
-        int compareCount = Math.min(bufferKeyRemaining, compareKeyRemaining);
-        byte[] compareKeyArray = compareKey.data().array();
-
-        //Compare key bytes
-        for (int i = 0; i < compareCount; i++) {
-            byte bufferKeyVal = unsafe.getByte(startAddress + entryOffset + i);
-            byte compareKeyVal = compareKeyArray[i];
-            bufferKeyRemaining--;
-            compareKeyRemaining--;
-
-            if (bufferKeyVal == compareKeyVal) {
-                continue;
-            }
-
-            if (bufferKeyVal < compareKeyVal) {
-                return -1;
-            }
-
-            return 1;
-        }
+        long keyAddress = startAddress + entryOffset + Sizes.INT_SIZE;
 
-        int remainingDifference = bufferKeyRemaining - compareKeyRemaining;
+        int compared = keyComparator.compare(keyAddress, keySize, compareKey.data());
 
         //If key bytes are equal, compare snapshot ids
-        if (remainingDifference == 0) {
-            long bufferSnapshotId = unsafe.getLong(startAddress + entryOffset + compareCount);
+        if (compared == 0) {
+            long bufferSnapshotId = unsafe.getLong(keyAddress + keySize);
             return Long.compare(bufferSnapshotId, compareKey.snapshotId());
         }
 
-        return remainingDifference;
+        return compared;
     }
 
     private int entryOffset(int index) {
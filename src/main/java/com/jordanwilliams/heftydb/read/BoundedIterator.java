@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.read;
+
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/**
+ * A CloseableIterator that stops at the first Tuple whose key is at or past an end key in the given order. The
+ * delegate is closed as soon as the end key is reached, so that it doesn't keep the blocks it read ahead in memory.
+ */
+public class BoundedIterator implements CloseableIterator<Tuple> {
+
+    private final ByteBuffer endKey;
+    private final Comparator<ByteBuffer> keyOrder;
+    private final CloseableIterator<Tuple> delegate;
+
+    private Tuple next;
+    private boolean closed;
+
+    public BoundedIterator(ByteBuffer endKey, Comparator<ByteBuffer> keyOrder, CloseableIterator<Tuple> delegate) {
+        this.endKey = endKey;
+        this.keyOrder = keyOrder;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+
+        if (closed || !delegate.hasNext()) {
+            return false;
+        }
+
+        Tuple candidate = delegate.next();
+
+        if (keyOrder.compare(candidate.key().data(), endKey) < 0) {
+            next = candidate;
+            return true;
+        }
+
+        try {
+            close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return false;
+    }
+
+    @Override
+    public Tuple next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Tuple tuple = next;
+        next = null;
+        return tuple;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        delegate.close();
+    }
+}
@@ -16,29 +16,70 @@
 
 package com.jordanwilliams.heftydb.read;
 
+import com.jordanwilliams.heftydb.data.Key;
 import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.db.MergeOperator;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
+import com.jordanwilliams.heftydb.valuelog.ValueLog;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.NavigableSet;
 import java.util.Queue;
-import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
  * An Iterator that filters a sorted stream of Tuples, and filters out all key versions older than a minimum snapshot
  * id, or passes along a key if there is only one version of it
+ *
+ * Merge operands that are still needed are folded with the older versions beneath them. The Tables being compacted
+ * may not hold the value the operands apply to, so operands with no older value are combined into a single operand.
+ *
+ * An expiring version replaces the versions beneath it like any other value, and once it has expired it is written
+ * out as a tombstone, so that the versions beneath it in older Tables stay deleted.
  */
 public class CompactionTupleIterator implements CloseableIterator<Tuple> {
 
     private final CloseableIterator<Tuple> tupleIterator;
     private final Queue<Tuple> nextTuples = new LinkedList<Tuple>();
-    private final SortedSet<Tuple> currentKeyTuples = new TreeSet<Tuple>();
+    private final NavigableSet<Tuple> currentKeyTuples = new TreeSet<Tuple>();
     private final long minSnapshotId;
+    private final MergeOperator mergeOperator;
+    private final RangeTombstones rangeTombstones;
+    private final ValueLog valueLog;
+    private final long now = System.currentTimeMillis();
 
     public CompactionTupleIterator(long minSnapshotId, CloseableIterator<Tuple> tupleIterator) {
+        this(minSnapshotId, tupleIterator, null);
+    }
+
+    public CompactionTupleIterator(long minSnapshotId, CloseableIterator<Tuple> tupleIterator,
+                                   MergeOperator mergeOperator) {
+        this(minSnapshotId, tupleIterator, mergeOperator, RangeTombstones.EMPTY);
+    }
+
+    /**
+     * @param rangeTombstones the RangeTombstones of the Tables being compacted, as seen from the minimum snapshot id.
+     *                        The versions they delete are not visible to any snapshot, so they are dropped.
+     */
+    public CompactionTupleIterator(long minSnapshotId, CloseableIterator<Tuple> tupleIterator,
+                                   MergeOperator mergeOperator, RangeTombstones rangeTombstones) {
+        this(minSnapshotId, tupleIterator, mergeOperator, rangeTombstones, null);
+    }
+
+    /**
+     * @param valueLog the ValueLog that values which merge operands are folded into are read from
+     */
+    public CompactionTupleIterator(long minSnapshotId, CloseableIterator<Tuple> tupleIterator,
+                                   MergeOperator mergeOperator, RangeTombstones rangeTombstones, ValueLog valueLog) {
         this.minSnapshotId = minSnapshotId;
         this.tupleIterator = tupleIterator;
+        this.mergeOperator = mergeOperator;
+        this.rangeTombstones = rangeTombstones;
+        this.valueLog = valueLog;
     }
 
     @Override
@@ -77,6 +118,11 @@ public class CompactionTupleIterator implements CloseableIterator<Tuple> {
         while (tupleIterator.hasNext()) {
             Tuple next = tupleIterator.next();
 
+            if (!rangeTombstones.isEmpty() && rangeTombstones.covers(next.key())) {
+                continue;
+            }
+
+            next = next.asOf(now);
             boolean nextKeyEqualCurrent = currentKeyTuples.isEmpty() || next.key().data().equals(currentKeyTuples
                     .last().key().data());
 
@@ -102,17 +148,42 @@ public class CompactionTupleIterator implements CloseableIterator<Tuple> {
     }
 
     private void filterCurrentKeyTuples(){
-        int count = 0;
+        Tuple minimumVersion = new Tuple(new Key(currentKeyTuples.first().key().data(), minSnapshotId),
+                Value.TOMBSTONE_VALUE);
+        NavigableSet<Tuple> retainedTuples = currentKeyTuples.tailSet(minimumVersion, true);
+        NavigableSet<Tuple> obsoleteTuples = currentKeyTuples.headSet(minimumVersion, false);
+
+        //The newest obsolete version is only needed if no retained version replaces it outright
+        if (!obsoleteTuples.isEmpty() && (retainedTuples.isEmpty() || !replacesOlderVersions(retainedTuples.first()))) {
+            addObsoleteVersion(obsoleteTuples);
+        }
+
+        nextTuples.addAll(retainedTuples);
+    }
+
+    private void addObsoleteVersion(NavigableSet<Tuple> obsoleteTuples) {
+        List<Tuple> versions = new ArrayList<Tuple>();
 
-        for (Tuple tuple : currentKeyTuples){
-            if (tuple.key().snapshotId() >= minSnapshotId){
-                nextTuples.add(tuple);
-                count++;
+        for (Tuple tuple : obsoleteTuples.descendingSet()) {
+            if (!tuple.value().isMergeOperand()) {
+                versions.add(mergeOperator != null && valueLog != null ? valueLog.resolve(tuple) : tuple);
+                break;
             }
+
+            versions.add(tuple);
+        }
+
+        if (mergeOperator != null) {
+            nextTuples.add(TupleMerger.merge(mergeOperator, versions, false));
+            return;
         }
 
-        if (count == 0){
-            nextTuples.add(currentKeyTuples.last());
+        for (int i = versions.size() - 1; i >= 0; i--) {
+            nextTuples.add(versions.get(i));
         }
     }
+
+    private static boolean replacesOlderVersions(Tuple tuple) {
+        return !tuple.value().isMergeOperand();
+    }
 }
@@ -17,28 +17,54 @@
 package com.jordanwilliams.heftydb.read;
 
 import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.db.MergeOperator;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.NavigableSet;
 import java.util.Queue;
-import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
  * An Iterator that filters a sorted stream of Tuples, and returns only a single Tuple for each unique Key in the
  * stream that is the latest version of that particular Tuple according to the snapshot id associated with each key.
+ *
+ * If the latest version is a merge operand, it is folded with the older versions of the key using a MergeOperator.
+ * Without a MergeOperator, the operands are returned along with the newest regular value beneath them, oldest first,
+ * so that they can be folded by an iterator further up that sees the versions from every Table.
+ *
+ * Versions deleted by a RangeTombstone are skipped, so a key with no newer version is left out entirely. A version
+ * that has expired, as of the time the iterator was created, is returned as a tombstone, since it deletes the versions
+ * beneath it in this and in older Tables.
  */
 public class LatestTupleIterator implements CloseableIterator<Tuple> {
 
     private final CloseableIterator<Tuple> tupleIterator;
     private final Queue<Tuple> nextTuple = new LinkedList<>();
     private final long maxSnapshotId;
-    private final SortedSet<Tuple> currentKeyTuples = new TreeSet<>();
+    private final MergeOperator mergeOperator;
+    private final RangeTombstones rangeTombstones;
+    private final NavigableSet<Tuple> currentKeyTuples = new TreeSet<>();
+    private final long now = System.currentTimeMillis();
 
     public LatestTupleIterator(long maxSnapshotId, CloseableIterator<Tuple> tupleIterator) {
+        this(maxSnapshotId, tupleIterator, null);
+    }
+
+    public LatestTupleIterator(long maxSnapshotId, CloseableIterator<Tuple> tupleIterator,
+                               MergeOperator mergeOperator) {
+        this(maxSnapshotId, tupleIterator, mergeOperator, RangeTombstones.EMPTY);
+    }
+
+    public LatestTupleIterator(long maxSnapshotId, CloseableIterator<Tuple> tupleIterator,
+                               MergeOperator mergeOperator, RangeTombstones rangeTombstones) {
         this.maxSnapshotId = maxSnapshotId;
         this.tupleIterator = tupleIterator;
+        this.mergeOperator = mergeOperator;
+        this.rangeTombstones = rangeTombstones;
     }
 
     @Override
@@ -47,15 +73,9 @@ public class LatestTupleIterator implements CloseableIterator<Tuple> {
             return true;
         }
 
-        Tuple tuple = fetchNextTuple();
-
-        if (tuple == null) {
-            return false;
-        }
-
-        nextTuple.add(tuple);
+        fetchNextTuples();
 
-        return true;
+        return !nextTuple.isEmpty();
     }
 
     @Override
@@ -72,7 +92,7 @@ public class LatestTupleIterator implements CloseableIterator<Tuple> {
         throw new UnsupportedOperationException();
     }
 
-    private Tuple fetchNextTuple() {
+    private void fetchNextTuples() {
         while (tupleIterator.hasNext()) {
             Tuple next = tupleIterator.next();
 
@@ -81,6 +101,11 @@ public class LatestTupleIterator implements CloseableIterator<Tuple> {
                 continue;
             }
 
+            if (!rangeTombstones.isEmpty() && rangeTombstones.covers(next.key())) {
+                continue;
+            }
+
+            next = next.asOf(now);
             boolean nextKeyEqualCurrent = currentKeyTuples.isEmpty() || next.key().data().equals(currentKeyTuples
                     .last().key().data());
 
@@ -89,19 +114,46 @@ public class LatestTupleIterator implements CloseableIterator<Tuple> {
                 continue;
             }
 
-            Tuple newest = currentKeyTuples.last();
+            addLatestTuples();
             currentKeyTuples.clear();
             currentKeyTuples.add(next);
-            return newest;
+            return;
         }
 
         if (currentKeyTuples.isEmpty()) {
-            return null;
+            return;
         }
 
-        Tuple newest = currentKeyTuples.last();
+        addLatestTuples();
         currentKeyTuples.clear();
-        return newest;
+    }
+
+    private void addLatestTuples() {
+        Tuple newest = currentKeyTuples.last();
+
+        if (!newest.value().isMergeOperand()) {
+            nextTuple.add(newest);
+            return;
+        }
+
+        List<Tuple> versions = new ArrayList<Tuple>();
+
+        for (Tuple tuple : currentKeyTuples.descendingSet()) {
+            versions.add(tuple);
+
+            if (!tuple.value().isMergeOperand()) {
+                break;
+            }
+        }
+
+        if (mergeOperator != null) {
+            nextTuple.add(TupleMerger.merge(mergeOperator, versions, true));
+            return;
+        }
+
+        for (int i = versions.size() - 1; i >= 0; i--) {
+            nextTuple.add(versions.get(i));
+        }
     }
 
     @Override
@@ -22,6 +22,7 @@ import com.jordanwilliams.heftydb.util.PeekableIterator;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -35,8 +36,7 @@ import java.util.Queue;
  */
 public class MergingIterator<T extends Comparable> implements CloseableIterator<T> {
 
-    private static class ComparableIterator<T extends Comparable> implements PeekableIterator<T>,
-            Comparable<ComparableIterator<T>> {
+    private static class ComparableIterator<T extends Comparable> implements PeekableIterator<T> {
 
         private final CloseableIterator<T> delegate;
         private T current;
@@ -67,19 +67,20 @@ public class MergingIterator<T extends Comparable> implements CloseableIterator<
         public void close() throws IOException {
             delegate.close();
         }
+    }
 
+    private static final Comparator<Comparable> NATURAL_ORDER = new Comparator<Comparable>() {
         @Override
-        public int compareTo(ComparableIterator<T> other) {
-            return current.compareTo(other.current);
+        public int compare(Comparable o1, Comparable o2) {
+            return o1.compareTo(o2);
         }
-    }
+    };
 
     private final Queue<T> next = new LinkedList<>();
     private final PriorityQueue<ComparableIterator<T>> iteratorHeap;
 
     public MergingIterator(List<CloseableIterator<T>> iterators) {
-        this.iteratorHeap = new PriorityQueue<>();
-        buildIteratorHeap(iterators);
+        this(false, iterators);
     }
 
     public MergingIterator(CloseableIterator<T>... iterators) {
@@ -91,8 +92,21 @@ public class MergingIterator<T extends Comparable> implements CloseableIterator<
     }
 
     public MergingIterator(boolean descending, List<CloseableIterator<T>> iterators) {
-        this.iteratorHeap = descending ? new PriorityQueue<ComparableIterator<T>>(iterators.size(),
-                Collections.reverseOrder()) : new PriorityQueue<ComparableIterator<T>>();
+        this(descending ? Collections.reverseOrder(NATURAL_ORDER) : NATURAL_ORDER, iterators);
+    }
+
+    /**
+     * Merges Iterators that are each sorted by the given Comparator, rather than by the natural order of their
+     * elements.
+     */
+    public MergingIterator(final Comparator<? super T> comparator, List<CloseableIterator<T>> iterators) {
+        this.iteratorHeap = new PriorityQueue<ComparableIterator<T>>(Math.max(1, iterators.size()), new
+                Comparator<ComparableIterator<T>>() {
+            @Override
+            public int compare(ComparableIterator<T> iterator1, ComparableIterator<T> iterator2) {
+                return comparator.compare(iterator1.current(), iterator2.current());
+            }
+        });
         buildIteratorHeap(iterators);
     }
 
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.read;
+
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * A CloseableIterator that only returns the Tuples whose keys start with a prefix. If the delegate is positioned at
+ * the prefix and the keys with the prefix are next to each other, iteration stops at the first key past the prefix
+ * and the delegate is closed right away. Otherwise every Tuple of the delegate is checked.
+ */
+public class PrefixIterator implements CloseableIterator<Tuple> {
+
+    private final ByteBuffer prefix;
+    private final CloseableIterator<Tuple> delegate;
+    private final boolean contiguous;
+
+    private Tuple next;
+    private boolean closed;
+
+    public PrefixIterator(ByteBuffer prefix, CloseableIterator<Tuple> delegate, boolean contiguous) {
+        this.prefix = prefix;
+        this.delegate = delegate;
+        this.contiguous = contiguous;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+
+        while (!closed && delegate.hasNext()) {
+            Tuple candidate = delegate.next();
+
+            if (startsWith(candidate.key().data(), prefix)) {
+                next = candidate;
+                return true;
+            }
+
+            if (contiguous) {
+                try {
+                    close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public Tuple next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Tuple tuple = next;
+        next = null;
+        return tuple;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        delegate.close();
+    }
+
+    public static boolean startsWith(ByteBuffer key, ByteBuffer prefix) {
+        if (key.remaining() < prefix.remaining()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.remaining(); i++) {
+            if (key.get(key.position() + i) != prefix.get(prefix.position() + i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
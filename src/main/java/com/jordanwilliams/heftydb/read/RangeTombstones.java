@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.read;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
+import com.jordanwilliams.heftydb.state.Tables;
+import com.jordanwilliams.heftydb.table.Table;
+import com.jordanwilliams.heftydb.table.memory.MemoryRangeTombstones;
+import com.jordanwilliams.heftydb.table.memory.MemoryTable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The RangeTombstones of a group of Tables, as seen from a particular snapshot. The tombstones are sorted by their
+ * start key, alongside the largest end key seen so far in that order, so a lookup only walks back through the
+ * tombstones that can still reach the key. The tombstones of MemoryTables are still being added to, so they are looked
+ * up in place in each MemoryTable.
+ */
+public class RangeTombstones {
+
+    public static final RangeTombstones EMPTY = new RangeTombstones(Collections.<RangeTombstone>emptyList(),
+            Long.MAX_VALUE);
+
+    private final List<RangeTombstone> sortedTombstones;
+    private final List<ByteBuffer> maxEndKeysSoFar;
+    private final List<MemoryRangeTombstones> recentTombstones;
+    private final long maxSnapshotId;
+    private final KeyComparator keyComparator;
+
+    public RangeTombstones(List<RangeTombstone> rangeTombstones, long maxSnapshotId) {
+        this(rangeTombstones, maxSnapshotId, KeyComparator.LEXICOGRAPHIC);
+    }
+
+    public RangeTombstones(List<RangeTombstone> rangeTombstones, long maxSnapshotId, final KeyComparator
+            keyComparator) {
+        this.sortedTombstones = new ArrayList<RangeTombstone>(rangeTombstones);
+        this.maxEndKeysSoFar = new ArrayList<ByteBuffer>(rangeTombstones.size());
+        this.recentTombstones = Collections.emptyList();
+        this.maxSnapshotId = maxSnapshotId;
+        this.keyComparator = keyComparator;
+
+        Collections.sort(sortedTombstones, new Comparator<RangeTombstone>() {
+            @Override
+            public int compare(RangeTombstone rangeTombstone1, RangeTombstone rangeTombstone2) {
+                return keyComparator.compare(rangeTombstone1.startKey(), rangeTombstone2.startKey());
+            }
+        });
+
+        ByteBuffer maxEndKeySoFar = null;
+
+        for (RangeTombstone rangeTombstone : sortedTombstones) {
+            if (maxEndKeySoFar == null || keyComparator.compare(rangeTombstone.endKey(), maxEndKeySoFar) > 0) {
+                maxEndKeySoFar = rangeTombstone.endKey();
+            }
+
+            maxEndKeysSoFar.add(maxEndKeySoFar);
+        }
+    }
+
+    private RangeTombstones(RangeTombstones sorted, List<MemoryRangeTombstones> recentTombstones, long
+            maxSnapshotId) {
+        this.sortedTombstones = sorted.sortedTombstones;
+        this.maxEndKeysSoFar = sorted.maxEndKeysSoFar;
+        this.recentTombstones = recentTombstones;
+        this.maxSnapshotId = maxSnapshotId;
+        this.keyComparator = sorted.keyComparator;
+    }
+
+    /**
+     * @return the snapshot id of the newest visible tombstone that deletes the given key version, or 0 if there is
+     * none
+     */
+    public long coveringSnapshotId(Key key) {
+        long coveringSnapshotId = 0;
+
+        for (int i = endIndex(key.data()) - 1; i >= 0; i--) {
+            //None of the tombstones that start before this one reach the key
+            if (keyComparator.compare(maxEndKeysSoFar.get(i), key.data()) <= 0) {
+                break;
+            }
+
+            coveringSnapshotId = covering(sortedTombstones.get(i), key, coveringSnapshotId);
+        }
+
+        for (MemoryRangeTombstones memoryRangeTombstones : recentTombstones) {
+            coveringSnapshotId = Math.max(coveringSnapshotId, memoryRangeTombstones.coveringSnapshotId(key,
+                    maxSnapshotId));
+        }
+
+        return coveringSnapshotId;
+    }
+
+    public boolean covers(Key key) {
+        return coveringSnapshotId(key) > 0;
+    }
+
+    public boolean isEmpty() {
+        return sortedTombstones.isEmpty() && recentTombstones.isEmpty();
+    }
+
+    /**
+     * @return the same tombstones as seen from another snapshot, along with the tombstones of MemoryTables, without
+     * sorting the tombstones again
+     */
+    public RangeTombstones view(long maxSnapshotId, List<MemoryRangeTombstones> recentTombstones) {
+        return isEmpty() && recentTombstones.isEmpty() ? EMPTY : new RangeTombstones(this, recentTombstones,
+                maxSnapshotId);
+    }
+
+    /**
+     * Collects the RangeTombstones of the given Tables. The tombstones of the persistent Tables are only sorted again
+     * after the Tables change. Callers must hold the Tables read lock.
+     */
+    public static RangeTombstones of(Tables tables, long maxSnapshotId) {
+        List<MemoryRangeTombstones> recentTombstones = Collections.emptyList();
+
+        //MemoryTables come first when ordered newest first
+        for (Table table : tables.newestFirst()) {
+            if (table.isPersistent()) {
+                break;
+            }
+
+            MemoryRangeTombstones memoryRangeTombstones = ((MemoryTable) table).memoryRangeTombstones();
+
+            if (!memoryRangeTombstones.isEmpty()) {
+                if (recentTombstones.isEmpty()) {
+                    recentTombstones = new ArrayList<MemoryRangeTombstones>();
+                }
+
+                recentTombstones.add(memoryRangeTombstones);
+            }
+        }
+
+        return tables.persistentRangeTombstones().view(maxSnapshotId, recentTombstones);
+    }
+
+    private long covering(RangeTombstone rangeTombstone, Key key, long coveringSnapshotId) {
+        if (rangeTombstone.snapshotId() <= maxSnapshotId && rangeTombstone.snapshotId() > coveringSnapshotId &&
+                rangeTombstone.covers(key, keyComparator)) {
+            return rangeTombstone.snapshotId();
+        }
+
+        return coveringSnapshotId;
+    }
+
+    private int endIndex(ByteBuffer key) {
+        //Number of tombstones that start at or before the key
+        int low = 0;
+        int high = sortedTombstones.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (keyComparator.compare(sortedTombstones.get(mid).startKey(), key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
@@ -57,7 +57,7 @@ public class TableAggregationIterator implements CloseableIterator<Tuple> {
             }
         };
 
-        tables.addChangeHandler(tableChangeHandler);
+        tables.addInvalidationHandler(tableChangeHandler);
     }
 
     @Override
@@ -107,7 +107,7 @@ public class TableAggregationIterator implements CloseableIterator<Tuple> {
     @Override
     public void close() throws IOException {
         delegate.close();
-        tables.removeChangeHandler(tableChangeHandler);
+        tables.removeInvalidationHandler(tableChangeHandler);
     }
 
     private void refreshSource() {
@@ -116,8 +116,8 @@ public class TableAggregationIterator implements CloseableIterator<Tuple> {
                 delegate.close();
                 this.delegate = source.refresh(lastKey, snapshotId);
 
-                //Advance past the previously seen key
-                if (delegate.hasNext()) {
+                //Advance past the previously seen key, if anything has been returned yet
+                if (lastKey != null && delegate.hasNext()) {
                     delegate.next();
                 }
 
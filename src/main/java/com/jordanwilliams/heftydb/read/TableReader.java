@@ -18,72 +18,56 @@ package com.jordanwilliams.heftydb.read;
 
 import com.codahale.metrics.Histogram;
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
 import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.db.MergeOperator;
+import com.jordanwilliams.heftydb.db.PrefixExtractor;
 import com.jordanwilliams.heftydb.metrics.CacheHitGauge;
 import com.jordanwilliams.heftydb.metrics.Metrics;
 import com.jordanwilliams.heftydb.state.Tables;
 import com.jordanwilliams.heftydb.table.Table;
+import com.jordanwilliams.heftydb.table.TupleLease;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Handles read operations across all Tables in a database.
+ * Handles read operations across all Tables in a database. Merge operands are folded into the values they apply to
+ * as they are read, using the configured MergeOperator, and versions deleted by a RangeTombstone are hidden. An
+ * expired version reads as a tombstone, so a key whose newest version has expired is absent.
+ *
+ * Persistent Tables whose key range can't hold a key are skipped by point reads and by scans that start past them.
+ * RangeTombstones are still taken from every Table, since they aren't bounded by the key range of their Table. The
+ * tombstones of the persistent Tables are sorted once per change of the Tables rather than collected on every read.
  */
 public class TableReader implements Iterable<Tuple> {
 
-    private final TableAggregationIterator.Source ascendingIteratorSource = new TableAggregationIterator.Source() {
-        @Override
-        public CloseableIterator<Tuple> refresh(Key key, long snapshotId) {
-            tables.readLock();
-
-            try {
-                List<CloseableIterator<Tuple>> tableIterators = new ArrayList<CloseableIterator<Tuple>>();
-
-                for (Table table : tables) {
-                    tableIterators.add(key == null ? table.ascendingIterator(snapshotId) : table.ascendingIterator(key,
-                            snapshotId));
-                }
-
-                return new LatestTupleIterator(snapshotId, new MergingIterator<>(tableIterators));
-            } finally {
-                tables.readUnlock();
-            }
-        }
-    };
-
-    private final TableAggregationIterator.Source descendingIteratorSource = new TableAggregationIterator.Source() {
-        @Override
-        public CloseableIterator<Tuple> refresh(Key key, long snapshotId) {
-            tables.readLock();
-
-            try {
-                List<CloseableIterator<Tuple>> tableIterators = new ArrayList<CloseableIterator<Tuple>>();
-
-                for (Table table : tables) {
-                    tableIterators.add(key == null ? table.descendingIterator(snapshotId) : table.descendingIterator(key,
-                            snapshotId));
-                }
-
-                return new LatestTupleIterator(snapshotId, new MergingIterator<>(true, tableIterators));
-            } finally {
-                tables.readUnlock();
-            }
-        }
-    };
+    private final TableAggregationIterator.Source ascendingIteratorSource = ascendingSource(null, null);
+    private final TableAggregationIterator.Source descendingIteratorSource = descendingSource(null, null);
 
     private final Tables tables;
+    private final MergeOperator mergeOperator;
+    private final PrefixExtractor prefixExtractor;
     private final Metrics metrics;
 
     private final CacheHitGauge bloomFilterFalsePositiveRate;
     private final Histogram tablesConsultedHistogram;
     private final CacheHitGauge recordNotFoundRate;
 
-    public TableReader(Tables tables, Metrics metrics) {
+    public TableReader(Tables tables, MergeOperator mergeOperator, PrefixExtractor prefixExtractor, Metrics metrics) {
         this.tables = tables;
+        this.mergeOperator = mergeOperator;
+        this.prefixExtractor = prefixExtractor;
         this.metrics = metrics;
 
         this.bloomFilterFalsePositiveRate = metrics.hitGauge("read.bloomFilterFalsePositiveRate");
@@ -92,36 +76,164 @@ public class TableReader implements Iterable<Tuple> {
     }
 
     public Tuple get(Key key) {
-        Tuple closestTuple = null;
+        Tuple latestTuple;
+        long now = System.currentTimeMillis();
 
         tables.readLock();
 
-        int tablesConsulted = 0;
+        try {
+            latestTuple = latestTuple(key, closestTuple(key), RangeTombstones.of(tables, key.snapshotId()), now);
+        } finally {
+            tables.readUnlock();
+        }
+
+        recordNotFoundRate.sample(latestTuple == null);
+
+        return latestTuple;
+    }
+
+    /**
+     * Reads a key like get, but hands out a view over the cached TupleBlock that holds it instead of a copy, when the
+     * latest version is a regular value in a file Table. The lease keeps that TupleBlock in memory until it is closed.
+     * Any other outcome is read with get, and leased with nothing to release.
+     */
+    public TupleLease lease(Key key) {
+        long now = System.currentTimeMillis();
+        TupleLease latestLease;
+
+        tables.readLock();
 
         try {
-            for (Table table : tables) {
-                if (table.mightContain(key)) {
-                    Tuple tableTuple = table.get(key);
-                    tablesConsulted++;
+            TupleLease closestLease = closestLease(key);
+            Tuple closestTuple = closestLease.tuple();
+            RangeTombstones rangeTombstones = RangeTombstones.of(tables, key.snapshotId());
+
+            if (closestTuple != null && !closestTuple.value().isExpiring() && !closestTuple.value()
+                    .isMergeOperand() && rangeTombstones.coveringSnapshotId(new Key(key.data(), -1)) < closestTuple
+                    .key().snapshotId()) {
+                latestLease = closestLease;
+            } else {
+                closestLease.close();
+                latestLease = new TupleLease(latestTuple(key, closestTuple(key), rangeTombstones, now), null);
+            }
+        } finally {
+            tables.readUnlock();
+        }
+
+        recordNotFoundRate.sample(latestLease.tuple() == null);
+
+        return latestLease;
+    }
+
+    /**
+     * Reads a batch of keys under a single acquisition of the Tables lock. The keys are sorted once, and each Table is
+     * asked for every key within its key range that its bloom filter might contain in one call, so that keys stored in
+     * the same block share an index walk and a block read. Keys whose newest version has expired or is a merge operand
+     * go on to read older versions one at a time, as get does.
+     *
+     * @return the latest Tuple for each key, or null where there is none, in the same order as the keys
+     */
+    public List<Tuple> get(final List<Key> keys) {
+        long now = System.currentTimeMillis();
+        List<Integer> keyOrder = new ArrayList<Integer>(keys.size());
+
+        for (int i = 0; i < keys.size(); i++) {
+            keyOrder.add(i);
+        }
+
+        final Comparator<Key> keyComparator = tables.keyComparator().keyOrder();
+
+        Collections.sort(keyOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer position1, Integer position2) {
+                return keyComparator.compare(keys.get(position1), keys.get(position2));
+            }
+        });
+
+        List<Key> sortedKeys = new ArrayList<Key>(keys.size());
+
+        for (int position : keyOrder) {
+            sortedKeys.add(keys.get(position));
+        }
+
+        Tuple[] closestTuples = new Tuple[keys.size()];
+        int[] tablesConsulted = new int[keys.size()];
+        Tuple[] latestTuples = new Tuple[keys.size()];
+
+        if (keys.isEmpty()) {
+            return Arrays.asList(latestTuples);
+        }
+
+        tables.readLock();
+
+        try {
+            List<Table> newestTables = tables.newestFirst(sortedKeys.get(0).data(), sortedKeys.get(sortedKeys.size()
+                    - 1).data());
+            long[] remainingMaxSnapshotIds = remainingMaxSnapshotIds(newestTables);
+
+            for (int tableIndex = 0; tableIndex < newestTables.size(); tableIndex++) {
+                Table table = newestTables.get(tableIndex);
+                List<Key> tableKeys = new ArrayList<Key>();
+                List<Integer> tableKeyPositions = new ArrayList<Integer>();
+
+                for (int i = 0; i < sortedKeys.size(); i++) {
+                    Tuple closestTuple = closestTuples[i];
+
+                    //Keys that already have a version newer than anything left to visit are done
+                    if (closestTuple != null && closestTuple.key().snapshotId() >= Math.min
+                            (remainingMaxSnapshotIds[tableIndex], sortedKeys.get(i).snapshotId())) {
+                        continue;
+                    }
+
+                    if (inKeyRange(table, sortedKeys.get(i)) && table.mightContain(sortedKeys.get(i))) {
+                        tableKeys.add(sortedKeys.get(i));
+                        tableKeyPositions.add(i);
+                    }
+                }
+
+                if (tableKeys.isEmpty()) {
+                    continue;
+                }
+
+                List<Tuple> tableTuples = table.get(tableKeys);
+
+                for (int i = 0; i < tableTuples.size(); i++) {
+                    int position = tableKeyPositions.get(i);
+                    Tuple tableTuple = tableTuples.get(i);
+                    tablesConsulted[position]++;
 
                     bloomFilterFalsePositiveRate.sample(tableTuple == null);
 
-                    if (tableTuple != null) {
-                        // 取snapshotId最大的，也就是最新的记录
-                        if (closestTuple == null || tableTuple.key().snapshotId() > closestTuple.key().snapshotId()) {
-                            closestTuple = tableTuple;
-                        }
+                    if (tableTuple != null && (closestTuples[position] == null || tableTuple.key().snapshotId() >
+                            closestTuples[position].key().snapshotId())) {
+                        closestTuples[position] = tableTuple;
                     }
                 }
             }
+
+            Map<Long, RangeTombstones> snapshotRangeTombstones = new HashMap<Long, RangeTombstones>();
+
+            for (int i = 0; i < sortedKeys.size(); i++) {
+                Key key = sortedKeys.get(i);
+                RangeTombstones rangeTombstones = snapshotRangeTombstones.get(key.snapshotId());
+
+                if (rangeTombstones == null) {
+                    rangeTombstones = RangeTombstones.of(tables, key.snapshotId());
+                    snapshotRangeTombstones.put(key.snapshotId(), rangeTombstones);
+                }
+
+                tablesConsultedHistogram.update(tablesConsulted[i]);
+                latestTuples[keyOrder.get(i)] = latestTuple(key, closestTuples[i], rangeTombstones, now);
+            }
         } finally {
             tables.readUnlock();
         }
 
-        tablesConsultedHistogram.update(tablesConsulted);
-        recordNotFoundRate.sample(closestTuple == null);
+        for (Tuple latestTuple : latestTuples) {
+            recordNotFoundRate.sample(latestTuple == null);
+        }
 
-        return closestTuple;
+        return Arrays.asList(latestTuples);
     }
 
     public CloseableIterator<Tuple> ascendingIterator(long snapshotId) {
@@ -134,10 +246,11 @@ public class TableReader implements Iterable<Tuple> {
                 tableIterators.add(table.ascendingIterator(snapshotId));
             }
 
-            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(
-                    new MergingIterator<>(tableIterators), snapshotId, tables, ascendingIteratorSource);
+            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(ascendingMerge
+                    (tableIterators), snapshotId, tables, ascendingIteratorSource);
 
-            return new LatestTupleIterator(snapshotId, tableAggregationIterator);
+            return new LatestTupleIterator(snapshotId, tableAggregationIterator, mergeOperator, RangeTombstones.of
+                    (tables, snapshotId));
         } finally {
             tables.readUnlock();
         }
@@ -153,10 +266,11 @@ public class TableReader implements Iterable<Tuple> {
                 tableIterators.add(table.descendingIterator(snapshotId));
             }
 
-            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(new MergingIterator<Tuple>
-                    (true, tableIterators), snapshotId, tables, descendingIteratorSource);
+            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(descendingMerge
+                    (tableIterators), snapshotId, tables, descendingIteratorSource);
 
-            return new LatestTupleIterator(snapshotId, tableAggregationIterator);
+            return new LatestTupleIterator(snapshotId, tableAggregationIterator, mergeOperator, RangeTombstones.of
+                    (tables, snapshotId));
         } finally {
             tables.readUnlock();
         }
@@ -168,14 +282,15 @@ public class TableReader implements Iterable<Tuple> {
         try {
             List<CloseableIterator<Tuple>> tableIterators = new ArrayList<CloseableIterator<Tuple>>();
 
-            for (Table table : tables) {
+            for (Table table : tables.overlapping(key.data(), null)) {
                 tableIterators.add(table.ascendingIterator(key, snapshotId));
             }
 
-            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(new MergingIterator<Tuple>
+            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(ascendingMerge
                     (tableIterators), snapshotId, tables, ascendingIteratorSource);
 
-            return new LatestTupleIterator(snapshotId, tableAggregationIterator);
+            return new LatestTupleIterator(snapshotId, tableAggregationIterator, mergeOperator, RangeTombstones.of
+                    (tables, snapshotId));
         } finally {
             tables.readUnlock();
         }
@@ -187,14 +302,105 @@ public class TableReader implements Iterable<Tuple> {
         try {
             List<CloseableIterator<Tuple>> tableIterators = new ArrayList<CloseableIterator<Tuple>>();
 
-            for (Table table : tables) {
+            for (Table table : tables.overlapping(null, key.data())) {
                 tableIterators.add(table.descendingIterator(key, snapshotId));
             }
 
-            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(new MergingIterator<Tuple>
-                    (true, tableIterators), snapshotId, tables, descendingIteratorSource);
+            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(descendingMerge
+                    (tableIterators), snapshotId, tables, descendingIteratorSource);
+
+            return new LatestTupleIterator(snapshotId, tableAggregationIterator, mergeOperator, RangeTombstones.of
+                    (tables, snapshotId));
+        } finally {
+            tables.readUnlock();
+        }
+    }
+
+    /**
+     * Iterates in ascending order from a key up to, but not including, an end key. Tables whose key range lies
+     * outside of the keys are skipped, and each file Table stops reading blocks once it reaches the end key.
+     */
+    public CloseableIterator<Tuple> ascendingIterator(Key key, ByteBuffer endKey, long snapshotId) {
+        tables.readLock();
+
+        try {
+            List<CloseableIterator<Tuple>> tableIterators = new ArrayList<CloseableIterator<Tuple>>();
+
+            for (Table table : tables.overlapping(key.data(), endKey)) {
+                tableIterators.add(table.ascendingIterator(key, endKey, snapshotId));
+            }
+
+            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(ascendingMerge
+                    (tableIterators), snapshotId, tables, ascendingSource(key, endKey));
 
-            return new LatestTupleIterator(snapshotId, tableAggregationIterator);
+            return new BoundedIterator(endKey, tables.keyComparator(), new LatestTupleIterator(snapshotId,
+                    tableAggregationIterator, mergeOperator, RangeTombstones.of(tables, snapshotId)));
+        } finally {
+            tables.readUnlock();
+        }
+    }
+
+    /**
+     * Iterates in descending order from a key down to, but not including, an end key. Tables whose key range lies
+     * outside of the keys are skipped, and each file Table stops reading blocks once it reaches the end key.
+     */
+    public CloseableIterator<Tuple> descendingIterator(Key key, ByteBuffer endKey, long snapshotId) {
+        tables.readLock();
+
+        try {
+            List<CloseableIterator<Tuple>> tableIterators = new ArrayList<CloseableIterator<Tuple>>();
+
+            for (Table table : tables.overlapping(endKey, key.data())) {
+                tableIterators.add(table.descendingIterator(key, endKey, snapshotId));
+            }
+
+            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(descendingMerge
+                    (tableIterators), snapshotId, tables, descendingSource(key, endKey));
+
+            return new BoundedIterator(endKey, Collections.reverseOrder(tables.keyComparator()), new
+                    LatestTupleIterator(snapshotId, tableAggregationIterator, mergeOperator, RangeTombstones.of
+                    (tables, snapshotId)));
+        } finally {
+            tables.readUnlock();
+        }
+    }
+
+    /**
+     * Iterates over the keys that start with a prefix, in ascending order. Tables whose key range ends before the
+     * prefix or starts past it are skipped, and so are Tables whose bloom filter rules the prefix out when the prefix
+     * is one that the configured PrefixExtractor produces. Iteration stops at the first key past the prefix. Keys with
+     * a prefix are only next to each other in lexicographic order, so with any other KeyComparator every key is
+     * checked.
+     */
+    public CloseableIterator<Tuple> prefixIterator(ByteBuffer prefix, long snapshotId) {
+        if (tables.keyComparator() != KeyComparator.LEXICOGRAPHIC) {
+            return new PrefixIterator(prefix, ascendingIterator(snapshotId), false);
+        }
+
+        boolean filtered = prefixExtractor != null && prefixExtractor.isPrefix(prefix);
+        Key startKey = new Key(prefix, 0);
+        ByteBuffer endKey = prefixEnd(prefix);
+        tables.readLock();
+
+        try {
+            List<CloseableIterator<Tuple>> tableIterators = new ArrayList<CloseableIterator<Tuple>>();
+
+            for (Table table : tables.overlapping(prefix, null)) {
+                boolean pastPrefix = table.minKey() != null && KeyComparator.LEXICOGRAPHIC.compare(table.minKey(),
+                        prefix) > 0 && !PrefixIterator.startsWith(table.minKey(), prefix);
+
+                if (pastPrefix || (filtered && !table.mightContainPrefix(prefix, prefixExtractor))) {
+                    continue;
+                }
+
+                tableIterators.add(table.ascendingIterator(startKey, endKey, snapshotId));
+            }
+
+            TableAggregationIterator tableAggregationIterator = new TableAggregationIterator(ascendingMerge
+                    (tableIterators), snapshotId, tables, ascendingSource(startKey, endKey));
+
+            return new PrefixIterator(prefix, new LatestTupleIterator(snapshotId, tableAggregationIterator,
+                    mergeOperator, RangeTombstones.of(tables, snapshotId)), true);
         } finally {
             tables.readUnlock();
         }
@@ -216,4 +422,241 @@ public class TableReader implements Iterable<Tuple> {
     public Iterator<Tuple> iterator() {
         return ascendingIterator(Long.MAX_VALUE);
     }
+
+    /**
+     * Turns the newest version of a key into what a read at the key's snapshot sees, by turning an expired version into
+     * a tombstone, applying range deletions and folding merge operands. Must be called with the Tables read lock held.
+     */
+    private Tuple latestTuple(Key key, Tuple closestTuple, RangeTombstones rangeTombstones, long now) {
+        if (closestTuple != null) {
+            closestTuple = closestTuple.asOf(now);
+        }
+
+        //The newest range deletion of the key that is visible at the snapshot being read, if any
+        long rangeDeletionId = rangeTombstones.coveringSnapshotId(new Key(key.data(), -1));
+
+        if (rangeDeletionId > 0 && (closestTuple == null || closestTuple.key().snapshotId() < rangeDeletionId)) {
+            return new Tuple(new Key(key.data(), rangeDeletionId), Value.TOMBSTONE_VALUE);
+        }
+
+        if (closestTuple != null && closestTuple.value().isMergeOperand()) {
+            return mergedTuple(closestTuple, rangeDeletionId);
+        }
+
+        return closestTuple;
+    }
+
+    /**
+     * Finds the newest version of a key at or below the key's snapshot id. Tables are visited newest first, and the
+     * search stops once the version found is at least as new as anything the remaining Tables could return.
+     */
+    private Tuple closestTuple(Key key) {
+        Tuple closestTuple = null;
+        int tablesConsulted = 0;
+        List<Table> newestTables = tables.newestFirst(key.data(), key.data());
+        long[] remainingMaxSnapshotIds = remainingMaxSnapshotIds(newestTables);
+
+        for (int i = 0; i < newestTables.size(); i++) {
+            Table table = newestTables.get(i);
+
+            if (closestTuple != null && closestTuple.key().snapshotId() >= Math.min(remainingMaxSnapshotIds[i], key
+                    .snapshotId())) {
+                break;
+            }
+
+            if (table.mightContain(key)) {
+                Tuple tableTuple = table.get(key);
+                tablesConsulted++;
+
+                bloomFilterFalsePositiveRate.sample(tableTuple == null);
+
+                if (tableTuple != null) {
+                    // 取snapshotId最大的，也就是最新的记录
+                    if (closestTuple == null || tableTuple.key().snapshotId() > closestTuple.key().snapshotId()) {
+                        closestTuple = tableTuple;
+                    }
+                }
+            }
+        }
+
+        tablesConsultedHistogram.update(tablesConsulted);
+
+        return closestTuple;
+    }
+
+    /**
+     * Finds the newest version of a key in the same way as closestTuple, but leases it from each Table. Leases of
+     * versions that turn out to be older are closed straight away.
+     */
+    private TupleLease closestLease(Key key) {
+        TupleLease closestLease = TupleLease.EMPTY;
+        int tablesConsulted = 0;
+        List<Table> newestTables = tables.newestFirst(key.data(), key.data());
+        long[] remainingMaxSnapshotIds = remainingMaxSnapshotIds(newestTables);
+
+        for (int i = 0; i < newestTables.size(); i++) {
+            Table table = newestTables.get(i);
+            Tuple closestTuple = closestLease.tuple();
+
+            if (closestTuple != null && closestTuple.key().snapshotId() >= Math.min(remainingMaxSnapshotIds[i], key
+                    .snapshotId())) {
+                break;
+            }
+
+            if (table.mightContain(key)) {
+                TupleLease tableLease = table.lease(key);
+                Tuple tableTuple = tableLease.tuple();
+                tablesConsulted++;
+
+                bloomFilterFalsePositiveRate.sample(tableTuple == null);
+
+                if (tableTuple != null && (closestTuple == null || tableTuple.key().snapshotId() > closestTuple.key()
+                        .snapshotId())) {
+                    closestLease.close();
+                    closestLease = tableLease;
+                } else {
+                    tableLease.close();
+                }
+            }
+        }
+
+        tablesConsultedHistogram.update(tablesConsulted);
+
+        return closestLease;
+    }
+
+    private boolean inKeyRange(Table table, Key key) {
+        if (!table.isPersistent()) {
+            return true;
+        }
+
+        KeyComparator keyComparator = tables.keyComparator();
+        return table.minKey() != null && keyComparator.compare(key.data(), table.minKey()) >= 0 && keyComparator
+                .compare(key.data(), table.maxKey()) <= 0;
+    }
+
+    /**
+     * @return a Source that reopens a scan from the last key it returned, or from the start key if it hasn't returned
+     * anything yet, and that passes the end key on to each Table. Either key may be null for an unbounded scan.
+     */
+    private TableAggregationIterator.Source ascendingSource(final Key startKey, final ByteBuffer endKey) {
+        return new TableAggregationIterator.Source() {
+            @Override
+            public CloseableIterator<Tuple> refresh(Key key, long snapshotId) {
+                Key fromKey = key == null ? startKey : key;
+                tables.readLock();
+
+                try {
+                    List<CloseableIterator<Tuple>> tableIterators = new ArrayList<CloseableIterator<Tuple>>();
+
+                    for (Table table : tables.overlapping(fromKey == null ? null : fromKey.data(), endKey)) {
+                        tableIterators.add(fromKey == null ? table.ascendingIterator(snapshotId) : table
+                                .ascendingIterator(fromKey, endKey, snapshotId));
+                    }
+
+                    return new LatestTupleIterator(snapshotId, ascendingMerge(tableIterators), mergeOperator,
+                            RangeTombstones.of(tables, snapshotId));
+                } finally {
+                    tables.readUnlock();
+                }
+            }
+        };
+    }
+
+    private TableAggregationIterator.Source descendingSource(final Key startKey, final ByteBuffer endKey) {
+        return new TableAggregationIterator.Source() {
+            @Override
+            public CloseableIterator<Tuple> refresh(Key key, long snapshotId) {
+                Key fromKey = key == null ? startKey : key;
+                tables.readLock();
+
+                try {
+                    List<CloseableIterator<Tuple>> tableIterators = new ArrayList<CloseableIterator<Tuple>>();
+
+                    for (Table table : tables.overlapping(endKey, fromKey == null ? null : fromKey.data())) {
+                        tableIterators.add(fromKey == null ? table.descendingIterator(snapshotId) : table
+                                .descendingIterator(fromKey, endKey, snapshotId));
+                    }
+
+                    return new LatestTupleIterator(snapshotId, descendingMerge(tableIterators), mergeOperator,
+                            RangeTombstones.of(tables, snapshotId));
+                } finally {
+                    tables.readUnlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the smallest key past every key that starts with the prefix in lexicographic order, or null if there is
+     * none because the prefix is made up of only 0xFF bytes
+     */
+    private static ByteBuffer prefixEnd(ByteBuffer prefix) {
+        for (int i = prefix.remaining() - 1; i >= 0; i--) {
+            int prefixByte = prefix.get(prefix.position() + i) & 0xFF;
+
+            if (prefixByte != 0xFF) {
+                byte[] endKey = new byte[i + 1];
+                prefix.duplicate().get(endKey);
+                endKey[i] = (byte) (prefixByte + 1);
+                return ByteBuffer.wrap(endKey);
+            }
+        }
+
+        return null;
+    }
+
+    private MergingIterator<Tuple> ascendingMerge(List<CloseableIterator<Tuple>> tableIterators) {
+        return new MergingIterator<Tuple>(tables.keyComparator().tupleOrder(), tableIterators);
+    }
+
+    private MergingIterator<Tuple> descendingMerge(List<CloseableIterator<Tuple>> tableIterators) {
+        return new MergingIterator<Tuple>(Collections.reverseOrder(tables.keyComparator().tupleOrder()),
+                tableIterators);
+    }
+
+    /**
+     * Works out the largest maxSnapshotId among each Table and those after it. The order of the Tables only decides how
+     * soon a lookup can stop, since these bounds are read from the Tables themselves.
+     */
+    private static long[] remainingMaxSnapshotIds(List<Table> newestTables) {
+        long[] remainingMaxSnapshotIds = new long[newestTables.size()];
+        long remainingMaxSnapshotId = Long.MIN_VALUE;
+
+        for (int i = newestTables.size() - 1; i >= 0; i--) {
+            remainingMaxSnapshotId = Math.max(remainingMaxSnapshotId, newestTables.get(i).maxSnapshotId());
+            remainingMaxSnapshotIds[i] = remainingMaxSnapshotId;
+        }
+
+        return remainingMaxSnapshotIds;
+    }
+
+    /**
+     * Collects the versions of a key from the newest merge operand down to the newest regular value beneath it, and
+     * folds them into a single value. Versions older than a range deletion of the key are not collected.
+     */
+    private Tuple mergedTuple(Tuple newestOperand, long rangeDeletionId) {
+        if (mergeOperator == null) {
+            throw new IllegalStateException("A merge operator is required to read merged keys");
+        }
+
+        List<Tuple> versions = new ArrayList<Tuple>();
+        Tuple version = newestOperand;
+
+        while (version != null) {
+            versions.add(version);
+
+            if (!version.value().isMergeOperand() || version.key().snapshotId() == 0) {
+                break;
+            }
+
+            version = closestTuple(new Key(version.key().data(), version.key().snapshotId() - 1));
+
+            if (version != null && version.key().snapshotId() < rangeDeletionId) {
+                break;
+            }
+        }
+
+        return TupleMerger.merge(mergeOperator, versions, true);
+    }
 }
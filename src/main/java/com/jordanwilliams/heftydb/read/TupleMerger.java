@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.read;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.db.MergeOperator;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Folds the merge operands of a key into a single Tuple using a MergeOperator. An expired version beneath the operands
+ * is treated as an absent value, like a tombstone, and operands folded into an expiring value expire along with it.
+ */
+public class TupleMerger {
+
+    /**
+     * Folds the versions of a single key into one Tuple with the snapshot id of the newest version.
+     *
+     * @param versions the versions of the key, newest first. Folding stops at the first version that is not a merge
+     *                 operand.
+     * @param resolve  if true, operands with no older value are applied to an absent value, so the result is always a
+     *                 regular value. Otherwise they are combined into a single merge operand, for callers that might
+     *                 not see every version of the key.
+     */
+    public static Tuple merge(MergeOperator mergeOperator, List<Tuple> versions, boolean resolve) {
+        Tuple newest = versions.get(0);
+
+        if (!newest.value().isMergeOperand()) {
+            return newest;
+        }
+
+        ByteBuffer key = newest.key().data();
+        ByteBuffer operand = newest.value().data().duplicate();
+
+        for (int i = 1; i < versions.size(); i++) {
+            Value older = versions.get(i).value();
+
+            if (older.isExpiring() && !older.isExpired(System.currentTimeMillis())) {
+                ByteBuffer merged = mergeOperator.merge(key.duplicate(), older.unexpired().data().duplicate(),
+                        operand);
+                merged.rewind();
+                return new Tuple(new Key(key, newest.key().snapshotId()), Value.expiring(merged, older.expiresAt()));
+            }
+
+            ByteBuffer olderData = older.data().duplicate();
+
+            if (older.isMergeOperand()) {
+                operand = mergeOperator.merge(key.duplicate(), olderData, operand);
+                continue;
+            }
+
+            //A tombstone or an expired value is treated as an absent value
+            ByteBuffer existingValue = older.isEmpty() || older.isExpiring() ? null : olderData;
+            return merged(newest, mergeOperator.merge(key.duplicate(), existingValue, operand), Value.Type.VALUE);
+        }
+
+        if (resolve) {
+            return merged(newest, mergeOperator.merge(key.duplicate(), null, operand), Value.Type.VALUE);
+        }
+
+        return merged(newest, operand, Value.Type.MERGE_OPERAND);
+    }
+
+    private static Tuple merged(Tuple newest, ByteBuffer value, Value.Type type) {
+        value.rewind();
+        return new Tuple(new Key(newest.key().data(), newest.key().snapshotId()), new Value(value, type));
+    }
+}
@@ -33,6 +33,9 @@ public class Paths {
     private static final String INDEX_EXT = ".index";
     private static final String FILTER_EXT = ".filter";
     private static final String TEMP_EXT = ".temp";
+    private static final String RECYCLED_LOG_EXT = ".recycled";
+    private static final String VALUE_LOG_EXT = ".vlog";
+    private static final String INGEST_EXT = ".ingest";
 
     private final Path logDirectory;
     private final Path tableDirectory;
@@ -58,10 +61,22 @@ public class Paths {
         return tableDirectory.resolve(tableId + LOG_EXT);
     }
 
+    public Path recycledLogPath(long tableId) {
+        return tableDirectory.resolve(tableId + RECYCLED_LOG_EXT);
+    }
+
     public Path tempPath(long tableId) {
         return tableDirectory.resolve(tableId + TEMP_EXT);
     }
 
+    public Path valueLogPath(long segmentId) {
+        return tableDirectory.resolve(segmentId + VALUE_LOG_EXT);
+    }
+
+    public Path ingestManifestPath(long ingestId) {
+        return tableDirectory.resolve(ingestId + INGEST_EXT);
+    }
+
     public SortedSet<Long> tableFileIds() throws IOException {
         return fileIds(tableFilePaths());
     }
@@ -74,6 +89,10 @@ public class Paths {
         return fileIds(logFilePaths());
     }
 
+    public SortedSet<Long> valueLogSegmentIds() throws IOException {
+        return fileIds(filePaths(tableDirectory, VALUE_LOG_EXT));
+    }
+
     public SortedSet<Path> tableFilePaths() throws IOException {
         return filePaths(tableDirectory, TABLE_EXT);
     }
@@ -82,10 +101,18 @@ public class Paths {
         return filePaths(tableDirectory, LOG_EXT);
     }
 
+    public SortedSet<Path> recycledLogFilePaths() throws IOException {
+        return filePaths(tableDirectory, RECYCLED_LOG_EXT);
+    }
+
     public SortedSet<Path> tempFilePaths() throws IOException {
         return filePaths(tableDirectory, TEMP_EXT);
     }
 
+    public SortedSet<Path> ingestManifestPaths() throws IOException {
+        return filePaths(tableDirectory, INGEST_EXT);
+    }
+
     private SortedSet<Path> filePaths(Path directory, String extension) throws IOException {
         SortedSet<Path> sortedFilePaths = new TreeSet<Path>();
         DirectoryStream<Path> filePaths = Files.newDirectoryStream(directory, "*" + extension);
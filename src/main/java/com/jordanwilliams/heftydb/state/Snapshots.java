@@ -18,23 +18,95 @@ package com.jordanwilliams.heftydb.state;
 
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Keeps track of Snapshot ids in a database.
+ * Keeps track of Snapshot ids in a database. Ids are allocated in order, but only become visible to readers once
+ * every id before them has been published, so a reader never observes a gap left by a write that is still in flight.
  */
 public class Snapshots {
 
+    //Publishers usually only wait for a write that is finishing its memory table insert, so they spin briefly before
+    //they block
+    private static final int PUBLISH_SPINS = 64;
+
+    private final AtomicLong allocatedSnapshotId = new AtomicLong();
     private final AtomicLong currentSnapshotId = new AtomicLong();
     private final SortedSet<Long> retainedSnapshots = new TreeSet<Long>();
+    private final Object publishLock = new Object();
+    private final AtomicInteger blockedPublishers = new AtomicInteger();
 
     public Snapshots(long startingSnapshotId) {
+        this.allocatedSnapshotId.set(startingSnapshotId);
         this.currentSnapshotId.set(startingSnapshotId);
         retainedSnapshots.add(Long.MAX_VALUE);
     }
 
     public long nextId() {
-        return currentSnapshotId.incrementAndGet();
+        return allocatedSnapshotId.incrementAndGet();
+    }
+
+    /**
+     * Allocates a contiguous range of ids.
+     *
+     * @return the first id in the range
+     */
+    public long nextIds(int count) {
+        return allocatedSnapshotId.addAndGet(count) - count + 1;
+    }
+
+    public void publish(long snapshotId) {
+        publish(snapshotId, snapshotId);
+    }
+
+    /**
+     * Publishes a range of ids once every id before it has been published. Every allocated id must be published, even
+     * if the write it was allocated for fails, since the writes that were allocated later ids wait for it.
+     */
+    public void publish(long firstSnapshotId, long lastSnapshotId) {
+        for (int i = 0; i < PUBLISH_SPINS && currentSnapshotId.get() != firstSnapshotId - 1; i++) {
+            Thread.yield();
+        }
+
+        if (currentSnapshotId.get() != firstSnapshotId - 1) {
+            awaitPublished(firstSnapshotId - 1);
+        }
+
+        currentSnapshotId.set(lastSnapshotId);
+
+        //A blocked publisher registers itself before it checks the current id, so either it sees the new id or it is
+        //woken up here
+        if (blockedPublishers.get() > 0) {
+            synchronized (publishLock) {
+                publishLock.notifyAll();
+            }
+        }
+    }
+
+    private void awaitPublished(long snapshotId) {
+        boolean interrupted = false;
+
+        synchronized (publishLock) {
+            blockedPublishers.incrementAndGet();
+
+            try {
+                while (currentSnapshotId.get() != snapshotId) {
+                    try {
+                        publishLock.wait();
+                    } catch (InterruptedException e) {
+                        //Giving up would leave every later id unpublished, so the wait goes on
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                blockedPublishers.decrementAndGet();
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public long currentId() {
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.state;
+
+import com.jordanwilliams.heftydb.data.KeyComparator;
+import com.jordanwilliams.heftydb.table.Table;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the Tables whose key range overlaps a range of keys. The persistent Tables are sorted by their smallest key,
+ * alongside the largest key seen so far in that order, so a search only walks back through the Tables that can still
+ * reach the range. MemoryTables are always returned, since their key range changes as they are written to.
+ */
+class TableIntervals {
+
+    private final List<Table> unboundedTables = new ArrayList<Table>();
+    private final List<Table> boundedTables = new ArrayList<Table>();
+    private final List<ByteBuffer> maxKeysSoFar = new ArrayList<ByteBuffer>();
+    private final KeyComparator keyComparator;
+
+    TableIntervals(Iterable<Table> tables, final KeyComparator keyComparator) {
+        this.keyComparator = keyComparator;
+
+        for (Table table : tables) {
+            if (!table.isPersistent()) {
+                unboundedTables.add(table);
+            } else if (table.minKey() != null) {
+                boundedTables.add(table);
+            }
+        }
+
+        Collections.sort(boundedTables, new Comparator<Table>() {
+            @Override
+            public int compare(Table table1, Table table2) {
+                return keyComparator.compare(table1.minKey(), table2.minKey());
+            }
+        });
+
+        ByteBuffer maxKeySoFar = null;
+
+        for (Table table : boundedTables) {
+            if (maxKeySoFar == null || keyComparator.compare(table.maxKey(), maxKeySoFar) > 0) {
+                maxKeySoFar = table.maxKey();
+            }
+
+            maxKeysSoFar.add(maxKeySoFar);
+        }
+    }
+
+    /**
+     * @param startKey the smallest key of the range, or null if the range is unbounded below
+     * @param endKey   the largest key of the range, or null if the range is unbounded above
+     * @return the Tables that might hold keys in the range, in no particular order
+     */
+    List<Table> overlapping(ByteBuffer startKey, ByteBuffer endKey) {
+        List<Table> overlappingTables = new ArrayList<Table>(unboundedTables);
+
+        for (int i = endIndex(endKey) - 1; i >= 0; i--) {
+            if (startKey != null && keyComparator.compare(maxKeysSoFar.get(i), startKey) < 0) {
+                break;
+            }
+
+            Table table = boundedTables.get(i);
+
+            if (startKey == null || keyComparator.compare(table.maxKey(), startKey) >= 0) {
+                overlappingTables.add(table);
+            }
+        }
+
+        return overlappingTables;
+    }
+
+    int size() {
+        return unboundedTables.size() + boundedTables.size();
+    }
+
+    private int endIndex(ByteBuffer endKey) {
+        if (endKey == null) {
+            return boundedTables.size();
+        }
+
+        //Number of Tables whose smallest key is at or below the end of the range
+        int low = 0;
+        int high = boundedTables.size();
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (keyComparator.compare(boundedTables.get(mid).minKey(), endKey) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
@@ -16,14 +16,22 @@
 
 package com.jordanwilliams.heftydb.state;
 
+import com.jordanwilliams.heftydb.data.KeyComparator;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
+import com.jordanwilliams.heftydb.read.RangeTombstones;
 import com.jordanwilliams.heftydb.table.Table;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableSet;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -38,12 +46,38 @@ public class Tables implements Iterable<Table> {
         public void changed();
     }
 
+    private static final Comparator<Table> NEWEST_FIRST = new Comparator<Table>() {
+        @Override
+        public int compare(Table table1, Table table2) {
+            if (table1.isPersistent() != table2.isPersistent()) {
+                return table1.isPersistent() ? 1 : -1;
+            }
+
+            if (!table1.isPersistent()) {
+                return Long.compare(table2.id(), table1.id());
+            }
+
+            return Long.compare(table2.maxSnapshotId(), table1.maxSnapshotId());
+        }
+    };
+
     private final AtomicLong currentTableId = new AtomicLong();
     private final NavigableSet<Table> tables = new TreeSet<Table>();
     private final ReadWriteLock tableLock = new ReentrantReadWriteLock();
     private final List<ChangeHandler> changeHandlers = new ArrayList<ChangeHandler>();
+    private final Set<ChangeHandler> invalidationHandlers = Collections.newSetFromMap(new
+            ConcurrentHashMap<ChangeHandler, Boolean>());
+    private final KeyComparator keyComparator;
+    private volatile List<Table> newestFirst;
+    private volatile TableIntervals intervals;
+    private volatile RangeTombstones persistentRangeTombstones;
 
     public Tables(Collection<Table> initialTables) {
+        this(initialTables, KeyComparator.LEXICOGRAPHIC);
+    }
+
+    public Tables(Collection<Table> initialTables, KeyComparator keyComparator) {
+        this.keyComparator = keyComparator;
         this.tables.addAll(initialTables);
         this.currentTableId.set(tables.isEmpty() ? 0 : tables.last().id());
     }
@@ -56,6 +90,26 @@ public class Tables implements Iterable<Table> {
         changeHandlers.remove(changeHandler);
     }
 
+    /**
+     * Adds a handler that is notified while the write lock is still held, so that no reader can take the read lock
+     * between a change and the notification. These handlers must only record that a change happened, and must not
+     * take any locks.
+     */
+    public void addInvalidationHandler(ChangeHandler invalidationHandler) {
+        invalidationHandlers.add(invalidationHandler);
+    }
+
+    public void removeInvalidationHandler(ChangeHandler invalidationHandler) {
+        invalidationHandlers.remove(invalidationHandler);
+    }
+
+    /**
+     * @return the order of the keys in the Tables
+     */
+    public KeyComparator keyComparator() {
+        return keyComparator;
+    }
+
     public long nextId() {
         return currentTableId.incrementAndGet();
     }
@@ -76,10 +130,27 @@ public class Tables implements Iterable<Table> {
         try {
             tableLock.writeLock().lock();
             tables.add(toAdd);
-            notifyChanged();
+            invalidate();
         } finally {
             tableLock.writeLock().unlock();
         }
+
+        notifyChanged();
+    }
+
+    /**
+     * Adds every Table under a single acquisition of the write lock, so that readers see either all or none of them.
+     */
+    public void addAll(List<Table> toAdd) {
+        try {
+            tableLock.writeLock().lock();
+            tables.addAll(toAdd);
+            invalidate();
+        } finally {
+            tableLock.writeLock().unlock();
+        }
+
+        notifyChanged();
     }
 
     public void removeAll(List<Table> toRemove) {
@@ -88,20 +159,25 @@ public class Tables implements Iterable<Table> {
             for (Table table : toRemove) {
                 tables.remove(table);
             }
-            notifyChanged();
+
+            invalidate();
         } finally {
             tableLock.writeLock().unlock();
         }
+
+        notifyChanged();
     }
 
     public void remove(Table toRemove) {
         try {
             tableLock.writeLock().lock();
             tables.remove(toRemove);
-            notifyChanged();
+            invalidate();
         } finally {
             tableLock.writeLock().unlock();
         }
+
+        notifyChanged();
     }
 
     public void swap(Table toAdd, Table toRemove) {
@@ -109,21 +185,118 @@ public class Tables implements Iterable<Table> {
             tableLock.writeLock().lock();
             tables.remove(toRemove);
             tables.add(toAdd);
-            notifyChanged();
+            invalidate();
         } finally {
             tableLock.writeLock().unlock();
         }
+
+        notifyChanged();
     }
 
     public int count() {
         return tables.size();
     }
 
+    /**
+     * Orders the Tables so that point reads can visit the newest data first. MemoryTables come first, newest first by
+     * id, since the one being written to may still be empty when the order is worked out. They are followed by the
+     * persistent Tables by descending maxSnapshotId. The order is only worked out again after a change, so callers
+     * must not rely on it for correctness. Must be called with the read lock held.
+     */
+    public List<Table> newestFirst() {
+        List<Table> newestTables = newestFirst;
+
+        if (newestTables == null) {
+            List<Table> sortedTables = new ArrayList<Table>(tables);
+            Collections.sort(sortedTables, NEWEST_FIRST);
+            newestTables = Collections.unmodifiableList(sortedTables);
+            newestFirst = newestTables;
+        }
+
+        return newestTables;
+    }
+
+    /**
+     * Orders the Tables that might hold keys between the given keys, inclusive, in the same way as newestFirst().
+     * Persistent Tables whose key range lies outside of the given keys are left out. Must be called with the read
+     * lock held.
+     */
+    public List<Table> newestFirst(ByteBuffer startKey, ByteBuffer endKey) {
+        List<Table> overlappingTables = overlapping(startKey, endKey);
+
+        if (overlappingTables.size() == tables.size()) {
+            return newestFirst();
+        }
+
+        Collections.sort(overlappingTables, NEWEST_FIRST);
+        return overlappingTables;
+    }
+
+    /**
+     * @param startKey the smallest key of the range, or null if the range is unbounded below
+     * @param endKey   the largest key of the range, or null if the range is unbounded above
+     * @return the Tables that might hold keys in the range, in no particular order. Must be called with the read lock
+     * held.
+     */
+    public List<Table> overlapping(ByteBuffer startKey, ByteBuffer endKey) {
+        TableIntervals tableIntervals = intervals;
+
+        if (tableIntervals == null) {
+            tableIntervals = new TableIntervals(tables, keyComparator);
+            intervals = tableIntervals;
+        }
+
+        return tableIntervals.overlapping(startKey, endKey);
+    }
+
+    /**
+     * @return the RangeTombstones of the persistent Tables, as seen from the newest snapshot, sorted once after each
+     * change. The tombstones of MemoryTables are left out, since they are still being added to. Must be called with
+     * the read lock held.
+     */
+    public RangeTombstones persistentRangeTombstones() {
+        RangeTombstones rangeTombstones = persistentRangeTombstones;
+
+        if (rangeTombstones == null) {
+            List<RangeTombstone> tableTombstones = new ArrayList<RangeTombstone>();
+
+            for (Table table : tables) {
+                if (table.isPersistent()) {
+                    tableTombstones.addAll(table.rangeTombstones());
+                }
+            }
+
+            rangeTombstones = tableTombstones.isEmpty() ? RangeTombstones.EMPTY : new RangeTombstones
+                    (tableTombstones, Long.MAX_VALUE, keyComparator);
+            persistentRangeTombstones = rangeTombstones;
+        }
+
+        return rangeTombstones;
+    }
+
     @Override
     public Iterator<Table> iterator() {
         return tables.iterator();
     }
 
+    /**
+     * Drops the views that are worked out from the Tables, and tells the invalidation handlers about the change. Must
+     * be called with the write lock held.
+     */
+    private void invalidate() {
+        newestFirst = null;
+        intervals = null;
+        persistentRangeTombstones = null;
+
+        for (ChangeHandler invalidationHandler : invalidationHandlers) {
+            invalidationHandler.changed();
+        }
+    }
+
+    /**
+     * Handlers are notified outside of the write lock, since they may take other locks that are held while waiting
+     * for the Tables read lock.
+     */
     private synchronized void notifyChanged() {
         for (ChangeHandler changeHandler : changeHandlers) {
             changeHandler.changed();
@@ -17,9 +17,15 @@
 package com.jordanwilliams.heftydb.table;
 
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
 import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.db.PrefixExtractor;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Represents an immutable collection of sorted record in a database.
  */
@@ -29,8 +35,27 @@ public interface Table extends Iterable<Tuple>, Comparable<Table> {
 
     boolean mightContain(Key key);
 
+    /**
+     * @return false if this Table is known to hold no keys with the given prefix of the PrefixExtractor
+     */
+    boolean mightContainPrefix(ByteBuffer prefix, PrefixExtractor prefixExtractor);
+
     Tuple get(Key key);
 
+    /**
+     * Finds a key like get, but may return a view over the memory the Table is read from instead of a copy. The lease
+     * must be closed once the Tuple is no longer used.
+     */
+    TupleLease lease(Key key);
+
+    /**
+     * Looks up a batch of keys together, which lets keys stored close to each other share the work of finding them.
+     *
+     * @param sortedKeys the keys to look up, in ascending order
+     * @return the closest Tuple for each key, or null where there is none, in the same order as the keys
+     */
+    List<Tuple> get(List<Key> sortedKeys);
+
     CloseableIterator<Tuple> ascendingIterator(long snapshotId);
 
     CloseableIterator<Tuple> descendingIterator(long snapshotId);
@@ -39,6 +64,18 @@ public interface Table extends Iterable<Tuple>, Comparable<Table> {
 
     CloseableIterator<Tuple> descendingIterator(Key key, long snapshotId);
 
+    /**
+     * Iterates like ascendingIterator from a key, but stops reading the Table once the end key is reached. Tuples at
+     * or past the end key may still be returned, so the caller must stop at the end key itself.
+     */
+    CloseableIterator<Tuple> ascendingIterator(Key key, ByteBuffer endKey, long snapshotId);
+
+    /**
+     * Iterates like descendingIterator from a key, but stops reading the Table once the end key is reached. Tuples at
+     * or before the end key may still be returned, so the caller must stop at the end key itself.
+     */
+    CloseableIterator<Tuple> descendingIterator(Key key, ByteBuffer endKey, long snapshotId);
+
     long tupleCount();
 
     long size();
@@ -47,6 +84,28 @@ public interface Table extends Iterable<Tuple>, Comparable<Table> {
 
     long maxSnapshotId();
 
+    /**
+     * @return the data of the smallest Key in this Table, or null if the Table is empty
+     */
+    ByteBuffer minKey();
+
+    /**
+     * @return the data of the largest Key in this Table, or null if the Table is empty
+     */
+    ByteBuffer maxKey();
+
+    List<RangeTombstone> rangeTombstones();
+
+    /**
+     * @return the number of ValueLog bytes that this Table points to, keyed by segment id
+     */
+    Map<Long, Long> valueLogReferences();
+
+    /**
+     * @return an estimate of the fraction of this Table's tuples that have expired at the given time
+     */
+    double expiredRatio(long now);
+
     void close();
 
     boolean isPersistent();
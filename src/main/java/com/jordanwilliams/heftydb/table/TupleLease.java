@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.table;
+
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.offheap.MemoryPointer;
+
+import java.io.Closeable;
+
+/**
+ * A Tuple that may be a view over off-heap memory, along with the MemoryPointer that keeps that memory alive. The
+ * memory is released when the lease is closed, after which the Tuple must no longer be used.
+ */
+public class TupleLease implements Closeable {
+
+    public static final TupleLease EMPTY = new TupleLease(null, null);
+
+    private final Tuple tuple;
+    private final MemoryPointer memory;
+    private boolean closed;
+
+    /**
+     * @param tuple  the leased Tuple, or null if there is none
+     * @param memory the retained memory that the Tuple is a view over, or null if the Tuple is on the heap
+     */
+    public TupleLease(Tuple tuple, MemoryPointer memory) {
+        this.tuple = tuple;
+        this.memory = memory;
+    }
+
+    public Tuple tuple() {
+        return tuple;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed || memory == null) {
+            return;
+        }
+
+        memory.release();
+        closed = true;
+    }
+}
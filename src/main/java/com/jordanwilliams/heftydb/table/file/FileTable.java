@@ -17,7 +17,10 @@
 package com.jordanwilliams.heftydb.table.file;
 
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
 import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.db.PrefixExtractor;
 import com.jordanwilliams.heftydb.index.Index;
 import com.jordanwilliams.heftydb.index.IndexBlock;
 import com.jordanwilliams.heftydb.index.IndexRecord;
@@ -31,30 +34,53 @@ import com.jordanwilliams.heftydb.offheap.MemoryPointer;
 import com.jordanwilliams.heftydb.read.LatestTupleIterator;
 import com.jordanwilliams.heftydb.state.Paths;
 import com.jordanwilliams.heftydb.table.Table;
+import com.jordanwilliams.heftydb.table.TupleLease;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
 import com.jordanwilliams.heftydb.util.Sizes;
+import com.jordanwilliams.heftydb.valuelog.ValueLog;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Provides a read-only view on a Table file. A Table file is a doubly linked list of TupleBlocks to allow for
  * efficient iteration. These blocks make up the leaves of the B+tree provided by the Index file.
  * B+树叶子节点那一层构成的双向链表
+ *
+ * Values that were moved to the ValueLog are read back from it by get and the snapshot iterators. The raw iterator
+ * returns their ValuePointers, so that compaction doesn't have to copy the values.
+ *
+ * The Tuples of an ingested Table are written before the Table is linked into the database, so they all take the
+ * snapshot id it was linked under, which is stamped into the trailer, instead of the one they were written with.
+ *
+ * Snapshot iterators retain the table, so its files are only closed, and the ValueLog segments it points to only
+ * become collectable, once the table and every iterator over it have been closed.
  */
 public class FileTable implements Table {
 
     private class AscendingBlockIterator implements Iterator<TupleBlock> {
 
         private final long maxOffset;
+        private final ByteBuffer endKey;
         private long fileOffset = 0;
 
-        public AscendingBlockIterator(long startOffset) {
+        public AscendingBlockIterator(long startOffset, ByteBuffer endKey) {
             this.fileOffset = startOffset;
-            this.maxOffset = fileSize - TableTrailer.SIZE - Sizes.INT_SIZE;
+            this.endKey = endKey;
+            this.maxOffset = trailer.rangeTombstoneOffset() - Sizes.INT_SIZE;
+        }
+
+        public AscendingBlockIterator(long startOffset) {
+            this(startOffset, null);
         }
 
         @Override
@@ -76,12 +102,21 @@ public class FileTable implements Table {
                 fileOffset += nextBlockSize;
                 fileOffset += Sizes.INT_SIZE;
 
-                return readTupleBlock(nextBlockOffset, nextBlockSize);
+                TupleBlock tupleBlock = readTupleBlock(nextBlockOffset, nextBlockSize);
+                stopIfPastEnd(tupleBlock);
+                return tupleBlock;
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
+        //Blocks are in key order, so the blocks after one that reaches the end key can't hold a key before it
+        public void stopIfPastEnd(TupleBlock tupleBlock) {
+            if (endKey != null && keyComparator.compare(tupleBlock.lastKey().data(), endKey) >= 0) {
+                fileOffset = maxOffset;
+            }
+        }
+
         @Override
         public void remove() {
             throw new UnsupportedOperationException();
@@ -90,10 +125,16 @@ public class FileTable implements Table {
 
     private class DescendingBlockIterator implements Iterator<TupleBlock> {
 
+        private final ByteBuffer endKey;
         private long fileOffset;
 
-        public DescendingBlockIterator(long startOffset) {
+        public DescendingBlockIterator(long startOffset, ByteBuffer endKey) {
             this.fileOffset = startOffset;
+            this.endKey = endKey;
+        }
+
+        public DescendingBlockIterator(long startOffset) {
+            this(startOffset, null);
         }
 
         @Override
@@ -115,12 +156,20 @@ public class FileTable implements Table {
                 fileOffset -= nextBlockSize;
                 fileOffset -= Sizes.INT_SIZE;
 
-                return readTupleBlock(nextBlockOffset, nextBlockSize);
+                TupleBlock tupleBlock = readTupleBlock(nextBlockOffset, nextBlockSize);
+                stopIfPastEnd(tupleBlock);
+                return tupleBlock;
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
+        public void stopIfPastEnd(TupleBlock tupleBlock) {
+            if (endKey != null && keyComparator.compare(tupleBlock.firstKey().data(), endKey) <= 0) {
+                fileOffset = -1;
+            }
+        }
+
         @Override
         public void remove() {
             throw new UnsupportedOperationException();
@@ -171,7 +220,7 @@ public class FileTable implements Table {
                 }
             }
 
-            return recordIterator.next();
+            return ingested(recordIterator.next());
         }
 
         @Override
@@ -230,27 +279,107 @@ public class FileTable implements Table {
         }
     }
 
+    private class ValueResolvingIterator implements CloseableIterator<Tuple> {
+
+        private final CloseableIterator<Tuple> tupleIterator;
+
+        private ValueResolvingIterator(CloseableIterator<Tuple> tupleIterator) {
+            this.tupleIterator = tupleIterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return tupleIterator.hasNext();
+        }
+
+        @Override
+        public Tuple next() {
+            return valueLog.resolve(tupleIterator.next());
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            tupleIterator.close();
+        }
+    }
+
+    /**
+     * Keeps the table retained for as long as a snapshot iterator over it is open, so that a scan that outlives the
+     * table's place in the Tables can still read its files and the ValueLog segments it points to.
+     */
+    private class RetainedIterator implements CloseableIterator<Tuple> {
+
+        private final CloseableIterator<Tuple> tupleIterator;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private RetainedIterator(CloseableIterator<Tuple> tupleIterator) {
+            this.tupleIterator = tupleIterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return tupleIterator.hasNext();
+        }
+
+        @Override
+        public Tuple next() {
+            return tupleIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released.compareAndSet(false, true)) {
+                tupleIterator.close();
+                release();
+            }
+        }
+    }
+
     private final long tableId;
     private final long fileSize;
     private final Index index;
     private final TableBloomFilter tableBloomFilter;
     private final TableTrailer trailer;
+    private final List<RangeTombstone> rangeTombstones;
+    private final Map<Long, Long> valueLogReferences;
+    private final ValueLog valueLog;
     private final TupleBlock.Cache recordCache;
+    private final KeyComparator keyComparator;
     private final ImmutableFile tableFile;
     private final Metrics metrics;
+    private final AtomicInteger retainCount = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long ingestSnapshotId;
 
     private final CacheHitGauge tableCacheHitRate;
 
     private FileTable(long tableId, Index index, TableBloomFilter tableBloomFilter, ImmutableFile tableFile,
-                      TableTrailer trailer, TupleBlock.Cache recordCache, Metrics metrics) throws IOException {
+                      TableTrailer trailer, List<RangeTombstone> rangeTombstones, Map<Long, Long>
+            valueLogReferences, ValueLog valueLog, TupleBlock.Cache recordCache, KeyComparator keyComparator,
+                      Metrics metrics) throws IOException {
         this.tableId = tableId;
         this.recordCache = recordCache;
+        this.keyComparator = keyComparator;
         this.index = index;
         this.tableBloomFilter = tableBloomFilter;
         this.tableFile = tableFile;
         this.trailer = trailer;
+        this.rangeTombstones = rangeTombstones;
+        this.valueLogReferences = valueLogReferences;
+        this.valueLog = valueLog;
         this.metrics = metrics;
         this.fileSize = tableFile.size();
+        this.ingestSnapshotId = trailer.ingestSnapshotId();
 
         this.tableCacheHitRate = metrics.hitGauge("table.cacheHitRate");
     }
@@ -260,6 +389,11 @@ public class FileTable implements Table {
         return tableBloomFilter.mightContain(key);
     }
 
+    @Override
+    public boolean mightContainPrefix(ByteBuffer prefix, PrefixExtractor prefixExtractor) {
+        return tableBloomFilter.mightContainPrefix(prefix, prefixExtractor);
+    }
+
     @Override
     public Tuple get(Key key) {
         try {
@@ -270,7 +404,12 @@ public class FileTable implements Table {
             }
 
             TupleBlock tupleBlock = getTupleBlock(indexRecord.blockOffset(), indexRecord.blockSize());
-            Tuple read = tupleBlock.get(key);
+            Tuple read = visible(tupleBlock.get(key), key);
+
+            if (read != null && valueLog != null) {
+                read = valueLog.resolve(read);
+            }
+
             tupleBlock.memory().release();
 
             return read;
@@ -279,56 +418,169 @@ public class FileTable implements Table {
         }
     }
 
+    /**
+     * Leaves the TupleBlock holding the key retained for as long as the lease is open, so that the Tuple can be a view
+     * over it. Values in the ValueLog have to be read from it, so those are copied as get does.
+     */
     @Override
-    public CloseableIterator<Tuple> ascendingIterator(long snapshotId) {
-        return new LatestTupleIterator(snapshotId, new AscendingIterator(new AscendingBlockIterator(0)));
+    public TupleLease lease(Key key) {
+        //The Tuples of an ingested Table don't hold their snapshot id, so they can't be handed out as views
+        if (ingestSnapshotId != 0) {
+            Tuple read = get(key);
+            return read == null ? TupleLease.EMPTY : new TupleLease(read, null);
+        }
+
+        try {
+            IndexRecord indexRecord = index.get(key);
+
+            if (indexRecord == null) {
+                return TupleLease.EMPTY;
+            }
+
+            TupleBlock tupleBlock = getTupleBlock(indexRecord.blockOffset(), indexRecord.blockSize());
+            Tuple read = tupleBlock.view(key);
+
+            if (read == null || read.value().isValuePointer()) {
+                tupleBlock.memory().release();
+                return read == null ? TupleLease.EMPTY : new TupleLease(get(key), null);
+            }
+
+            return new TupleLease(read, tupleBlock.memory());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
+    /**
+     * Walks the index once for the whole batch, and reads each TupleBlock that holds any of the keys only once, since
+     * the keys that it holds are next to each other in the sorted batch.
+     */
     @Override
-    public CloseableIterator<Tuple> descendingIterator(long snapshotId) {
+    public List<Tuple> get(List<Key> sortedKeys) {
+        List<Tuple> tuples = new ArrayList<Tuple>(sortedKeys.size());
+        TupleBlock tupleBlock = null;
+        long tupleBlockOffset = -1;
+
         try {
-            long startOffset = tableFile.size() - TableTrailer.SIZE - Sizes.INT_SIZE;
-            return new LatestTupleIterator(snapshotId, new DescendingIterator(new DescendingBlockIterator
-                    (startOffset)));
+            List<IndexRecord> indexRecords = index.get(sortedKeys);
+
+            for (int i = 0; i < sortedKeys.size(); i++) {
+                IndexRecord indexRecord = indexRecords.get(i);
+
+                if (indexRecord == null) {
+                    tuples.add(null);
+                    continue;
+                }
+
+                if (tupleBlock == null || indexRecord.blockOffset() != tupleBlockOffset) {
+                    if (tupleBlock != null) {
+                        tupleBlock.memory().release();
+                    }
+
+                    tupleBlock = getTupleBlock(indexRecord.blockOffset(), indexRecord.blockSize());
+                    tupleBlockOffset = indexRecord.blockOffset();
+                }
+
+                Tuple read = visible(tupleBlock.get(sortedKeys.get(i)), sortedKeys.get(i));
+
+                if (read != null && valueLog != null) {
+                    read = valueLog.resolve(read);
+                }
+
+                tuples.add(read);
+            }
+
+            return tuples;
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            if (tupleBlock != null) {
+                tupleBlock.memory().release();
+            }
+        }
+    }
+
+    @Override
+    public CloseableIterator<Tuple> ascendingIterator(long snapshotId) {
+        if (!retain()) {
+            return releasedIterator();
         }
+
+        return retained(new LatestTupleIterator(snapshotId, new AscendingIterator(new AscendingBlockIterator(0))));
+    }
+
+    @Override
+    public CloseableIterator<Tuple> descendingIterator(long snapshotId) {
+        if (!retain()) {
+            return releasedIterator();
+        }
+
+        long startOffset = trailer.rangeTombstoneOffset() - Sizes.INT_SIZE;
+        return retained(new LatestTupleIterator(snapshotId, new DescendingIterator(new DescendingBlockIterator
+                (startOffset))));
     }
 
     @Override
     public CloseableIterator<Tuple> ascendingIterator(Key key, long snapshotId) {
+        return ascendingIterator(key, null, snapshotId);
+    }
+
+    @Override
+    public CloseableIterator<Tuple> descendingIterator(Key key, long snapshotId) {
+        return descendingIterator(key, null, snapshotId);
+    }
+
+    @Override
+    public CloseableIterator<Tuple> ascendingIterator(Key key, ByteBuffer endKey, long snapshotId) {
+        if (!retain()) {
+            return releasedIterator();
+        }
+
         try {
             IndexRecord indexRecord = index.get(key);
 
+            //The key comes before the first block, so every Tuple in the Table is past it
             if (indexRecord == null) {
-                return new CloseableIterator.Wrapper<Tuple>(Collections.<Tuple>emptyIterator());
+                return retained(new LatestTupleIterator(snapshotId, new AscendingIterator(new AscendingBlockIterator
+                        (0, endKey))));
             }
 
             TupleBlock startTupleBlock = readTupleBlock(indexRecord.blockOffset(), indexRecord.blockSize());
             Iterator<Tuple> startRecordIterator = startTupleBlock.ascendingIterator(key);
             long nextBlockOffset = indexRecord.blockOffset() + indexRecord.blockSize() + Sizes.INT_SIZE;
-            return new LatestTupleIterator(snapshotId, new AscendingIterator(new AscendingBlockIterator
-                    (nextBlockOffset), startRecordIterator, startTupleBlock));
+            AscendingBlockIterator blockIterator = new AscendingBlockIterator(nextBlockOffset, endKey);
+            blockIterator.stopIfPastEnd(startTupleBlock);
+            return retained(new LatestTupleIterator(snapshotId, new AscendingIterator(blockIterator,
+                    startRecordIterator, startTupleBlock)));
         } catch (IOException e) {
+            release();
             throw new RuntimeException(e);
         }
     }
 
     @Override
-    public CloseableIterator<Tuple> descendingIterator(Key key, long snapshotId) {
+    public CloseableIterator<Tuple> descendingIterator(Key key, ByteBuffer endKey, long snapshotId) {
+        if (!retain()) {
+            return releasedIterator();
+        }
+
         try {
             IndexRecord indexRecord = index.get(key);
 
             if (indexRecord == null) {
+                release();
                 return new CloseableIterator.Wrapper<Tuple>(Collections.<Tuple>emptyIterator());
             }
 
             TupleBlock startTupleBlock = readTupleBlock(indexRecord.blockOffset(), indexRecord.blockSize());
             Iterator<Tuple> startRecordIterator = startTupleBlock.descendingIterator(key);
             long nextBlockOffset = indexRecord.blockOffset() - Sizes.LONG_SIZE;
-            return new LatestTupleIterator(snapshotId, new DescendingIterator(new DescendingBlockIterator
-                    (nextBlockOffset), startRecordIterator, startTupleBlock));
+            DescendingBlockIterator blockIterator = new DescendingBlockIterator(nextBlockOffset, endKey);
+            blockIterator.stopIfPastEnd(startTupleBlock);
+            return retained(new LatestTupleIterator(snapshotId, new DescendingIterator(blockIterator,
+                    startRecordIterator, startTupleBlock)));
         } catch (IOException e) {
+            release();
             throw new RuntimeException(e);
         }
     }
@@ -355,17 +607,84 @@ public class FileTable implements Table {
 
     @Override
     public long maxSnapshotId() {
-        return trailer.maxSnapshotId();
+        return ingestSnapshotId != 0 ? ingestSnapshotId : trailer.maxSnapshotId();
+    }
+
+    /**
+     * Gives the Tuples of an ingested Table the snapshot id it is linked under. The Table is opened before the id is
+     * allocated, so this has to be called before the Table is added to the Tables.
+     */
+    public void linkIngested(long snapshotId) {
+        this.ingestSnapshotId = snapshotId;
     }
 
     @Override
-    public void close() {
+    public ByteBuffer minKey() {
+        return trailer.minKey();
+    }
+
+    @Override
+    public ByteBuffer maxKey() {
+        return trailer.maxKey();
+    }
+
+    @Override
+    public List<RangeTombstone> rangeTombstones() {
+        return rangeTombstones;
+    }
+
+    @Override
+    public Map<Long, Long> valueLogReferences() {
+        return valueLogReferences;
+    }
+
+    @Override
+    public double expiredRatio(long now) {
+        return trailer.expiredRatio(now);
+    }
+
+    /**
+     * Keeps the files of this table open, and the ValueLog segments it points to from being collected, while the
+     * table is in use outside of the Tables lock.
+     *
+     * @return false if the table was already released
+     */
+    public boolean retain() {
+        while (true) {
+            int retainValue = retainCount.get();
+
+            if (retainValue <= 0) {
+                return false;
+            }
+
+            if (retainCount.compareAndSet(retainValue, retainValue + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (retainCount.decrementAndGet() != 0) {
+            return;
+        }
+
         try {
             index.close();
             tableFile.close();
             tableBloomFilter.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            if (valueLog != null) {
+                valueLog.releaseSegments(valueLogReferences);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
         }
     }
 
@@ -409,6 +728,39 @@ public class FileTable implements Table {
                 '}';
     }
 
+    /**
+     * Wraps an iterator that was created after the table was retained, so that closing it releases the table.
+     */
+    private CloseableIterator<Tuple> retained(CloseableIterator<Tuple> tupleIterator) {
+        return new RetainedIterator(valueLog == null ? tupleIterator : new ValueResolvingIterator(tupleIterator));
+    }
+
+    /**
+     * Gives a Tuple of an ingested Table the snapshot id that the Table was linked under.
+     */
+    private Tuple ingested(Tuple tuple) {
+        long snapshotId = ingestSnapshotId;
+
+        if (tuple == null || snapshotId == 0) {
+            return tuple;
+        }
+
+        return new Tuple(new Key(tuple.key().data(), snapshotId), tuple.value());
+    }
+
+    /**
+     * @return the Tuple found for a key, or null if the Table was ingested after the snapshot of the key
+     */
+    private Tuple visible(Tuple tuple, Key key) {
+        Tuple ingestedTuple = ingested(tuple);
+        return ingestedTuple == null || ingestedTuple.key().snapshotId() > key.snapshotId() ? null : ingestedTuple;
+    }
+
+    private static CloseableIterator<Tuple> releasedIterator() {
+        //The table was released before the iterator was created, so there is nothing left to read
+        return new CloseableIterator.Wrapper<Tuple>(Collections.<Tuple>emptyIterator());
+    }
+
     private TupleBlock getTupleBlock(long offset, int size) throws IOException {
         TupleBlock tupleBlock = recordCache.get(tableId, offset);
         tableCacheHitRate.sample(tupleBlock != null);
@@ -428,7 +780,7 @@ public class FileTable implements Table {
             ByteBuffer recordBlockBuffer = recordBlockPointer.directBuffer();
             tableFile.read(recordBlockBuffer, offset);
             recordBlockBuffer.rewind();
-            return new TupleBlock(new SortedByteMap(recordBlockPointer));
+            return new TupleBlock(new SortedByteMap(recordBlockPointer, keyComparator));
         } catch (IOException e) {
             recordBlockPointer.release();
             throw e;
@@ -437,10 +789,88 @@ public class FileTable implements Table {
 
     public static FileTable open(long tableId, Paths paths, TupleBlock.Cache recordCache,
                                  IndexBlock.Cache indexCache, Metrics metrics) throws IOException {
-        Index index = Index.open(tableId, paths, indexCache, metrics);
-        TableBloomFilter tableBloomFilter = TableBloomFilter.read(tableId, paths);
+        return open(tableId, paths, recordCache, indexCache, null, metrics);
+    }
+
+    public static FileTable open(long tableId, Paths paths, TupleBlock.Cache recordCache,
+                                 IndexBlock.Cache indexCache, ValueLog valueLog, Metrics metrics) throws IOException {
+        return open(tableId, paths, recordCache, indexCache, valueLog, KeyComparator.LEXICOGRAPHIC, metrics);
+    }
+
+    public static FileTable open(long tableId, Paths paths, TupleBlock.Cache recordCache,
+                                 IndexBlock.Cache indexCache, ValueLog valueLog, KeyComparator keyComparator,
+                                 Metrics metrics) throws IOException {
+        //The trailer holds the format version, so it is checked before the other files of the table are read
         ImmutableFile tableFile = ImmutableChannelFile.open(paths.tablePath(tableId));
-        TableTrailer trailer = TableTrailer.read(tableFile);
-        return new FileTable(tableId, index, tableBloomFilter, tableFile, trailer, recordCache, metrics);
+        TableTrailer trailer;
+
+        try {
+            trailer = TableTrailer.read(tableFile);
+        } catch (IOException e) {
+            tableFile.close();
+            throw new IOException("Can't open table " + tableId + ": " + e.getMessage(), e);
+        }
+
+        if (!trailer.keyComparatorName().equals(keyComparator.name())) {
+            tableFile.close();
+            throw new IOException("Table " + tableId + " was written with key comparator " + trailer
+                    .keyComparatorName() + ", but is opened with " + keyComparator.name());
+        }
+
+        Index index = Index.open(tableId, paths, indexCache, keyComparator, metrics);
+        TableBloomFilter tableBloomFilter = TableBloomFilter.read(tableId, paths);
+        List<RangeTombstone> rangeTombstones = readRangeTombstones(tableFile, trailer);
+        Map<Long, Long> valueLogReferences = readValueLogReferences(tableFile, trailer);
+
+        if (valueLog != null) {
+            valueLog.retainSegments(valueLogReferences);
+        }
+
+        return new FileTable(tableId, index, tableBloomFilter, tableFile, trailer, rangeTombstones,
+                valueLogReferences, valueLog, recordCache, keyComparator, metrics);
+    }
+
+    private static List<RangeTombstone> readRangeTombstones(ImmutableFile tableFile, TableTrailer trailer) throws
+            IOException {
+        long blockSize = trailer.valueLogReferenceOffset() - trailer.rangeTombstoneOffset();
+        ByteBuffer rangeTombstoneBuffer = ByteBuffer.allocate((int) blockSize);
+        tableFile.read(rangeTombstoneBuffer, trailer.rangeTombstoneOffset());
+        rangeTombstoneBuffer.rewind();
+
+        int rangeTombstoneCount = rangeTombstoneBuffer.getInt();
+
+        if (rangeTombstoneCount == 0) {
+            return Collections.emptyList();
+        }
+
+        List<RangeTombstone> rangeTombstones = new ArrayList<RangeTombstone>(rangeTombstoneCount);
+
+        for (int i = 0; i < rangeTombstoneCount; i++) {
+            rangeTombstones.add(RangeTombstone.SERIALIZER.deserialize(rangeTombstoneBuffer));
+        }
+
+        return Collections.unmodifiableList(rangeTombstones);
+    }
+
+    private static Map<Long, Long> readValueLogReferences(ImmutableFile tableFile, TableTrailer trailer) throws
+            IOException {
+        long blockSize = tableFile.size() - trailer.size() - trailer.valueLogReferenceOffset();
+        ByteBuffer referenceBuffer = ByteBuffer.allocate((int) blockSize);
+        tableFile.read(referenceBuffer, trailer.valueLogReferenceOffset());
+        referenceBuffer.rewind();
+
+        int referenceCount = referenceBuffer.getInt();
+
+        if (referenceCount == 0) {
+            return Collections.emptyMap();
+        }
+
+        Map<Long, Long> valueLogReferences = new TreeMap<Long, Long>();
+
+        for (int i = 0; i < referenceCount; i++) {
+            valueLogReferences.put(referenceBuffer.getLong(), referenceBuffer.getLong());
+        }
+
+        return Collections.unmodifiableMap(valueLogReferences);
     }
 }
@@ -16,14 +16,22 @@
 
 package com.jordanwilliams.heftydb.table.file;
 
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
 import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.data.ValuePointer;
 import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.PrefixExtractor;
 import com.jordanwilliams.heftydb.index.IndexRecord;
 import com.jordanwilliams.heftydb.index.IndexWriter;
 import com.jordanwilliams.heftydb.io.AppendChannelFile;
 import com.jordanwilliams.heftydb.io.AppendFile;
 import com.jordanwilliams.heftydb.io.Throttle;
 import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.util.Sizes;
+import com.jordanwilliams.heftydb.valuelog.ValueLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,11 +40,20 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Writes a Table file from a stream of sorted records.
+ * Writes a Table file from a stream of sorted records. The RangeTombstones of the Table are written in a single
+ * block after the last TupleBlock, followed by a block that counts the bytes the Table references in each ValueLog
+ * segment. If a ValueLog is given, large values are moved into it and only their ValuePointers are written.
  */
 public class FileTableWriter {
 
@@ -50,11 +67,13 @@ public class FileTableWriter {
             private long tableId;
             private int level = 1;
             private Iterator<Tuple> source;
+            private List<RangeTombstone> rangeTombstones = Collections.emptyList();
             private long tupleCount;
             private Paths paths;
             private Config config;
             private Callback callback;
             private Throttle throttle = new Throttle(Integer.MAX_VALUE);
+            private ValueLog valueLog;
 
             public Builder tableId(long tableId) {
                 this.tableId = tableId;
@@ -71,6 +90,11 @@ public class FileTableWriter {
                 return this;
             }
 
+            public Builder rangeTombstones(List<RangeTombstone> rangeTombstones) {
+                this.rangeTombstones = rangeTombstones;
+                return this;
+            }
+
             public Builder tupleCount(long tupleCount) {
                 this.tupleCount = tupleCount;
                 return this;
@@ -96,13 +120,24 @@ public class FileTableWriter {
                 return this;
             }
 
+            public Builder valueLog(ValueLog valueLog) {
+                this.valueLog = valueLog;
+                return this;
+            }
+
             public Task build() {
-                return new Task(tableId, level, paths, config, source, tupleCount, callback, throttle);
+                return new Task(tableId, level, paths, config, source, rangeTombstones, tupleCount, callback,
+                        throttle, valueLog);
             }
         }
 
         public interface Callback {
-            void finish();
+
+            /**
+             * @param tableWritten false if every tuple of the source was dropped, such as when they have all expired,
+             *                     in which case no table file is written
+             */
+            void finish(boolean tableWritten);
         }
 
         private static final AtomicInteger taskId = new AtomicInteger();
@@ -111,45 +146,81 @@ public class FileTableWriter {
         private final long tableId;
         private final int level;
         private final Iterator<Tuple> tuples;
+        private final List<RangeTombstone> rangeTombstones;
         private final long tupleCount;
         private final Paths paths;
         private final Config config;
         private final Callback callback;
         private final Throttle throttle;
+        private final ValueLog valueLog;
 
         public Task(long tableId, int level, Paths paths, Config config, Iterator<Tuple> tuples, long tupleCount,
                     Callback callback, Throttle throttle) {
+            this(tableId, level, paths, config, tuples, Collections.<RangeTombstone>emptyList(), tupleCount, callback,
+                    throttle, null);
+        }
+
+        public Task(long tableId, int level, Paths paths, Config config, Iterator<Tuple> tuples,
+                    List<RangeTombstone> rangeTombstones, long tupleCount, Callback callback, Throttle throttle,
+                    ValueLog valueLog) {
             this.tableId = tableId;
             this.level = level;
             this.paths = paths;
             this.config = config;
             this.tuples = tuples;
+            this.rangeTombstones = rangeTombstones;
             this.tupleCount = tupleCount;
             this.callback = callback;
             this.throttle = throttle;
+            this.valueLog = valueLog;
         }
 
         @Override
         public void run() {
+            //The pin is held until the callback has made the Table visible, so that the segments it points to
+            //are not collected in between
+            long valueLogPin = valueLog == null ? 0 : valueLog.pin();
+
             try {
                 int id = taskId.incrementAndGet();
+
+                if (!tuples.hasNext() && rangeTombstones.isEmpty()) {
+                    logger.debug("Table writer " + id + " has nothing to write for table " + tableId);
+
+                    if (callback != null) {
+                        callback.finish(false);
+                    }
+
+                    return;
+                }
+
                 logger.debug("Starting table writer " + id + " for table " + tableId);
 
                 FileTableWriter tableWriter = FileTableWriter.open(tableId, paths, tupleCount,
-                        config.indexBlockSize(), config.tableBlockSize(), level);
+                        config.indexBlockSize(), config.tableBlockSize(), level, valueLog, config.prefixExtractor(),
+                        config.keyComparator());
+
+                //A table needs at least one tuple, so if only range tombstones are left, their start keys are
+                //written as regular tombstones, which is how a MemoryTable records them as well
+                Iterator<Tuple> source = tuples.hasNext() ? tuples : startKeyTombstones(rangeTombstones, config
+                        .keyComparator());
 
-                while (tuples.hasNext()) {
-                    Tuple tuple = tuples.next();
+                while (source.hasNext()) {
+                    Tuple tuple = source.next();
                     tableWriter.write(tuple);
                     throttle.consume(tuple.size());
                 }
 
+                for (RangeTombstone rangeTombstone : rangeTombstones) {
+                    tableWriter.write(rangeTombstone);
+                }
+
                 tableWriter.finish();
 
                 Files.move(paths.tempPath(tableId), paths.tablePath(tableId), StandardCopyOption.ATOMIC_MOVE);
 
                 if (callback != null) {
-                    callback.finish();
+                    callback.finish(true);
                 }
 
                 logger.debug("Finishing table writer " + id);
@@ -157,8 +228,24 @@ public class FileTableWriter {
                 logger.debug("File table was only partially written " + tableId);
             } catch (IOException e) {
                 throw new RuntimeException(e);
+            } finally {
+                if (valueLog != null) {
+                    valueLog.unpin(valueLogPin);
+                }
             }
         }
+
+        private static Iterator<Tuple> startKeyTombstones(List<RangeTombstone> rangeTombstones, KeyComparator
+                keyComparator) {
+            SortedSet<Tuple> tombstones = new TreeSet<Tuple>(keyComparator.tupleOrder());
+
+            for (RangeTombstone rangeTombstone : rangeTombstones) {
+                tombstones.add(new Tuple(new Key(rangeTombstone.startKey(), rangeTombstone.snapshotId()), Value
+                        .TOMBSTONE_VALUE));
+            }
+
+            return tombstones.iterator();
+        }
     }
 
     private final int maxRecordBlockSize;
@@ -166,17 +253,23 @@ public class FileTableWriter {
     private final TableBloomFilterWriter filterWriter;
     private final TableTrailer.Builder trailerBuilder;
     private final AppendFile tableDataFile;
+    private final ValueLog valueLog;
+
+    private final List<RangeTombstone> rangeTombstones = new ArrayList<RangeTombstone>();
+    private final Map<Long, Long> valueLogReferences = new TreeMap<Long, Long>();
 
     private TupleBlock.Builder recordBlockBuilder;
 
     private FileTableWriter(long tableId, IndexWriter indexWriter, TableBloomFilterWriter filterWriter,
-                            AppendFile tableDataFile, int maxRecordBlockSize, int level) throws IOException {
+                            AppendFile tableDataFile, int maxRecordBlockSize, int level, ValueLog valueLog,
+                            KeyComparator keyComparator) throws IOException {
         this.indexWriter = indexWriter;
         this.filterWriter = filterWriter;
         this.recordBlockBuilder = new TupleBlock.Builder();
         this.maxRecordBlockSize = maxRecordBlockSize;
-        this.trailerBuilder = new TableTrailer.Builder(tableId, level);
+        this.trailerBuilder = new TableTrailer.Builder(tableId, level, keyComparator.name());
         this.tableDataFile = tableDataFile;
+        this.valueLog = valueLog;
     }
 
     public void write(Tuple tuple) throws IOException {
@@ -184,13 +277,34 @@ public class FileTableWriter {
             writeRecordBlock();
         }
 
+        if (valueLog != null) {
+            tuple = valueLog.write(tuple);
+        }
+
+        if (tuple.value().isValuePointer()) {
+            ValuePointer pointer = ValuePointer.fromValue(tuple.value());
+            Long referencedBytes = valueLogReferences.get(pointer.segmentId());
+            valueLogReferences.put(pointer.segmentId(), pointer.size() + (referencedBytes == null ? 0 :
+                    referencedBytes));
+        }
+
         recordBlockBuilder.addRecord(tuple);
         filterWriter.write(tuple.key());
         trailerBuilder.put(tuple);
     }
 
+    public void write(RangeTombstone rangeTombstone) {
+        rangeTombstones.add(rangeTombstone);
+    }
+
     public void finish() throws IOException {
+        if (valueLog != null) {
+            valueLog.sync();
+        }
+
         writeRecordBlock();
+        writeRangeTombstones();
+        writeValueLogReferences();
         writeTrailer();
         filterWriter.finish();
         indexWriter.finish();
@@ -212,6 +326,38 @@ public class FileTableWriter {
         recordBlockBuilder = new TupleBlock.Builder();
     }
 
+    private void writeRangeTombstones() throws IOException {
+        int blockSize = Sizes.INT_SIZE;
+
+        for (RangeTombstone rangeTombstone : rangeTombstones) {
+            blockSize += RangeTombstone.SERIALIZER.size(rangeTombstone);
+        }
+
+        ByteBuffer rangeTombstoneBuffer = ByteBuffer.allocate(blockSize);
+        rangeTombstoneBuffer.putInt(rangeTombstones.size());
+
+        for (RangeTombstone rangeTombstone : rangeTombstones) {
+            RangeTombstone.SERIALIZER.serialize(rangeTombstone, rangeTombstoneBuffer);
+        }
+
+        rangeTombstoneBuffer.rewind();
+        trailerBuilder.rangeTombstoneOffset(tableDataFile.append(rangeTombstoneBuffer));
+    }
+
+    private void writeValueLogReferences() throws IOException {
+        ByteBuffer referenceBuffer = ByteBuffer.allocate(Sizes.INT_SIZE + valueLogReferences.size() * Sizes
+                .LONG_SIZE * 2);
+        referenceBuffer.putInt(valueLogReferences.size());
+
+        for (Map.Entry<Long, Long> reference : valueLogReferences.entrySet()) {
+            referenceBuffer.putLong(reference.getKey());
+            referenceBuffer.putLong(reference.getValue());
+        }
+
+        referenceBuffer.rewind();
+        trailerBuilder.valueLogReferenceOffset(tableDataFile.append(referenceBuffer));
+    }
+
     private void writeTrailer() throws IOException {
         ByteBuffer trailerBuffer = trailerBuilder.build().buffer();
         tableDataFile.append(trailerBuffer);
@@ -219,10 +365,28 @@ public class FileTableWriter {
 
     public static FileTableWriter open(long tableId, Paths paths, long approxRecordCount, int maxIndexBlockSize,
                                        int maxRecordBlockSize, int level) throws IOException {
+        return open(tableId, paths, approxRecordCount, maxIndexBlockSize, maxRecordBlockSize, level, null);
+    }
+
+    public static FileTableWriter open(long tableId, Paths paths, long approxRecordCount, int maxIndexBlockSize,
+                                       int maxRecordBlockSize, int level, ValueLog valueLog) throws IOException {
+        return open(tableId, paths, approxRecordCount, maxIndexBlockSize, maxRecordBlockSize, level, valueLog, null,
+                KeyComparator.LEXICOGRAPHIC);
+    }
+
+    /**
+     * @param prefixExtractor adds the prefix of each key to the bloom filter of the Table, or null to only add keys
+     * @param keyComparator   the order that the Tuples are written in, whose name is stored in the trailer
+     */
+    public static FileTableWriter open(long tableId, Paths paths, long approxRecordCount, int maxIndexBlockSize,
+                                       int maxRecordBlockSize, int level, ValueLog valueLog, PrefixExtractor
+            prefixExtractor, KeyComparator keyComparator) throws IOException {
         IndexWriter indexWriter = IndexWriter.open(tableId, paths, maxIndexBlockSize);
-        TableBloomFilterWriter filterWriter = TableBloomFilterWriter.open(tableId, paths, approxRecordCount);
+        TableBloomFilterWriter filterWriter = TableBloomFilterWriter.open(tableId, paths, approxRecordCount,
+                prefixExtractor);
         AppendFile tableDataFile = AppendChannelFile.open(paths.tempPath(tableId));
 
-        return new FileTableWriter(tableId, indexWriter, filterWriter, tableDataFile, maxRecordBlockSize, level);
+        return new FileTableWriter(tableId, indexWriter, filterWriter, tableDataFile, maxRecordBlockSize, level,
+                valueLog, keyComparator);
     }
 }
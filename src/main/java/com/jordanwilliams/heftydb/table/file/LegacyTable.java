@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.table.file;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.io.ImmutableChannelFile;
+import com.jordanwilliams.heftydb.io.ImmutableFile;
+import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.util.Sizes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * Provides a sequential view on a Table file that was written before Table files had a format version, so that it
+ * can be rewritten in the current format. These Tables hold only regular values and tombstones, sorted with signed key
+ * bytes, and end with a trailer that holds just the table id, level, record count and max snapshot id. Their index and
+ * filter files are not read.
+ */
+public class LegacyTable implements Iterable<Tuple>, Closeable {
+
+    //Trailer layout: [long tableId][int level][long recordCount][long maxSnapshotId]
+    private static final int TRAILER_SIZE = 28;
+
+    private class TupleIterator implements Iterator<Tuple> {
+
+        private final Queue<Tuple> blockTuples = new LinkedList<Tuple>();
+        private long fileOffset = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (blockTuples.isEmpty()) {
+                if (fileOffset >= maxOffset) {
+                    return false;
+                }
+
+                readNextBlock();
+            }
+
+            return true;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return blockTuples.poll();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void readNextBlock() {
+            try {
+                //Each block is framed with its size on both sides, so that the file can be walked in either direction
+                int blockSize = tableFile.readInt(fileOffset);
+                ByteBuffer block = ByteBuffer.allocate(blockSize);
+                tableFile.read(block, fileOffset + Sizes.INT_SIZE);
+                fileOffset += blockSize + Sizes.INT_SIZE * 2;
+
+                //Blocks were copied from off-heap memory, so they are in the native byte order
+                block.order(ByteOrder.nativeOrder());
+                int entryCount = block.getInt(0);
+
+                for (int i = 0; i < entryCount; i++) {
+                    block.position(block.getInt(Sizes.INT_SIZE + i * Sizes.INT_SIZE));
+                    ByteBuffer keyBuffer = read(block, block.getInt());
+                    long snapshotId = block.getLong();
+                    ByteBuffer valueBuffer = read(block, block.getInt());
+                    blockTuples.add(new Tuple(new Key(keyBuffer, snapshotId), new Value(valueBuffer)));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private ByteBuffer read(ByteBuffer block, int size) {
+            ByteBuffer data = ByteBuffer.allocate(size);
+            block.get(data.array());
+            return data;
+        }
+    }
+
+    private final long tableId;
+    private final ImmutableFile tableFile;
+    private final long maxOffset;
+
+    private LegacyTable(long tableId, ImmutableFile tableFile) throws IOException {
+        this.tableId = tableId;
+        this.tableFile = tableFile;
+        this.maxOffset = tableFile.size() - TRAILER_SIZE - Sizes.INT_SIZE;
+    }
+
+    public long id() {
+        return tableId;
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        return new TupleIterator();
+    }
+
+    @Override
+    public void close() throws IOException {
+        tableFile.close();
+    }
+
+    /**
+     * @return true if the Table file has no format version, and starts its legacy trailer with its own table id
+     */
+    public static boolean isLegacy(long tableId, Paths paths) throws IOException {
+        ImmutableFile tableFile = ImmutableChannelFile.open(paths.tablePath(tableId));
+
+        try {
+            long fileSize = tableFile.size();
+
+            if (fileSize < TRAILER_SIZE || tableFile.readLong(fileSize - Sizes.LONG_SIZE) == TableTrailer.MAGIC) {
+                return false;
+            }
+
+            return tableFile.readLong(fileSize - TRAILER_SIZE) == tableId;
+        } finally {
+            tableFile.close();
+        }
+    }
+
+    public static LegacyTable open(long tableId, Paths paths) throws IOException {
+        return new LegacyTable(tableId, ImmutableChannelFile.open(paths.tablePath(tableId)));
+    }
+}
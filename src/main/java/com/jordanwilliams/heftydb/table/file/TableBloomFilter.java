@@ -17,6 +17,7 @@
 package com.jordanwilliams.heftydb.table.file;
 
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.db.PrefixExtractor;
 import com.jordanwilliams.heftydb.io.ImmutableChannelFile;
 import com.jordanwilliams.heftydb.io.ImmutableFile;
 import com.jordanwilliams.heftydb.offheap.BloomFilter;
@@ -24,25 +25,36 @@ import com.jordanwilliams.heftydb.offheap.MemoryAllocator;
 import com.jordanwilliams.heftydb.offheap.MemoryPointer;
 import com.jordanwilliams.heftydb.offheap.Offheap;
 import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+import com.jordanwilliams.heftydb.util.Sizes;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
- * Reads an immutable BloomFilter from a file.
+ * Reads an immutable BloomFilter from a file, along with the name of the PrefixExtractor whose prefixes it holds.
  */
 public class TableBloomFilter implements Offheap {
 
     private final BloomFilter bloomFilter;
+    private final String prefixExtractorName;
 
-    private TableBloomFilter(BloomFilter bloomFilter) throws IOException {
+    private TableBloomFilter(BloomFilter bloomFilter, String prefixExtractorName) throws IOException {
         this.bloomFilter = bloomFilter;
+        this.prefixExtractorName = prefixExtractorName;
     }
 
     public boolean mightContain(Key key) {
         return bloomFilter.mightContain(key);
     }
 
+    /**
+     * @return false only if the filter holds the prefixes of the given PrefixExtractor and rules the prefix out
+     */
+    public boolean mightContainPrefix(ByteBuffer prefix, PrefixExtractor prefixExtractor) {
+        return !prefixExtractor.name().equals(prefixExtractorName) || bloomFilter.mightContain(prefix);
+    }
+
     public void close() {
         bloomFilter.memory().release();
     }
@@ -54,10 +66,17 @@ public class TableBloomFilter implements Offheap {
 
     public static TableBloomFilter read(long tableId, Paths paths) throws IOException {
         ImmutableFile filterFile = ImmutableChannelFile.open(paths.filterPath(tableId));
-        MemoryPointer filterPointer = MemoryAllocator.allocate((int) filterFile.size());
+        int nameSize = filterFile.readInt(filterFile.size() - Sizes.INT_SIZE);
+        int filterSize = (int) filterFile.size() - Sizes.INT_SIZE - nameSize;
+
+        ByteBuffer nameBuffer = ByteBuffer.allocate(nameSize);
+        filterFile.read(nameBuffer, filterSize);
+        nameBuffer.rewind();
+
+        MemoryPointer filterPointer = MemoryAllocator.allocate(filterSize);
         ByteBuffer filterBuffer = filterPointer.directBuffer();
         filterFile.read(filterBuffer, 0);
         filterFile.close();
-        return new TableBloomFilter(new BloomFilter(filterPointer));
+        return new TableBloomFilter(new BloomFilter(filterPointer), ByteBuffers.toString(nameBuffer));
     }
 }
@@ -17,16 +17,20 @@
 package com.jordanwilliams.heftydb.table.file;
 
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.db.PrefixExtractor;
 import com.jordanwilliams.heftydb.io.AppendChannelFile;
 import com.jordanwilliams.heftydb.io.AppendFile;
 import com.jordanwilliams.heftydb.offheap.BloomFilter;
 import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
- * Writes a BloomFilter out to a file.
+ * Writes a BloomFilter out to a file. If a PrefixExtractor is given, the prefix of each key is added to the filter
+ * along with the key, and the name of the extractor is written after the filter so that readers can tell which
+ * prefixes it holds.
  */
 public class TableBloomFilterWriter {
 
@@ -34,26 +38,52 @@ public class TableBloomFilterWriter {
 
     private final BloomFilter.Builder filterBuilder;
     private final AppendFile filterFile;
+    private final PrefixExtractor prefixExtractor;
+    private ByteBuffer lastPrefix;
 
-    private TableBloomFilterWriter(AppendFile filterFile, long approxRecordCount) {
-        this.filterBuilder = new BloomFilter.Builder(approxRecordCount, FALSE_POSITIVE_PROBABILITY);
+    private TableBloomFilterWriter(AppendFile filterFile, long approxRecordCount, PrefixExtractor prefixExtractor) {
+        //Each key may add a prefix as well, so the filter is sized for both
+        this.filterBuilder = new BloomFilter.Builder(prefixExtractor == null ? approxRecordCount : approxRecordCount
+                * 2, FALSE_POSITIVE_PROBABILITY);
         this.filterFile = filterFile;
+        this.prefixExtractor = prefixExtractor;
     }
 
     public void write(Key key) throws IOException {
         filterBuilder.put(key);
+
+        if (prefixExtractor == null) {
+            return;
+        }
+
+        //Keys arrive in order, so keys that share a prefix are next to each other and the prefix is only added once
+        ByteBuffer prefix = prefixExtractor.prefix(key.data());
+
+        if (prefix != null && !prefix.equals(lastPrefix)) {
+            filterBuilder.put(prefix);
+            lastPrefix = prefix;
+        }
     }
 
     public void finish() throws IOException {
         BloomFilter filter = filterBuilder.build();
         ByteBuffer filterBuffer = filter.memory().directBuffer();
         filterFile.append(filterBuffer);
-        filterFile.close();
         filter.memory().release();
+
+        ByteBuffer prefixExtractorName = ByteBuffers.fromString(prefixExtractor == null ? "" : prefixExtractor.name());
+        filterFile.append(prefixExtractorName);
+        filterFile.appendInt(prefixExtractorName.capacity());
+        filterFile.close();
     }
 
     public static TableBloomFilterWriter open(long tableId, Paths paths, long approxRecordCount) throws IOException {
+        return open(tableId, paths, approxRecordCount, null);
+    }
+
+    public static TableBloomFilterWriter open(long tableId, Paths paths, long approxRecordCount, PrefixExtractor
+            prefixExtractor) throws IOException {
         AppendFile filterFile = AppendChannelFile.open(paths.filterPath(tableId));
-        return new TableBloomFilterWriter(filterFile, approxRecordCount);
+        return new TableBloomFilterWriter(filterFile, approxRecordCount, prefixExtractor);
     }
 }
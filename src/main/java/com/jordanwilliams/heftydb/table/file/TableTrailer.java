@@ -18,32 +18,81 @@ package com.jordanwilliams.heftydb.table.file;
 
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.io.ImmutableFile;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+import com.jordanwilliams.heftydb.util.Sizes;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
- * Encapsulates meta data stored at the end of a Table file.
+ * Encapsulates meta data stored at the end of a Table file. The trailer starts with the smallest and the largest key in
+ * the Table and the name of the KeyComparator that orders them, and ends with a fixed-size part so that it can be
+ * found from the end of the file. The fixed part ends with the format version and a magic number, which are checked
+ * before anything else is read from the file. Tables written before the format version was added are read by
+ * LegacyTable instead, so that they can be rewritten.
  */
 public class TableTrailer {
 
-    public static final int SIZE = 28;
+    public static final long MAGIC = 0x4865667479546162L;
+    public static final int FORMAT_VERSION = 1;
+
+    //Size of the fixed part of the trailer
+    public static final int SIZE = 92;
+
+    //Offsets of the fields that are rewritten in place, from the start of the fixed part
+    private static final int LEVEL_OFFSET = Sizes.LONG_SIZE;
+    private static final int MAX_SNAPSHOT_ID_OFFSET = LEVEL_OFFSET + Sizes.INT_SIZE + Sizes.LONG_SIZE;
+    private static final int INGEST_SNAPSHOT_ID_OFFSET = SIZE - Sizes.LONG_SIZE * 2 - Sizes.INT_SIZE * 2;
 
     public static class Builder {
 
         private final long tableId;
         private final int level;
+        private final ByteBuffer keyComparatorName;
         private long recordCount;
         private long maxSnapshotId;
+        private long rangeTombstoneOffset;
+        private long valueLogReferenceOffset;
+        private long expiringRecordCount;
+        private long minExpiresAt = Long.MAX_VALUE;
+        private long maxExpiresAt;
+        private ByteBuffer minKey;
+        private ByteBuffer maxKey;
 
-        public Builder(long tableId, int level) {
+        public Builder(long tableId, int level, String keyComparatorName) {
             this.tableId = tableId;
             this.level = level;
+            this.keyComparatorName = ByteBuffers.fromString(keyComparatorName);
         }
 
         public void put(Tuple tuple) {
             maxSnapshotId = Math.max(tuple.key().snapshotId(), maxSnapshotId);
+
+            //Tuples are written in key order, so the first and the last one bound the key range
+            if (recordCount == 0) {
+                minKey = tuple.key().data();
+            }
+
+            maxKey = tuple.key().data();
             recordCount++;
+
+            if (tuple.value().isExpiring()) {
+                long expiresAt = tuple.value().expiresAt();
+                minExpiresAt = Math.min(expiresAt, minExpiresAt);
+                maxExpiresAt = Math.max(expiresAt, maxExpiresAt);
+                expiringRecordCount++;
+            }
+        }
+
+        public void rangeTombstoneOffset(long rangeTombstoneOffset) {
+            this.rangeTombstoneOffset = rangeTombstoneOffset;
+        }
+
+        public void valueLogReferenceOffset(long valueLogReferenceOffset) {
+            this.valueLogReferenceOffset = valueLogReferenceOffset;
         }
 
         public TableTrailer build() {
@@ -51,14 +100,40 @@ public class TableTrailer {
         }
 
         private ByteBuffer serialize() {
-            ByteBuffer trailerBuffer = ByteBuffer.allocate(SIZE);
+            int variableSize = Sizes.INT_SIZE * 3 + (recordCount == 0 ? 0 : minKey.capacity() + maxKey.capacity()) +
+                    keyComparatorName.capacity();
+            ByteBuffer trailerBuffer = ByteBuffer.allocate(variableSize + SIZE);
+            putKey(minKey, trailerBuffer);
+            putKey(maxKey, trailerBuffer);
+            putKey(keyComparatorName, trailerBuffer);
             trailerBuffer.putLong(tableId);
             trailerBuffer.putInt(level);
             trailerBuffer.putLong(recordCount);
             trailerBuffer.putLong(maxSnapshotId);
+            trailerBuffer.putLong(rangeTombstoneOffset);
+            trailerBuffer.putLong(valueLogReferenceOffset);
+            trailerBuffer.putLong(expiringRecordCount);
+            trailerBuffer.putLong(minExpiresAt);
+            trailerBuffer.putLong(maxExpiresAt);
+            trailerBuffer.putLong(0);
+            trailerBuffer.putInt(variableSize);
+            trailerBuffer.putInt(FORMAT_VERSION);
+            trailerBuffer.putLong(MAGIC);
             trailerBuffer.rewind();
             return trailerBuffer;
         }
+
+        private static void putKey(ByteBuffer key, ByteBuffer trailerBuffer) {
+            if (key == null) {
+                trailerBuffer.putInt(0);
+                return;
+            }
+
+            ByteBuffer keyBuffer = key.duplicate();
+            keyBuffer.rewind();
+            trailerBuffer.putInt(keyBuffer.capacity());
+            trailerBuffer.put(keyBuffer);
+        }
     }
 
     private final ByteBuffer buffer;
@@ -66,12 +141,32 @@ public class TableTrailer {
     private final int level;
     private final long recordCount;
     private final long maxSnapshotId;
+    private final long rangeTombstoneOffset;
+    private final long valueLogReferenceOffset;
+    private final long expiringRecordCount;
+    private final long minExpiresAt;
+    private final long maxExpiresAt;
+    private final long ingestSnapshotId;
+    private final ByteBuffer minKey;
+    private final ByteBuffer maxKey;
+    private final String keyComparatorName;
 
     public TableTrailer(ByteBuffer buffer) {
+        ByteBuffer minKey = getKey(buffer);
+        ByteBuffer maxKey = getKey(buffer);
+        this.keyComparatorName = ByteBuffers.toString(getKey(buffer));
         this.tableId = buffer.getLong();
         this.level = buffer.getInt();
         this.recordCount = buffer.getLong();
         this.maxSnapshotId = buffer.getLong();
+        this.rangeTombstoneOffset = buffer.getLong();
+        this.valueLogReferenceOffset = buffer.getLong();
+        this.expiringRecordCount = buffer.getLong();
+        this.minExpiresAt = buffer.getLong();
+        this.maxExpiresAt = buffer.getLong();
+        this.ingestSnapshotId = buffer.getLong();
+        this.minKey = recordCount == 0 ? null : minKey;
+        this.maxKey = recordCount == 0 ? null : maxKey;
         buffer.rewind();
         this.buffer = buffer;
     }
@@ -84,6 +179,14 @@ public class TableTrailer {
         return maxSnapshotId;
     }
 
+    /**
+     * @return the snapshot id that every Tuple of an ingested Table has, which is assigned when the Table is linked
+     * into the database, or 0 if the Table was not ingested
+     */
+    public long ingestSnapshotId() {
+        return ingestSnapshotId;
+    }
+
     public long recordCount() {
         return recordCount;
     }
@@ -92,14 +195,147 @@ public class TableTrailer {
         return level;
     }
 
+    /**
+     * @return the smallest key in the Table, or null if the Table has no records
+     */
+    public ByteBuffer minKey() {
+        return minKey;
+    }
+
+    /**
+     * @return the largest key in the Table, or null if the Table has no records
+     */
+    public ByteBuffer maxKey() {
+        return maxKey;
+    }
+
+    /**
+     * @return the name of the KeyComparator that the Table was written with
+     */
+    public String keyComparatorName() {
+        return keyComparatorName;
+    }
+
+    /**
+     * @return the file offset of the RangeTombstone block, which directly follows the last TupleBlock
+     */
+    public long rangeTombstoneOffset() {
+        return rangeTombstoneOffset;
+    }
+
+    /**
+     * @return the file offset of the ValueLog reference block, which directly follows the RangeTombstone block
+     */
+    public long valueLogReferenceOffset() {
+        return valueLogReferenceOffset;
+    }
+
+    public long expiringRecordCount() {
+        return expiringRecordCount;
+    }
+
+    /**
+     * Estimates the fraction of the records that have expired at the given time, assuming that the expiry times of
+     * the expiring records are spread evenly between the earliest and the latest of them.
+     */
+    public double expiredRatio(long now) {
+        if (expiringRecordCount == 0 || now < minExpiresAt) {
+            return 0;
+        }
+
+        double expiringRatio = (double) expiringRecordCount / recordCount;
+
+        if (now >= maxExpiresAt) {
+            return expiringRatio;
+        }
+
+        return expiringRatio * (now - minExpiresAt) / (maxExpiresAt - minExpiresAt);
+    }
+
     public ByteBuffer buffer() {
         return buffer;
     }
 
+    /**
+     * @return the size of the whole trailer, including the key range and the KeyComparator name
+     */
+    public int size() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Overwrites the level in the trailer of an existing Table file, so that the Table can be moved to another level
+     * without rewriting it. The level is the only field that is rewritten in place.
+     */
+    public static void writeLevel(Path tablePath, int level) throws IOException {
+        ByteBuffer levelBuffer = ByteBuffer.allocate(Sizes.INT_SIZE);
+        levelBuffer.putInt(level);
+        levelBuffer.rewind();
+
+        try (FileChannel channel = FileChannel.open(tablePath, StandardOpenOption.WRITE)) {
+            long levelOffset = channel.size() - SIZE + LEVEL_OFFSET;
+
+            while (levelBuffer.hasRemaining()) {
+                channel.write(levelBuffer, levelOffset + levelBuffer.position());
+            }
+
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Stamps the snapshot id of an ingested Table into its trailer, as both the ingest snapshot id and the max snapshot
+     * id. The Tuples of an ingested Table are written before their snapshot id is known, so readers apply it to them
+     * instead.
+     */
+    public static void writeIngestSnapshotId(Path tablePath, long snapshotId) throws IOException {
+        ByteBuffer snapshotIdBuffer = ByteBuffer.allocate(Sizes.LONG_SIZE);
+        snapshotIdBuffer.putLong(snapshotId);
+
+        try (FileChannel channel = FileChannel.open(tablePath, StandardOpenOption.WRITE)) {
+            long fixedOffset = channel.size() - SIZE;
+            writeFully(channel, snapshotIdBuffer, fixedOffset + MAX_SNAPSHOT_ID_OFFSET);
+            writeFully(channel, snapshotIdBuffer, fixedOffset + INGEST_SNAPSHOT_ID_OFFSET);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * @throws IOException if the file is not a Table file, or was written in another format version
+     */
     public static TableTrailer read(ImmutableFile tableFile) throws IOException {
-        ByteBuffer trailerBuffer = ByteBuffer.allocate(SIZE);
-        tableFile.read(trailerBuffer, tableFile.size() - SIZE);
+        long fileSize = tableFile.size();
+
+        if (fileSize < SIZE || tableFile.readLong(fileSize - Sizes.LONG_SIZE) != MAGIC) {
+            throw new IOException("Not a HeftyDB table file, or written by an incompatible version");
+        }
+
+        int formatVersion = tableFile.readInt(fileSize - Sizes.LONG_SIZE - Sizes.INT_SIZE);
+
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Table format version " + formatVersion + " is not supported, expected " +
+                    FORMAT_VERSION);
+        }
+
+        int variableSize = tableFile.readInt(fileSize - Sizes.LONG_SIZE - Sizes.INT_SIZE * 2);
+        ByteBuffer trailerBuffer = ByteBuffer.allocate(variableSize + SIZE);
+        tableFile.read(trailerBuffer, fileSize - trailerBuffer.capacity());
         trailerBuffer.rewind();
         return new TableTrailer(trailerBuffer);
     }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        buffer.rewind();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+    }
+
+    private static ByteBuffer getKey(ByteBuffer buffer) {
+        int keySize = buffer.getInt();
+        ByteBuffer key = ByteBuffer.allocate(keySize);
+        buffer.get(key.array());
+        return key;
+    }
 }
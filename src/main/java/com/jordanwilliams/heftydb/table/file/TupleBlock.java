@@ -141,10 +141,43 @@ public class TupleBlock implements Iterable<Tuple>, Offheap {
         return closestTuple.key().data().equals(key.data()) ? closestTuple : null;
     }
 
+    /**
+     * Finds a key like get, but returns a view over the memory of this block instead of a copy. The view is only valid
+     * while the memory of this block is retained.
+     */
+    public Tuple view(Key key) {
+        int closestIndex = sortedByteMap.floorIndex(key);
+
+        if (closestIndex < 0 || closestIndex >= sortedByteMap.entryCount()) {
+            return null;
+        }
+
+        SortedByteMap.Entry entry = sortedByteMap.view(closestIndex);
+        return entry.key().data().equals(key.data()) ? new Tuple(entry.key(), entry.value()) : null;
+    }
+
     public Tuple first() {
         return deserialize(0);
     }
 
+    public Tuple last() {
+        return deserialize(sortedByteMap.entryCount() - 1);
+    }
+
+    /**
+     * @return a view of the first key, which is only valid while the TupleBlock is held
+     */
+    public Key firstKey() {
+        return sortedByteMap.view(0).key();
+    }
+
+    /**
+     * @return a view of the last key, which is only valid while the TupleBlock is held
+     */
+    public Key lastKey() {
+        return sortedByteMap.view(sortedByteMap.entryCount() - 1).key();
+    }
+
     public Iterator<Tuple> ascendingIterator() {
         return new TupleIterator(sortedByteMap.ascendingIterator());
     }
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.table.memory;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.offheap.Arena;
+import com.jordanwilliams.heftydb.offheap.JVMUnsafe;
+import com.jordanwilliams.heftydb.offheap.MemoryAllocator;
+import com.jordanwilliams.heftydb.read.LatestTupleIterator;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+import com.jordanwilliams.heftydb.util.Sizes;
+import sun.misc.Unsafe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A SortedTupleMap that copies keys and values into an off-heap Arena, along with the nodes of a lock free skip list
+ * that orders them. Nothing is kept on the heap per entry, and all of the memory is released in one step when the
+ * map is closed. Entries can't be removed, which keeps insertion a simple CAS on each level. This class is safe to
+ * use from multiple concurrent threads.
+ *
+ * The last node linked on each level is remembered, so that a key that sorts after all of them is appended without
+ * searching the list. Time ordered keys therefore cost a single comparison per level to insert.
+ */
+public class ArenaTupleMap implements SortedTupleMap {
+
+    private static final Unsafe unsafe = JVMUnsafe.unsafe;
+    private static final long BYTE_ARRAY_OFFSET = unsafe.arrayBaseOffset(byte[].class);
+
+    private static final int MAX_LEVEL = 16;
+
+    //Arena chunks are sized so that the unused tail of the last chunk is a small fraction of a table
+    private static final int ARENA_CHUNKS_PER_TABLE = 16;
+    private static final int MIN_ARENA_CHUNK_SIZE = 4096;
+    private static final int MAX_ARENA_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    //Node layout: [int keySize][int valueSize][long snapshotId][int level][int valueType][long next...][key][value]
+    private static final int KEY_SIZE_OFFSET = 0;
+    private static final int VALUE_SIZE_OFFSET = 4;
+    private static final int SNAPSHOT_ID_OFFSET = 8;
+    private static final int LEVEL_OFFSET = 16;
+    private static final int VALUE_TYPE_OFFSET = 20;
+    private static final int NEXT_OFFSET = 24;
+
+    private abstract class NodeIterator implements CloseableIterator<Tuple> {
+
+        private long nextNode;
+
+        protected NodeIterator(long startNode) {
+            this.nextNode = startNode;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextNode != 0;
+        }
+
+        @Override
+        public Tuple next() {
+            if (nextNode == 0) {
+                throw new NoSuchElementException();
+            }
+
+            Tuple tuple = tuple(nextNode);
+            nextNode = advance(nextNode, tuple);
+            return tuple;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+        protected abstract long advance(long node, Tuple tuple);
+    }
+
+    private class AscendingIterator extends NodeIterator {
+
+        private AscendingIterator(long startNode) {
+            super(startNode);
+        }
+
+        @Override
+        protected long advance(long node, Tuple tuple) {
+            return successor(node, 0);
+        }
+    }
+
+    private class DescendingIterator extends NodeIterator {
+
+        private DescendingIterator(long startNode) {
+            super(startNode);
+        }
+
+        @Override
+        protected long advance(long node, Tuple tuple) {
+            //There are no back pointers, so step backwards by searching for the predecessor
+            return lowerNode(tuple.key());
+        }
+    }
+
+    private final Arena arena;
+    private final KeyComparator keyComparator;
+    private final long head;
+    private final AtomicLongArray tails = new AtomicLongArray(MAX_LEVEL);
+
+    public ArenaTupleMap(int chunkSize) {
+        this(chunkSize, KeyComparator.LEXICOGRAPHIC);
+    }
+
+    public ArenaTupleMap(int chunkSize, KeyComparator keyComparator) {
+        this.arena = new Arena(chunkSize);
+        this.keyComparator = keyComparator;
+        this.head = arena.allocate(NEXT_OFFSET + MAX_LEVEL * Sizes.LONG_SIZE);
+        unsafe.setMemory(head, NEXT_OFFSET + MAX_LEVEL * Sizes.LONG_SIZE, (byte) 0);
+        unsafe.putInt(head + LEVEL_OFFSET, MAX_LEVEL);
+    }
+
+    /**
+     * Creates an ArenaTupleMap with an arena chunk size suited to a memory table of the given size.
+     */
+    public static ArenaTupleMap forTableSize(int tableSize) {
+        return forTableSize(tableSize, KeyComparator.LEXICOGRAPHIC);
+    }
+
+    public static ArenaTupleMap forTableSize(int tableSize, KeyComparator keyComparator) {
+        return new ArenaTupleMap(Math.max(MIN_ARENA_CHUNK_SIZE, Math.min(MAX_ARENA_CHUNK_SIZE, tableSize /
+                ARENA_CHUNKS_PER_TABLE)), keyComparator);
+    }
+
+    @Override
+    public void put(Key key, Value value) {
+        int level = randomLevel();
+        long node = newNode(key, value, level);
+        long[] preds = new long[MAX_LEVEL];
+        long[] succs = new long[MAX_LEVEL];
+
+        findPosition(key, preds, succs);
+
+        for (int i = 0; i < level; i++) {
+            while (true) {
+                setNext(node, i, succs[i]);
+
+                if (casNext(preds[i], i, succs[i], node)) {
+                    if (succs[i] == 0) {
+                        tails.set(i, node);
+                    }
+
+                    break;
+                }
+
+                //Another writer got in first, so move forward from the old predecessor on this level
+                long pred = preds[i];
+                long succ = successor(pred, i);
+
+                while (succ != 0 && compare(succ, key) < 0) {
+                    pred = succ;
+                    succ = successor(pred, i);
+                }
+
+                preds[i] = pred;
+                succs[i] = succ;
+            }
+        }
+    }
+
+    @Override
+    public Tuple get(Key key) {
+        long node = floorNode(key);
+
+        if (node == 0 || !keyDataEquals(node, key.data())) {
+            return null;
+        }
+
+        return tuple(node);
+    }
+
+    @Override
+    public CloseableIterator<Tuple> ascendingIterator(long snapshotId) {
+        return new LatestTupleIterator(snapshotId, new AscendingIterator(successor(head, 0)));
+    }
+
+    @Override
+    public CloseableIterator<Tuple> descendingIterator(long snapshotId) {
+        return new LatestTupleIterator(snapshotId, new DescendingIterator(lastNode()));
+    }
+
+    @Override
+    public CloseableIterator<Tuple> ascendingIterator(Key key, long snapshotId) {
+        return new LatestTupleIterator(snapshotId, new AscendingIterator(ceilingNode(new Key(key.data(), 0))));
+    }
+
+    @Override
+    public CloseableIterator<Tuple> descendingIterator(Key key, long snapshotId) {
+        return new LatestTupleIterator(snapshotId, new DescendingIterator(floorNode(new Key(key.data(),
+                Long.MAX_VALUE))));
+    }
+
+    @Override
+    public Key firstKey() {
+        long first = successor(head, 0);
+        return first == 0 ? null : tuple(first).key();
+    }
+
+    @Override
+    public Key lastKey() {
+        long last = lastNode();
+        return last == 0 ? null : tuple(last).key();
+    }
+
+    @Override
+    public KeyComparator keyComparator() {
+        return keyComparator;
+    }
+
+    @Override
+    public long memorySize() {
+        return arena.memorySize();
+    }
+
+    @Override
+    public void close() {
+        arena.release();
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        return new AscendingIterator(successor(head, 0));
+    }
+
+    private long newNode(Key key, Value value, int level) {
+        ByteBuffer keyData = key.data();
+        ByteBuffer valueData = value.data();
+        int keySize = keyData.capacity();
+        int valueSize = valueData.capacity();
+        int nextSize = level * Sizes.LONG_SIZE;
+
+        long node = arena.allocate(NEXT_OFFSET + nextSize + keySize + valueSize);
+        unsafe.putInt(node + KEY_SIZE_OFFSET, keySize);
+        unsafe.putInt(node + VALUE_SIZE_OFFSET, valueSize);
+        unsafe.putLong(node + SNAPSHOT_ID_OFFSET, key.snapshotId());
+        unsafe.putInt(node + LEVEL_OFFSET, level);
+        unsafe.putInt(node + VALUE_TYPE_OFFSET, value.type().code());
+        unsafe.setMemory(node + NEXT_OFFSET, nextSize, (byte) 0);
+
+        long keyAddress = node + NEXT_OFFSET + nextSize;
+        copyIn(keyData, keyAddress, keySize);
+        copyIn(valueData, keyAddress + keySize, valueSize);
+
+        return node;
+    }
+
+    private void findPosition(Key key, long[] preds, long[] succs) {
+        long node = head;
+        long lastNode = tails.get(0);
+        boolean appending = lastNode != 0 && compare(lastNode, key) < 0;
+
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            if (appending) {
+                //Nodes are never removed, so any node on this level that sorts before the key is a valid place to
+                //start from, even if a concurrent append has already moved past it
+                long tail = tails.get(level);
+
+                if (tail != 0 && compare(tail, key) < 0) {
+                    node = tail;
+                }
+            }
+
+            long succ = successor(node, level);
+
+            while (succ != 0 && compare(succ, key) < 0) {
+                node = succ;
+                succ = successor(node, level);
+            }
+
+            preds[level] = node;
+            succs[level] = succ;
+        }
+    }
+
+    /**
+     * @return the greatest node less than or equal to the key, or 0 if there is none
+     */
+    private long floorNode(Key key) {
+        long node = head;
+
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            long succ = successor(node, level);
+
+            while (succ != 0 && compare(succ, key) <= 0) {
+                node = succ;
+                succ = successor(node, level);
+            }
+        }
+
+        return node == head ? 0 : node;
+    }
+
+    /**
+     * @return the greatest node strictly less than the key, or 0 if there is none
+     */
+    private long lowerNode(Key key) {
+        long node = head;
+
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            long succ = successor(node, level);
+
+            while (succ != 0 && compare(succ, key) < 0) {
+                node = succ;
+                succ = successor(node, level);
+            }
+        }
+
+        return node == head ? 0 : node;
+    }
+
+    /**
+     * @return the least node greater than or equal to the key, or 0 if there is none
+     */
+    private long ceilingNode(Key key) {
+        long node = head;
+
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            long succ = successor(node, level);
+
+            while (succ != 0 && compare(succ, key) < 0) {
+                node = succ;
+                succ = successor(node, level);
+            }
+        }
+
+        return successor(node, 0);
+    }
+
+    private long lastNode() {
+        long node = head;
+
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            long succ = successor(node, level);
+
+            while (succ != 0) {
+                node = succ;
+                succ = successor(node, level);
+            }
+        }
+
+        return node == head ? 0 : node;
+    }
+
+    /**
+     * Compares the key stored in a node with a Key, first by the KeyComparator of this map and then by snapshot id.
+     */
+    private int compare(long node, Key key) {
+        int compared = keyComparator.compare(keyAddress(node), unsafe.getInt(node + KEY_SIZE_OFFSET), key.data());
+
+        if (compared != 0) {
+            return compared;
+        }
+
+        return Long.compare(unsafe.getLong(node + SNAPSHOT_ID_OFFSET), key.snapshotId());
+    }
+
+    private boolean keyDataEquals(long node, ByteBuffer keyData) {
+        int nodeKeySize = unsafe.getInt(node + KEY_SIZE_OFFSET);
+
+        if (nodeKeySize != keyData.capacity()) {
+            return false;
+        }
+
+        long nodeKeyAddress = keyAddress(node);
+
+        for (int i = 0; i < nodeKeySize; i++) {
+            if (unsafe.getByte(nodeKeyAddress + i) != keyData.get(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private Tuple tuple(long node) {
+        int keySize = unsafe.getInt(node + KEY_SIZE_OFFSET);
+        int valueSize = unsafe.getInt(node + VALUE_SIZE_OFFSET);
+        long keyAddress = keyAddress(node);
+
+        ByteBuffer keyBuffer = copyOut(keyAddress, keySize);
+        ByteBuffer valueBuffer = copyOut(keyAddress + keySize, valueSize);
+
+        Value.Type valueType = Value.Type.fromCode((byte) unsafe.getInt(node + VALUE_TYPE_OFFSET));
+        return new Tuple(new Key(keyBuffer, unsafe.getLong(node + SNAPSHOT_ID_OFFSET)), new Value(valueBuffer,
+                valueType));
+    }
+
+    private static long keyAddress(long node) {
+        return node + NEXT_OFFSET + unsafe.getInt(node + LEVEL_OFFSET) * Sizes.LONG_SIZE;
+    }
+
+    private static long successor(long node, int level) {
+        return unsafe.getLongVolatile(null, node + NEXT_OFFSET + level * Sizes.LONG_SIZE);
+    }
+
+    private static void setNext(long node, int level, long next) {
+        unsafe.putLongVolatile(null, node + NEXT_OFFSET + level * Sizes.LONG_SIZE, next);
+    }
+
+    private static boolean casNext(long node, int level, long expected, long next) {
+        return unsafe.compareAndSwapLong(null, node + NEXT_OFFSET + level * Sizes.LONG_SIZE, expected, next);
+    }
+
+    private static void copyIn(ByteBuffer source, long address, int size) {
+        if (source.hasArray()) {
+            unsafe.copyMemory(source.array(), BYTE_ARRAY_OFFSET + source.arrayOffset(), null, address, size);
+        } else if (source.isDirect()) {
+            unsafe.copyMemory(MemoryAllocator.address(source), address, size);
+        } else {
+            for (int i = 0; i < size; i++) {
+                unsafe.putByte(address + i, source.get(i));
+            }
+        }
+    }
+
+    private static ByteBuffer copyOut(long address, int size) {
+        byte[] bytes = new byte[size];
+        unsafe.copyMemory(null, address, bytes, BYTE_ARRAY_OFFSET, size);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static int randomLevel() {
+        //Each level is a quarter the size of the one beneath it
+        int level = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (level < MAX_LEVEL && random.nextInt(4) == 0) {
+            level++;
+        }
+
+        return level;
+    }
+}
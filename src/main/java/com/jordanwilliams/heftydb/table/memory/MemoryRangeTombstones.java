@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.table.memory;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Holds the RangeTombstones of a MemoryTable as fragments that do not overlap, kept in a skip list by start key. Each
+ * fragment holds the snapshot ids of every tombstone that spans it, so a lookup reads the one fragment that can hold
+ * a key. Adding a tombstone only splits the fragments that it overlaps. The new fragments are put from the highest
+ * start key down, so a concurrent lookup sees either the fragments from before the tombstone was added or fragments
+ * that cover at least as much.
+ */
+public class MemoryRangeTombstones {
+
+    private static class Fragment {
+
+        private final ByteBuffer endKey;
+        private final long[] snapshotIds;
+
+        private Fragment(ByteBuffer endKey, long[] snapshotIds) {
+            this.endKey = endKey;
+            this.snapshotIds = snapshotIds;
+        }
+    }
+
+    private final ConcurrentSkipListMap<ByteBuffer, Fragment> fragments;
+    private final Queue<RangeTombstone> rangeTombstones = new ConcurrentLinkedQueue<RangeTombstone>();
+    private final KeyComparator keyComparator;
+
+    public MemoryRangeTombstones(KeyComparator keyComparator) {
+        this.fragments = new ConcurrentSkipListMap<ByteBuffer, Fragment>(keyComparator);
+        this.keyComparator = keyComparator;
+    }
+
+    public synchronized void add(RangeTombstone rangeTombstone) {
+        ByteBuffer startKey = rangeTombstone.startKey();
+        ByteBuffer endKey = rangeTombstone.endKey();
+        long snapshotId = rangeTombstone.snapshotId();
+        rangeTombstones.add(rangeTombstone);
+
+        if (keyComparator.compare(startKey, endKey) >= 0) {
+            return;
+        }
+
+        //The fragments that replace the ones the tombstone overlaps, in ascending order of start key
+        List<Map.Entry<ByteBuffer, Fragment>> replacements = new ArrayList<Map.Entry<ByteBuffer, Fragment>>();
+        List<Map.Entry<ByteBuffer, Fragment>> overlapping = new ArrayList<Map.Entry<ByteBuffer, Fragment>>();
+        Map.Entry<ByteBuffer, Fragment> floor = fragments.lowerEntry(startKey);
+
+        if (floor != null && keyComparator.compare(floor.getValue().endKey, startKey) > 0) {
+            //Split the fragment that starts before the tombstone at its start key
+            replacements.add(fragment(floor.getKey(), startKey, floor.getValue().snapshotIds));
+            overlapping.add(fragment(startKey, floor.getValue().endKey, floor.getValue().snapshotIds));
+        }
+
+        overlapping.addAll(fragments.subMap(startKey, true, endKey, false).entrySet());
+        ByteBuffer nextKey = startKey;
+
+        for (Map.Entry<ByteBuffer, Fragment> fragment : overlapping) {
+            ByteBuffer fragmentEndKey = fragment.getValue().endKey;
+
+            if (keyComparator.compare(nextKey, fragment.getKey()) < 0) {
+                replacements.add(fragment(nextKey, fragment.getKey(), new long[]{snapshotId}));
+            }
+
+            if (keyComparator.compare(fragmentEndKey, endKey) > 0) {
+                replacements.add(fragment(fragment.getKey(), endKey, with(fragment.getValue().snapshotIds,
+                        snapshotId)));
+                replacements.add(fragment(endKey, fragmentEndKey, fragment.getValue().snapshotIds));
+                nextKey = endKey;
+            } else {
+                replacements.add(fragment(fragment.getKey(), fragmentEndKey, with(fragment.getValue().snapshotIds,
+                        snapshotId)));
+                nextKey = fragmentEndKey;
+            }
+        }
+
+        if (keyComparator.compare(nextKey, endKey) < 0) {
+            replacements.add(fragment(nextKey, endKey, new long[]{snapshotId}));
+        }
+
+        for (int i = replacements.size() - 1; i >= 0; i--) {
+            fragments.put(replacements.get(i).getKey(), replacements.get(i).getValue());
+        }
+    }
+
+    /**
+     * @return the snapshot id of the newest tombstone at or before the given snapshot that deletes the given key
+     * version, or 0 if there is none
+     */
+    public long coveringSnapshotId(Key key, long maxSnapshotId) {
+        Map.Entry<ByteBuffer, Fragment> fragment = fragments.floorEntry(key.data());
+
+        if (fragment == null || keyComparator.compare(fragment.getValue().endKey, key.data()) <= 0) {
+            return 0;
+        }
+
+        long[] snapshotIds = fragment.getValue().snapshotIds;
+        int index = Arrays.binarySearch(snapshotIds, maxSnapshotId);
+        index = index >= 0 ? index : -index - 2;
+
+        return index >= 0 && snapshotIds[index] > key.snapshotId() ? snapshotIds[index] : 0;
+    }
+
+    public boolean isEmpty() {
+        return rangeTombstones.isEmpty();
+    }
+
+    /**
+     * @return the tombstones in the order they were added
+     */
+    public List<RangeTombstone> rangeTombstones() {
+        return new ArrayList<RangeTombstone>(rangeTombstones);
+    }
+
+    private static Map.Entry<ByteBuffer, Fragment> fragment(ByteBuffer startKey, ByteBuffer endKey,
+                                                            long[] snapshotIds) {
+        return new AbstractMap.SimpleImmutableEntry<ByteBuffer, Fragment>(startKey, new Fragment(endKey,
+                snapshotIds));
+    }
+
+    private static long[] with(long[] snapshotIds, long snapshotId) {
+        int index = Arrays.binarySearch(snapshotIds, snapshotId);
+
+        if (index >= 0) {
+            return snapshotIds;
+        }
+
+        int insertIndex = -index - 1;
+        long[] withSnapshotId = new long[snapshotIds.length + 1];
+        System.arraycopy(snapshotIds, 0, withSnapshotId, 0, insertIndex);
+        withSnapshotId[insertIndex] = snapshotId;
+        System.arraycopy(snapshotIds, insertIndex, withSnapshotId, insertIndex + 1, snapshotIds.length -
+                insertIndex);
+        return withSnapshotId;
+    }
+}
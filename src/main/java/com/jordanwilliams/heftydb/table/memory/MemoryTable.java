@@ -17,12 +17,23 @@
 package com.jordanwilliams.heftydb.table.memory;
 
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
 import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.db.PrefixExtractor;
 import com.jordanwilliams.heftydb.table.MutableTable;
 import com.jordanwilliams.heftydb.table.Table;
+import com.jordanwilliams.heftydb.table.TupleLease;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -31,22 +42,104 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class MemoryTable implements MutableTable {
 
+    /**
+     * Keeps the table retained for as long as an iterator over it is open, since a scan can outlive the table's
+     * place in the Tables, and closing the table would otherwise free the memory the iterator reads from.
+     */
+    private class RetainedIterator implements CloseableIterator<Tuple> {
+
+        private final CloseableIterator<Tuple> delegate;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private RetainedIterator(CloseableIterator<Tuple> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public Tuple next() {
+            return delegate.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released.compareAndSet(false, true)) {
+                delegate.close();
+                release();
+            }
+        }
+    }
+
     private final long id;
-    private final SortedTupleMap records = new SkipListTupleMap();
+    private final SortedTupleMap records;
+    private final MemoryRangeTombstones rangeTombstones;
     private final AtomicLong maxSnapshotId = new AtomicLong();
+    private final AtomicLong minSnapshotId = new AtomicLong(Long.MAX_VALUE);
     private final AtomicInteger recordCount = new AtomicInteger();
-    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger retainCount = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public MemoryTable(long id) {
+        this(id, new SkipListTupleMap());
+    }
+
+    public MemoryTable(long id, SortedTupleMap records) {
         this.id = id;
+        this.records = records;
+        this.rangeTombstones = new MemoryRangeTombstones(records.keyComparator());
     }
 
+    /**
+     * Inserts a Tuple. A range tombstone Tuple is kept apart from the sorted records, and its start key is recorded
+     * as a regular tombstone, which the range deletes anyway.
+     */
     @Override
     public void put(Tuple tuple) {
+        if (tuple.value().isRangeTombstone()) {
+            rangeTombstones.add(new RangeTombstone(copy(tuple.key().data()), copy(tuple.value().data()), tuple.key()
+                    .snapshotId()));
+            tuple = new Tuple(tuple.key(), Value.TOMBSTONE_VALUE);
+        }
+
         records.put(tuple.key(), tuple.value());
         recordCount.incrementAndGet();
-        size.addAndGet(tuple.size());
-        maxSnapshotId.set(tuple.key().snapshotId());
+        updateMaxSnapshotId(tuple.key().snapshotId());
+        updateMinSnapshotId(tuple.key().snapshotId());
+    }
+
+    /**
+     * Keeps the underlying records from being released while the table is in use outside of the Tables lock, such as
+     * while it is being flushed.
+     *
+     * @return false if the table was already released
+     */
+    public boolean retain() {
+        while (true) {
+            int retainValue = retainCount.get();
+
+            if (retainValue <= 0) {
+                return false;
+            }
+
+            if (retainCount.compareAndSet(retainValue, retainValue + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (retainCount.decrementAndGet() == 0) {
+            records.close();
+        }
     }
 
     @Override
@@ -59,29 +152,60 @@ public class MemoryTable implements MutableTable {
         return get(key) != null;
     }
 
+    @Override
+    public boolean mightContainPrefix(ByteBuffer prefix, PrefixExtractor prefixExtractor) {
+        return true;
+    }
+
     @Override
     public Tuple get(Key key) {
         return records.get(key);
     }
 
+    @Override
+    public TupleLease lease(Key key) {
+        return new TupleLease(records.get(key), null);
+    }
+
+    @Override
+    public List<Tuple> get(List<Key> sortedKeys) {
+        List<Tuple> tuples = new ArrayList<Tuple>(sortedKeys.size());
+
+        for (Key key : sortedKeys) {
+            tuples.add(records.get(key));
+        }
+
+        return tuples;
+    }
+
     @Override
     public CloseableIterator<Tuple> ascendingIterator(long snapshotId) {
-        return records.ascendingIterator(snapshotId);
+        return retain() ? new RetainedIterator(records.ascendingIterator(snapshotId)) : releasedIterator();
     }
 
     @Override
     public CloseableIterator<Tuple> descendingIterator(long snapshotId) {
-        return records.descendingIterator(snapshotId);
+        return retain() ? new RetainedIterator(records.descendingIterator(snapshotId)) : releasedIterator();
     }
 
     @Override
     public CloseableIterator<Tuple> ascendingIterator(Key key, long snapshotId) {
-        return records.ascendingIterator(key, snapshotId);
+        return retain() ? new RetainedIterator(records.ascendingIterator(key, snapshotId)) : releasedIterator();
     }
 
     @Override
     public CloseableIterator<Tuple> descendingIterator(Key key, long snapshotId) {
-        return records.descendingIterator(key, snapshotId);
+        return retain() ? new RetainedIterator(records.descendingIterator(key, snapshotId)) : releasedIterator();
+    }
+
+    @Override
+    public CloseableIterator<Tuple> ascendingIterator(Key key, ByteBuffer endKey, long snapshotId) {
+        return ascendingIterator(key, snapshotId);
+    }
+
+    @Override
+    public CloseableIterator<Tuple> descendingIterator(Key key, ByteBuffer endKey, long snapshotId) {
+        return descendingIterator(key, snapshotId);
     }
 
     @Override
@@ -89,9 +213,12 @@ public class MemoryTable implements MutableTable {
         return recordCount.get();
     }
 
+    /**
+     * @return the number of bytes of memory held by this table, including per record overhead
+     */
     @Override
     public long size() {
-        return size.get();
+        return records.memorySize();
     }
 
     @Override
@@ -104,8 +231,52 @@ public class MemoryTable implements MutableTable {
         return maxSnapshotId.get();
     }
 
+    /**
+     * @return the smallest snapshot id in this table, or Long.MAX_VALUE if it is empty
+     */
+    public long minSnapshotId() {
+        return minSnapshotId.get();
+    }
+
+    @Override
+    public ByteBuffer minKey() {
+        Key firstKey = records.firstKey();
+        return firstKey == null ? null : firstKey.data();
+    }
+
+    @Override
+    public ByteBuffer maxKey() {
+        Key lastKey = records.lastKey();
+        return lastKey == null ? null : lastKey.data();
+    }
+
+    @Override
+    public List<RangeTombstone> rangeTombstones() {
+        return rangeTombstones.rangeTombstones();
+    }
+
+    /**
+     * @return the RangeTombstones of this table, which can be looked up in place while they are still being added to
+     */
+    public MemoryRangeTombstones memoryRangeTombstones() {
+        return rangeTombstones;
+    }
+
+    @Override
+    public Map<Long, Long> valueLogReferences() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public double expiredRatio(long now) {
+        return 0;
+    }
+
     @Override
     public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
     }
 
     @Override
@@ -122,4 +293,36 @@ public class MemoryTable implements MutableTable {
     public int compareTo(Table o) {
         return Long.compare(id, o.id());
     }
+
+    private static CloseableIterator<Tuple> releasedIterator() {
+        //The table was released before the iterator was created, so there is nothing left to read
+        return new CloseableIterator.Wrapper<Tuple>(Collections.<Tuple>emptyIterator());
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        //The buffer may be owned by the caller or be a slice of a commit log, so keep a copy on the heap
+        ByteBuffer source = buffer.duplicate();
+        ByteBuffer copy = ByteBuffer.allocate(source.capacity());
+        source.rewind();
+        copy.put(source);
+        copy.rewind();
+        return copy;
+    }
+
+    private void updateMaxSnapshotId(long snapshotId) {
+        //Concurrent writers may insert out of snapshot order, so only ever move the maximum forward
+        long currentMax = maxSnapshotId.get();
+
+        while (snapshotId > currentMax && !maxSnapshotId.compareAndSet(currentMax, snapshotId)) {
+            currentMax = maxSnapshotId.get();
+        }
+    }
+
+    private void updateMinSnapshotId(long snapshotId) {
+        long currentMin = minSnapshotId.get();
+
+        while (snapshotId < currentMin && !minSnapshotId.compareAndSet(currentMin, snapshotId)) {
+            currentMin = minSnapshotId.get();
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package com.jordanwilliams.heftydb.table.memory;
 
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.data.Value;
 import com.jordanwilliams.heftydb.read.LatestTupleIterator;
@@ -26,18 +27,34 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A SortedTupleMap backed by a ConcurrentSkipListMap. This class is safe to use from multiple concurrent threads.
  */
 public class SkipListTupleMap implements SortedTupleMap {
 
+    //Approximate heap cost of a Tuple, Key, Value, two ByteBuffers, their arrays and the skip list nodes
+    private static final int ENTRY_OVERHEAD = 216;
+
     // 可排序的并发Map来保存内存中的记录 TODO Key = Tuple.Key ??
-    private final ConcurrentNavigableMap<Key, Tuple> tuples = new ConcurrentSkipListMap<Key, Tuple>();
+    private final ConcurrentNavigableMap<Key, Tuple> tuples;
+    private final KeyComparator keyComparator;
+    private final AtomicLong memorySize = new AtomicLong();
+
+    public SkipListTupleMap() {
+        this(KeyComparator.LEXICOGRAPHIC);
+    }
+
+    public SkipListTupleMap(KeyComparator keyComparator) {
+        this.tuples = new ConcurrentSkipListMap<Key, Tuple>(keyComparator.keyOrder());
+        this.keyComparator = keyComparator;
+    }
 
     @Override
     public void put(Key key, Value value) {
         tuples.put(key, new Tuple(key, value));
+        memorySize.addAndGet(ENTRY_OVERHEAD + key.size() + value.size());
     }
 
     @Override
@@ -75,6 +92,32 @@ public class SkipListTupleMap implements SortedTupleMap {
                 true).descendingMap().values().iterator()));
     }
 
+    @Override
+    public Key firstKey() {
+        Map.Entry<Key, Tuple> first = tuples.firstEntry();
+        return first == null ? null : first.getKey();
+    }
+
+    @Override
+    public Key lastKey() {
+        Map.Entry<Key, Tuple> last = tuples.lastEntry();
+        return last == null ? null : last.getKey();
+    }
+
+    @Override
+    public KeyComparator keyComparator() {
+        return keyComparator;
+    }
+
+    @Override
+    public long memorySize() {
+        return memorySize.get();
+    }
+
+    @Override
+    public void close() {
+    }
+
     @Override
     public Iterator<Tuple> iterator() {
         return tuples.values().iterator();
@@ -17,6 +17,7 @@
 package com.jordanwilliams.heftydb.table.memory;
 
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.data.Value;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
@@ -38,4 +39,29 @@ public interface SortedTupleMap extends Iterable<Tuple> {
 
     public CloseableIterator<Tuple> descendingIterator(Key key, long snapshotId);
 
+    /**
+     * @return the smallest Key in this map, or null if it is empty
+     */
+    public Key firstKey();
+
+    /**
+     * @return the largest Key in this map, or null if it is empty
+     */
+    public Key lastKey();
+
+    /**
+     * @return the KeyComparator that orders the keys in this map
+     */
+    public KeyComparator keyComparator();
+
+    /**
+     * @return the number of bytes of memory held by this map, including per entry overhead
+     */
+    public long memorySize();
+
+    /**
+     * Releases any memory held by this map. The map must not be used afterwards.
+     */
+    public void close();
+
 }
@@ -17,6 +17,7 @@
 package com.jordanwilliams.heftydb.table.memory;
 
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.data.Value;
 import com.jordanwilliams.heftydb.read.LatestTupleIterator;
@@ -29,6 +30,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -37,6 +39,9 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class SynchronizedTupleMap implements SortedTupleMap {
 
+    //Approximate heap cost of a Key, Value, two ByteBuffers, their arrays and the TreeMap entry
+    private static final int ENTRY_OVERHEAD = 208;
+
     private class LockingIterator implements CloseableIterator<Tuple> {
 
         private final Queue<Tuple> next = new LinkedList<Tuple>();
@@ -114,8 +119,19 @@ public class SynchronizedTupleMap implements SortedTupleMap {
         }
     }
 
-    private final TreeMap<Key, Value> tuples = new TreeMap<Key, Value>();
+    private final TreeMap<Key, Value> tuples;
+    private final KeyComparator keyComparator;
     private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong memorySize = new AtomicLong();
+
+    public SynchronizedTupleMap() {
+        this(KeyComparator.LEXICOGRAPHIC);
+    }
+
+    public SynchronizedTupleMap(KeyComparator keyComparator) {
+        this.tuples = new TreeMap<Key, Value>(keyComparator.keyOrder());
+        this.keyComparator = keyComparator;
+    }
 
     @Override
     public void put(Key key, Value value) {
@@ -123,6 +139,7 @@ public class SynchronizedTupleMap implements SortedTupleMap {
 
         try {
             tuples.put(key, value);
+            memorySize.addAndGet(ENTRY_OVERHEAD + key.size() + value.size());
         } finally {
             lock.unlock();
         }
@@ -198,6 +215,42 @@ public class SynchronizedTupleMap implements SortedTupleMap {
         }
     }
 
+    @Override
+    public Key firstKey() {
+        lock.lock();
+
+        try {
+            return tuples.isEmpty() ? null : tuples.firstKey();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Key lastKey() {
+        lock.lock();
+
+        try {
+            return tuples.isEmpty() ? null : tuples.lastKey();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public KeyComparator keyComparator() {
+        return keyComparator;
+    }
+
+    @Override
+    public long memorySize() {
+        return memorySize.get();
+    }
+
+    @Override
+    public void close() {
+    }
+
     @Override
     public Iterator<Tuple> iterator() {
         lock.lock();
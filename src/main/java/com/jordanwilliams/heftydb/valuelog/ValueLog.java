@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.valuelog;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.data.ValuePointer;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.io.AppendChannelFile;
+import com.jordanwilliams.heftydb.io.AppendFile;
+import com.jordanwilliams.heftydb.io.ImmutableChannelFile;
+import com.jordanwilliams.heftydb.io.ImmutableFile;
+import com.jordanwilliams.heftydb.metrics.Metrics;
+import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.state.Tables;
+import com.jordanwilliams.heftydb.table.Table;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stores large values outside of Tables, so that compaction only has to rewrite a small ValuePointer to each of
+ * them. Values are appended to segment files, and Tables keep track of how many bytes they reference in each segment.
+ *
+ * A sealed segment that no open Table references anymore is deleted. A Table that was replaced in the Tables stays
+ * open until the last scan over it is closed, so its segments outlive it for as long as it can still be read. A
+ * segment whose live bytes fall below the configured garbage ratio is marked for relocation, which makes table writers
+ * copy its live values to the active segment, and the Tables that reference it are handed back so that they can be
+ * rewritten.
+ */
+public class ValueLog implements Closeable {
+
+    private final Paths paths;
+    private final Config config;
+    private final ConcurrentMap<Long, ImmutableFile> segmentFiles = new ConcurrentHashMap<Long, ImmutableFile>();
+    private final Set<Long> relocatingSegments = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final SortedMap<Long, Long> segmentSizes = new TreeMap<Long, Long>();
+    private final SortedMap<Long, Integer> pinnedSegments = new TreeMap<Long, Integer>();
+    private final Map<Long, Integer> openTableReferences = new HashMap<Long, Integer>();
+    private final Meter bytesWritten;
+    private final Meter bytesRelocated;
+
+    private long nextSegmentId;
+    private long activeSegmentId = -1;
+    private AppendFile activeSegment;
+    private boolean closed;
+
+    private ValueLog(Paths paths, Config config, Map<Long, Long> segmentSizes, Metrics metrics) {
+        this.paths = paths;
+        this.config = config;
+        this.segmentSizes.putAll(segmentSizes);
+        this.nextSegmentId = segmentSizes.isEmpty() ? 0 : this.segmentSizes.lastKey() + 1;
+        this.bytesWritten = metrics.meter("valueLog.bytesWritten");
+        this.bytesRelocated = metrics.meter("valueLog.bytesRelocated");
+
+        metrics.gauge("valueLog.size", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return size();
+            }
+        });
+    }
+
+    /**
+     * Prepares a Tuple to be written to a Table. Values at or above the configured threshold are appended to the log
+     * and replaced by a ValuePointer, and pointers into segments that are being relocated are moved to the active
+     * segment.
+     */
+    public Tuple write(Tuple tuple) throws IOException {
+        Value value = tuple.value();
+
+        if (value.isValuePointer()) {
+            ValuePointer pointer = ValuePointer.fromValue(value);
+
+            if (!relocatingSegments.contains(pointer.segmentId())) {
+                return tuple;
+            }
+
+            bytesRelocated.mark(pointer.size());
+            return new Tuple(tuple.key(), append(read(pointer)).toValue());
+        }
+
+        if (value.type() != Value.Type.VALUE || value.isEmpty() || value.size() < config.valueLogThreshold()) {
+            return tuple;
+        }
+
+        return new Tuple(tuple.key(), append(value.data().duplicate()).toValue());
+    }
+
+    public synchronized ValuePointer append(ByteBuffer value) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+
+        if (activeSegment == null || segmentSizes.get(activeSegmentId) >= config.valueLogSegmentSize()) {
+            rollSegment();
+        }
+
+        int size = value.remaining();
+        long offset = activeSegment.append(value);
+        segmentSizes.put(activeSegmentId, segmentSizes.get(activeSegmentId) + size);
+        bytesWritten.mark(size);
+
+        return new ValuePointer(activeSegmentId, offset, size);
+    }
+
+    /**
+     * Forces every value appended so far to disk. Table writers call this before their Table becomes visible.
+     */
+    public void sync() throws IOException {
+        AppendFile segment;
+
+        synchronized (this) {
+            segment = activeSegment;
+        }
+
+        if (segment != null) {
+            segment.sync();
+        }
+    }
+
+    public ByteBuffer read(ValuePointer pointer) throws IOException {
+        ImmutableFile segmentFile = segmentFile(pointer.segmentId());
+        ByteBuffer value = ByteBuffer.allocate(pointer.size());
+
+        while (value.hasRemaining()) {
+            if (segmentFile.read(value, pointer.offset() + value.position()) < 0) {
+                throw new EOFException("Value log segment " + pointer.segmentId() + " is truncated");
+            }
+        }
+
+        value.rewind();
+        return value;
+    }
+
+    /**
+     * @return the Tuple with its value read from the log if it holds a ValuePointer, or the Tuple itself otherwise
+     */
+    public Tuple resolve(Tuple tuple) {
+        if (!tuple.value().isValuePointer()) {
+            return tuple;
+        }
+
+        try {
+            return new Tuple(tuple.key(), new Value(read(ValuePointer.fromValue(tuple.value()))));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Keeps the segments that are appended to from now on from being deleted until the pin is released. Table
+     * writers hold a pin until their Table is visible, because the garbage collector only sees the references of
+     * visible Tables.
+     *
+     * @return the pin, to be passed to unpin
+     */
+    public synchronized long pin() {
+        long segmentId = activeSegment == null ? nextSegmentId : activeSegmentId;
+        Integer pinCount = pinnedSegments.get(segmentId);
+        pinnedSegments.put(segmentId, pinCount == null ? 1 : pinCount + 1);
+        return segmentId;
+    }
+
+    public synchronized void unpin(long pin) {
+        int pinCount = pinnedSegments.get(pin);
+
+        if (pinCount == 1) {
+            pinnedSegments.remove(pin);
+        } else {
+            pinnedSegments.put(pin, pinCount - 1);
+        }
+    }
+
+    /**
+     * Records that an open Table points into the given segments, which keeps them from being deleted until the
+     * Table releases them.
+     */
+    public synchronized void retainSegments(Map<Long, Long> valueLogReferences) {
+        for (Long segmentId : valueLogReferences.keySet()) {
+            Integer tableCount = openTableReferences.get(segmentId);
+            openTableReferences.put(segmentId, tableCount == null ? 1 : tableCount + 1);
+        }
+    }
+
+    public synchronized void releaseSegments(Map<Long, Long> valueLogReferences) {
+        for (Long segmentId : valueLogReferences.keySet()) {
+            int tableCount = openTableReferences.get(segmentId);
+
+            if (tableCount == 1) {
+                openTableReferences.remove(segmentId);
+            } else {
+                openTableReferences.put(segmentId, tableCount - 1);
+            }
+        }
+    }
+
+    /**
+     * Deletes the sealed segments that no open Table references, and marks the segments that are mostly garbage for
+     * relocation.
+     *
+     * @return the Tables that reference a segment that is being relocated
+     */
+    public List<Table> collectGarbage(Tables tables) throws IOException {
+        Map<Long, Long> liveBytes = new HashMap<Long, Long>();
+        Map<Long, List<Table>> referencingTables = new HashMap<Long, List<Table>>();
+        Set<Table> tablesToRewrite = new LinkedHashSet<Table>();
+
+        tables.readLock();
+
+        try {
+            for (Table table : tables) {
+                for (Map.Entry<Long, Long> reference : table.valueLogReferences().entrySet()) {
+                    Long segmentLiveBytes = liveBytes.get(reference.getKey());
+                    liveBytes.put(reference.getKey(), reference.getValue() + (segmentLiveBytes == null ? 0 :
+                            segmentLiveBytes));
+
+                    List<Table> segmentTables = referencingTables.get(reference.getKey());
+
+                    if (segmentTables == null) {
+                        segmentTables = new ArrayList<Table>();
+                        referencingTables.put(reference.getKey(), segmentTables);
+                    }
+
+                    segmentTables.add(table);
+                }
+            }
+
+            for (Map.Entry<Long, Long> segment : collectableSegments().entrySet()) {
+                long segmentId = segment.getKey();
+                Long segmentLiveBytes = liveBytes.get(segmentId);
+
+                if (segmentLiveBytes == null) {
+                    //A Table that is no longer in the Tables may still be read by an open scan
+                    deleteSegmentIfUnreferenced(segmentId);
+                    continue;
+                }
+
+                if (segmentLiveBytes < (1 - config.valueLogGarbageRatio()) * segment.getValue()) {
+                    relocatingSegments.add(segmentId);
+                }
+
+                if (relocatingSegments.contains(segmentId)) {
+                    tablesToRewrite.addAll(referencingTables.get(segmentId));
+                }
+            }
+        } finally {
+            tables.readUnlock();
+        }
+
+        return new ArrayList<Table>(tablesToRewrite);
+    }
+
+    public synchronized long size() {
+        long size = 0;
+
+        for (long segmentSize : segmentSizes.values()) {
+            size += segmentSize;
+        }
+
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+
+        if (activeSegment != null) {
+            activeSegment.close();
+            activeSegment = null;
+        }
+
+        for (ImmutableFile segmentFile : segmentFiles.values()) {
+            segmentFile.close();
+        }
+
+        segmentFiles.clear();
+    }
+
+    /**
+     * @return the sizes of the sealed segments that no table writer has pinned
+     */
+    private synchronized SortedMap<Long, Long> collectableSegments() {
+        long minimumPinnedId = pinnedSegments.isEmpty() ? Long.MAX_VALUE : pinnedSegments.firstKey();
+        long firstUnsealedId = activeSegment == null ? nextSegmentId : activeSegmentId;
+        return new TreeMap<Long, Long>(segmentSizes.headMap(Math.min(minimumPinnedId, firstUnsealedId)));
+    }
+
+    private void rollSegment() throws IOException {
+        if (activeSegment != null) {
+            activeSegment.close();
+        }
+
+        activeSegmentId = nextSegmentId++;
+        activeSegment = AppendChannelFile.open(paths.valueLogPath(activeSegmentId));
+        segmentSizes.put(activeSegmentId, 0L);
+    }
+
+    private synchronized void deleteSegmentIfUnreferenced(long segmentId) throws IOException {
+        //Once closed, the files may already belong to a database that was opened again on the same directory
+        if (closed || openTableReferences.containsKey(segmentId)) {
+            return;
+        }
+
+        segmentSizes.remove(segmentId);
+        relocatingSegments.remove(segmentId);
+
+        ImmutableFile segmentFile = segmentFiles.remove(segmentId);
+
+        if (segmentFile != null) {
+            segmentFile.close();
+        }
+
+        Files.deleteIfExists(paths.valueLogPath(segmentId));
+    }
+
+    private ImmutableFile segmentFile(long segmentId) throws IOException {
+        ImmutableFile segmentFile = segmentFiles.get(segmentId);
+
+        if (segmentFile == null) {
+            ImmutableFile openedFile = ImmutableChannelFile.open(paths.valueLogPath(segmentId));
+            segmentFile = segmentFiles.putIfAbsent(segmentId, openedFile);
+
+            if (segmentFile == null) {
+                segmentFile = openedFile;
+            } else {
+                openedFile.close();
+            }
+        }
+
+        return segmentFile;
+    }
+
+    public static ValueLog open(Paths paths, Config config, Metrics metrics) throws IOException {
+        Map<Long, Long> segmentSizes = new HashMap<Long, Long>();
+
+        for (long segmentId : paths.valueLogSegmentIds()) {
+            segmentSizes.put(segmentId, Files.size(paths.valueLogPath(segmentId)));
+        }
+
+        return new ValueLog(paths, config, segmentSizes, metrics);
+    }
+}
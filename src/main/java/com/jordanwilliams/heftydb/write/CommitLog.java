@@ -16,9 +16,9 @@
 
 package com.jordanwilliams.heftydb.write;
 
+import com.jordanwilliams.heftydb.data.Key;
 import com.jordanwilliams.heftydb.data.Tuple;
-import com.jordanwilliams.heftydb.io.ImmutableChannelFile;
-import com.jordanwilliams.heftydb.io.ImmutableFile;
+import com.jordanwilliams.heftydb.data.Value;
 import com.jordanwilliams.heftydb.state.Paths;
 import com.jordanwilliams.heftydb.util.Sizes;
 import com.jordanwilliams.heftydb.util.XORShiftRandom;
@@ -26,44 +26,47 @@ import com.jordanwilliams.heftydb.util.XORShiftRandom;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.zip.CRC32;
 
 /**
- * Provides a read-only view on a CommitLog file. Commit logs are written with a predictable stream of pseudo random
- * numbers with each record to ensure consistency. A commit log file that contains corrupted records is truncated at
- * the first record that fails this consistency check.
+ * Provides a read-only view on a CommitLog file. Each record is framed with a CRC32 checksum that is mixed with the
+ * seed of the file, to ensure consistency. A commit log file that contains corrupted records is truncated at the
+ * first record that fails this consistency check. Each record holds one or more Tuples that were written as an
+ * atomic batch, so a batch is either replayed in full or not at all.
  * 一个Table对应一个CommitLog
  *
+ * The file starts with a header that holds a magic number and the format version, and opening a log that was written
+ * in another format version fails rather than replaying it. Logs written before the header was added start with just
+ * the seed, and hold one Tuple per record, without a value type, followed by the next number of a pseudo random
+ * stream. Those are still replayed, so that an existing database can be upgraded.
+ *
+ * The log file is memory mapped, and the Tuples returned by the iterator are slices of the mapping rather than
+ * copies, so their keys and values are direct ByteBuffers.
  */
 public class CommitLog implements Iterable<Tuple>, Closeable {
 
     private class LogIterator implements Iterator<Tuple> {
 
-        private final XORShiftRandom pseudoRandom;
         private final Queue<Tuple> nextTuple = new LinkedList<>();
-        private long fileOffset = Sizes.LONG_SIZE;
-
-        public LogIterator() {
-            this.pseudoRandom = new XORShiftRandom(CommitLog.this.seed);
-        }
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer records = logBuffer.duplicate();
+        private int fileOffset = CommitLogWriter.HEADER_SIZE;
 
         @Override
         public boolean hasNext() {
-            if (!nextTuple.isEmpty()) {
-                return true;
-            }
-
-            Tuple next = nextRecord();
-
-            if (next == null) {
-                return false;
+            while (nextTuple.isEmpty()) {
+                if (!readNextBatch()) {
+                    return false;
+                }
             }
 
-            nextTuple.add(next);
-
             return true;
         }
 
@@ -83,42 +86,131 @@ public class CommitLog implements Iterable<Tuple>, Closeable {
             throw new UnsupportedOperationException();
         }
 
-        private Tuple nextRecord() {
-            try {
-                if (fileOffset >= logFile.size()) {
-                    return null;
-                }
+        private boolean readNextBatch() {
+            int fileSize = records.capacity();
+            records.limit(fileSize);
 
-                int recordSize = logFile.readInt(fileOffset);
-                fileOffset += Sizes.INT_SIZE;
+            if (fileOffset + CommitLogWriter.RECORD_HEADER_SIZE > fileSize) {
+                return false;
+            }
 
-                ByteBuffer recordBuffer = ByteBuffer.allocate(recordSize);
-                logFile.read(recordBuffer, fileOffset);
-                fileOffset += recordSize;
-                int nextInt = logFile.readInt(fileOffset);
-                fileOffset += Sizes.INT_SIZE;
+            int payloadSize = records.getInt(fileOffset);
+            int checksum = records.getInt(fileOffset + Sizes.INT_SIZE);
+            int payloadOffset = fileOffset + CommitLogWriter.RECORD_HEADER_SIZE;
 
-                if (nextInt != pseudoRandom.nextInt()) { // 随机数是用来校验数据是否损坏
-                    return null;
-                }
+            //A torn write leaves a record that runs past the end of the file, so treat it as absent
+            if (payloadSize < Sizes.INT_SIZE || payloadSize > fileSize - payloadOffset) {
+                return false;
+            }
+
+            records.limit(payloadOffset + payloadSize);
+            records.position(payloadOffset);
+
+            // 校验和用来检查数据是否损坏，或者是否是回收的log文件中遗留的旧记录
+            if (CommitLogWriter.checksum(crc, records, seed) != checksum) {
+                fileOffset = fileSize;
+                return false;
+            }
+
+            fileOffset = payloadOffset + payloadSize;
+            records.position(payloadOffset);
+            int tupleCount = records.getInt();
+
+            for (int i = 0; i < tupleCount; i++) {
+                nextTuple.add(readTuple());
+            }
+
+            return true;
+        }
+
+        private Tuple readTuple() {
+            int keySize = records.getInt();
+            ByteBuffer keyBuffer = slice(keySize);
+            long snapshotId = records.getLong();
+            int valueSize = records.getInt();
+            Value.Type valueType = Value.Type.fromCode(records.get());
+            ByteBuffer valueBuffer = slice(valueSize);
+            return new Tuple(new Key(keyBuffer, snapshotId), new Value(valueBuffer, valueType));
+        }
+
+        private ByteBuffer slice(int size) {
+            return CommitLog.slice(records, size);
+        }
+    }
+
+    private class LegacyLogIterator implements Iterator<Tuple> {
+
+        private final XORShiftRandom pseudoRandom = new XORShiftRandom(seed);
+        private final ByteBuffer records = logBuffer.duplicate();
+        private int fileOffset = Sizes.LONG_SIZE;
+        private Tuple nextTuple;
+
+        @Override
+        public boolean hasNext() {
+            if (nextTuple == null) {
+                nextTuple = readNextTuple();
+            }
+
+            return nextTuple != null;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Tuple next = nextTuple;
+            nextTuple = null;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private Tuple readNextTuple() {
+            int fileSize = records.capacity();
 
-                recordBuffer.rewind();
+            if (fileOffset + Sizes.INT_SIZE > fileSize) {
+                return null;
+            }
+
+            int recordSize = records.getInt(fileOffset);
+            int recordOffset = fileOffset + Sizes.INT_SIZE;
 
-                return Tuple.SERIALIZER.deserialize(recordBuffer);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+            if (recordSize < 0 || recordSize > fileSize - recordOffset - Sizes.INT_SIZE) {
+                return null;
             }
+
+            if (records.getInt(recordOffset + recordSize) != pseudoRandom.nextInt()) {
+                fileOffset = fileSize;
+                return null;
+            }
+
+            fileOffset = recordOffset + recordSize + Sizes.INT_SIZE;
+            records.limit(recordOffset + recordSize);
+            records.position(recordOffset);
+
+            ByteBuffer keyBuffer = slice(records, records.getInt());
+            long snapshotId = records.getLong();
+            ByteBuffer valueBuffer = slice(records, records.getInt());
+            records.limit(fileSize);
+            return new Tuple(new Key(keyBuffer, snapshotId), new Value(valueBuffer));
         }
     }
 
     private final long tableId;
-    private final ImmutableFile logFile;
+    private final MappedByteBuffer logBuffer;
     private final long seed;
+    private final boolean legacy;
 
-    private CommitLog(long tableId, ImmutableFile logFile) throws IOException {
+    private CommitLog(long tableId, MappedByteBuffer logBuffer, long seed, boolean legacy) {
         this.tableId = tableId;
-        this.logFile = logFile;
-        this.seed = getSeed();
+        this.logBuffer = logBuffer;
+        this.seed = seed;
+        this.legacy = legacy;
     }
 
     public long tableId() {
@@ -127,20 +219,80 @@ public class CommitLog implements Iterable<Tuple>, Closeable {
 
     @Override
     public void close() throws IOException {
-        logFile.close();
+        //The mapping is released once the log and every Tuple read from it are unreachable
     }
 
     @Override
     public Iterator<Tuple> iterator() {
-        return new LogIterator();
+        return legacy ? new LegacyLogIterator() : new LogIterator();
+    }
+
+    public static CommitLog open(long tableId, Paths paths) throws IOException {
+        try (FileChannel channel = FileChannel.open(paths.logPath(tableId), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Commit log " + tableId + " is too large to map: " + size + " bytes");
+            }
+
+            MappedByteBuffer logBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (isLegacy(logBuffer)) {
+                return new CommitLog(tableId, logBuffer, logBuffer.getLong(0), true);
+            }
+
+            return new CommitLog(tableId, logBuffer, readSeed(tableId, logBuffer), false);
+        }
     }
 
-    private long getSeed() throws IOException {
-        return logFile.readLong(0);
+    /**
+     * @return true if the log starts with a seed rather than the magic number. A header that never made it to disk is
+     * all zeros, which no seed is.
+     */
+    private static boolean isLegacy(ByteBuffer logBuffer) {
+        if (logBuffer.capacity() < Sizes.LONG_SIZE) {
+            return false;
+        }
+
+        long start = logBuffer.getLong(0);
+        return start != 0 && start != CommitLogWriter.MAGIC;
     }
 
-    public static CommitLog open(long tableId, Paths paths) throws IOException {
-        ImmutableFile logFile = ImmutableChannelFile.open(paths.logPath(tableId));
-        return new CommitLog(tableId, logFile);
+    private static ByteBuffer slice(ByteBuffer records, int size) {
+        int limit = records.limit();
+        records.limit(records.position() + size);
+        ByteBuffer slice = records.slice();
+        records.position(records.limit());
+        records.limit(limit);
+        return slice;
+    }
+
+    /**
+     * Checks the header of a log file and reads its seed. A log whose header never made it to disk holds no records,
+     * and is read as an empty log.
+     */
+    private static long readSeed(long tableId, ByteBuffer logBuffer) throws IOException {
+        if (logBuffer.capacity() < CommitLogWriter.HEADER_SIZE) {
+            return 0;
+        }
+
+        long magic = logBuffer.getLong(0);
+        int formatVersion = logBuffer.getInt(Sizes.LONG_SIZE);
+
+        if (magic == 0 && formatVersion == 0) {
+            return 0;
+        }
+
+        if (magic != CommitLogWriter.MAGIC) {
+            throw new IOException("Commit log " + tableId + " is not a HeftyDB commit log, or was written by an " +
+                    "incompatible version");
+        }
+
+        if (formatVersion != CommitLogWriter.FORMAT_VERSION) {
+            throw new IOException("Commit log " + tableId + " has format version " + formatVersion + ", expected " +
+                    CommitLogWriter.FORMAT_VERSION);
+        }
+
+        return logBuffer.getLong(Sizes.LONG_SIZE + Sizes.INT_SIZE);
     }
 }
@@ -16,52 +16,204 @@
 
 package com.jordanwilliams.heftydb.write;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.io.AppendChannelFile;
 import com.jordanwilliams.heftydb.io.AppendFile;
+import com.jordanwilliams.heftydb.metrics.Metrics;
 import com.jordanwilliams.heftydb.state.Paths;
-import com.jordanwilliams.heftydb.util.XORShiftRandom;
+import com.jordanwilliams.heftydb.util.Sizes;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
 
 /**
- * Writes a CommitLog file. Each write can optionally be fsynced if required.
+ * Writes a CommitLog file. Each record is serialized into a single buffer and framed with a CRC32 checksum.
+ * Each write can optionally be fsynced if required. Concurrent fsync requests are
+ * grouped so that a single force covers every record appended before it started.
  */
 public class CommitLogWriter implements Closeable {
 
+    static final long MAGIC = 0x48656674794C6F67L;
+    static final int FORMAT_VERSION = 1;
+
+    //File header layout: [long magic][int formatVersion][long seed]
+    static final int HEADER_SIZE = Sizes.LONG_SIZE * 2 + Sizes.INT_SIZE;
+
+    //Record layout: [int payloadSize][int checksum][int tupleCount][tuples...]
+    static final int RECORD_HEADER_SIZE = Sizes.INT_SIZE * 2;
+
+    private static final int INITIAL_RECORD_BUFFER_SIZE = 4096;
+
     private final long tableId;
-    private final XORShiftRandom pseudoRandom;
+    private final long seed;
+    private final CRC32 crc = new CRC32();
     private final AppendFile logFile;
+    private final Histogram groupCommitBatchSize;
+    private final Timer groupCommitWait;
+    private final Timer logForce;
+
+    private final Object syncLock = new Object();
+    private volatile long appendedRecords;
+    private volatile long appendedBytes;
+    private volatile long syncedBytes;
+    private long syncedRecords;
+    private boolean syncInProgress;
+    private boolean closed;
+    private ByteBuffer recordBuffer = ByteBuffer.allocateDirect(INITIAL_RECORD_BUFFER_SIZE);
 
-    private CommitLogWriter(long tableId, AppendFile logFile) throws IOException {
-        long seed = System.nanoTime();
+    private CommitLogWriter(long tableId, AppendFile logFile, Metrics metrics) throws IOException {
+        this.seed = System.nanoTime();
         this.tableId = tableId;
-        this.pseudoRandom = new XORShiftRandom(seed);
         this.logFile = logFile;
+        this.groupCommitBatchSize = metrics.histogram("write.groupCommit.batchSize");
+        this.groupCommitWait = metrics.timer("write.groupCommit.wait");
+        this.logForce = metrics.timer("write.logForce");
 
+        logFile.appendLong(MAGIC);
+        logFile.appendInt(FORMAT_VERSION);
         logFile.appendLong(seed);
     }
 
     public void append(Tuple tuple, boolean fsync) throws IOException {
-        int serializedSize = Tuple.SERIALIZER.size(tuple);
+        long record = append(tuple);
 
-        //Serialize in place to avoid an extra copy
-        tuple.rewind();
-        logFile.appendInt(serializedSize);
+        if (fsync) {
+            sync(record);
+        }
+    }
 
-        logFile.appendInt(tuple.key().size());
-        logFile.append(tuple.key().data());
-        logFile.appendLong(tuple.key().snapshotId());
+    /**
+     * Appends a Tuple to the log without forcing it to disk. Callers must serialize calls to this method.
+     *
+     * @return the sequence number of the appended record, to be passed to sync
+     */
+    public long append(Tuple tuple) throws IOException {
+        return append(Collections.singletonList(tuple));
+    }
 
-        logFile.appendInt(tuple.value().size());
-        logFile.append(tuple.value().data());
-        logFile.appendInt(pseudoRandom.nextInt());
-        tuple.rewind();
+    /**
+     * Appends a group of Tuples to the log as a single record, so that replay either sees all of them or none.
+     * Callers must serialize calls to this method.
+     *
+     * @return the sequence number of the appended record, to be passed to sync
+     */
+    public long append(List<Tuple> tuples) throws IOException {
+        int payloadSize = Sizes.INT_SIZE;
 
-        if (fsync) {
-            logFile.sync();
+        for (Tuple tuple : tuples) {
+            payloadSize += Tuple.SERIALIZER.size(tuple);
+        }
+
+        //Serialize the whole record into one buffer so that it goes to the log in a single append
+        ByteBuffer buffer = recordBuffer(RECORD_HEADER_SIZE + payloadSize);
+        buffer.position(RECORD_HEADER_SIZE);
+        buffer.putInt(tuples.size());
+
+        for (Tuple tuple : tuples) {
+            tuple.rewind();
+            buffer.putInt(tuple.key().size());
+            buffer.put(tuple.key().data());
+            buffer.putLong(tuple.key().snapshotId());
+            buffer.putInt(tuple.value().size());
+            buffer.put(tuple.value().type().code());
+            buffer.put(tuple.value().data());
+            tuple.rewind();
         }
+
+        buffer.flip();
+        buffer.position(RECORD_HEADER_SIZE);
+        int checksum = checksum(crc, buffer, seed);
+
+        buffer.putInt(0, payloadSize);
+        buffer.putInt(Sizes.INT_SIZE, checksum);
+        buffer.position(0);
+        logFile.append(buffer);
+        appendedBytes += RECORD_HEADER_SIZE + payloadSize;
+
+        long record = appendedRecords + 1;
+        appendedRecords = record;
+        return record;
+    }
+
+    /**
+     * Blocks until the given record is durable. The first waiter becomes the leader and forces every record
+     * appended so far, while later waiters either piggyback on that force or elect the next leader.
+     */
+    public void sync(long record) throws IOException {
+        Timer.Context watch = groupCommitWait.time();
+
+        try {
+            while (true) {
+                long syncTarget;
+                long syncTargetBytes;
+                long previouslySynced;
+
+                synchronized (syncLock) {
+                    if (syncedRecords >= record || closed) {
+                        return;
+                    }
+
+                    if (syncInProgress) {
+                        syncLock.wait();
+                        continue;
+                    }
+
+                    syncInProgress = true;
+                    syncTargetBytes = appendedBytes;
+                    syncTarget = appendedRecords;
+                    previouslySynced = syncedRecords;
+                }
+
+                boolean synced = false;
+
+                Timer.Context forceWatch = logForce.time();
+
+                try {
+                    logFile.sync();
+                    synced = true;
+                } finally {
+                    forceWatch.stop();
+
+                    synchronized (syncLock) {
+                        syncInProgress = false;
+
+                        if (synced) {
+                            syncedRecords = Math.max(syncedRecords, syncTarget);
+                            syncedBytes = Math.max(syncedBytes, syncTargetBytes);
+                            groupCommitBatchSize.update(syncTarget - previouslySynced);
+                        }
+
+                        syncLock.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for commit log sync");
+        } finally {
+            watch.stop();
+        }
+    }
+
+    /**
+     * Blocks until every record appended so far is durable.
+     */
+    public void sync() throws IOException {
+        sync(appendedRecords);
+    }
+
+    /**
+     * @return the number of appended bytes that have not been forced to disk yet
+     */
+    public long unsyncedBytes() {
+        return appendedBytes - syncedBytes;
     }
 
     public long tableId() {
@@ -70,11 +222,51 @@ public class CommitLogWriter implements Closeable {
 
     @Override
     public void close() throws IOException {
-        logFile.close();
+        synchronized (syncLock) {
+            while (syncInProgress) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while closing commit log");
+                }
+            }
+
+            //Closing the file forces it, so every appended record is durable once this returns
+            logFile.close();
+            syncedRecords = appendedRecords;
+            syncedBytes = appendedBytes;
+            closed = true;
+            syncLock.notifyAll();
+        }
+    }
+
+    /**
+     * Computes the checksum of a record payload. The checksum is mixed with the seed of the log file it belongs to,
+     * so records left behind in a recycled log file fail validation.
+     */
+    static int checksum(CRC32 crc, ByteBuffer payload, long seed) {
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue() ^ (int) (seed ^ (seed >>> 32));
+    }
+
+    private ByteBuffer recordBuffer(int size) {
+        if (recordBuffer.capacity() < size) {
+            recordBuffer = ByteBuffer.allocateDirect(Math.max(size, recordBuffer.capacity() * 2));
+        }
+
+        recordBuffer.clear();
+        recordBuffer.limit(size);
+        return recordBuffer;
     }
 
-    public static CommitLogWriter open(long tableId, Paths paths) throws IOException {
+    public static CommitLogWriter open(long tableId, Paths paths, Metrics metrics) throws IOException {
         AppendFile logFile = AppendChannelFile.open(paths.logPath(tableId));
-        return new CommitLogWriter(tableId, logFile);
+        return new CommitLogWriter(tableId, logFile, metrics);
+    }
+
+    public static CommitLogWriter open(long tableId, LogFilePool logFilePool, Metrics metrics) throws IOException {
+        return new CommitLogWriter(tableId, logFilePool.open(tableId), metrics);
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.write;
+
+import com.jordanwilliams.heftydb.io.AppendChannelFile;
+import com.jordanwilliams.heftydb.io.AppendFile;
+import com.jordanwilliams.heftydb.state.Paths;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.SortedSet;
+
+/**
+ * Keeps a pool of commit log files whose MemoryTables have already been flushed, so that new commit logs can reuse
+ * them instead of creating, growing and deleting a file for every MemoryTable. New files are preallocated to the
+ * expected log size, so appends to a pooled log don't have to update file metadata on every sync.
+ */
+public class LogFilePool {
+
+    private static final int MAX_POOLED_LOGS = 4;
+
+    private final Paths paths;
+    private final long preallocatedSize;
+
+    public LogFilePool(Paths paths, long preallocatedSize) {
+        this.paths = paths;
+        this.preallocatedSize = preallocatedSize;
+    }
+
+    /**
+     * Opens the commit log for a table, reusing a pooled file if one is available. A reused file still holds the
+     * records of its previous table past the end of the new records, which replay must reject.
+     */
+    public AppendFile open(long tableId) throws IOException {
+        Path logPath = paths.logPath(tableId);
+
+        synchronized (this) {
+            SortedSet<Path> pooledPaths = paths.recycledLogFilePaths();
+
+            if (!pooledPaths.isEmpty()) {
+                Files.move(pooledPaths.first(), logPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        return AppendChannelFile.openPreallocated(logPath, preallocatedSize);
+    }
+
+    /**
+     * Returns the commit log of a table that has been flushed to the pool, or deletes it if the pool is full.
+     */
+    public synchronized void recycle(long tableId) throws IOException {
+        Path logPath = paths.logPath(tableId);
+
+        if (!Files.exists(logPath)) {
+            return;
+        }
+
+        if (paths.recycledLogFilePaths().size() < MAX_POOLED_LOGS) {
+            Files.move(logPath, paths.recycledLogPath(tableId), StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.delete(logPath);
+        }
+    }
+}
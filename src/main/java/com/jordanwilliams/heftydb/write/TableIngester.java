@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.write;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.Record;
+import com.jordanwilliams.heftydb.db.Snapshot;
+import com.jordanwilliams.heftydb.metrics.Metrics;
+import com.jordanwilliams.heftydb.state.Caches;
+import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.state.Snapshots;
+import com.jordanwilliams.heftydb.state.Tables;
+import com.jordanwilliams.heftydb.table.Table;
+import com.jordanwilliams.heftydb.table.file.FileTable;
+import com.jordanwilliams.heftydb.table.file.FileTableWriter;
+import com.jordanwilliams.heftydb.table.file.TableTrailer;
+import com.jordanwilliams.heftydb.util.Sizes;
+import com.jordanwilliams.heftydb.valuelog.ValueLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bulk loads sorted Records into FileTables without going through the commit log, the MemoryTables or compaction.
+ * The Tables are written as temp files and are only linked into the database once all of them are complete, so
+ * readers see either none or all of an ingest. Every ingested Record shares a single snapshot id, which is
+ * allocated when the Tables are linked and stamped into their trailers, so the ingest is only visible to snapshots
+ * taken after it was linked, and wins over writes that landed while it was running.
+ *
+ * A manifest listing the Tables is written before any of them is moved into place, and deleted once all of them are
+ * stamped. If a crash interrupts the ingest in between, the Tables in the manifest are deleted on restart, so a
+ * partial ingest never becomes visible.
+ */
+public class TableIngester {
+
+    //Ingested Tuples are written before their snapshot id is allocated, and take it from the trailer once linked
+    private static final long UNLINKED_SNAPSHOT_ID = 0;
+
+    private final Config config;
+    private final Paths paths;
+    private final Tables tables;
+    private final Snapshots snapshots;
+    private final Caches caches;
+    private final ValueLog valueLog;
+    private final Metrics metrics;
+
+    public TableIngester(Config config, Paths paths, Tables tables, Snapshots snapshots, Caches caches,
+                         ValueLog valueLog, Metrics metrics) {
+        this.config = config;
+        this.paths = paths;
+        this.tables = tables;
+        this.snapshots = snapshots;
+        this.caches = caches;
+        this.valueLog = valueLog;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Writes the Records into as many Tables as needed to hold at most Config.ingestTableRecordCount Records each.
+     * Records with a null value are ingested as deletes.
+     *
+     * @throws IllegalArgumentException if the Records are not sorted by key or contain the same key twice, in which
+     *                                  case nothing is ingested
+     */
+    public Snapshot ingest(Iterator<Record> records) throws IOException {
+        if (!records.hasNext()) {
+            return new Snapshot(snapshots.currentId());
+        }
+
+        //The pin is held until the Tables are visible, so that the segments they point to are not collected in
+        //between
+        long valueLogPin = valueLog == null ? 0 : valueLog.pin();
+        List<Long> tableIds = new ArrayList<Long>();
+        boolean linked = false;
+
+        try {
+            Key lastKey = null;
+
+            while (records.hasNext()) {
+                long tableId = tables.nextId();
+                tableIds.add(tableId);
+
+                FileTableWriter tableWriter = FileTableWriter.open(tableId, paths, config.ingestTableRecordCount(),
+                        config.indexBlockSize(), config.tableBlockSize(), 1, valueLog, config.prefixExtractor(),
+                        config.keyComparator());
+                long recordCount = 0;
+
+                while (recordCount < config.ingestTableRecordCount() && records.hasNext()) {
+                    Record record = records.next();
+                    Key key = new Key(record.key(), UNLINKED_SNAPSHOT_ID);
+
+                    if (lastKey != null && config.keyComparator().keyOrder().compare(lastKey, key) >= 0) {
+                        throw new IllegalArgumentException("Ingested records must be sorted by key and unique");
+                    }
+
+                    Value value = record.value() == null ? Value.TOMBSTONE_VALUE : new Value(record.value());
+                    tableWriter.write(new Tuple(key, value));
+                    lastKey = key;
+                    recordCount++;
+                }
+
+                tableWriter.finish();
+            }
+
+            long snapshotId = link(tableIds);
+            linked = true;
+            return new Snapshot(snapshotId);
+        } finally {
+            if (!linked) {
+                deleteTables(paths, tableIds);
+                Files.deleteIfExists(paths.ingestManifestPath(tableIds.get(0)));
+            }
+
+            if (valueLog != null) {
+                valueLog.unpin(valueLogPin);
+            }
+        }
+    }
+
+    /**
+     * Deletes the Tables of the ingests that a crash interrupted before they were linked. Must be called before the
+     * Table files are loaded.
+     */
+    public static void deleteUnlinkedTables(Paths paths) throws IOException {
+        for (Path manifestPath : paths.ingestManifestPaths()) {
+            ByteBuffer manifest = ByteBuffer.wrap(Files.readAllBytes(manifestPath));
+            List<Long> tableIds = new ArrayList<Long>();
+
+            //A manifest that was cut short was written before any Table was moved, so its temp files are all that is
+            //left, and those are deleted anyway
+            while (manifest.remaining() >= Sizes.LONG_SIZE) {
+                tableIds.add(manifest.getLong());
+            }
+
+            deleteTables(paths, tableIds);
+            Files.delete(manifestPath);
+        }
+    }
+
+    /**
+     * Moves the Tables into place and makes them visible under the snapshot id of the ingest. The writes that are
+     * allocated later ids wait for it to be published, so the id is only allocated once the Tables are open, and is
+     * published as soon as they are added, or if linking fails.
+     */
+    private long link(List<Long> tableIds) throws IOException {
+        Path manifestPath = paths.ingestManifestPath(tableIds.get(0));
+        writeManifest(manifestPath, tableIds);
+
+        List<FileTable> ingestedTables = new ArrayList<FileTable>();
+        boolean linked = false;
+
+        try {
+            for (long tableId : tableIds) {
+                Files.move(paths.tempPath(tableId), paths.tablePath(tableId), StandardCopyOption.ATOMIC_MOVE);
+                ingestedTables.add(FileTable.open(tableId, paths, caches.recordBlockCache(),
+                        caches.indexBlockCache(), valueLog, config.keyComparator(), metrics));
+            }
+
+            long snapshotId = snapshots.nextId();
+
+            try {
+                for (FileTable table : ingestedTables) {
+                    table.linkIngested(snapshotId);
+                    TableTrailer.writeIngestSnapshotId(paths.tablePath(table.id()), snapshotId);
+                }
+
+                //Once the manifest is gone the ingest survives a restart, so it can be made visible
+                Files.delete(manifestPath);
+                tables.addAll(new ArrayList<Table>(ingestedTables));
+                linked = true;
+                return snapshotId;
+            } finally {
+                snapshots.publish(snapshotId);
+            }
+        } finally {
+            if (!linked) {
+                for (FileTable table : ingestedTables) {
+                    table.close();
+                }
+            }
+        }
+    }
+
+    private static void writeManifest(Path manifestPath, List<Long> tableIds) throws IOException {
+        ByteBuffer manifest = ByteBuffer.allocate(tableIds.size() * Sizes.LONG_SIZE);
+
+        for (long tableId : tableIds) {
+            manifest.putLong(tableId);
+        }
+
+        manifest.flip();
+
+        try (FileChannel channel = FileChannel.open(manifestPath, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            while (manifest.hasRemaining()) {
+                channel.write(manifest);
+            }
+
+            channel.force(true);
+        }
+    }
+
+    private static void deleteTables(Paths paths, List<Long> tableIds) throws IOException {
+        for (long tableId : tableIds) {
+            Files.deleteIfExists(paths.tempPath(tableId));
+            Files.deleteIfExists(paths.tablePath(tableId));
+            Files.deleteIfExists(paths.indexPath(tableId));
+            Files.deleteIfExists(paths.filterPath(tableId));
+        }
+    }
+}
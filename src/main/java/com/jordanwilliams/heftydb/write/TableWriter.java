@@ -16,42 +16,117 @@
 
 package com.jordanwilliams.heftydb.write;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Timer;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.jordanwilliams.heftydb.data.Key;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.data.Value;
 import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.Durability;
 import com.jordanwilliams.heftydb.db.Snapshot;
+import com.jordanwilliams.heftydb.db.WriteBatch;
 import com.jordanwilliams.heftydb.io.Throttle;
 import com.jordanwilliams.heftydb.metrics.Metrics;
+import com.jordanwilliams.heftydb.read.CompactionTupleIterator;
 import com.jordanwilliams.heftydb.state.Caches;
 import com.jordanwilliams.heftydb.state.Paths;
 import com.jordanwilliams.heftydb.state.Snapshots;
 import com.jordanwilliams.heftydb.state.Tables;
-import com.jordanwilliams.heftydb.table.Table;
 import com.jordanwilliams.heftydb.table.file.FileTable;
 import com.jordanwilliams.heftydb.table.file.FileTableWriter;
+import com.jordanwilliams.heftydb.table.memory.ArenaTupleMap;
 import com.jordanwilliams.heftydb.table.memory.MemoryTable;
+import com.jordanwilliams.heftydb.table.memory.SkipListTupleMap;
+import com.jordanwilliams.heftydb.table.memory.SortedTupleMap;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+import com.jordanwilliams.heftydb.valuelog.ValueLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
-import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Handles all write operations to a database. Each write first goes into a MemoryTable,
- * which is written to disk on a background thread once it is full. Writes are serialized
- * so that only one writer thread may proceed at a time.
+ * which is written to disk on a background thread once it is full. Snapshot id allocation and
+ * the commit log append are ordered under a short append lock, while MemoryTable inserts and
+ * fsync waits run concurrently so that writes scale with the number of writer threads. Full tables
+ * wait in a queue of immutable tables to be flushed, and writers are slowed down or stalled when
+ * that queue grows past its configured limits, or once all unflushed tables together outgrow the write
+ * buffer. The write rate is also adjusted to the outstanding flush and
+ * compaction work, so that writers don't outrun compaction for long.
+ *
+ * How writes reach the commit log depends on the configured Durability. Without a commit log, MemoryTables are
+ * flushed on close so that a clean shutdown loses nothing.
  */
 public class TableWriter {
 
     private static final Logger logger = LoggerFactory.getLogger(TableWriter.class);
+    private static final long SLOWDOWN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * A MemoryTable along with its commit log and a count of writers that are still inserting into it. Once a
+     * table is sealed, no new writers are admitted and it can be serialized after the in flight writers drain.
+     */
+    private static class ActiveTable {
+
+        private final MemoryTable memoryTable;
+        private final CommitLogWriter commitLogWriter;
+        private final AtomicInteger inFlightWriters = new AtomicInteger();
+        private volatile boolean sealed;
+        private long reservedBytes;
+
+        private ActiveTable(MemoryTable memoryTable, CommitLogWriter commitLogWriter) {
+            this.memoryTable = memoryTable;
+            this.commitLogWriter = commitLogWriter;
+        }
+
+        private void startWrite() {
+            inFlightWriters.incrementAndGet();
+        }
+
+        private void finishWrite() {
+            if (inFlightWriters.decrementAndGet() == 0 && sealed) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private void seal() {
+            sealed = true;
+        }
+
+        private synchronized void awaitWriters() {
+            boolean interrupted = false;
+
+            while (inFlightWriters.get() > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
     private final Config config;
     private final Snapshots snapshots;
@@ -59,83 +134,447 @@ public class TableWriter {
     private final Tables tables;
     private final Paths paths;
     private final Caches caches;
+    private final ValueLog valueLog;
     private final Metrics metrics;
-    private final Throttle writeThrottle;
+    private final WriteRateController writeRateController;
+    private final WriteBufferManager writeBufferManager;
+    private final LogFilePool logFilePool;
+    private final Object appendLock = new Object();
+    private final Object flushLock = new Object();
+    private final Queue<ActiveTable> immutableTables = new ConcurrentLinkedQueue<ActiveTable>();
+    private final AtomicInteger pendingFlushes = new AtomicInteger();
+    private final Timer slowdownTimer;
+    private final Timer stallTimer;
+    private final Timer throttleTimer;
+    private final Timer appendLockWaitTimer;
+    private final Timer rotationTimer;
+    private final Timer logAppendTimer;
+    private final Timer memoryTableInsertTimer;
+    private final Timer logSyncTimer;
+    private final ScheduledExecutorService logSyncExecutor;
 
-    private MemoryTable memoryTable;
-    private CommitLogWriter commitLogWriter;
+    private volatile ActiveTable activeTable;
 
     public TableWriter(Config config, Paths paths, Tables tables, Snapshots snapshots, Caches caches, Metrics metrics) {
+        this(config, paths, tables, snapshots, caches, null, metrics);
+    }
+
+    public TableWriter(Config config, Paths paths, Tables tables, Snapshots snapshots, Caches caches,
+                       ValueLog valueLog, Metrics metrics) {
         this.config = config;
         this.paths = paths;
         this.tables = tables;
         this.snapshots = snapshots;
         this.caches = caches;
+        this.valueLog = valueLog;
         this.metrics = metrics;
-        this.writeThrottle = new Throttle(config.maxWriteRate());
+        this.logFilePool = new LogFilePool(paths, config.memoryTableSize());
+
+        this.slowdownTimer = metrics.timer("write.slowdown");
+        this.stallTimer = metrics.timer("write.stall");
+        this.throttleTimer = metrics.timer("write.throttle");
+        this.appendLockWaitTimer = metrics.timer("write.appendLockWait");
+        this.rotationTimer = metrics.timer("write.rotation");
+        this.logAppendTimer = metrics.timer("write.logAppend");
+        this.memoryTableInsertTimer = metrics.timer("write.memoryTableInsert");
+        this.logSyncTimer = metrics.timer("write.logSync");
 
+        this.writeRateController = new WriteRateController(config, tables, pendingFlushes, metrics);
+        this.writeBufferManager = new WriteBufferManager(config);
+
+        //Back pressure is applied through the immutable table limits, so the queue never has to push work back
+        //onto a writer thread
         this.tableExecutor = new ThreadPoolExecutor(config.tableWriterThreads(), config.tableWriterThreads(),
-                Long.MAX_VALUE, TimeUnit.DAYS, new LinkedBlockingQueue<>(config.tableWriterThreads()),
-                new ThreadFactoryBuilder().setNameFormat("Table writer thread %d").build(),
-                new ThreadPoolExecutor.CallerRunsPolicy());
+                Long.MAX_VALUE, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("Table writer thread %d").build());
+
+        if (config.durability() == Durability.PERIODIC) {
+            this.logSyncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("Log sync thread %d").build());
+            this.logSyncExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    syncActiveLog();
+                }
+            }, config.logSyncInterval(), config.logSyncInterval(), TimeUnit.MILLISECONDS);
+        } else {
+            this.logSyncExecutor = null;
+        }
+
+        metrics.gauge("write.pendingMemoryTables", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return pendingFlushes.get();
+            }
+        });
+
+        metrics.gauge("write.bufferUsage", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return writeBufferManager.usage(activeBytes());
+            }
+        });
+
+        metrics.gauge("write.unsyncedBytes", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                ActiveTable table = activeTable;
+                return table == null || table.commitLogWriter == null ? 0 : table.commitLogWriter.unsyncedBytes();
+            }
+        });
+    }
+
+    public Snapshot merge(ByteBuffer key, ByteBuffer operand, boolean fsync) throws IOException {
+        return write(new WriteBatch().merge(key, operand), fsync);
+    }
+
+    public Snapshot deleteRange(ByteBuffer startKey, ByteBuffer endKey, boolean fsync) throws IOException {
+        return write(new WriteBatch().deleteRange(startKey, endKey), fsync);
     }
 
-    public synchronized Snapshot write(ByteBuffer key, ByteBuffer value, boolean fsync) throws IOException {
-        if (memoryTable == null || memoryTable.size() >= config.memoryTableSize()) {
-            rotateMemoryTable();
+    public Snapshot write(ByteBuffer key, ByteBuffer value, boolean fsync) throws IOException {
+        WriteBatch batch = new WriteBatch();
+
+        if (value == null) {
+            batch.delete(key);
+        } else {
+            batch.put(key, value);
         }
 
-        int valueCapacity = value == null ? 0 : value.capacity();
-        writeThrottle.consume(key.capacity() + valueCapacity);
-        long nextSnapshotId = snapshots.nextId();
+        return write(batch, fsync);
+    }
 
-        key.rewind();
+    public Snapshot write(WriteBatch batch, boolean fsync) throws IOException {
+        if (batch.isEmpty()) {
+            return new Snapshot(snapshots.currentId());
+        }
 
-        if (value != null) {
-            value.rewind();
+        if (batch.hasMerges() && config.mergeOperator() == null) {
+            throw new IllegalStateException("A merge operator must be configured to write merge operands");
+        }
+
+        for (WriteBatch.Operation operation : batch.operations()) {
+            if (operation.isRangeDelete() && config.keyComparator().compare(operation.key(), operation.value()) >= 0) {
+                throw new IllegalArgumentException("A range delete needs a start key that sorts before its end key");
+            }
+        }
+
+        applyBackPressure();
+
+        //Each stage is timed from the end of the previous one, so a write only reads the clock once per stage
+        long stageStart = System.nanoTime();
+        writeRateController.consume((int) Math.min(batch.size(), Integer.MAX_VALUE));
+        stageStart = recordStage(throttleTimer, stageStart);
+
+        List<WriteBatch.Operation> operations = batch.operations();
+        List<Tuple> tuples = new ArrayList<Tuple>(operations.size());
+        long now = System.currentTimeMillis();
+        ActiveTable table;
+        long logRecord;
+        long firstSnapshotId;
+        long lastSnapshotId;
+
+        synchronized (appendLock) {
+            stageStart = recordStage(appendLockWaitTimer, stageStart);
+
+            if (requiresRotation()) {
+                rotateMemoryTable();
+                stageStart = recordStage(rotationTimer, stageStart);
+            }
+
+            table = activeTable;
+            firstSnapshotId = snapshots.nextIds(operations.size());
+            lastSnapshotId = firstSnapshotId + operations.size() - 1;
+            boolean appended = false;
+
+            //Later writes wait for these ids to be published, so they are published whatever goes wrong
+            try {
+                for (int i = 0; i < operations.size(); i++) {
+                    tuples.add(tuple(operations.get(i), firstSnapshotId + i, now));
+                }
+
+                logRecord = table.commitLogWriter == null ? 0 : table.commitLogWriter.append(tuples);
+                table.startWrite();
+                appended = true;
+            } finally {
+                if (!appended) {
+                    snapshots.publish(firstSnapshotId, lastSnapshotId);
+                }
+            }
+
+            stageStart = recordStage(logAppendTimer, stageStart);
         }
 
-        Key recordKey = new Key(key, nextSnapshotId);
-        Value recordValue = value == null ? Value.TOMBSTONE_VALUE : new Value(value);
-        Tuple tuple = new Tuple(recordKey, recordValue);
+        //The batch only becomes visible once its last snapshot id is published, so readers see all of it or none
+        try {
+            for (Tuple tuple : tuples) {
+                table.memoryTable.put(tuple);
+            }
+        } finally {
+            table.finishWrite();
+            snapshots.publish(firstSnapshotId, lastSnapshotId);
+        }
 
-        commitLogWriter.append(tuple, fsync);
-        memoryTable.put(tuple);
+        stageStart = recordStage(memoryTableInsertTimer, stageStart);
 
-        return new Snapshot(nextSnapshotId);
+        //Wait for durability outside of the append lock so that concurrent fsync writers share a single force
+        if (table.commitLogWriter != null && (fsync || config.durability() == Durability.SYNC)) {
+            table.commitLogWriter.sync(logRecord);
+            recordStage(logSyncTimer, stageStart);
+        }
+
+        return new Snapshot(lastSnapshotId);
     }
 
     public void close() throws IOException {
-        if (memoryTable != null) {
-            commitLogWriter.close();
+        if (logSyncExecutor != null) {
+            //Interrupting a force would close the log channel, so let a running sync finish instead
+            logSyncExecutor.shutdown();
+
+            try {
+                logSyncExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while stopping the log sync thread");
+            }
+        }
+
+        synchronized (appendLock) {
+            if (activeTable != null) {
+                activeTable.seal();
+
+                if (activeTable.commitLogWriter != null) {
+                    activeTable.commitLogWriter.close();
+                } else if (activeTable.memoryTable.tupleCount() > 0) {
+                    writeMemoryTable(activeTable);
+                }
+            }
         }
 
-        tableExecutor.shutdownNow();
+        if (config.durability() != Durability.NONE) {
+            //Unflushed tables are recovered from their commit logs, but a flush that is still running could recycle
+            //a log after the database has been reopened, so wait for the interrupted flushes to stop
+            tableExecutor.shutdownNow();
+        } else {
+            //Without a commit log there is nothing to recover unflushed tables from, so let the pending flushes finish
+            tableExecutor.shutdown();
+        }
+
+        try {
+            tableExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing memory tables");
+        }
+    }
+
+    /**
+     * Slows writes down once the number of immutable tables waiting to be flushed reaches the slowdown limit, and
+     * stalls writes that would need a new MemoryTable once it reaches the stop limit. Writes are also stalled while
+     * the unflushed tables exceed the write buffer. A stall is bounded by the configured maximum. After that, a write
+     * held back by the number of pending tables proceeds regardless, but a write that would still exceed the write
+     * buffer fails, since letting it through would grow the unflushed tables without bound.
+     */
+    private void applyBackPressure() throws IOException {
+        int pending = pendingFlushes.get();
+
+        if ((pending >= config.memoryTableStopLimit() && requiresRotation()) || writeBufferManager.shouldStall
+                (activeBytes())) {
+            stall();
+        } else if (pending >= config.memoryTableSlowdownLimit()) {
+            Timer.Context watch = slowdownTimer.time();
+            LockSupport.parkNanos(SLOWDOWN_DELAY_NANOS);
+            watch.stop();
+        }
+    }
+
+    private void stall() throws IOException {
+        Timer.Context watch = stallTimer.time();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.maxWriteStallTime());
+
+        try {
+            synchronized (flushLock) {
+                while (pendingFlushes.get() >= config.memoryTableStopLimit() || writeBufferManager.shouldStall
+                        (activeBytes())) {
+                    long remaining = deadline - System.nanoTime();
+
+                    if (remaining <= 0) {
+                        if (writeBufferManager.shouldStall(activeBytes())) {
+                            throw new IOException("Write buffer of " + writeBufferManager.bufferSize() + " bytes is " +
+                                    "still full after stalling for " + config.maxWriteStallTime() + " ms, with " +
+                                    pendingFlushes.get() + " pending memory tables");
+                        }
+
+                        logger.debug("Write stall timed out with " + pendingFlushes.get() + " pending memory tables " +
+                                "holding " + writeBufferManager.usage(activeBytes()) + " bytes");
+                        break;
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(flushLock, remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during write stall");
+        } finally {
+            watch.stop();
+        }
+    }
+
+    private static long recordStage(Timer stageTimer, long stageStart) {
+        long stageEnd = System.nanoTime();
+        stageTimer.update(stageEnd - stageStart, TimeUnit.NANOSECONDS);
+        return stageEnd;
+    }
+
+    private boolean requiresRotation() {
+        ActiveTable table = activeTable;
+
+        if (table == null) {
+            return true;
+        }
+
+        long size = table.memoryTable.size();
+        return size >= config.memoryTableSize() || writeBufferManager.shouldFlush(size);
+    }
+
+    private long activeBytes() {
+        ActiveTable table = activeTable;
+        return table == null ? 0 : table.memoryTable.size();
     }
 
     // 把已满的memoryTable写入磁盘，并新建一个memoryTable和对应的log文件
     private void rotateMemoryTable() throws IOException {
-        if (memoryTable != null) {
-            commitLogWriter.close();
-            writeMemoryTable(memoryTable);
+        if (activeTable != null) {
+            activeTable.seal();
+
+            if (activeTable.commitLogWriter != null) {
+                activeTable.commitLogWriter.close();
+            }
+
+            writeMemoryTable(activeTable);
         }
 
         long nextTableId = tables.nextId();
-        memoryTable = new MemoryTable(nextTableId);
-        commitLogWriter = CommitLogWriter.open(nextTableId, paths);
+        MemoryTable memoryTable = new MemoryTable(nextTableId, newTupleMap());
+        CommitLogWriter commitLogWriter = config.durability() == Durability.NONE ? null : CommitLogWriter.open
+                (nextTableId, logFilePool, metrics);
+        activeTable = new ActiveTable(memoryTable, commitLogWriter);
         tables.add(memoryTable);
     }
 
-    private void writeMemoryTable(final Table tableToWrite) {
-        final FileTableWriter.Task task = new FileTableWriter.Task.Builder().tableId(tableToWrite.id()).level(1)
-                .paths(paths).config(config).source(tableToWrite.ascendingIterator(snapshots.minimumRetainedId())).tupleCount
-                        (tableToWrite.tupleCount()).throttle(Throttle.MAX).callback(new FileTableWriter.Task.Callback() {
+    private SortedTupleMap newTupleMap() {
+        if (!config.offHeapMemoryTables()) {
+            return new SkipListTupleMap(config.keyComparator());
+        }
+
+        return ArenaTupleMap.forTableSize(config.memoryTableSize(), config.keyComparator());
+    }
+
+    private Tuple tuple(WriteBatch.Operation operation, long snapshotId, long now) {
+        ByteBuffer key = operation.key();
+        ByteBuffer value = operation.value();
+        key.rewind();
+
+        if (value != null) {
+            value.rewind();
+        }
+
+        Value recordValue = value == null ? Value.TOMBSTONE_VALUE : new Value(value, operation.type());
+        long ttl = operation.ttl() > 0 ? operation.ttl() : config.defaultTtl();
+
+        //An empty value is a deletion, which never expires
+        if (ttl > 0 && operation.type() == Value.Type.VALUE && !recordValue.isEmpty() && ttl < Long.MAX_VALUE - now) {
+            recordValue = Value.expiring(value, now + ttl);
+        }
+
+        return new Tuple(new Key(key, snapshotId), recordValue);
+    }
+
+    private void syncActiveLog() {
+        ActiveTable table = activeTable;
+
+        if (table == null) {
+            return;
+        }
+
+        try {
+            //Syncing a log that was closed by a rotation in the meantime is a no-op
+            table.commitLogWriter.sync();
+        } catch (IOException e) {
+            logger.error("Periodic commit log sync failed", e);
+        }
+    }
+
+    private void writeMemoryTable(ActiveTable sealedTable) {
+        sealedTable.reservedBytes = sealedTable.memoryTable.size();
+        writeBufferManager.reserve(sealedTable.reservedBytes);
+        immutableTables.add(sealedTable);
+        pendingFlushes.incrementAndGet();
+
+        tableExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ActiveTable tableToWrite = immutableTables.poll();
+
+                try {
+                    //Inserts may still be landing in the sealed table, so wait for them before reading it
+                    tableToWrite.awaitWriters();
+                    long drainedBytes = tableToWrite.memoryTable.size() - tableToWrite.reservedBytes;
+                    writeBufferManager.reserve(drainedBytes);
+                    tableToWrite.reservedBytes += drainedBytes;
+
+                    Timer.Context watch = metrics.timer("write.memoryTableSerialize").time();
+                    MemoryTable memoryTable = tableToWrite.memoryTable;
+
+                    //The table may have been closed along with the database while it sat in the queue
+                    if (memoryTable.retain()) {
+                        try {
+                            serializeMemoryTable(memoryTable);
+                        } finally {
+                            memoryTable.release();
+                        }
+                    }
+
+                    watch.stop();
+                } finally {
+                    writeBufferManager.free(tableToWrite.reservedBytes);
+                    pendingFlushes.decrementAndGet();
+
+                    synchronized (flushLock) {
+                        flushLock.notifyAll();
+                    }
+                }
+            }
+        });
+
+        metrics.histogram("write.concurrentMemoryTableSerializers").update(tableExecutor.getActiveCount());
+    }
+
+    private void serializeMemoryTable(final MemoryTable tableToWrite) {
+        //Flushing filters versions the same way a compaction does, so expired tuples are written as tombstones
+        CloseableIterator<Tuple> source = new CompactionTupleIterator(snapshots.minimumRetainedId(), new
+                CloseableIterator.Wrapper<Tuple>(tableToWrite.iterator()));
+
+        FileTableWriter.Task task = new FileTableWriter.Task.Builder().tableId(tableToWrite.id()).level(1)
+                .paths(paths).config(config).source(source).tupleCount
+                        (tableToWrite.tupleCount()).rangeTombstones(tableToWrite.rangeTombstones()).valueLog
+                        (valueLog).throttle(Throttle.MAX).callback(new FileTableWriter.Task.Callback() {
                     @Override
-                    public void finish() {
+                    public void finish(boolean tableWritten) {
                         try {
-                            tables.swap(FileTable.open(tableToWrite.id(), paths, caches.recordBlockCache(),
-                                    caches.indexBlockCache(), metrics), tableToWrite);
-                            Files.deleteIfExists(paths.logPath(tableToWrite.id())); // 删除log文件
+                            if (tableWritten) {
+                                tables.swap(FileTable.open(tableToWrite.id(), paths, caches.recordBlockCache(),
+                                        caches.indexBlockCache(), valueLog, config.keyComparator(), metrics),
+                                        tableToWrite);
+                            } else {
+                                tables.remove(tableToWrite);
+                            }
+
+                            logFilePool.recycle(tableToWrite.id()); // 回收log文件
+
+                            //Scans that are still open over the old table keep it retained until they are closed
+                            tableToWrite.close();
                         } catch (ClosedChannelException e) {
                             logger.debug("File table was only partially written " + tableToWrite.id());
                         } catch (IOException e) {
@@ -144,15 +583,6 @@ public class TableWriter {
                     }
                 }).build();
 
-        tableExecutor.execute(new Runnable() {
-            @Override
-            public void run() {
-                Timer.Context watch = metrics.timer("write.memoryTableSerialize").time();
-                task.run();
-                watch.stop();
-            }
-        });
-
-        metrics.histogram("write.concurrentMemoryTableSerializers").update(tableExecutor.getActiveCount());
+        task.run();
     }
 }
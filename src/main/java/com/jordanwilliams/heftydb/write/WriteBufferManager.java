@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jordanwilliams.heftydb.write;
+
+import com.jordanwilliams.heftydb.db.Config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the memory held by every MemoryTable that hasn't been flushed yet, including the active one. Once the
+ * active table takes up most of the budget it is flushed early, and once all unflushed tables together exceed the
+ * budget writers are stalled until a pending flush frees some of it.
+ */
+public class WriteBufferManager {
+
+    private final long bufferSize;
+    private final long mutableLimit;
+    private final AtomicLong immutableBytes = new AtomicLong();
+
+    public WriteBufferManager(Config config) {
+        this.bufferSize = config.writeBufferSize();
+        this.mutableLimit = bufferSize - bufferSize / 8;
+    }
+
+    /**
+     * Accounts for a sealed MemoryTable that is waiting to be flushed.
+     */
+    public void reserve(long bytes) {
+        immutableBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Releases the memory of a MemoryTable once it has been flushed or discarded.
+     */
+    public void free(long bytes) {
+        immutableBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * @return the memory held by the unflushed tables, given the size of the active table
+     */
+    public long usage(long activeBytes) {
+        return immutableBytes.get() + activeBytes;
+    }
+
+    /**
+     * @return true if the active table should be flushed before it is full to stay within the budget
+     */
+    public boolean shouldFlush(long activeBytes) {
+        if (activeBytes >= mutableLimit) {
+            return true;
+        }
+
+        //Flushing a small table would only add to the backlog, so leave it to the pending flushes to free memory
+        return usage(activeBytes) >= bufferSize && activeBytes >= bufferSize / 2;
+    }
+
+    /**
+     * @return true if writers have to wait for a pending flush to bring the unflushed tables back within the budget
+     */
+    public boolean shouldStall(long activeBytes) {
+        return immutableBytes.get() > 0 && usage(activeBytes) >= bufferSize;
+    }
+
+    public long bufferSize() {
+        return bufferSize;
+    }
+}
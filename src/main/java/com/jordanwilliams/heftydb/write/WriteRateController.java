@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.write;
+
+import com.codahale.metrics.Gauge;
+import com.jordanwilliams.heftydb.compact.planner.SizeTieredCompactionPlanner;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.io.Throttle;
+import com.jordanwilliams.heftydb.metrics.Metrics;
+import com.jordanwilliams.heftydb.state.Tables;
+import com.jordanwilliams.heftydb.table.Table;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the write rate based on how far compaction and MemoryTable flushes have fallen behind. The compaction debt
+ * is the size of the MemoryTables waiting to be flushed plus the size of the tables at each level that holds enough
+ * tables to need compaction. Writes run at the configured maximum rate while the debt is under the soft limit. Past
+ * it, the rate starts from the observed write rate and is lowered step by step while the debt grows and raised while
+ * it shrinks, down to the configured minimum once the debt reaches the hard limit.
+ */
+public class WriteRateController {
+
+    private static final long ADJUSTMENT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final double SLOWDOWN_FACTOR = 0.8;
+    private static final double SPEEDUP_FACTOR = 1.25;
+
+    private final Config config;
+    private final Tables tables;
+    private final AtomicInteger pendingFlushes;
+    private final Throttle throttle;
+    private final AtomicLong consumedBytes = new AtomicLong();
+    private final AtomicLong nextAdjustment;
+
+    private long lastAdjustment;
+    private long lastCompactionDebt;
+    private volatile long compactionDebt;
+    private boolean delayed;
+
+    public WriteRateController(Config config, Tables tables, AtomicInteger pendingFlushes, Metrics metrics) {
+        this.config = config;
+        this.tables = tables;
+        this.pendingFlushes = pendingFlushes;
+        this.throttle = new Throttle(config.maxWriteRate());
+        this.lastAdjustment = System.nanoTime();
+        this.nextAdjustment = new AtomicLong(lastAdjustment + ADJUSTMENT_INTERVAL_NANOS);
+
+        metrics.gauge("write.compactionDebt", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return compactionDebt;
+            }
+        });
+
+        metrics.gauge("write.allowedRate", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return throttle.rate();
+            }
+        });
+    }
+
+    public void consume(int bytes) {
+        consumedBytes.addAndGet(bytes);
+        long now = System.nanoTime();
+        long adjustmentTime = nextAdjustment.get();
+
+        //Only one writer per interval pays for recomputing the debt
+        if (now - adjustmentTime >= 0 && nextAdjustment.compareAndSet(adjustmentTime, now +
+                ADJUSTMENT_INTERVAL_NANOS)) {
+            adjust(now);
+        }
+
+        throttle.consume(bytes);
+    }
+
+    /**
+     * Computes the next allowed write rate from the current compaction debt and the write rate observed since the
+     * last adjustment.
+     *
+     * @return the allowed write rate in bytes per second
+     */
+    public synchronized long adjustRate(long compactionDebt, long observedRate) {
+        long rate;
+
+        if (compactionDebt < config.compactionDebtSoftLimit()) {
+            delayed = false;
+            rate = config.maxWriteRate();
+        } else if (compactionDebt >= config.compactionDebtHardLimit()) {
+            delayed = true;
+            rate = config.minWriteRate();
+        } else if (!delayed) {
+            delayed = true;
+            rate = observedRate;
+        } else if (compactionDebt > lastCompactionDebt) {
+            rate = (long) (throttle.rate() * SLOWDOWN_FACTOR);
+        } else if (compactionDebt < lastCompactionDebt) {
+            rate = (long) (throttle.rate() * SPEEDUP_FACTOR);
+        } else {
+            rate = throttle.rate();
+        }
+
+        rate = Math.max(config.minWriteRate(), Math.min(config.maxWriteRate(), rate));
+        lastCompactionDebt = compactionDebt;
+        this.compactionDebt = compactionDebt;
+        throttle.setRate(rate);
+
+        return rate;
+    }
+
+    /**
+     * @return the number of bytes that flushes and compactions have to write before the database has caught up
+     */
+    public long compactionDebt() {
+        Map<Integer, Long> levelBytes = new HashMap<Integer, Long>();
+        Map<Integer, List<Table>> levelTables = new HashMap<Integer, List<Table>>();
+
+        tables.readLock();
+
+        try {
+            for (Table table : tables) {
+                if (!table.isPersistent()) {
+                    continue;
+                }
+
+                Long bytes = levelBytes.get(table.level());
+                List<Table> tablesOnLevel = levelTables.get(table.level());
+                levelBytes.put(table.level(), bytes == null ? table.size() : bytes + table.size());
+
+                if (tablesOnLevel == null) {
+                    tablesOnLevel = new ArrayList<Table>();
+                    levelTables.put(table.level(), tablesOnLevel);
+                }
+
+                tablesOnLevel.add(table);
+            }
+        } finally {
+            tables.readUnlock();
+        }
+
+        long debt = (long) pendingFlushes.get() * config.memoryTableSize();
+
+        //Moving disjoint tables up a level doesn't rewrite them, so only the levels due for a merge count as debt
+        for (Map.Entry<Integer, List<Table>> level : levelTables.entrySet()) {
+            if (SizeTieredCompactionPlanner.needsMerge(level.getKey(), level.getValue(), config
+                    .keyComparator())) {
+                debt += levelBytes.get(level.getKey());
+            }
+        }
+
+        return debt;
+    }
+
+    private synchronized void adjust(long now) {
+        double elapsedSeconds = (now - lastAdjustment) / (double) TimeUnit.SECONDS.toNanos(1);
+        long observedRate = (long) (consumedBytes.getAndSet(0) / Math.max(elapsedSeconds, 0.001));
+        lastAdjustment = now;
+        adjustRate(compactionDebt(), observedRate);
+    }
+}
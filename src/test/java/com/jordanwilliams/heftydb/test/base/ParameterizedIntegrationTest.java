@@ -69,7 +69,8 @@ public abstract class ParameterizedIntegrationTest {
         for (int i = 0; i < 100; i++) {
             Object[] params = new Object[2];
 
-            Config config = ConfigGenerator.testConfig();
+            //Half of the runs use the off-heap memory tables, which are opt-in
+            Config config = i % 2 == 0 ? ConfigGenerator.testConfig() : ConfigGenerator.offHeapConfig();
             List<Tuple> tuples = tupleGenerator.testRecords(1, 1000, 20, new TupleGenerator.Function<Integer>() {
                         @Override
                         public Integer apply() {
@@ -17,8 +17,13 @@
 package com.jordanwilliams.heftydb.test.generator;
 
 import com.jordanwilliams.heftydb.compact.CompactionStrategies;
+import com.jordanwilliams.heftydb.compact.CompactionStrategy;
+import com.jordanwilliams.heftydb.data.KeyComparator;
 import com.jordanwilliams.heftydb.db.Config;
 import com.jordanwilliams.heftydb.db.DBState;
+import com.jordanwilliams.heftydb.db.Durability;
+import com.jordanwilliams.heftydb.db.MergeOperator;
+import com.jordanwilliams.heftydb.db.PrefixExtractor;
 import com.jordanwilliams.heftydb.index.IndexBlock;
 import com.jordanwilliams.heftydb.metrics.Metrics;
 import com.jordanwilliams.heftydb.state.Caches;
@@ -55,11 +60,58 @@ public class ConfigGenerator {
     }
 
     public static Config testConfig() {
+        return testConfig(Durability.PERIODIC);
+    }
+
+    public static Config offHeapConfig() {
+        return testConfigBuilder().offHeapMemoryTables(true).build();
+    }
+
+    public static Config testConfig(Durability durability) {
+        return testConfigBuilder().durability(durability).build();
+    }
+
+    public static Config testConfig(MergeOperator mergeOperator) {
+        return testConfigBuilder().mergeOperator(mergeOperator).compactionStrategy(CompactionStrategies
+                .FULL_COMPACTION_STRATEGY).build();
+    }
+
+    public static Config testConfig(CompactionStrategy compactionStrategy) {
+        return testConfigBuilder().compactionStrategy(compactionStrategy).build();
+    }
+
+    public static Config valueLogConfig(double valueLogGarbageRatio) {
+        return testConfigBuilder().valueLogThreshold(64).valueLogSegmentSize(4096).valueLogGarbageRatio
+                (valueLogGarbageRatio).compactionStrategy(CompactionStrategies.FULL_COMPACTION_STRATEGY).build();
+    }
+
+    public static Config writeBufferConfig(long writeBufferSize) {
+        return testConfigBuilder().writeBufferSize(writeBufferSize).build();
+    }
+
+    public static Config ingestConfig(int ingestTableRecordCount) {
+        return testConfigBuilder().ingestTableRecordCount(ingestTableRecordCount).build();
+    }
+
+    public static Config ingestConfig(int ingestTableRecordCount, CompactionStrategy compactionStrategy) {
+        return testConfigBuilder().ingestTableRecordCount(ingestTableRecordCount).compactionStrategy
+                (compactionStrategy).build();
+    }
+
+    public static Config prefixConfig(PrefixExtractor prefixExtractor) {
+        return testConfigBuilder().prefixExtractor(prefixExtractor).build();
+    }
+
+    public static Config keyComparatorConfig(KeyComparator keyComparator) {
+        return testConfigBuilder().keyComparator(keyComparator).build();
+    }
+
+    private static Config.Builder testConfigBuilder() {
         Config.Builder builder = new Config.Builder();
 
-        return builder.compactionStrategy(CompactionStrategies.NULL_COMPACTION_STRATEGY).memoryTableSize(16384)
-                .tableBlockSize(4096).indexBlockSize(4096).tableCacheSize(1024000).indexCacheSize(1024000)
-                .tableDirectory(TestFileHelper.TEMP_PATH).build();
+        return builder.logSyncInterval(10).compactionStrategy(CompactionStrategies.NULL_COMPACTION_STRATEGY)
+                .memoryTableSize(16384).tableBlockSize(4096).indexBlockSize(4096).tableCacheSize(1024000)
+                .indexCacheSize(1024000).tableDirectory(TestFileHelper.TEMP_PATH);
     }
 
     public static DBState perfState() {
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jordanwilliams.heftydb.test.integration;
+
+import com.jordanwilliams.heftydb.compact.CompactionStrategies;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.HeftyDB;
+import com.jordanwilliams.heftydb.db.Record;
+import com.jordanwilliams.heftydb.db.Snapshot;
+import com.jordanwilliams.heftydb.test.base.ParameterizedIntegrationTest;
+import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
+import com.jordanwilliams.heftydb.test.generator.TupleGenerator;
+import com.jordanwilliams.heftydb.test.helper.CompareHelper;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ExpiryTest extends ParameterizedIntegrationTest {
+
+    private static final long TTL = 1;
+    private static final long REOPEN_TTL = 250;
+
+    private final Config compactionConfig = ConfigGenerator.testConfig(CompactionStrategies
+            .FULL_COMPACTION_STRATEGY);
+
+    public ExpiryTest(List<Tuple> tuples, Config config) throws IOException {
+        super(tuples, config);
+    }
+
+    @Test
+    public void expiryTest() throws Exception {
+        db.close();
+        db = HeftyDB.open(compactionConfig);
+
+        //Every other tuple expires right away, and a key whose newest tuple has expired reads as absent rather than
+        //as an older tuple
+        List<Tuple> permanentTuples = writeTuples(TTL);
+
+        Thread.sleep(TTL * 2);
+        List<Tuple> latestTuples = liveTuples(permanentTuples);
+        assertLatest(latestTuples);
+
+        db.close();
+        db = HeftyDB.open(compactionConfig);
+        assertLatest(latestTuples);
+
+        db.compact().get();
+        assertLatest(latestTuples);
+
+        db.close();
+    }
+
+    @Test
+    public void reopenBeforeExpiryTest() throws Exception {
+        db.close();
+        db = HeftyDB.open(compactionConfig);
+
+        //The tuples are replayed from the commit log while they are still live, and still hide the versions beneath
+        //them once they expire
+        List<Tuple> permanentTuples = writeTuples(REOPEN_TTL);
+        db.close();
+        db = HeftyDB.open(compactionConfig);
+
+        Thread.sleep(REOPEN_TTL * 2);
+        assertLatest(liveTuples(permanentTuples));
+        db.close();
+    }
+
+    private List<Tuple> writeTuples(long ttl) throws IOException {
+        List<Tuple> permanentTuples = new ArrayList<Tuple>();
+
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple tuple = tuples.get(i);
+
+            if (i % 2 == 0) {
+                db.put(tuple.key().data(), tuple.value().data());
+                permanentTuples.add(tuple);
+            } else {
+                db.put(tuple.key().data(), tuple.value().data(), ttl);
+            }
+        }
+
+        return permanentTuples;
+    }
+
+    private List<Tuple> liveTuples(List<Tuple> permanentTuples) {
+        List<Tuple> liveTuples = new ArrayList<Tuple>();
+
+        for (Tuple tuple : TupleGenerator.latest(tuples, Long.MAX_VALUE)) {
+            if (permanentTuples.contains(tuple)) {
+                liveTuples.add(tuple);
+            }
+        }
+
+        return liveTuples;
+    }
+
+    private void assertLatest(List<Tuple> latestTuples) throws IOException {
+        for (Tuple tuple : latestTuples) {
+            CompareHelper.compareKeyValue(tuple, db.get(tuple.key().data()));
+        }
+
+        //Like a deleted key, a key whose newest tuple has expired is absent, and is scanned with an empty value
+        int expiredKeys = 0;
+        List<Tuple> scannedTuples = new ArrayList<Tuple>();
+
+        for (Tuple tuple : TupleGenerator.latest(tuples, Long.MAX_VALUE)) {
+            if (latestTuples.contains(tuple)) {
+                scannedTuples.add(tuple);
+                continue;
+            }
+
+            if (db.get(tuple.key().data()) == null) {
+                expiredKeys++;
+            }
+
+            scannedTuples.add(new Tuple(tuple.key(), Value.TOMBSTONE_VALUE));
+        }
+
+        Assert.assertEquals("Keys whose newest tuple has expired are hidden", scannedTuples.size() - latestTuples
+                .size(), expiredKeys);
+
+        CloseableIterator<Record> iterator = db.ascendingIterator(Snapshot.MAX);
+        CompareHelper.compareKeyValue(scannedTuples.iterator(), iterator);
+        iterator.close();
+    }
+}
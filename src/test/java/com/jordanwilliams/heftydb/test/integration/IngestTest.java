@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.integration;
+
+import com.jordanwilliams.heftydb.compact.CompactionStrategies;
+import com.jordanwilliams.heftydb.compact.planner.SizeTieredCompactionPlanner;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.HeftyDB;
+import com.jordanwilliams.heftydb.db.Record;
+import com.jordanwilliams.heftydb.db.Snapshot;
+import com.jordanwilliams.heftydb.io.ImmutableChannelFile;
+import com.jordanwilliams.heftydb.io.ImmutableFile;
+import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.table.file.TableTrailer;
+import com.jordanwilliams.heftydb.test.base.ParameterizedIntegrationTest;
+import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
+import com.jordanwilliams.heftydb.test.generator.TupleGenerator;
+import com.jordanwilliams.heftydb.test.helper.CompareHelper;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+import com.jordanwilliams.heftydb.util.Sizes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+
+public class IngestTest extends ParameterizedIntegrationTest {
+
+    //Small enough that every ingest is split over several tables
+    private final Config ingestConfig = ConfigGenerator.ingestConfig(100);
+    private final Config relabelConfig = ConfigGenerator.ingestConfig(5, CompactionStrategies
+            .SIZE_TIERED_COMPACTION_STRATEGY);
+    private final Paths paths = ConfigGenerator.testPaths();
+
+    public IngestTest(List<Tuple> tuples, Config config) throws IOException {
+        super(tuples, config);
+    }
+
+    @Test
+    public void ingestTest() throws Exception {
+        db.close();
+        db = HeftyDB.open(ingestConfig);
+        List<Tuple> latestTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        db.ingest(records(latestTuples));
+        assertLatest(latestTuples);
+
+        db.close();
+        db = HeftyDB.open(ingestConfig);
+        assertLatest(latestTuples);
+
+        db.compact().get();
+        assertLatest(latestTuples);
+        db.close();
+    }
+
+    @Test
+    public void snapshotTest() throws Exception {
+        db.close();
+        db = HeftyDB.open(ingestConfig);
+        Snapshot writeSnapshot = null;
+
+        for (Tuple tuple : tuples) {
+            writeSnapshot = db.put(tuple.key().data(), tuple.value().data());
+        }
+
+        //Every key is ingested again with its key as the value
+        List<Tuple> writtenTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        List<Tuple> ingestedTuples = new ArrayList<Tuple>();
+
+        for (Tuple tuple : writtenTuples) {
+            ingestedTuples.add(new Tuple(tuple.key(), new Value(tuple.key().data())));
+        }
+
+        Snapshot ingestSnapshot = db.ingest(records(ingestedTuples));
+        Assert.assertTrue("The ingest is newer than earlier writes", ingestSnapshot.id() > writeSnapshot.id());
+        assertLatest(ingestedTuples);
+
+        for (Tuple tuple : writtenTuples) {
+            CompareHelper.compareKeyValue(tuple, db.get(tuple.key().data(), writeSnapshot));
+        }
+
+        db.close();
+    }
+
+    @Test
+    public void concurrentWriteTest() throws Exception {
+        db.close();
+        db = HeftyDB.open(ingestConfig);
+        List<Tuple> writtenTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+
+        for (Tuple tuple : writtenTuples) {
+            db.put(tuple.key().data(), tuple.value().data());
+        }
+
+        final List<Tuple> ingestedTuples = new ArrayList<Tuple>();
+
+        for (Tuple tuple : writtenTuples) {
+            ingestedTuples.add(new Tuple(tuple.key(), new Value(tuple.key().data())));
+        }
+
+        //A write lands halfway through the ingest, and takes a snapshot before the ingested tables are linked
+        final Tuple concurrentTuple = writtenTuples.get(writtenTuples.size() / 2);
+        final List<Snapshot> concurrentSnapshot = new ArrayList<Snapshot>();
+        final Iterator<Record> ingestedRecords = records(ingestedTuples);
+
+        Snapshot ingestSnapshot = db.ingest(new Iterator<Record>() {
+            private int count;
+
+            @Override
+            public boolean hasNext() {
+                return ingestedRecords.hasNext();
+            }
+
+            @Override
+            public Record next() {
+                if (count++ == ingestedTuples.size() / 2) {
+                    try {
+                        concurrentSnapshot.add(db.put(concurrentTuple.key().data(), ByteBuffers.fromString
+                                ("concurrent")));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                return ingestedRecords.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+
+        Assert.assertTrue("The ingest is newer than the concurrent write",
+                ingestSnapshot.id() > concurrentSnapshot.get(0).id());
+        assertLatest(ingestedTuples);
+
+        for (Tuple tuple : writtenTuples) {
+            Record record = db.get(tuple.key().data(), concurrentSnapshot.get(0));
+
+            if (tuple == concurrentTuple) {
+                Assert.assertEquals("The concurrent write is visible", ByteBuffers.fromString("concurrent"),
+                        record.value());
+            } else {
+                CompareHelper.compareKeyValue(tuple, record);
+            }
+        }
+
+        //Compaction writes the ingest snapshot id into the rewritten tuples
+        db.compact().get();
+        assertLatest(ingestedTuples);
+        db.close();
+    }
+
+    @Test
+    public void relabelTest() throws Exception {
+        db.close();
+        db = HeftyDB.open(relabelConfig);
+        List<Tuple> latestTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        db.ingest(records(latestTuples));
+        SortedSet<Long> ingestedTableIds = paths.tableFileIds();
+        db.compact().get();
+
+        //Ingested tables don't overlap, so they are moved up a level instead of being merged
+        if (ingestedTableIds.size() >= SizeTieredCompactionPlanner.MAX_LEVEL_TABLES) {
+            for (long tableId : ingestedTableIds) {
+                awaitLevel(tableId, SizeTieredCompactionPlanner.FLUSH_LEVEL + 1);
+            }
+        }
+
+        Assert.assertEquals("No table is rewritten", ingestedTableIds, paths.tableFileIds());
+        assertLatest(latestTuples);
+
+        db.close();
+        db = HeftyDB.open(relabelConfig);
+        assertLatest(latestTuples);
+        db.close();
+    }
+
+    @Test
+    public void keyRangeTest() throws Exception {
+        db.close();
+        db = HeftyDB.open(ingestConfig);
+        List<Tuple> latestTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        db.ingest(records(latestTuples));
+
+        //Reopen so that the key ranges of the ingested tables are read back from their trailers
+        db.close();
+        db = HeftyDB.open(ingestConfig);
+
+        //Scans start from a key just after the middle one, so they begin inside one table and run across the others
+        int middle = latestTuples.size() / 2;
+        ByteBuffer middleKey = latestTuples.get(middle).key().data();
+        ByteBuffer startKey = ByteBuffer.allocate(middleKey.capacity() + 1);
+        startKey.put(middleKey.duplicate());
+        startKey.rewind();
+
+        CloseableIterator<Record> ascendingIterator = db.ascendingIterator(startKey, Snapshot.MAX);
+        CompareHelper.compareKeyValue(latestTuples.subList(middle + 1, latestTuples.size()).iterator(),
+                ascendingIterator);
+        ascendingIterator.close();
+
+        List<Tuple> descendingTuples = new ArrayList<Tuple>(latestTuples.subList(0, middle + 1));
+        Collections.reverse(descendingTuples);
+        CloseableIterator<Record> descendingIterator = db.descendingIterator(startKey, Snapshot.MAX);
+        CompareHelper.compareKeyValue(descendingTuples.iterator(), descendingIterator);
+        descendingIterator.close();
+
+        List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+
+        for (Tuple tuple : latestTuples) {
+            keys.add(tuple.key().data());
+        }
+
+        CompareHelper.compareKeyValue(latestTuples.iterator(), db.multiGet(keys).iterator());
+        db.close();
+    }
+
+    @Test
+    public void unlinkedIngestTest() throws Exception {
+        db.close();
+        db = HeftyDB.open(ingestConfig);
+        db.ingest(records(TupleGenerator.latest(tuples, Long.MAX_VALUE)));
+        SortedSet<Long> ingestedTableIds = paths.tableFileIds();
+        db.close();
+
+        //A manifest left behind means a crash interrupted the ingest before it was linked, so none of it is loaded
+        ByteBuffer manifest = ByteBuffer.allocate(ingestedTableIds.size() * Sizes.LONG_SIZE);
+
+        for (long tableId : ingestedTableIds) {
+            manifest.putLong(tableId);
+        }
+
+        Files.write(paths.ingestManifestPath(ingestedTableIds.first()), manifest.array());
+
+        db = HeftyDB.open(ingestConfig);
+        Assert.assertTrue("The ingested tables are deleted", paths.tableFileIds().isEmpty());
+        Assert.assertTrue("The manifest is deleted", paths.ingestManifestPaths().isEmpty());
+
+        CloseableIterator<Record> iterator = db.ascendingIterator(Snapshot.MAX);
+        Assert.assertFalse("Nothing is ingested", iterator.hasNext());
+        iterator.close();
+        db.close();
+    }
+
+    @Test
+    public void unsortedTest() throws Exception {
+        db.close();
+        db = HeftyDB.open(ingestConfig);
+        List<Tuple> reversedTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        Collections.reverse(reversedTuples);
+
+        try {
+            db.ingest(records(reversedTuples));
+            Assert.fail("Unsorted records are rejected");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+
+        Assert.assertTrue("No table is left behind", paths.tableFileIds().isEmpty());
+        Assert.assertTrue("No temp table is left behind", paths.tempTableFileIds().isEmpty());
+
+        CloseableIterator<Record> iterator = db.ascendingIterator(Snapshot.MAX);
+        Assert.assertFalse("Nothing is ingested", iterator.hasNext());
+        iterator.close();
+        db.close();
+    }
+
+    private void assertLatest(List<Tuple> latestTuples) throws IOException {
+        for (Tuple tuple : latestTuples) {
+            CompareHelper.compareKeyValue(tuple, db.get(tuple.key().data()));
+        }
+
+        CloseableIterator<Record> iterator = db.ascendingIterator(Snapshot.MAX);
+        CompareHelper.compareKeyValue(latestTuples.iterator(), iterator);
+        iterator.close();
+    }
+
+    private void awaitLevel(long tableId, int level) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (tableLevel(tableId) != level) {
+            Assert.assertTrue("Table " + tableId + " reaches level " + level, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private int tableLevel(long tableId) throws IOException {
+        ImmutableFile tableFile = ImmutableChannelFile.open(paths.tablePath(tableId));
+
+        try {
+            return TableTrailer.read(tableFile).level();
+        } finally {
+            tableFile.close();
+        }
+    }
+
+    private static Iterator<Record> records(List<Tuple> tuples) {
+        List<Record> records = new ArrayList<Record>();
+
+        for (Tuple tuple : tuples) {
+            records.add(new Record(tuple));
+        }
+
+        return records.iterator();
+    }
+}
@@ -16,17 +16,27 @@
 
 package com.jordanwilliams.heftydb.test.integration;
 
+import com.jordanwilliams.heftydb.data.KeyComparator;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.db.Config;
 import com.jordanwilliams.heftydb.db.HeftyDB;
+import com.jordanwilliams.heftydb.db.PrefixExtractor;
 import com.jordanwilliams.heftydb.db.Record;
 import com.jordanwilliams.heftydb.db.Snapshot;
+import com.jordanwilliams.heftydb.read.PrefixIterator;
 import com.jordanwilliams.heftydb.test.base.ParameterizedIntegrationTest;
+import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
 import com.jordanwilliams.heftydb.test.generator.TupleGenerator;
 import com.jordanwilliams.heftydb.test.helper.CompareHelper;
+import com.jordanwilliams.heftydb.test.helper.TestFileHelper;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -63,4 +73,103 @@ public class IteratorTest extends ParameterizedIntegrationTest {
 
         db.close();
     }
+
+    @Test
+    public void boundedIteratorTest() throws Exception {
+        db = HeftyDB.open(config);
+
+        List<Tuple> latest = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        int lowIndex = latest.size() / 4;
+        int highIndex = Math.max(lowIndex + 1, latest.size() * 3 / 4);
+        ByteBuffer lowKey = latest.get(lowIndex).key().data();
+        ByteBuffer highKey = latest.get(highIndex).key().data();
+
+        //Scans start just after a key, so the end key alone decides where they stop
+        CompareHelper.compareKeyValue(latest.subList(lowIndex + 1, highIndex).iterator(), db.ascendingIterator
+                (justAfter(lowKey), highKey, Snapshot.MAX));
+
+        List<Tuple> descending = new ArrayList<Tuple>(latest.subList(lowIndex + 1, highIndex + 1));
+        Collections.reverse(descending);
+        CompareHelper.compareKeyValue(descending.iterator(), db.descendingIterator(justAfter(highKey), lowKey,
+                Snapshot.MAX));
+
+        Assert.assertFalse("Empty range", db.ascendingIterator(justAfter(highKey), lowKey, Snapshot.MAX).hasNext());
+
+        db.close();
+    }
+
+    @Test
+    public void prefixIteratorTest() throws Exception {
+        TestFileHelper.cleanUpTestFiles();
+        TestFileHelper.createTestDirectory();
+        Config prefixConfig = ConfigGenerator.prefixConfig(PrefixExtractor.fixedLength(1));
+        db = HeftyDB.open(prefixConfig);
+        writeRecords();
+
+        db = HeftyDB.open(prefixConfig);
+        List<Tuple> latest = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        ByteBuffer key = latest.get(latest.size() / 2).key().data();
+
+        //A prefix of the extractor, one longer than it, and one that no key has
+        for (int prefixSize : new int[]{1, 2}) {
+            ByteBuffer prefix = ByteBuffer.wrap(Arrays.copyOf(key.array(), Math.min(prefixSize, key.capacity())));
+            CompareHelper.compareKeyValue(withPrefix(latest, prefix).iterator(), db.prefixIterator(prefix, Snapshot
+                    .MAX));
+        }
+
+        ByteBuffer missingPrefix = ByteBuffers.fromString("~");
+        Assert.assertFalse("No keys with the prefix", db.prefixIterator(missingPrefix, Snapshot.MAX).hasNext());
+
+        db.close();
+    }
+
+    @Test
+    public void keyComparatorTest() throws Exception {
+        TestFileHelper.cleanUpTestFiles();
+        TestFileHelper.createTestDirectory();
+        Config reverseConfig = ConfigGenerator.keyComparatorConfig(KeyComparator.LEXICOGRAPHIC.reverse());
+        db = HeftyDB.open(reverseConfig);
+        writeRecords();
+
+        db = HeftyDB.open(reverseConfig);
+        List<Tuple> latest = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        Collections.reverse(latest);
+
+        CompareHelper.compareKeyValue(latest.iterator(), db.ascendingIterator(Snapshot.MAX));
+
+        for (Tuple tuple : latest) {
+            CompareHelper.compareKeyValue(tuple, db.get(tuple.key().data()));
+        }
+
+        Collections.reverse(latest);
+        CompareHelper.compareKeyValue(latest.iterator(), db.descendingIterator(Snapshot.MAX));
+
+        db.close();
+
+        try {
+            HeftyDB.open(ConfigGenerator.keyComparatorConfig(KeyComparator.LEXICOGRAPHIC));
+            Assert.fail("A database can't be opened with another key comparator");
+        } catch (IOException e) {
+            //Expected
+        }
+    }
+
+    private static ByteBuffer justAfter(ByteBuffer key) {
+        ByteBuffer nextKey = ByteBuffer.allocate(key.capacity() + 1);
+        nextKey.put(key.duplicate());
+        nextKey.rewind();
+        return nextKey;
+    }
+
+    private static List<Tuple> withPrefix(List<Tuple> tuples, ByteBuffer prefix) {
+        List<Tuple> prefixTuples = new ArrayList<Tuple>();
+
+        for (Tuple tuple : tuples) {
+            if (PrefixIterator.startsWith(tuple.key().data(), prefix)) {
+                prefixTuples.add(tuple);
+            }
+        }
+
+        return prefixTuples;
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.integration;
+
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.HeftyDB;
+import com.jordanwilliams.heftydb.db.Record;
+import com.jordanwilliams.heftydb.db.Snapshot;
+import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.test.base.ParameterizedIntegrationTest;
+import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
+import com.jordanwilliams.heftydb.test.generator.TupleGenerator;
+import com.jordanwilliams.heftydb.test.helper.CompareHelper;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.List;
+
+public class LargeValueTest extends ParameterizedIntegrationTest {
+
+    private final Paths paths = ConfigGenerator.testPaths();
+
+    public LargeValueTest(List<Tuple> tuples, Config config) throws IOException {
+        super(tuples, config);
+    }
+
+    @Test
+    public void readWriteTest() throws Exception {
+        Config valueLogConfig = ConfigGenerator.valueLogConfig(0.5);
+        db.close();
+        db = HeftyDB.open(valueLogConfig);
+        writeRecords();
+        Assert.assertFalse("Large values are stored in the value log", paths.valueLogSegmentIds().isEmpty());
+
+        db = HeftyDB.open(valueLogConfig);
+        assertLatestValues();
+
+        db.compact().get();
+        assertLatestValues();
+        db.close();
+    }
+
+    @Test
+    public void garbageCollectionTest() throws Exception {
+        //Segments are only deleted once nothing points into them, so the value log size is deterministic
+        Config valueLogConfig = ConfigGenerator.valueLogConfig(1.0);
+        db.close();
+        db = HeftyDB.open(valueLogConfig);
+
+        for (int i = 0; i < 2; i++) {
+            for (Tuple tuple : tuples) {
+                db.put(tuple.key().data(), tuple.value().data());
+            }
+        }
+
+        db.close();
+        long writtenSize = valueLogSize();
+
+        db = HeftyDB.open(valueLogConfig);
+        db.compact().get();
+        Assert.assertTrue("Overwritten values are collected", valueLogSize() < writtenSize);
+        assertLatestValues();
+        db.close();
+    }
+
+    private void assertLatestValues() throws IOException {
+        List<Tuple> latestTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+
+        for (Tuple tuple : latestTuples) {
+            CompareHelper.compareKeyValue(tuple, db.get(tuple.key().data()));
+        }
+
+        CloseableIterator<Record> iterator = db.ascendingIterator(Snapshot.MAX);
+        Iterator<Tuple> latestIterator = latestTuples.iterator();
+
+        while (iterator.hasNext()) {
+            CompareHelper.compareKeyValue(latestIterator.next(), iterator.next());
+        }
+
+        Assert.assertFalse("Every key was scanned", latestIterator.hasNext());
+        iterator.close();
+    }
+
+    private long valueLogSize() throws IOException {
+        long size = 0;
+
+        for (long segmentId : paths.valueLogSegmentIds()) {
+            size += Files.size(paths.valueLogPath(segmentId));
+        }
+
+        return size;
+    }
+}
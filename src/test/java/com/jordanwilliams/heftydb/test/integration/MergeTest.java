@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.integration;
+
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.HeftyDB;
+import com.jordanwilliams.heftydb.db.MergeOperator;
+import com.jordanwilliams.heftydb.db.Record;
+import com.jordanwilliams.heftydb.db.Snapshot;
+import com.jordanwilliams.heftydb.test.base.ParameterizedIntegrationTest;
+import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
+import com.jordanwilliams.heftydb.test.generator.TupleGenerator;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class MergeTest extends ParameterizedIntegrationTest {
+
+    private static final int MERGE_ROUNDS = 3;
+
+    private static final MergeOperator COUNTER = new MergeOperator() {
+        @Override
+        public ByteBuffer merge(ByteBuffer key, ByteBuffer existingValue, ByteBuffer operand) {
+            long existing = existingValue == null ? 0 : existingValue.getLong(existingValue.position());
+            return counter(existing + operand.getLong(operand.position()));
+        }
+    };
+
+    private final Config mergeConfig = ConfigGenerator.testConfig(COUNTER);
+
+    public MergeTest(List<Tuple> tuples, Config config) throws IOException {
+        super(tuples, config);
+    }
+
+    @Test
+    public void counterTest() throws Exception {
+        db.close();
+        List<Tuple> latestTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        Snapshot snapshot = null;
+
+        for (int round = 0; round < MERGE_ROUNDS; round++) {
+            db = HeftyDB.open(mergeConfig);
+
+            for (Tuple tuple : latestTuples) {
+                snapshot = db.merge(tuple.key().data(), counter(1));
+            }
+
+            //Reopening replays the commit logs into separate tables
+            db.close();
+        }
+
+        db = HeftyDB.open(mergeConfig);
+        assertCounters(latestTuples, MERGE_ROUNDS);
+
+        db.compact().get();
+        assertCounters(latestTuples, MERGE_ROUNDS);
+
+        CloseableIterator<Record> iterator = db.ascendingIterator(snapshot);
+        int recordCount = 0;
+
+        while (iterator.hasNext()) {
+            Assert.assertEquals("Scans fold operands", MERGE_ROUNDS, iterator.next().value().getLong(0));
+            recordCount++;
+        }
+
+        iterator.close();
+        Assert.assertEquals("Each key appears once", latestTuples.size(), recordCount);
+
+        db.close();
+    }
+
+    @Test
+    public void mergeAfterWriteTest() throws Exception {
+        db.close();
+        List<Tuple> latestTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        db = HeftyDB.open(mergeConfig);
+
+        for (Tuple tuple : latestTuples) {
+            db.put(tuple.key().data(), counter(10));
+            db.merge(tuple.key().data(), counter(1));
+        }
+
+        assertCounters(latestTuples, 11);
+
+        for (Tuple tuple : latestTuples) {
+            db.delete(tuple.key().data());
+            db.merge(tuple.key().data(), counter(2));
+        }
+
+        assertCounters(latestTuples, 2);
+        db.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void mergeRequiresOperatorTest() throws Exception {
+        db.merge(tuples.get(0).key().data(), counter(1));
+    }
+
+    private void assertCounters(List<Tuple> latestTuples, long expected) throws IOException {
+        for (Tuple tuple : latestTuples) {
+            Record record = db.get(tuple.key().data());
+            Assert.assertEquals("Counter matches", expected, record.value().getLong(0));
+        }
+    }
+
+    private static ByteBuffer counter(long value) {
+        ByteBuffer counter = ByteBuffer.allocate(Long.SIZE / Byte.SIZE);
+        counter.putLong(value);
+        counter.flip();
+        return counter;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.integration;
+
+import com.jordanwilliams.heftydb.compact.CompactionStrategies;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.HeftyDB;
+import com.jordanwilliams.heftydb.db.Record;
+import com.jordanwilliams.heftydb.db.Snapshot;
+import com.jordanwilliams.heftydb.metrics.Metrics;
+import com.jordanwilliams.heftydb.state.Caches;
+import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.table.file.FileTable;
+import com.jordanwilliams.heftydb.test.base.ParameterizedIntegrationTest;
+import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
+import com.jordanwilliams.heftydb.test.generator.TupleGenerator;
+import com.jordanwilliams.heftydb.test.helper.CompareHelper;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class RangeDeleteTest extends ParameterizedIntegrationTest {
+
+    private final Config compactionConfig = ConfigGenerator.testConfig(CompactionStrategies
+            .FULL_COMPACTION_STRATEGY);
+
+    public RangeDeleteTest(List<Tuple> tuples, Config config) throws IOException {
+        super(tuples, config);
+    }
+
+    @Test
+    public void rangeDeleteTest() throws Exception {
+        writeRecords();
+        List<Tuple> latestTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        ByteBuffer startKey = latestTuples.get(latestTuples.size() / 4).key().data();
+        ByteBuffer endKey = latestTuples.get(latestTuples.size() * 3 / 4).key().data();
+
+        db = HeftyDB.open(compactionConfig);
+        Snapshot snapshot = db.deleteRange(startKey, endKey);
+        assertRangeDeleted(latestTuples, startKey, endKey, snapshot);
+
+        //Reopening replays the range tombstone from the commit log into a table file
+        db.close();
+        db = HeftyDB.open(compactionConfig);
+        assertRangeDeleted(latestTuples, startKey, endKey, snapshot);
+
+        db.compact().get();
+        assertRangeDeleted(latestTuples, startKey, endKey, snapshot);
+
+        ByteBuffer value = ByteBuffer.wrap(new byte[]{1, 2, 3});
+        db.put(startKey, value);
+        Assert.assertEquals("Newer writes are not deleted", value, db.get(startKey).value());
+
+        db.close();
+        Assert.assertTrue("A full compaction drops the tombstone", tableRangeTombstones().isEmpty());
+    }
+
+    @Test
+    public void snapshotTest() throws Exception {
+        db.close();
+        db = HeftyDB.open(compactionConfig);
+        Snapshot beforeDelete = null;
+
+        for (Tuple tuple : tuples) {
+            beforeDelete = db.put(tuple.key().data(), tuple.value().data());
+        }
+
+        db.retainSnapshot(beforeDelete);
+        List<Tuple> latestTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        ByteBuffer startKey = latestTuples.get(0).key().data();
+        ByteBuffer endKey = latestTuples.get(latestTuples.size() - 1).key().data();
+        db.deleteRange(startKey, endKey);
+        db.compact().get();
+
+        for (Tuple tuple : latestTuples) {
+            CompareHelper.compareKeyValue(tuple, db.get(tuple.key().data(), beforeDelete));
+        }
+
+        db.releaseSnapshot(beforeDelete);
+        db.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRangeTest() throws Exception {
+        ByteBuffer key = tuples.get(0).key().data();
+        db.deleteRange(key, key);
+    }
+
+    private List<RangeTombstone> tableRangeTombstones() throws IOException {
+        Paths paths = ConfigGenerator.testPaths();
+        Caches caches = ConfigGenerator.testCaches();
+        List<RangeTombstone> rangeTombstones = new ArrayList<RangeTombstone>();
+
+        for (long tableId : paths.tableFileIds()) {
+            FileTable table = FileTable.open(tableId, paths, caches.recordBlockCache(), caches.indexBlockCache(),
+                    new Metrics(compactionConfig));
+            rangeTombstones.addAll(table.rangeTombstones());
+            table.close();
+        }
+
+        return rangeTombstones;
+    }
+
+    private void assertRangeDeleted(List<Tuple> latestTuples, ByteBuffer startKey, ByteBuffer endKey,
+                                    Snapshot snapshot) throws IOException {
+        List<Tuple> remainingTuples = new ArrayList<Tuple>();
+
+        for (Tuple tuple : latestTuples) {
+            ByteBuffer key = tuple.key().data();
+            Record record = db.get(key);
+
+            if (startKey.compareTo(key) <= 0 && endKey.compareTo(key) > 0) {
+                Assert.assertNull("Key in range was deleted", record);
+            } else {
+                CompareHelper.compareKeyValue(tuple, record);
+                remainingTuples.add(tuple);
+            }
+        }
+
+        CloseableIterator<Record> iterator = db.ascendingIterator(snapshot);
+        Iterator<Tuple> remainingIterator = remainingTuples.iterator();
+
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+
+            //Scans return deleted keys with empty values, and the start key of a range is deleted like any other key
+            if (record.value().capacity() > 0) {
+                CompareHelper.compareKeyValue(remainingIterator.next(), record);
+            }
+        }
+
+        Assert.assertFalse("Every remaining key was scanned", remainingIterator.hasNext());
+        iterator.close();
+    }
+}
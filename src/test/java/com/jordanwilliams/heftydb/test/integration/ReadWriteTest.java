@@ -17,15 +17,23 @@
 package com.jordanwilliams.heftydb.test.integration;
 
 import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
 import com.jordanwilliams.heftydb.db.Config;
 import com.jordanwilliams.heftydb.db.HeftyDB;
 import com.jordanwilliams.heftydb.db.Record;
+import com.jordanwilliams.heftydb.db.RecordLease;
+import com.jordanwilliams.heftydb.db.Snapshot;
 import com.jordanwilliams.heftydb.test.base.ParameterizedIntegrationTest;
+import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
 import com.jordanwilliams.heftydb.test.generator.TupleGenerator;
 import com.jordanwilliams.heftydb.test.helper.CompareHelper;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class ReadWriteTest extends ParameterizedIntegrationTest {
@@ -47,4 +55,97 @@ public class ReadWriteTest extends ParameterizedIntegrationTest {
 
         db.close();
     }
+
+    @Test
+    public void multiGetTest() throws Exception {
+        writeRecords();
+
+        db = HeftyDB.open(config);
+        List<Tuple> latestTuples = new ArrayList<Tuple>(TupleGenerator.latest(tuples, Long.MAX_VALUE));
+        Collections.shuffle(latestTuples);
+        List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+
+        for (Tuple tuple : latestTuples) {
+            keys.add(tuple.key().data());
+        }
+
+        //A key that was never written reads as null in its place
+        int missingKeyIndex = keys.size() / 2;
+        keys.add(missingKeyIndex, ByteBuffer.wrap(new byte[]{0}));
+
+        List<Record> records = db.multiGet(keys);
+        Assert.assertEquals("A record for each key", keys.size(), records.size());
+        Assert.assertNull("Missing key reads as null", records.remove(missingKeyIndex));
+        CompareHelper.compareKeyValue(latestTuples.iterator(), records.iterator());
+
+        db.close();
+    }
+
+    @Test
+    public void leaseTest() throws Exception {
+        for (Tuple tuple : tuples) {
+            db.put(tuple.key().data(), tuple.value().data());
+        }
+
+        //Reopen so that the reads are served from table files
+        db.close();
+        db = HeftyDB.open(config);
+
+        for (Tuple tuple : TupleGenerator.latest(tuples, Long.MAX_VALUE)) {
+            RecordLease lease = db.lease(tuple.key().data());
+            CompareHelper.compareKeyValue(tuple, lease.record());
+            Assert.assertTrue("Value is read only", lease.record().value().isReadOnly());
+            lease.close();
+        }
+
+        db.close();
+    }
+
+    @Test
+    public void overwriteTest() throws Exception {
+        Snapshot writeSnapshot = null;
+
+        for (Tuple tuple : tuples) {
+            writeSnapshot = db.put(tuple.key().data(), tuple.value().data());
+        }
+
+        //Every key is written again with its key as the value, so the newest versions shadow older tables
+        List<Tuple> writtenTuples = TupleGenerator.latest(tuples, Long.MAX_VALUE);
+        List<Tuple> overwrittenTuples = new ArrayList<Tuple>();
+        List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+
+        for (Tuple tuple : writtenTuples) {
+            db.put(tuple.key().data(), tuple.key().data());
+            overwrittenTuples.add(new Tuple(tuple.key(), new Value(tuple.key().data())));
+            keys.add(tuple.key().data());
+        }
+
+        for (int i = 0; i < writtenTuples.size(); i++) {
+            CompareHelper.compareKeyValue(overwrittenTuples.get(i), db.get(keys.get(i)));
+            CompareHelper.compareKeyValue(writtenTuples.get(i), db.get(keys.get(i), writeSnapshot));
+        }
+
+        CompareHelper.compareKeyValue(overwrittenTuples.iterator(), db.multiGet(keys).iterator());
+        CompareHelper.compareKeyValue(writtenTuples.iterator(), db.multiGet(keys, writeSnapshot).iterator());
+
+        db.close();
+    }
+
+    @Test
+    public void writeBufferTest() throws Exception {
+        //A write buffer smaller than a MemoryTable forces early flushes and stalls writers on every pending flush
+        db.close();
+        Config writeBufferConfig = ConfigGenerator.writeBufferConfig(config.memoryTableSize() / 2);
+        db = HeftyDB.open(writeBufferConfig);
+        writeRecords();
+
+        db = HeftyDB.open(writeBufferConfig);
+
+        for (Tuple tuple : TupleGenerator.latest(tuples, Long.MAX_VALUE)) {
+            Record record = db.get(tuple.key().data());
+            CompareHelper.compareKeyValue(tuple, record);
+        }
+
+        db.close();
+    }
 }
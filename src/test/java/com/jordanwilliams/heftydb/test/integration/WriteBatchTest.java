@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.integration;
+
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.HeftyDB;
+import com.jordanwilliams.heftydb.db.Record;
+import com.jordanwilliams.heftydb.db.Snapshot;
+import com.jordanwilliams.heftydb.db.WriteBatch;
+import com.jordanwilliams.heftydb.test.base.ParameterizedIntegrationTest;
+import com.jordanwilliams.heftydb.test.generator.TupleGenerator;
+import com.jordanwilliams.heftydb.test.helper.CompareHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+public class WriteBatchTest extends ParameterizedIntegrationTest {
+
+    private static final int BATCH_SIZE = 64;
+
+    public WriteBatchTest(List<Tuple> tuples, Config config) throws IOException {
+        super(tuples, config);
+    }
+
+    @Test
+    public void batchReadWriteTest() throws Exception {
+        WriteBatch batch = new WriteBatch();
+        long lastSnapshotId = 0;
+
+        for (Tuple tuple : tuples) {
+            batch.put(tuple.key().data(), tuple.value().data());
+
+            if (batch.count() == BATCH_SIZE) {
+                lastSnapshotId = writeBatch(batch, lastSnapshotId);
+            }
+        }
+
+        writeBatch(batch, lastSnapshotId);
+
+        for (Tuple tuple : TupleGenerator.latest(tuples, Long.MAX_VALUE)) {
+            Record record = db.get(tuple.key().data());
+            CompareHelper.compareKeyValue(tuple, record);
+        }
+
+        db.close();
+
+        //Replay from the commit log
+        db = HeftyDB.open(config);
+
+        for (Tuple tuple : TupleGenerator.latest(tuples, Long.MAX_VALUE)) {
+            Record record = db.get(tuple.key().data());
+            CompareHelper.compareKeyValue(tuple, record);
+        }
+
+        db.close();
+    }
+
+    @Test
+    public void batchDeleteTest() throws Exception {
+        writeRecords();
+
+        db = HeftyDB.open(config);
+
+        WriteBatch batch = new WriteBatch();
+
+        for (Tuple tuple : tuples) {
+            batch.delete(tuple.key().data());
+        }
+
+        db.write(batch, true);
+
+        for (Tuple tuple : tuples) {
+            Assert.assertNull("Key was deleted", db.get(tuple.key().data()));
+        }
+
+        db.close();
+    }
+
+    private long writeBatch(WriteBatch batch, long lastSnapshotId) throws IOException {
+        if (batch.isEmpty()) {
+            return lastSnapshotId;
+        }
+
+        Snapshot snapshot = db.write(batch, false);
+        Assert.assertEquals("Batch snapshot ids are contiguous", lastSnapshotId + batch.count(), snapshot.id());
+        batch.clear();
+        return snapshot.id();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.performance.db;
+
+import com.codahale.metrics.ConsoleReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.jordanwilliams.heftydb.compact.CompactionStrategies;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.DB;
+import com.jordanwilliams.heftydb.db.HeftyDB;
+import com.jordanwilliams.heftydb.test.generator.KeyValueGenerator;
+import com.jordanwilliams.heftydb.test.helper.PerformanceHelper;
+import com.jordanwilliams.heftydb.test.helper.TestFileHelper;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class ConcurrentWritePerformance {
+
+    private static final int RECORD_COUNT = 1 * 1000000;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        for (int threadCount = 1; threadCount <= maxThreads; threadCount *= 2) {
+            runWriters(threadCount);
+        }
+
+        System.exit(0);
+    }
+
+    private static void runWriters(final int threadCount) throws Exception {
+        TestFileHelper.createTestDirectory();
+        TestFileHelper.cleanUpTestFiles();
+        KeyValueGenerator keyValueGenerator = new KeyValueGenerator();
+        final ByteBuffer testValueBuffer = keyValueGenerator.testValue(100);
+
+        Config config = new Config.Builder().directory(TestFileHelper.TEMP_PATH).memoryTableSize(16384000)
+                .tableCacheSize(512000000).indexCacheSize(64000000).tableBlockSize(16384).compactionStrategy
+                        (CompactionStrategies.SIZE_TIERED_COMPACTION_STRATEGY).indexBlockSize(32768).maxWriteRate
+                        (Integer.MAX_VALUE).build();
+
+        final DB db = HeftyDB.open(config);
+
+        MetricRegistry metrics = new MetricRegistry();
+        ConsoleReporter reporter = PerformanceHelper.consoleReporter(metrics);
+        final Timer writeTimer = metrics.timer("writes");
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final int recordsPerThread = RECORD_COUNT / threadCount;
+        List<Thread> writers = new ArrayList<Thread>();
+
+        for (int i = 0; i < threadCount; i++) {
+            final int writerIndex = i;
+
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+
+                        for (int j = 0; j < recordsPerThread; j++) {
+                            Timer.Context watch = writeTimer.time();
+                            db.put(ByteBuffers.fromString(writerIndex + ":" + j), testValueBuffer.duplicate());
+                            watch.stop();
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+
+            writer.start();
+            writers.add(writer);
+        }
+
+        long startTime = System.nanoTime();
+        startLatch.countDown();
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1000000000.0;
+
+        System.out.println("Writer threads: " + threadCount);
+        System.out.println("Throughput: " + (long) (recordsPerThread * threadCount / elapsedSeconds) + " writes/s");
+        reporter.report();
+
+        db.close();
+        TestFileHelper.cleanUpTestFiles();
+    }
+}
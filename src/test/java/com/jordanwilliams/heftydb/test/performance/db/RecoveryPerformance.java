@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.performance.db;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.DBInitializer;
+import com.jordanwilliams.heftydb.metrics.Metrics;
+import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.test.generator.KeyValueGenerator;
+import com.jordanwilliams.heftydb.test.helper.TestFileHelper;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+import com.jordanwilliams.heftydb.write.CommitLogWriter;
+
+import java.nio.ByteBuffer;
+
+public class RecoveryPerformance {
+
+    private static final int LOG_COUNT = 8;
+    private static final int RECORDS_PER_LOG = 100000;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        for (int threadCount = 1; threadCount <= maxThreads; threadCount *= 2) {
+            recover(threadCount);
+        }
+
+        System.exit(0);
+    }
+
+    private static void recover(int threadCount) throws Exception {
+        TestFileHelper.createTestDirectory();
+        TestFileHelper.cleanUpTestFiles();
+
+        Config config = new Config.Builder().directory(TestFileHelper.TEMP_PATH).memoryTableSize(16384000)
+                .tableBlockSize(16384).indexBlockSize(32768).recoveryThreads(threadCount).build();
+        Metrics metrics = new Metrics(config);
+        writeLogs(config, metrics);
+
+        long startTime = System.nanoTime();
+        new DBInitializer(config, metrics).initialize();
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1000000000.0;
+
+        System.out.println("Recovery threads: " + threadCount);
+        System.out.println("Recovery time: " + elapsedSeconds + " s");
+        System.out.println("Throughput: " + (long) (LOG_COUNT * RECORDS_PER_LOG / elapsedSeconds) + " records/s");
+
+        TestFileHelper.cleanUpTestFiles();
+    }
+
+    private static void writeLogs(Config config, Metrics metrics) throws Exception {
+        Paths paths = new Paths(config.tableDirectory(), config.logDirectory());
+        KeyValueGenerator keyValueGenerator = new KeyValueGenerator();
+        ByteBuffer testValueBuffer = keyValueGenerator.testValue(100);
+        long snapshotId = 0;
+
+        for (int i = 1; i <= LOG_COUNT; i++) {
+            CommitLogWriter logWriter = CommitLogWriter.open(i, paths, metrics);
+
+            for (int j = 0; j < RECORDS_PER_LOG; j++) {
+                Key key = new Key(ByteBuffers.fromString(i + ":" + j), ++snapshotId);
+                logWriter.append(new Tuple(key, new Value(testValueBuffer.duplicate())));
+            }
+
+            logWriter.close();
+        }
+    }
+}
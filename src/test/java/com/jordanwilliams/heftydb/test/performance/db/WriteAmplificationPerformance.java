@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.performance.db;
+
+import com.jordanwilliams.heftydb.compact.CompactionStrategies;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.DB;
+import com.jordanwilliams.heftydb.db.HeftyDB;
+import com.jordanwilliams.heftydb.test.generator.KeyValueGenerator;
+import com.jordanwilliams.heftydb.test.helper.TestFileHelper;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Compares the write amplification of storing large values inline in Tables with storing them in the value log.
+ * Bytes written are read from /proc/self/io, so they include the commit log, Table, index, filter and value log
+ * files.
+ */
+public class WriteAmplificationPerformance {
+
+    private static final long USER_BYTES = 256 * 1024 * 1024;
+    private static final int KEY_SPACE_FRACTION = 2;
+    private static final int[] VALUE_SIZES = {4096, 16384, 65536};
+    private static final Path PROC_IO = Paths.get("/proc/self/io");
+
+    public static void main(String[] args) throws Exception {
+        TestFileHelper.createTestDirectory();
+        KeyValueGenerator keyValueGenerator = new KeyValueGenerator();
+
+        System.out.println(String.format("%-10s %10s %14s %14s %10s %10s", "layout", "valueSize", "userBytes",
+                "bytesWritten", "writeAmp", "seconds"));
+
+        for (int valueSize : VALUE_SIZES) {
+            ByteBuffer value = keyValueGenerator.testValue(valueSize);
+            run("inline", Integer.MAX_VALUE, value);
+            run("valueLog", 1024, value);
+        }
+
+        System.exit(0);
+    }
+
+    private static void run(String layout, int valueLogThreshold, ByteBuffer value) throws Exception {
+        TestFileHelper.cleanUpTestFiles();
+
+        Config config = new Config.Builder().directory(TestFileHelper.TEMP_PATH).memoryTableSize(16384000)
+                .tableCacheSize(64000000).indexCacheSize(16000000).tableBlockSize(16384).compactionStrategy
+                        (CompactionStrategies.SIZE_TIERED_COMPACTION_STRATEGY).indexBlockSize(32768)
+                .valueLogThreshold(valueLogThreshold).build();
+
+        int recordCount = (int) (USER_BYTES / value.capacity());
+        int keySpace = recordCount / KEY_SPACE_FRACTION;
+        Random random = new Random(valueLogThreshold);
+        long startBytes = bytesWritten();
+        long startTime = System.nanoTime();
+
+        DB db = HeftyDB.open(config);
+
+        for (int i = 0; i < recordCount; i++) {
+            db.put(ByteBuffers.fromString(Integer.toString(random.nextInt(keySpace))), value.slice());
+        }
+
+        db.compact().get();
+        db.close();
+
+        long written = bytesWritten() - startBytes;
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        long userBytes = (long) recordCount * value.capacity();
+
+        System.out.println(String.format("%-10s %10d %14d %14d %10.2f %10.1f", layout, value.capacity(), userBytes,
+                written, written / (double) userBytes, seconds));
+    }
+
+    private static long bytesWritten() throws IOException {
+        for (String line : Files.readAllLines(PROC_IO, StandardCharsets.US_ASCII)) {
+            if (line.startsWith("wchar:")) {
+                return Long.parseLong(line.substring("wchar:".length()).trim());
+            }
+        }
+
+        throw new IOException("wchar is missing from " + PROC_IO);
+    }
+}
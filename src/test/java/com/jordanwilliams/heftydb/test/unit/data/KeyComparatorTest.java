@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.unit.data;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
+import com.jordanwilliams.heftydb.offheap.MemoryAllocator;
+import com.jordanwilliams.heftydb.offheap.MemoryPointer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class KeyComparatorTest {
+
+    private final Random random = new Random(System.nanoTime());
+
+    @Test
+    public void lexicographicTest() {
+        KeyComparator comparator = KeyComparator.LEXICOGRAPHIC;
+
+        Assert.assertTrue("Bytes are unsigned", comparator.compare(bytes(0x7F), bytes(0x80)) < 0);
+        Assert.assertTrue("Prefix sorts first", comparator.compare(bytes(1, 2), bytes(1, 2, 0)) < 0);
+        Assert.assertTrue("Difference after the first word", comparator.compare(bytes(1, 1, 1, 1, 1, 1, 1, 1, 1, 2),
+                bytes(1, 1, 1, 1, 1, 1, 1, 1, 1, 3)) < 0);
+        Assert.assertEquals("Equal keys", 0, comparator.compare(bytes(1, 2, 3), bytes(1, 2, 3)));
+
+        for (int i = 0; i < 1000; i++) {
+            ByteBuffer key1 = randomKey();
+            ByteBuffer key2 = randomKey();
+
+            Assert.assertEquals("Matches unsigned byte order", Integer.signum(unsignedCompare(key1, key2)), Integer
+                    .signum(comparator.compare(key1, key2)));
+        }
+    }
+
+    @Test
+    public void numericTest() {
+        KeyComparator comparator = KeyComparator.NUMERIC;
+
+        for (int i = 0; i < 1000; i++) {
+            long value1 = random.nextLong();
+            long value2 = random.nextLong();
+            ByteBuffer key1 = ByteBuffer.allocate(8).putLong(0, value1);
+            ByteBuffer key2 = ByteBuffer.allocate(8).putLong(0, value2);
+
+            Assert.assertEquals("Longs are in numeric order", Long.signum(Long.compare(value1, value2)), Integer
+                    .signum(comparator.compare(key1, key2)));
+        }
+
+        Assert.assertTrue("Negative ints sort first", comparator.compare(ByteBuffer.allocate(4).putInt(0, -5),
+                ByteBuffer.allocate(4).putInt(0, 3)) < 0);
+        Assert.assertTrue("Shorter keys sort first", comparator.compare(ByteBuffer.allocate(4).putInt(0, 3),
+                ByteBuffer.allocate(8).putLong(0, -5)) < 0);
+    }
+
+    @Test
+    public void reverseTest() {
+        KeyComparator comparator = KeyComparator.LEXICOGRAPHIC.reverse();
+        Key key1 = new Key(bytes(1), 1);
+        Key key2 = new Key(bytes(2), 1);
+
+        Assert.assertTrue("Keys are reversed", comparator.compare(bytes(1), bytes(2)) > 0);
+        Assert.assertTrue("Key order is reversed", comparator.keyOrder().compare(key1, key2) > 0);
+        Assert.assertTrue("Snapshot order is not reversed", comparator.keyOrder().compare(new Key(bytes(1), 1), new
+                Key(bytes(1), 2)) < 0);
+        Assert.assertSame("Reversing twice", KeyComparator.LEXICOGRAPHIC, comparator.reverse());
+        Assert.assertSame("Reversing is stable", comparator, KeyComparator.LEXICOGRAPHIC.reverse());
+        Assert.assertEquals("Reversed name", "LEXICOGRAPHIC.reverse()", comparator.name());
+    }
+
+    @Test
+    public void offHeapTest() {
+        KeyComparator[] comparators = new KeyComparator[]{KeyComparator.LEXICOGRAPHIC, KeyComparator.NUMERIC,
+                KeyComparator.NUMERIC.reverse()};
+
+        for (int i = 0; i < 1000; i++) {
+            ByteBuffer key1 = randomKey();
+            ByteBuffer key2 = randomKey();
+            MemoryPointer pointer = MemoryAllocator.allocate(Math.max(1, key1.capacity()));
+            pointer.directBuffer().put(key1.duplicate());
+
+            for (KeyComparator comparator : comparators) {
+                Assert.assertEquals("Off-heap compare matches", Integer.signum(comparator.compare(key1, key2)),
+                        Integer.signum(comparator.compare(pointer.address(), key1.capacity(), key2)));
+            }
+
+            pointer.release();
+        }
+    }
+
+    private ByteBuffer randomKey() {
+        byte[] key = new byte[random.nextInt(20)];
+        random.nextBytes(key);
+
+        //Share a prefix often enough that the comparisons reach past the first word
+        if (key.length > 8 && random.nextBoolean()) {
+            for (int i = 0; i < 8; i++) {
+                key[i] = 1;
+            }
+        }
+
+        return ByteBuffer.wrap(key);
+    }
+
+    private static ByteBuffer bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static int unsignedCompare(ByteBuffer key1, ByteBuffer key2) {
+        int compareCount = Math.min(key1.capacity(), key2.capacity());
+
+        for (int i = 0; i < compareCount; i++) {
+            int compared = Integer.compare(key1.get(i) & 0xFF, key2.get(i) & 0xFF);
+
+            if (compared != 0) {
+                return compared;
+            }
+        }
+
+        return Integer.compare(key1.capacity(), key2.capacity());
+    }
+}
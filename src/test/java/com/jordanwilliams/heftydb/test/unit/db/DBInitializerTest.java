@@ -18,18 +18,33 @@ package com.jordanwilliams.heftydb.test.unit.db;
 
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.db.DB;
 import com.jordanwilliams.heftydb.db.DBInitializer;
 import com.jordanwilliams.heftydb.db.DBState;
+import com.jordanwilliams.heftydb.db.HeftyDB;
 import com.jordanwilliams.heftydb.io.Throttle;
 import com.jordanwilliams.heftydb.metrics.Metrics;
 import com.jordanwilliams.heftydb.state.Paths;
 import com.jordanwilliams.heftydb.table.file.FileTableWriter;
+import com.jordanwilliams.heftydb.table.file.LegacyTable;
 import com.jordanwilliams.heftydb.test.base.TupleTest;
 import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
+import com.jordanwilliams.heftydb.test.generator.TupleGenerator;
+import com.jordanwilliams.heftydb.test.helper.CompareHelper;
+import com.jordanwilliams.heftydb.util.Sizes;
+import com.jordanwilliams.heftydb.util.XORShiftRandom;
 import com.jordanwilliams.heftydb.write.CommitLogWriter;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public class DBInitializerTest extends TupleTest {
@@ -63,7 +78,7 @@ public class DBInitializerTest extends TupleTest {
                 tuples.size(), null, Throttle.MAX);
         writerTask.run();
 
-        CommitLogWriter log = CommitLogWriter.open(2, paths);
+        CommitLogWriter log = CommitLogWriter.open(2, paths, new Metrics(config));
         List<Tuple> moreTestTuples = generateMoreTestRecords(101);
         for (Tuple tuple : moreTestTuples) {
             log.append(tuple, false);
@@ -75,4 +90,123 @@ public class DBInitializerTest extends TupleTest {
         Assert.assertEquals("Should be 2 tables", 2, state.tables().count());
         Assert.assertEquals("Should be 200 as the max snapshot id", 200, state.snapshots().currentId());
     }
+
+    @Test
+    public void legacyUpgradeTest() throws Exception {
+        Paths paths = ConfigGenerator.testPaths();
+        Config config = ConfigGenerator.testConfig();
+        List<Tuple> moreTestTuples = generateMoreTestRecords(101);
+        writeLegacyTable(1, paths, tuples);
+        writeLegacyLog(2, paths, moreTestTuples);
+
+        DB db = HeftyDB.open(config);
+        List<Tuple> allTuples = new ArrayList<Tuple>(tuples);
+        allTuples.addAll(moreTestTuples);
+
+        for (Tuple tuple : TupleGenerator.latest(allTuples, Long.MAX_VALUE)) {
+            CompareHelper.compareKeyValue(tuple, db.get(tuple.key().data()));
+        }
+
+        db.close();
+
+        for (long tableId : paths.tableFileIds()) {
+            Assert.assertFalse("Table " + tableId + " is rewritten", LegacyTable.isLegacy(tableId, paths));
+        }
+
+        DBState state = new DBInitializer(config, new Metrics(config)).initialize();
+        Assert.assertEquals("Should be 200 as the max snapshot id", 200, state.snapshots().currentId());
+    }
+
+    /**
+     * Writes a Table file the way it was written before Table files had a format version: TupleBlocks of signed key
+     * order in the native byte order, framed with their size, followed by a trailer without a format version.
+     */
+    private static void writeLegacyTable(long tableId, Paths paths, List<Tuple> tuples) throws IOException {
+        List<Tuple> sortedTuples = new ArrayList<Tuple>(tuples);
+        Collections.sort(sortedTuples, new Comparator<Tuple>() {
+            @Override
+            public int compare(Tuple tuple1, Tuple tuple2) {
+                int compared = tuple1.key().data().compareTo(tuple2.key().data());
+                return compared != 0 ? compared : Long.compare(tuple1.key().snapshotId(), tuple2.key().snapshotId());
+            }
+        });
+
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        long maxSnapshotId = 0;
+
+        for (int start = 0; start < sortedTuples.size(); start += 10) {
+            List<Tuple> blockTuples = sortedTuples.subList(start, Math.min(start + 10, sortedTuples.size()));
+            int entryOffset = Sizes.INT_SIZE * (blockTuples.size() + 1);
+            int blockSize = entryOffset;
+
+            for (Tuple tuple : blockTuples) {
+                blockSize += legacySize(tuple);
+            }
+
+            ByteBuffer block = ByteBuffer.allocate(blockSize).order(ByteOrder.nativeOrder());
+            block.putInt(blockTuples.size());
+
+            for (Tuple tuple : blockTuples) {
+                block.putInt(entryOffset);
+                entryOffset += legacySize(tuple);
+            }
+
+            for (Tuple tuple : blockTuples) {
+                putLegacyTuple(block, tuple);
+                maxSnapshotId = Math.max(maxSnapshotId, tuple.key().snapshotId());
+            }
+
+            ByteBuffer blockFrame = ByteBuffer.allocate(Sizes.INT_SIZE);
+            blockFrame.putInt(blockSize);
+            table.write(blockFrame.array());
+            table.write(block.array());
+            table.write(blockFrame.array());
+        }
+
+        ByteBuffer trailer = ByteBuffer.allocate(28);
+        trailer.putLong(tableId);
+        trailer.putInt(1);
+        trailer.putLong(sortedTuples.size());
+        trailer.putLong(maxSnapshotId);
+        table.write(trailer.array());
+
+        Files.write(paths.tablePath(tableId), table.toByteArray());
+    }
+
+    /**
+     * Writes a commit log the way it was written before commit logs had a header: the seed, then each Tuple framed with
+     * its size and followed by the next number of a pseudo random stream.
+     */
+    private static void writeLegacyLog(long tableId, Paths paths, List<Tuple> tuples) throws IOException {
+        long seed = System.nanoTime();
+        XORShiftRandom pseudoRandom = new XORShiftRandom(seed);
+        int logSize = Sizes.LONG_SIZE;
+
+        for (Tuple tuple : tuples) {
+            logSize += legacySize(tuple) + Sizes.INT_SIZE * 2;
+        }
+
+        ByteBuffer log = ByteBuffer.allocate(logSize);
+        log.putLong(seed);
+
+        for (Tuple tuple : tuples) {
+            log.putInt(legacySize(tuple));
+            putLegacyTuple(log, tuple);
+            log.putInt(pseudoRandom.nextInt());
+        }
+
+        Files.write(paths.logPath(tableId), log.array());
+    }
+
+    private static int legacySize(Tuple tuple) {
+        return Sizes.INT_SIZE * 2 + Sizes.LONG_SIZE + tuple.key().size() + tuple.value().size();
+    }
+
+    private static void putLegacyTuple(ByteBuffer buffer, Tuple tuple) {
+        buffer.putInt(tuple.key().size());
+        buffer.put(tuple.key().data().duplicate());
+        buffer.putLong(tuple.key().snapshotId());
+        buffer.putInt(tuple.value().size());
+        buffer.put(tuple.value().data().duplicate());
+    }
 }
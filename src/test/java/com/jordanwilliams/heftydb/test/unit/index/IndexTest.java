@@ -16,6 +16,7 @@
 
 package com.jordanwilliams.heftydb.test.unit.index;
 
+import com.jordanwilliams.heftydb.data.Key;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.db.Config;
 import com.jordanwilliams.heftydb.index.Index;
@@ -56,6 +57,23 @@ public class IndexTest extends ParameterizedTupleTest {
         index.close();
     }
 
+    @Test
+    public void batchGetTest() throws IOException {
+        List<Key> keys = new ArrayList<Key>();
+
+        for (Tuple tuple : tuples) {
+            keys.add(tuple.key());
+        }
+
+        List<IndexRecord> batchRecords = index.get(keys);
+
+        for (int i = 0; i < tuples.size(); i++) {
+            Assert.assertEquals("Index blocks are found", i, batchRecords.get(i).blockOffset());
+        }
+
+        index.close();
+    }
+
     private Index createIndex() throws IOException {
         Paths paths = ConfigGenerator.testPaths();
         Config config = ConfigGenerator.testConfig();
@@ -51,6 +51,18 @@ public class SortedByteMapTest extends ParameterizedTupleTest {
         }
     }
 
+    @Test
+    public void viewTest() {
+        for (int i = 0; i < tuples.size(); i++) {
+            SortedByteMap.Entry entry = sortedByteMap.view(i);
+            Tuple tuple = tuples.get(i);
+            Assert.assertEquals("Keys match", tuple.key(), entry.key());
+            Assert.assertEquals("Values match", tuple.value(), entry.value());
+            Assert.assertTrue("Value is a view", entry.value().data().isDirect());
+            Assert.assertTrue("Value is read only", entry.value().data().isReadOnly());
+        }
+    }
+
     @Test
     public void floorIndexMatchTest() {
         for (int i = 0; i < tuples.size(); i++) {
@@ -17,9 +17,12 @@
 package com.jordanwilliams.heftydb.test.unit.read;
 
 import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.db.MergeOperator;
 import com.jordanwilliams.heftydb.read.CompactionTupleIterator;
+import com.jordanwilliams.heftydb.read.RangeTombstones;
 import com.jordanwilliams.heftydb.util.ByteBuffers;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
 import org.junit.Assert;
@@ -27,6 +30,7 @@ import org.junit.Test;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -36,6 +40,20 @@ public class CompactionTupleIteratorTest {
     private static final ByteBuffer KEY_2 = ByteBuffers.fromString("test key 2");
     private static final ByteBuffer KEY_3 = ByteBuffers.fromString("test key 3");
 
+    private static final MergeOperator CONCATENATE = new MergeOperator() {
+        @Override
+        public ByteBuffer merge(ByteBuffer key, ByteBuffer existingValue, ByteBuffer operand) {
+            if (existingValue == null) {
+                return operand;
+            }
+
+            ByteBuffer merged = ByteBuffer.allocate(existingValue.remaining() + operand.remaining());
+            merged.put(existingValue).put(operand);
+            merged.flip();
+            return merged;
+        }
+    };
+
     private final List<Tuple> sourceTuples = new ArrayList<Tuple>();
     private final List<Tuple> filteredTuples = new ArrayList<Tuple>();
 
@@ -64,4 +82,92 @@ public class CompactionTupleIteratorTest {
             Assert.assertEquals("Records match", filteredIterator.next(), versionedIterator.next());
         }
     }
+
+    @Test
+    public void mergeOperandTest() {
+        List<Tuple> mergeTuples = new ArrayList<Tuple>();
+        mergeTuples.add(new Tuple(new Key(KEY_1, 1), new Value(ByteBuffers.fromString("a"))));
+        mergeTuples.add(new Tuple(new Key(KEY_1, 2), operand("b")));
+        mergeTuples.add(new Tuple(new Key(KEY_1, 3), operand("c")));
+        mergeTuples.add(new Tuple(new Key(KEY_2, 4), operand("d")));
+        mergeTuples.add(new Tuple(new Key(KEY_3, 1), operand("x")));
+        mergeTuples.add(new Tuple(new Key(KEY_3, 2), operand("y")));
+
+        List<Tuple> compactedTuples = new ArrayList<Tuple>();
+        compactedTuples.add(new Tuple(new Key(KEY_1, 2), new Value(ByteBuffers.fromString("ab"))));
+        compactedTuples.add(new Tuple(new Key(KEY_1, 3), operand("c")));
+        compactedTuples.add(new Tuple(new Key(KEY_2, 4), operand("d")));
+        //Older Tables might still hold a value for the key, so the operands can only be combined
+        compactedTuples.add(new Tuple(new Key(KEY_3, 2), operand("xy")));
+
+        Iterator<Tuple> compactedIterator = compactedTuples.iterator();
+        Iterator<Tuple> versionedIterator = new CompactionTupleIterator(3, new CloseableIterator.Wrapper<Tuple>
+                (mergeTuples.iterator()), CONCATENATE);
+
+        while (versionedIterator.hasNext()) {
+            Assert.assertEquals("Records match", compactedIterator.next(), versionedIterator.next());
+        }
+
+        Assert.assertFalse("Every record was returned", compactedIterator.hasNext());
+    }
+
+    @Test
+    public void rangeTombstoneTest() {
+        List<Tuple> rangeTuples = new ArrayList<Tuple>();
+        rangeTuples.add(new Tuple(new Key(KEY_1, 1), new Value(ByteBuffers.fromString("a"))));
+        rangeTuples.add(new Tuple(new Key(KEY_1, 3), new Value(ByteBuffers.fromString("b"))));
+        rangeTuples.add(new Tuple(new Key(KEY_2, 1), new Value(ByteBuffers.fromString("c"))));
+        rangeTuples.add(new Tuple(new Key(KEY_3, 1), new Value(ByteBuffers.fromString("d"))));
+
+        List<Tuple> compactedTuples = new ArrayList<Tuple>();
+        compactedTuples.add(new Tuple(new Key(KEY_1, 3), new Value(ByteBuffers.fromString("b"))));
+        compactedTuples.add(new Tuple(new Key(KEY_3, 1), new Value(ByteBuffers.fromString("d"))));
+
+        //The second tombstone is newer than the minimum snapshot, so a snapshot could still read what it deletes
+        RangeTombstones rangeTombstones = new RangeTombstones(Arrays.asList(new RangeTombstone(KEY_1, KEY_3, 2),
+                new RangeTombstone(KEY_3, ByteBuffers.fromString("test key 4"), 6)), 5);
+
+        Iterator<Tuple> compactedIterator = compactedTuples.iterator();
+        Iterator<Tuple> versionedIterator = new CompactionTupleIterator(5, new CloseableIterator.Wrapper<Tuple>
+                (rangeTuples.iterator()), null, rangeTombstones);
+
+        while (versionedIterator.hasNext()) {
+            Assert.assertEquals("Records match", compactedIterator.next(), versionedIterator.next());
+        }
+
+        Assert.assertFalse("Every record was returned", compactedIterator.hasNext());
+    }
+
+    @Test
+    public void expiryTest() {
+        long now = System.currentTimeMillis();
+        Value expiring = Value.expiring(ByteBuffers.fromString("b"), now + 3600000);
+
+        List<Tuple> expiringTuples = new ArrayList<Tuple>();
+        expiringTuples.add(new Tuple(new Key(KEY_1, 1), new Value(ByteBuffers.fromString("a"))));
+        expiringTuples.add(new Tuple(new Key(KEY_1, 2), expiring));
+        expiringTuples.add(new Tuple(new Key(KEY_2, 1), new Value(ByteBuffers.fromString("c"))));
+        expiringTuples.add(new Tuple(new Key(KEY_2, 2), Value.expiring(ByteBuffers.fromString("d"), now - 1)));
+        expiringTuples.add(new Tuple(new Key(KEY_3, 3), Value.expiring(ByteBuffers.fromString("e"), now - 1)));
+
+        //An expiring value replaces the versions beneath it, and an expired one is kept as a tombstone
+        List<Tuple> compactedTuples = new ArrayList<Tuple>();
+        compactedTuples.add(new Tuple(new Key(KEY_1, 2), expiring));
+        compactedTuples.add(new Tuple(new Key(KEY_2, 2), Value.TOMBSTONE_VALUE));
+        compactedTuples.add(new Tuple(new Key(KEY_3, 3), Value.TOMBSTONE_VALUE));
+
+        Iterator<Tuple> compactedIterator = compactedTuples.iterator();
+        Iterator<Tuple> versionedIterator = new CompactionTupleIterator(5, new CloseableIterator.Wrapper<Tuple>
+                (expiringTuples.iterator()));
+
+        while (versionedIterator.hasNext()) {
+            Assert.assertEquals("Records match", compactedIterator.next(), versionedIterator.next());
+        }
+
+        Assert.assertFalse("Every record was returned", compactedIterator.hasNext());
+    }
+
+    private static Value operand(String operand) {
+        return new Value(ByteBuffers.fromString(operand), Value.Type.MERGE_OPERAND);
+    }
 }
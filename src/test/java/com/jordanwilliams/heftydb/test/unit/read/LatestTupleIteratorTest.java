@@ -19,6 +19,7 @@ package com.jordanwilliams.heftydb.test.unit.read;
 import com.jordanwilliams.heftydb.data.Key;
 import com.jordanwilliams.heftydb.data.Tuple;
 import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.db.MergeOperator;
 import com.jordanwilliams.heftydb.read.LatestTupleIterator;
 import com.jordanwilliams.heftydb.util.ByteBuffers;
 import com.jordanwilliams.heftydb.util.CloseableIterator;
@@ -34,6 +35,21 @@ public class LatestTupleIteratorTest {
 
     private static final ByteBuffer KEY_1 = ByteBuffers.fromString("test key 1");
     private static final ByteBuffer KEY_2 = ByteBuffers.fromString("test key 2");
+    private static final ByteBuffer KEY_3 = ByteBuffers.fromString("test key 3");
+
+    private static final MergeOperator CONCATENATE = new MergeOperator() {
+        @Override
+        public ByteBuffer merge(ByteBuffer key, ByteBuffer existingValue, ByteBuffer operand) {
+            if (existingValue == null) {
+                return operand;
+            }
+
+            ByteBuffer merged = ByteBuffer.allocate(existingValue.remaining() + operand.remaining());
+            merged.put(existingValue).put(operand);
+            merged.flip();
+            return merged;
+        }
+    };
 
     private final List<Tuple> sourceTuples = new ArrayList<Tuple>();
     private final List<Tuple> filteredTuples = new ArrayList<Tuple>();
@@ -64,6 +80,34 @@ public class LatestTupleIteratorTest {
         }
     }
 
+    @Test
+    public void mergeOperandTest() {
+        List<Tuple> mergeTuples = new ArrayList<Tuple>();
+        mergeTuples.add(new Tuple(new Key(KEY_1, 1), new Value(ByteBuffers.fromString("a"))));
+        mergeTuples.add(new Tuple(new Key(KEY_1, 2), operand("b")));
+        mergeTuples.add(new Tuple(new Key(KEY_1, 3), operand("c")));
+        mergeTuples.add(new Tuple(new Key(KEY_2, 4), operand("d")));
+
+        Iterator<Tuple> mergedIterator = new LatestTupleIterator(6, new CloseableIterator.Wrapper<Tuple>
+                (mergeTuples.iterator()), CONCATENATE);
+
+        Assert.assertEquals("Operands are folded into the value", new Tuple(new Key(KEY_1, 3), new Value(ByteBuffers
+                .fromString("abc"))), mergedIterator.next());
+        Assert.assertEquals("Operands without a value are resolved", new Tuple(new Key(KEY_2, 4), new Value
+                (ByteBuffers.fromString("d"))), mergedIterator.next());
+        Assert.assertFalse("No more records", mergedIterator.hasNext());
+
+        //Without a merge operator, the operands are passed through along with the value beneath them
+        Iterator<Tuple> operandIterator = new LatestTupleIterator(6, new CloseableIterator.Wrapper<Tuple>
+                (mergeTuples.iterator()));
+
+        for (Tuple tuple : mergeTuples) {
+            Assert.assertEquals("Records match", tuple, operandIterator.next());
+        }
+
+        Assert.assertFalse("No more records", operandIterator.hasNext());
+    }
+
     @Test
     public void respectSnapshotTest() {
         Iterator<Tuple> snapshotIterator = snapshotTuples.iterator();
@@ -74,4 +118,28 @@ public class LatestTupleIteratorTest {
             Assert.assertEquals("Records match", versionedIterator.next(), snapshotIterator.next());
         }
     }
+
+    private static Value operand(String operand) {
+        return new Value(ByteBuffers.fromString(operand), Value.Type.MERGE_OPERAND);
+    }
+
+    @Test
+    public void expiryTest() {
+        long now = System.currentTimeMillis();
+        List<Tuple> expiringTuples = new ArrayList<Tuple>();
+        expiringTuples.add(new Tuple(new Key(KEY_1, 1), new Value(ByteBuffers.fromString("a"))));
+        expiringTuples.add(new Tuple(new Key(KEY_1, 2), Value.expiring(ByteBuffers.fromString("b"), now - 1)));
+        expiringTuples.add(new Tuple(new Key(KEY_2, 3), Value.expiring(ByteBuffers.fromString("c"), now - 1)));
+        expiringTuples.add(new Tuple(new Key(KEY_3, 4), Value.expiring(ByteBuffers.fromString("d"), now + 60000)));
+
+        Iterator<Tuple> latestIterator = new LatestTupleIterator(6, new CloseableIterator.Wrapper<Tuple>
+                (expiringTuples.iterator()));
+
+        Assert.assertEquals("Expired version hides the older one", new Tuple(new Key(KEY_1, 2), Value.TOMBSTONE_VALUE),
+                latestIterator.next());
+        Assert.assertEquals("Expired version reads as a tombstone", new Tuple(new Key(KEY_2, 3), Value
+                .TOMBSTONE_VALUE), latestIterator.next());
+        Assert.assertEquals("Unexpired version is returned", expiringTuples.get(3), latestIterator.next());
+        Assert.assertFalse("No more keys", latestIterator.hasNext());
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.unit.read;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
+import com.jordanwilliams.heftydb.read.RangeTombstones;
+import com.jordanwilliams.heftydb.table.memory.MemoryRangeTombstones;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class RangeTombstonesTest {
+
+    private final Random random = new Random(System.nanoTime());
+
+    @Test
+    public void coveringSnapshotIdTest() {
+        List<RangeTombstone> rangeTombstones = new ArrayList<RangeTombstone>();
+
+        for (int i = 0; i < 100; i++) {
+            int start = random.nextInt(1000);
+            rangeTombstones.add(new RangeTombstone(key(start), key(start + 1 + random.nextInt(100)), random.nextInt
+                    (1000) + 1));
+        }
+
+        long maxSnapshotId = 500;
+        RangeTombstones sortedTombstones = new RangeTombstones(rangeTombstones, maxSnapshotId);
+
+        for (int i = 0; i < 1200; i++) {
+            Key key = new Key(key(i), random.nextInt(1000));
+            long expectedSnapshotId = 0;
+
+            for (RangeTombstone rangeTombstone : rangeTombstones) {
+                if (rangeTombstone.snapshotId() <= maxSnapshotId && rangeTombstone.covers(key)) {
+                    expectedSnapshotId = Math.max(expectedSnapshotId, rangeTombstone.snapshotId());
+                }
+            }
+
+            Assert.assertEquals("Newest covering tombstone", expectedSnapshotId, sortedTombstones
+                    .coveringSnapshotId(key));
+        }
+    }
+
+    @Test
+    public void viewTest() {
+        RangeTombstones sortedTombstones = new RangeTombstones(Collections.singletonList(new RangeTombstone(key(1),
+                key(5), 10)), Long.MAX_VALUE);
+        MemoryRangeTombstones memoryRangeTombstones = new MemoryRangeTombstones(KeyComparator.LEXICOGRAPHIC);
+        memoryRangeTombstones.add(new RangeTombstone(key(4), key(8), 15));
+        RangeTombstones view = sortedTombstones.view(20, Collections.singletonList(memoryRangeTombstones));
+
+        Assert.assertEquals("Sorted tombstone covers", 10, view.coveringSnapshotId(new Key(key(2), 1)));
+        Assert.assertEquals("Newest tombstone wins", 15, view.coveringSnapshotId(new Key(key(4), 1)));
+        Assert.assertEquals("Recent tombstone covers", 15, view.coveringSnapshotId(new Key(key(7), 1)));
+        Assert.assertEquals("Nothing covers", 0, view.coveringSnapshotId(new Key(key(8), 1)));
+        Assert.assertEquals("Tombstones newer than the snapshot are hidden", 10, sortedTombstones.view(12,
+                Collections.<MemoryRangeTombstones>emptyList()).coveringSnapshotId(new Key(key(4), 1)));
+    }
+
+    private static ByteBuffer key(int i) {
+        return ByteBuffers.fromString(String.format("%05d", i));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.unit.state;
+
+import com.jordanwilliams.heftydb.state.Snapshots;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SnapshotsTest {
+
+    @Test
+    public void publishInOrderTest() throws Exception {
+        final Snapshots snapshots = new Snapshots(0);
+        long firstId = snapshots.nextId();
+        final long secondId = snapshots.nextIds(2);
+
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                snapshots.publish(secondId, secondId + 1);
+            }
+        });
+
+        publisher.start();
+
+        //The later ids stay unpublished, and the publisher stays blocked, until the first id is published
+        while (publisher.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        Assert.assertEquals("Later ids wait for earlier ones", 0, snapshots.currentId());
+
+        snapshots.publish(firstId);
+        publisher.join();
+        Assert.assertEquals("Every id is published", secondId + 1, snapshots.currentId());
+    }
+
+    @Test
+    public void interruptedPublishTest() throws Exception {
+        final Snapshots snapshots = new Snapshots(0);
+        long firstId = snapshots.nextId();
+        final long secondId = snapshots.nextId();
+        final boolean[] interrupted = new boolean[1];
+
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                snapshots.publish(secondId);
+                interrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        });
+
+        publisher.start();
+
+        while (publisher.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        publisher.interrupt();
+        snapshots.publish(firstId);
+        publisher.join();
+
+        Assert.assertEquals("The interrupted publisher still publishes", secondId, snapshots.currentId());
+        Assert.assertTrue("The interrupt is kept", interrupted[0]);
+    }
+}
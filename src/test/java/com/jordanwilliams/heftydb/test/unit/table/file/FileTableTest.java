@@ -26,12 +26,17 @@ import com.jordanwilliams.heftydb.state.Paths;
 import com.jordanwilliams.heftydb.table.file.FileTable;
 import com.jordanwilliams.heftydb.table.file.FileTableWriter;
 import com.jordanwilliams.heftydb.table.file.TupleBlock;
+import com.jordanwilliams.heftydb.table.TupleLease;
 import com.jordanwilliams.heftydb.test.base.ParameterizedTupleTest;
 import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -95,6 +100,21 @@ public class FileTableTest extends ParameterizedTupleTest {
         }
     }
 
+    @Test
+    public void boundedIteratorTest() throws IOException {
+        List<Tuple> latestTuples = tupleGenerator.latest(tuples, Long.MAX_VALUE);
+        int startIndex = random.nextInt(latestTuples.size());
+        int endIndex = startIndex + random.nextInt(latestTuples.size() - startIndex);
+        Key startKey = latestTuples.get(startIndex).key();
+        ByteBuffer endKey = latestTuples.get(endIndex).key().data();
+        Iterator<Tuple> tableRecordIterator = fileTable.ascendingIterator(startKey, endKey, Long.MAX_VALUE);
+
+        //Tuples at or past the end key may be returned, but every Tuple before it must be
+        for (Tuple tuple : latestTuples.subList(startIndex, endIndex)) {
+            Assert.assertEquals("Records match", tuple, tableRecordIterator.next());
+        }
+    }
+
     @Test
     public void descendingIteratorTest() throws IOException {
         Iterator<Tuple> tableRecordIterator = fileTable.descendingIterator(Long.MAX_VALUE);
@@ -120,6 +140,60 @@ public class FileTableTest extends ParameterizedTupleTest {
         }
     }
 
+    @Test
+    public void batchReadTest() throws IOException {
+        List<Key> keys = new ArrayList<Key>();
+
+        for (Tuple tuple : tuples) {
+            keys.add(tuple.key());
+        }
+
+        List<Tuple> reads = fileTable.get(keys);
+
+        for (int i = 0; i < tuples.size(); i++) {
+            Assert.assertEquals("Records match", tuples.get(i), reads.get(i));
+        }
+    }
+
+    @Test
+    public void leaseTest() throws IOException {
+        for (Tuple tuple : tuples) {
+            TupleLease lease = fileTable.lease(tuple.key());
+            Assert.assertEquals("Records match", tuple, lease.tuple());
+            lease.close();
+        }
+    }
+
+    @Test
+    public void keyRangeTest() throws IOException {
+        Assert.assertEquals("Min key matches", tuples.get(0).key().data(), fileTable.minKey());
+        Assert.assertEquals("Max key matches", tuples.get(tuples.size() - 1).key().data(), fileTable.maxKey());
+    }
+
+    @Test
+    public void formatVersionTest() throws IOException {
+        Paths paths = ConfigGenerator.testPaths();
+        Config config = ConfigGenerator.testConfig();
+        new FileTableWriter.Task(2, 1, paths, config, tuples.iterator(), tuples.size(), null, Throttle.MAX).run();
+
+        //The format version sits just before the magic number at the end of the trailer
+        try (FileChannel channel = FileChannel.open(paths.tablePath(2), StandardOpenOption.WRITE)) {
+            ByteBuffer formatVersion = ByteBuffer.allocate(4);
+            formatVersion.putInt(0, 99);
+            channel.write(formatVersion, channel.size() - 12);
+        }
+
+        Metrics metrics = new Metrics(config);
+
+        try {
+            FileTable.open(2, paths, new TupleBlock.Cache(1024000, metrics), new IndexBlock.Cache(1024000, metrics),
+                    metrics);
+            Assert.fail("A table with another format version is rejected");
+        } catch (IOException e) {
+            //Expected
+        }
+    }
+
     private FileTable openFileTable() throws IOException {
         Paths paths = ConfigGenerator.testPaths();
         Config config = ConfigGenerator.testConfig();
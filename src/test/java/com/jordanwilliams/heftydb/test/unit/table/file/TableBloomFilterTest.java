@@ -17,6 +17,7 @@
 package com.jordanwilliams.heftydb.test.unit.table.file;
 
 import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.db.PrefixExtractor;
 import com.jordanwilliams.heftydb.state.Paths;
 import com.jordanwilliams.heftydb.table.file.TableBloomFilter;
 import com.jordanwilliams.heftydb.table.file.TableBloomFilterWriter;
@@ -25,6 +26,7 @@ import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public class TableBloomFilterTest extends ParameterizedTupleTest {
@@ -52,4 +54,50 @@ public class TableBloomFilterTest extends ParameterizedTupleTest {
             Assert.assertTrue("Filter contains the key", bloomFilter.mightContain(tuple.key()));
         }
     }
+
+    @Test
+    public void mightContainPrefixTest() throws Exception {
+        Paths paths = ConfigGenerator.testPaths();
+        PrefixExtractor prefixExtractor = PrefixExtractor.fixedLength(4);
+        TableBloomFilterWriter filterWriter = TableBloomFilterWriter.open(2, paths, tuples.size(), prefixExtractor);
+
+        for (Tuple tuple : tuples) {
+            filterWriter.write(tuple.key());
+        }
+
+        filterWriter.finish();
+
+        TableBloomFilter prefixFilter = TableBloomFilter.read(2, paths);
+
+        for (Tuple tuple : tuples) {
+            ByteBuffer prefix = prefixExtractor.prefix(tuple.key().data());
+
+            Assert.assertTrue("Filter contains the key", prefixFilter.mightContain(tuple.key()));
+
+            if (prefix != null) {
+                Assert.assertTrue("Filter contains the prefix", prefixFilter.mightContainPrefix(prefix,
+                        prefixExtractor));
+            }
+        }
+
+        //Keys are alphanumeric, so prefixes of other bytes are absent
+        ByteBuffer missingPrefix = ByteBuffer.wrap(new byte[]{0, 1, 2, 3});
+        int ruledOut = 0;
+
+        for (int i = 0; i < 100; i++) {
+            missingPrefix.put(0, (byte) i);
+
+            if (!prefixFilter.mightContainPrefix(missingPrefix, prefixExtractor)) {
+                ruledOut++;
+            }
+
+            Assert.assertTrue("Other extractors are never ruled out", prefixFilter.mightContainPrefix(missingPrefix,
+                    PrefixExtractor.fixedLength(3)));
+            Assert.assertTrue("Filters without prefixes are never ruled out", bloomFilter.mightContainPrefix
+                    (missingPrefix, prefixExtractor));
+        }
+
+        Assert.assertTrue("Missing prefixes are ruled out", ruledOut > 90);
+        prefixFilter.close();
+    }
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.unit.table.memory;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.table.memory.ArenaTupleMap;
+import com.jordanwilliams.heftydb.table.memory.MemoryTable;
+import com.jordanwilliams.heftydb.test.base.ParameterizedTupleTest;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ArenaTupleMapTest extends ParameterizedTupleTest {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private final MemoryTable memoryTable;
+    private final Random random = new Random(System.nanoTime());
+
+    public ArenaTupleMapTest(List<Tuple> testTuples) throws IOException {
+        super(testTuples);
+        this.memoryTable = new MemoryTable(1, new ArenaTupleMap(CHUNK_SIZE));
+
+        for (Tuple tuple : tuples) {
+            memoryTable.put(tuple);
+        }
+    }
+
+    @After
+    public void closeTable() {
+        memoryTable.close();
+    }
+
+    @Test
+    public void readWriteTest() throws IOException {
+        for (Tuple tuple : tuples) {
+            Tuple read = memoryTable.get(tuple.key());
+            Assert.assertEquals("Records match", tuple, read);
+        }
+    }
+
+    @Test
+    public void allIteratorTest() throws IOException {
+        Iterator<Tuple> tableRecordIterator = memoryTable.iterator();
+        Iterator<Tuple> recordIterator = tuples.iterator();
+
+        while (recordIterator.hasNext()) {
+            Assert.assertEquals("Records match", recordIterator.next(), tableRecordIterator.next());
+        }
+
+        Assert.assertFalse("No extra records", tableRecordIterator.hasNext());
+    }
+
+    @Test
+    public void ascendingRangeIteratorTest() throws IOException {
+        List<Tuple> latestTuples = tupleGenerator.latest(tuples, Long.MAX_VALUE);
+        int medianKeyIndex = random.nextInt(latestTuples.size());
+        Key medianKey = latestTuples.get(medianKeyIndex).key();
+        Iterator<Tuple> tableRecordIterator = memoryTable.ascendingIterator(medianKey, Long.MAX_VALUE);
+        Iterator<Tuple> recordIterator = latestTuples.listIterator(medianKeyIndex);
+
+        while (recordIterator.hasNext()) {
+            Assert.assertEquals("Records match", recordIterator.next(), tableRecordIterator.next());
+        }
+
+        Assert.assertFalse("No extra records", tableRecordIterator.hasNext());
+    }
+
+    @Test
+    public void descendingRangeIteratorTest() throws IOException {
+        List<Tuple> latestTuples = tupleGenerator.latest(tuples, Long.MAX_VALUE);
+        int medianKeyIndex = random.nextInt(latestTuples.size());
+        Key medianKey = latestTuples.get(medianKeyIndex).key();
+
+        Iterator<Tuple> tableRecordIterator = memoryTable.descendingIterator(medianKey, Long.MAX_VALUE);
+        ListIterator<Tuple> recordIterator = latestTuples.listIterator(medianKeyIndex + 1);
+
+        while (recordIterator.hasPrevious()) {
+            Assert.assertEquals("Records match", recordIterator.previous(), tableRecordIterator.next());
+        }
+
+        Assert.assertFalse("No extra records", tableRecordIterator.hasNext());
+    }
+
+    @Test
+    public void iteratorRetainsClosedTableTest() throws IOException {
+        MemoryTable closingTable = new MemoryTable(3, new ArenaTupleMap(CHUNK_SIZE));
+
+        for (Tuple tuple : tuples) {
+            closingTable.put(tuple);
+        }
+
+        CloseableIterator<Tuple> tableRecordIterator = closingTable.ascendingIterator(Long.MAX_VALUE);
+        closingTable.close();
+        Iterator<Tuple> recordIterator = tupleGenerator.latest(tuples, Long.MAX_VALUE).iterator();
+
+        while (recordIterator.hasNext()) {
+            Assert.assertEquals("Records match", recordIterator.next(), tableRecordIterator.next());
+        }
+
+        Assert.assertFalse("No extra records", tableRecordIterator.hasNext());
+        tableRecordIterator.close();
+        Assert.assertFalse("Table is released once the iterator is closed", closingTable.retain());
+    }
+
+    @Test
+    public void concurrentPutTest() throws Exception {
+        final MemoryTable concurrentTable = new MemoryTable(2, new ArenaTupleMap(CHUNK_SIZE));
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final int threadCount = 4;
+        Thread[] writers = new Thread[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+            final int writerIndex = i;
+
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = writerIndex; j < tuples.size(); j += threadCount) {
+                            concurrentTable.put(tuples.get(j));
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+
+            writers[i].start();
+        }
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        Assert.assertNull("No writer failures", failure.get());
+
+        Iterator<Tuple> tableRecordIterator = concurrentTable.iterator();
+
+        for (Tuple tuple : tuples) {
+            Assert.assertEquals("Records match", tuple, tableRecordIterator.next());
+        }
+
+        Assert.assertFalse("No extra records", tableRecordIterator.hasNext());
+        concurrentTable.close();
+    }
+
+    @Test
+    public void randomOrderPutTest() throws IOException {
+        List<Tuple> shuffledTuples = new ArrayList<Tuple>(tuples);
+        Collections.shuffle(shuffledTuples, random);
+        MemoryTable shuffledTable = new MemoryTable(2, new ArenaTupleMap(CHUNK_SIZE));
+
+        for (Tuple tuple : shuffledTuples) {
+            shuffledTable.put(tuple);
+        }
+
+        Iterator<Tuple> tableRecordIterator = shuffledTable.iterator();
+
+        for (Tuple tuple : tuples) {
+            Assert.assertEquals("Records match", tuple, tableRecordIterator.next());
+        }
+
+        Assert.assertFalse("No extra records", tableRecordIterator.hasNext());
+        shuffledTable.close();
+    }
+
+    @Test
+    public void keyRangeTest() throws IOException {
+        Assert.assertEquals("Min key matches", tuples.get(0).key().data(), memoryTable.minKey());
+        Assert.assertEquals("Max key matches", tuples.get(tuples.size() - 1).key().data(), memoryTable.maxKey());
+
+        MemoryTable emptyTable = new MemoryTable(2, new ArenaTupleMap(CHUNK_SIZE));
+        Assert.assertNull("Empty table has no min key", emptyTable.minKey());
+        Assert.assertNull("Empty table has no max key", emptyTable.maxKey());
+        emptyTable.close();
+    }
+
+    @Test
+    public void memorySizeTest() throws IOException {
+        long dataSize = 0;
+
+        for (Tuple tuple : tuples) {
+            dataSize += tuple.size();
+        }
+
+        Assert.assertTrue("Footprint includes node overhead", memoryTable.size() > dataSize);
+
+        MemoryTable emptyTable = new MemoryTable(2, new ArenaTupleMap(CHUNK_SIZE));
+        emptyTable.close();
+        Assert.assertEquals("Arena is released on close", 0, emptyTable.size());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.unit.table.memory;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.KeyComparator;
+import com.jordanwilliams.heftydb.data.RangeTombstone;
+import com.jordanwilliams.heftydb.table.memory.MemoryRangeTombstones;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class MemoryRangeTombstonesTest {
+
+    private final Random random = new Random(System.nanoTime());
+
+    @Test
+    public void coveringSnapshotIdTest() {
+        MemoryRangeTombstones memoryRangeTombstones = new MemoryRangeTombstones(KeyComparator.LEXICOGRAPHIC);
+        List<RangeTombstone> rangeTombstones = new ArrayList<RangeTombstone>();
+
+        for (int i = 0; i < 200; i++) {
+            int start = random.nextInt(1000);
+            RangeTombstone rangeTombstone = new RangeTombstone(key(start), key(start + random.nextInt(100)),
+                    random.nextInt(1000) + 1);
+            memoryRangeTombstones.add(rangeTombstone);
+            rangeTombstones.add(rangeTombstone);
+
+            //Every lookup agrees with a scan over the tombstones added so far
+            for (int j = 0; j < 20; j++) {
+                Key key = new Key(key(random.nextInt(1200)), random.nextInt(1000));
+                long maxSnapshotId = random.nextInt(1100);
+                long expectedSnapshotId = 0;
+
+                for (RangeTombstone added : rangeTombstones) {
+                    if (added.snapshotId() <= maxSnapshotId && added.covers(key)) {
+                        expectedSnapshotId = Math.max(expectedSnapshotId, added.snapshotId());
+                    }
+                }
+
+                Assert.assertEquals("Newest covering tombstone", expectedSnapshotId, memoryRangeTombstones
+                        .coveringSnapshotId(key, maxSnapshotId));
+            }
+        }
+
+        Assert.assertEquals("Tombstones are kept as added", rangeTombstones, memoryRangeTombstones
+                .rangeTombstones());
+    }
+
+    private static ByteBuffer key(int i) {
+        return ByteBuffers.fromString(String.format("%05d", i));
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.unit.valuelog;
+
+import com.jordanwilliams.heftydb.data.Key;
+import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.data.Value;
+import com.jordanwilliams.heftydb.data.ValuePointer;
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.metrics.Metrics;
+import com.jordanwilliams.heftydb.state.Paths;
+import com.jordanwilliams.heftydb.state.Tables;
+import com.jordanwilliams.heftydb.table.Table;
+import com.jordanwilliams.heftydb.table.file.FileTable;
+import com.jordanwilliams.heftydb.table.file.FileTableWriter;
+import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
+import com.jordanwilliams.heftydb.test.helper.TestFileHelper;
+import com.jordanwilliams.heftydb.util.ByteBuffers;
+import com.jordanwilliams.heftydb.util.CloseableIterator;
+import com.jordanwilliams.heftydb.valuelog.ValueLog;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ValueLogTest {
+
+    private static final int THRESHOLD = 64;
+    private static final int SEGMENT_SIZE = 1024;
+
+    private final Config config = new Config.Builder().tableDirectory(TestFileHelper.TEMP_PATH).valueLogThreshold
+            (THRESHOLD).valueLogSegmentSize(SEGMENT_SIZE).valueLogGarbageRatio(0.5).build();
+    private final Paths paths = ConfigGenerator.testPaths();
+    private ValueLog valueLog;
+
+    @Before
+    public void beforeTest() throws IOException {
+        TestFileHelper.createTestDirectory();
+        TestFileHelper.cleanUpTestFiles();
+        valueLog = ValueLog.open(paths, config, new Metrics(config));
+    }
+
+    @After
+    public void afterTest() throws IOException {
+        valueLog.close();
+        TestFileHelper.cleanUpTestFiles();
+    }
+
+    @Test
+    public void appendReadTest() throws IOException {
+        List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+        List<ValuePointer> pointers = new ArrayList<ValuePointer>();
+
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer value = value(i, THRESHOLD + i);
+            values.add(value);
+            pointers.add(valueLog.append(value.duplicate()));
+        }
+
+        valueLog.sync();
+
+        for (int i = 0; i < values.size(); i++) {
+            Assert.assertEquals("Values match", values.get(i), valueLog.read(pointers.get(i)));
+        }
+
+        Assert.assertTrue("Values are spread over segments", paths.valueLogSegmentIds().size() > 1);
+    }
+
+    @Test
+    public void writeTest() throws IOException {
+        Tuple small = new Tuple(new Key(ByteBuffers.fromString("small"), 1), new Value(value(1, THRESHOLD - 1)));
+        Tuple large = new Tuple(new Key(ByteBuffers.fromString("large"), 2), new Value(value(2, THRESHOLD)));
+
+        Assert.assertSame("Small values stay inline", small, valueLog.write(small));
+
+        Tuple separated = valueLog.write(large);
+        Assert.assertTrue("Large values are moved to the log", separated.value().isValuePointer());
+        Assert.assertEquals("Pointer size", ValuePointer.SIZE, separated.value().size());
+
+        valueLog.sync();
+        Assert.assertEquals("Pointer resolves to the value", large, valueLog.resolve(separated));
+    }
+
+    @Test
+    public void collectGarbageTest() throws IOException {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+
+        for (int i = 0; i < 100; i++) {
+            tuples.add(new Tuple(new Key(ByteBuffers.fromString(String.format("%03d", i)), i), new Value(value(i,
+                    THRESHOLD * 2))));
+        }
+
+        FileTableWriter.Task writerTask = new FileTableWriter.Task.Builder().tableId(1).config(config).paths(paths)
+                .source(tuples.iterator()).tupleCount(tuples.size()).valueLog(valueLog).build();
+        writerTask.run();
+
+        FileTable fileTable = FileTable.open(1, paths, ConfigGenerator.testCaches().recordBlockCache(),
+                ConfigGenerator.testCaches().indexBlockCache(), valueLog, new Metrics(config));
+
+        for (Tuple tuple : tuples) {
+            Assert.assertEquals("Values are read through the table", tuple, fileTable.get(tuple.key()));
+        }
+
+        long segmentCount = paths.valueLogSegmentIds().size();
+        Assert.assertEquals("Table references its values", tuples.size() * THRESHOLD * 2, sum(fileTable
+                .valueLogReferences().values()));
+
+        //Live segments are kept while a table references them
+        Tables tables = new Tables(Collections.<Table>singletonList(fileTable));
+        Assert.assertTrue("Fully live segments are not relocated", valueLog.collectGarbage(tables).isEmpty());
+        Assert.assertEquals("Referenced segments are kept", segmentCount, paths.valueLogSegmentIds().size());
+        fileTable.close();
+
+        //Segments pinned by a table writer are kept even if nothing references them yet
+        long pin = valueLog.pin();
+        valueLog.append(value(0, SEGMENT_SIZE));
+        valueLog.append(value(0, SEGMENT_SIZE));
+        valueLog.collectGarbage(new Tables(Collections.<Table>emptyList()));
+        Assert.assertTrue("Pinned segments are kept", Files.exists(paths.valueLogPath(pin)));
+        valueLog.unpin(pin);
+
+        valueLog.collectGarbage(new Tables(Collections.<Table>emptyList()));
+        Assert.assertFalse("Unpinned segments are deleted", Files.exists(paths.valueLogPath(pin)));
+        Assert.assertEquals("Only the active segment is left", 1, paths.valueLogSegmentIds().size());
+    }
+
+    @Test
+    public void relocationTest() throws IOException {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        List<Tuple> garbage = new ArrayList<Tuple>();
+
+        for (int i = 0; i < 20; i++) {
+            Tuple tuple = new Tuple(new Key(ByteBuffers.fromString(String.format("%03d", i)), i), new Value(value(i,
+                    THRESHOLD)));
+            tuples.add(tuple);
+            garbage.add(valueLog.write(tuple));
+            garbage.add(valueLog.write(tuple));
+        }
+
+        //Only one copy of every other value is referenced, so most of each segment is garbage
+        List<Tuple> referenced = new ArrayList<Tuple>();
+
+        for (int i = 0; i < garbage.size(); i += 4) {
+            referenced.add(garbage.get(i));
+        }
+
+        FileTableWriter.Task writerTask = new FileTableWriter.Task.Builder().tableId(1).config(config).paths(paths)
+                .source(referenced.iterator()).tupleCount(referenced.size()).valueLog(valueLog).build();
+        writerTask.run();
+
+        FileTable fileTable = FileTable.open(1, paths, ConfigGenerator.testCaches().recordBlockCache(),
+                ConfigGenerator.testCaches().indexBlockCache(), valueLog, new Metrics(config));
+        Tables tables = new Tables(Collections.<Table>singletonList(fileTable));
+        List<Table> tablesToRewrite = valueLog.collectGarbage(tables);
+        Assert.assertEquals("Table pointing into garbage segments is rewritten", Collections.singletonList
+                (fileTable), tablesToRewrite);
+
+        //Rewriting the table moves its values out of the relocated segments
+        FileTableWriter.Task rewriteTask = new FileTableWriter.Task.Builder().tableId(2).config(config).paths(paths)
+                .source(fileTable.iterator()).tupleCount(fileTable.tupleCount()).valueLog(valueLog).build();
+        rewriteTask.run();
+
+        FileTable rewrittenTable = FileTable.open(2, paths, ConfigGenerator.testCaches().recordBlockCache(),
+                ConfigGenerator.testCaches().indexBlockCache(), valueLog, new Metrics(config));
+
+        for (int i = 0; i < tuples.size(); i += 2) {
+            Assert.assertEquals("Relocated values match", tuples.get(i), rewrittenTable.get(tuples.get(i).key()));
+        }
+
+        List<Long> oldSegments = new ArrayList<Long>(fileTable.valueLogReferences().keySet());
+        fileTable.close();
+        valueLog.collectGarbage(new Tables(Collections.<Table>singletonList(rewrittenTable)));
+
+        for (Long segmentId : oldSegments) {
+            if (!rewrittenTable.valueLogReferences().containsKey(segmentId)) {
+                Assert.assertFalse("Relocated segment is deleted", Files.exists(paths.valueLogPath(segmentId)));
+            }
+        }
+
+        rewrittenTable.close();
+    }
+
+    @Test
+    public void openIteratorKeepsSegmentsTest() throws IOException {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+
+        for (int i = 0; i < 20; i++) {
+            tuples.add(new Tuple(new Key(ByteBuffers.fromString(String.format("%03d", i)), i), new Value(value(i,
+                    THRESHOLD * 2))));
+        }
+
+        FileTableWriter.Task writerTask = new FileTableWriter.Task.Builder().tableId(1).config(config).paths(paths)
+                .source(tuples.iterator()).tupleCount(tuples.size()).valueLog(valueLog).build();
+        writerTask.run();
+
+        FileTable fileTable = FileTable.open(1, paths, ConfigGenerator.testCaches().recordBlockCache(),
+                ConfigGenerator.testCaches().indexBlockCache(), valueLog, new Metrics(config));
+        List<Long> segments = new ArrayList<Long>(fileTable.valueLogReferences().keySet());
+
+        //A scan that was opened before the table was replaced can still resolve its values
+        CloseableIterator<Tuple> tableIterator = fileTable.ascendingIterator(Long.MAX_VALUE);
+        fileTable.close();
+        valueLog.append(value(0, SEGMENT_SIZE));
+        valueLog.append(value(0, SEGMENT_SIZE));
+        valueLog.collectGarbage(new Tables(Collections.<Table>emptyList()));
+
+        for (Tuple tuple : tuples) {
+            Assert.assertEquals("Values are read through the open iterator", tuple, tableIterator.next());
+        }
+
+        tableIterator.close();
+        valueLog.collectGarbage(new Tables(Collections.<Table>emptyList()));
+
+        for (Long segmentId : segments) {
+            Assert.assertFalse("Segments are deleted once the iterator is closed", Files.exists(paths.valueLogPath
+                    (segmentId)));
+        }
+    }
+
+    private static ByteBuffer value(int seed, int size) {
+        ByteBuffer value = ByteBuffer.allocate(size);
+
+        for (int i = 0; i < size; i++) {
+            value.put((byte) (seed + i));
+        }
+
+        value.rewind();
+        return value;
+    }
+
+    private static long sum(Iterable<Long> values) {
+        long sum = 0;
+
+        for (long value : values) {
+            sum += value;
+        }
+
+        return sum;
+    }
+}
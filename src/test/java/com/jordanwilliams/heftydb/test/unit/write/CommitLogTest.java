@@ -17,16 +17,26 @@
 package com.jordanwilliams.heftydb.test.unit.write;
 
 import com.jordanwilliams.heftydb.data.Tuple;
+import com.jordanwilliams.heftydb.metrics.Metrics;
 import com.jordanwilliams.heftydb.state.Paths;
 import com.jordanwilliams.heftydb.test.base.ParameterizedTupleTest;
 import com.jordanwilliams.heftydb.test.generator.ConfigGenerator;
 import com.jordanwilliams.heftydb.write.CommitLog;
 import com.jordanwilliams.heftydb.write.CommitLogWriter;
+import com.jordanwilliams.heftydb.write.LogFilePool;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class CommitLogTest extends ParameterizedTupleTest {
 
@@ -37,7 +47,7 @@ public class CommitLogTest extends ParameterizedTupleTest {
     @Test
     public void readWriteTest() throws IOException {
         Paths paths = ConfigGenerator.testPaths();
-        CommitLogWriter log = CommitLogWriter.open(1, paths);
+        CommitLogWriter log = CommitLogWriter.open(1, paths, new Metrics(ConfigGenerator.testConfig()));
 
         for (Tuple tuple : tuples) {
             log.append(tuple, false);
@@ -59,4 +69,208 @@ public class CommitLogTest extends ParameterizedTupleTest {
         commitLog.close();
     }
 
+    @Test
+    public void unsyncedBytesTest() throws IOException {
+        Paths paths = ConfigGenerator.testPaths();
+        CommitLogWriter log = CommitLogWriter.open(1, paths, new Metrics(ConfigGenerator.testConfig()));
+        Assert.assertEquals("Empty log has no unsynced bytes", 0, log.unsyncedBytes());
+
+        for (Tuple tuple : tuples) {
+            log.append(tuple);
+        }
+
+        Assert.assertTrue("Appended bytes are unsynced", log.unsyncedBytes() > 0);
+        log.sync();
+        Assert.assertEquals("Sync covers every appended byte", 0, log.unsyncedBytes());
+
+        log.append(tuples.get(0));
+        log.close();
+        Assert.assertEquals("Close syncs the log", 0, log.unsyncedBytes());
+    }
+
+    @Test
+    public void logForceTimerTest() throws IOException {
+        Paths paths = ConfigGenerator.testPaths();
+        Metrics metrics = new Metrics(ConfigGenerator.testConfig());
+        CommitLogWriter log = CommitLogWriter.open(1, paths, metrics);
+
+        log.sync(log.append(tuples.get(0)));
+        log.sync(log.append(tuples.get(0)));
+        log.sync();
+        log.close();
+
+        Assert.assertEquals("Only syncs with new records force the log", 2, metrics.timer("write.logForce").getCount());
+    }
+
+    @Test
+    public void groupCommitTest() throws Exception {
+        Paths paths = ConfigGenerator.testPaths();
+        final CommitLogWriter log = CommitLogWriter.open(1, paths, new Metrics(ConfigGenerator.testConfig()));
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final int threadCount = 4;
+        Thread[] writers = new Thread[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+            final int writerIndex = i;
+
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = writerIndex; j < tuples.size(); j += threadCount) {
+                            long record;
+
+                            synchronized (log) {
+                                record = log.append(tuples.get(j));
+                            }
+
+                            log.sync(record);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+
+            writers[i].start();
+        }
+
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        log.close();
+        Assert.assertNull("No writer failures", failure.get());
+
+        CommitLog commitLog = CommitLog.open(1, paths);
+        Set<Tuple> loggedTuples = new HashSet<Tuple>();
+
+        for (Tuple tuple : commitLog) {
+            loggedTuples.add(tuple);
+        }
+
+        commitLog.close();
+
+        Assert.assertEquals("All records logged", new HashSet<Tuple>(tuples), loggedTuples);
+    }
+
+    @Test
+    public void tornBatchTest() throws Exception {
+        Paths paths = ConfigGenerator.testPaths();
+        CommitLogWriter log = CommitLogWriter.open(1, paths, new Metrics(ConfigGenerator.testConfig()));
+        int half = tuples.size() / 2;
+        List<Tuple> firstBatch = tuples.subList(0, half);
+        List<Tuple> secondBatch = tuples.subList(half, tuples.size());
+
+        log.append(firstBatch);
+        log.append(secondBatch);
+        log.close();
+
+        //Simulate a crash part way through writing the second batch
+        try (FileChannel channel = FileChannel.open(paths.logPath(1), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        CommitLog commitLog = CommitLog.open(1, paths);
+        Iterator<Tuple> logIterator = commitLog.iterator();
+
+        for (Tuple tuple : firstBatch) {
+            Assert.assertEquals("Records match", tuple, logIterator.next());
+        }
+
+        Assert.assertFalse("Torn batch is absent", logIterator.hasNext());
+        commitLog.close();
+    }
+
+    @Test
+    public void recycledLogTest() throws Exception {
+        Paths paths = ConfigGenerator.testPaths();
+        Metrics metrics = new Metrics(ConfigGenerator.testConfig());
+        LogFilePool logFilePool = new LogFilePool(paths, 16384);
+
+        CommitLogWriter log = CommitLogWriter.open(1, logFilePool, metrics);
+
+        for (Tuple tuple : tuples) {
+            log.append(tuple, false);
+        }
+
+        log.close();
+        logFilePool.recycle(1);
+
+        //The new log reuses the old file, so the old records are still there after the new ones
+        List<Tuple> newTuples = tuples.subList(0, tuples.size() / 2);
+        log = CommitLogWriter.open(2, logFilePool, metrics);
+
+        for (Tuple tuple : newTuples) {
+            log.append(tuple, false);
+        }
+
+        log.close();
+
+        Assert.assertFalse("Recycled file was reused", Files.exists(paths.recycledLogPath(1)));
+
+        CommitLog commitLog = CommitLog.open(2, paths);
+        Iterator<Tuple> logIterator = commitLog.iterator();
+
+        for (Tuple tuple : newTuples) {
+            Assert.assertEquals("Records match", tuple, logIterator.next());
+        }
+
+        Assert.assertFalse("Stale records are ignored", logIterator.hasNext());
+        commitLog.close();
+    }
+
+    @Test
+    public void corruptRecordTest() throws Exception {
+        Paths paths = ConfigGenerator.testPaths();
+        CommitLogWriter log = CommitLogWriter.open(1, paths, new Metrics(ConfigGenerator.testConfig()));
+        int half = tuples.size() / 2;
+        List<Tuple> firstBatch = tuples.subList(0, half);
+
+        log.append(firstBatch);
+        log.append(tuples.subList(half, tuples.size()));
+        log.close();
+
+        //Flip a bit in the last byte of the second record
+        try (FileChannel channel = FileChannel.open(paths.logPath(1), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer lastByte = ByteBuffer.allocate(1);
+            channel.read(lastByte, channel.size() - 1);
+            lastByte.put(0, (byte) (lastByte.get(0) ^ 1));
+            lastByte.rewind();
+            channel.write(lastByte, channel.size() - 1);
+        }
+
+        CommitLog commitLog = CommitLog.open(1, paths);
+        Iterator<Tuple> logIterator = commitLog.iterator();
+
+        for (Tuple tuple : firstBatch) {
+            Assert.assertEquals("Records match", tuple, logIterator.next());
+        }
+
+        Assert.assertFalse("Corrupt record is rejected", logIterator.hasNext());
+        commitLog.close();
+    }
+
+    @Test
+    public void formatVersionTest() throws Exception {
+        Paths paths = ConfigGenerator.testPaths();
+        CommitLogWriter log = CommitLogWriter.open(1, paths, new Metrics(ConfigGenerator.testConfig()));
+        log.append(tuples);
+        log.close();
+
+        //Rewrite the format version that follows the magic number in the header
+        try (FileChannel channel = FileChannel.open(paths.logPath(1), StandardOpenOption.WRITE)) {
+            ByteBuffer formatVersion = ByteBuffer.allocate(4);
+            formatVersion.putInt(0, 99);
+            channel.write(formatVersion, 8);
+        }
+
+        try {
+            CommitLog.open(1, paths);
+            Assert.fail("A log with another format version is rejected");
+        } catch (IOException e) {
+            //Expected
+        }
+    }
 }
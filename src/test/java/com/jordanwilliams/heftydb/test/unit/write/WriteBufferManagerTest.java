@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jordanwilliams.heftydb.test.unit.write;
+
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.test.helper.TestFileHelper;
+import com.jordanwilliams.heftydb.write.WriteBufferManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WriteBufferManagerTest {
+
+    private final Config config = new Config.Builder().tableDirectory(TestFileHelper.TEMP_PATH).memoryTableSize
+            (4096).writeBufferSize(8192).build();
+    private final WriteBufferManager writeBufferManager = new WriteBufferManager(config);
+
+    @Test
+    public void usageTest() {
+        Assert.assertEquals("Only the active table", 1024, writeBufferManager.usage(1024));
+        writeBufferManager.reserve(4096);
+        Assert.assertEquals("Pending tables count", 5120, writeBufferManager.usage(1024));
+        writeBufferManager.free(4096);
+        Assert.assertEquals("Flushed tables are freed", 1024, writeBufferManager.usage(1024));
+    }
+
+    @Test
+    public void shouldFlushTest() {
+        Assert.assertFalse("Under the budget", writeBufferManager.shouldFlush(4096));
+        Assert.assertTrue("Active table near the budget", writeBufferManager.shouldFlush(7168));
+        writeBufferManager.reserve(4096);
+        Assert.assertTrue("Large active table over the budget", writeBufferManager.shouldFlush(4096));
+        Assert.assertFalse("Small active table over the budget", writeBufferManager.shouldFlush(1024));
+    }
+
+    @Test
+    public void shouldStallTest() {
+        Assert.assertFalse("Nothing to wait for", writeBufferManager.shouldStall(8192));
+        writeBufferManager.reserve(4096);
+        Assert.assertFalse("Under the budget", writeBufferManager.shouldStall(2048));
+        Assert.assertTrue("Over the budget", writeBufferManager.shouldStall(4096));
+        writeBufferManager.free(4096);
+        Assert.assertFalse("Pending flush finished", writeBufferManager.shouldStall(4096));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2014. Jordan Williams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jordanwilliams.heftydb.test.unit.write;
+
+import com.jordanwilliams.heftydb.db.Config;
+import com.jordanwilliams.heftydb.metrics.Metrics;
+import com.jordanwilliams.heftydb.state.Tables;
+import com.jordanwilliams.heftydb.table.Table;
+import com.jordanwilliams.heftydb.test.helper.TestFileHelper;
+import com.jordanwilliams.heftydb.write.WriteRateController;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WriteRateControllerTest {
+
+    private static final long MIN_RATE = 1000;
+    private static final long MAX_RATE = 1000000;
+
+    private final Config config = new Config.Builder().tableDirectory(TestFileHelper.TEMP_PATH).memoryTableSize
+            (1024).minWriteRate(MIN_RATE).maxWriteRate(MAX_RATE).compactionDebtSoftLimit(4096)
+            .compactionDebtHardLimit(16384).build();
+    private final AtomicInteger pendingFlushes = new AtomicInteger();
+    private final WriteRateController controller = new WriteRateController(config, new Tables(Collections
+            .<Table>emptyList()), pendingFlushes, new Metrics(config));
+
+    @Test
+    public void compactionDebtTest() {
+        Assert.assertEquals("No debt without pending work", 0, controller.compactionDebt());
+        pendingFlushes.set(3);
+        Assert.assertEquals("Pending flushes count as debt", 3 * 1024, controller.compactionDebt());
+    }
+
+    @Test
+    public void adjustRateTest() {
+        Assert.assertEquals("Max rate under soft limit", MAX_RATE, controller.adjustRate(0, 500000));
+        Assert.assertEquals("Observed rate past soft limit", 500000, controller.adjustRate(8192, 500000));
+        Assert.assertEquals("Slower while debt grows", 400000, controller.adjustRate(10000, 500000));
+        Assert.assertEquals("Unchanged while debt holds", 400000, controller.adjustRate(10000, 500000));
+        Assert.assertEquals("Faster while debt shrinks", 500000, controller.adjustRate(9000, 500000));
+        Assert.assertEquals("Min rate at hard limit", MIN_RATE, controller.adjustRate(16384, 500000));
+        Assert.assertEquals("Faster from min rate", 1250, controller.adjustRate(8192, 500000));
+        Assert.assertEquals("Max rate once debt clears", MAX_RATE, controller.adjustRate(1024, 500000));
+    }
+}